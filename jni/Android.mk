@@ -2,7 +2,7 @@ LOCAL_PATH := $(call my-dir)
 
 include $(CLEAR_VARS)
 
-LOCAL_MODULE                  := DeflatingDecompressor-v3
+LOCAL_MODULE                  := DeflatingDecompressor-v4
 LOCAL_SRC_FILES               := DeflatingDecompressor/DeflatingDecompressor.cpp
 LOCAL_LDLIBS                  := -lz
 
@@ -19,6 +19,7 @@
 
 #include <jni.h>
 
+#include <pthread.h>
 #include <string.h>
 #include <zlib.h>
 
@@ -27,57 +28,125 @@
 #define								SIZE							10
 
 static z_stream*			ourStreams[SIZE]			= { 0 };
+// guards ourStreams: decompressors are used from several threads;
+// a stream itself is used by the thread that owns its slot only
+static pthread_mutex_t		ourStreamsMutex				= PTHREAD_MUTEX_INITIALIZER;
 
 extern "C"
 jint Java_org_amse_ys_zip_DeflatingDecompressor_startInflating(JNIEnv *env, jobject thiz) {
-	int i;
-	for (i = 0; i < SIZE; ++i) {
+	z_stream *stream = new z_stream;
+	memset(stream, 0, sizeof(z_stream));
+	inflateInit2(stream, -MAX_WBITS);
+
+	pthread_mutex_lock(&ourStreamsMutex);
+	for (int i = 0; i < SIZE; ++i) {
 		if (ourStreams[i] == 0) {
-			ourStreams[i] = new z_stream;
-			memset(ourStreams[i], 0, sizeof(z_stream));
-			inflateInit2(ourStreams[i], -MAX_WBITS);
+			ourStreams[i] = stream;
+			pthread_mutex_unlock(&ourStreamsMutex);
 			return i;
 		}
 	}
+	pthread_mutex_unlock(&ourStreamsMutex);
+
+	inflateEnd(stream);
+	delete stream;
 	return -1;
 }
 
 extern "C"
 void Java_org_amse_ys_zip_DeflatingDecompressor_endInflating(JNIEnv *env, jobject thiz, jint inflatorId) {
 	if (inflatorId >= 0 && inflatorId < SIZE) {
-		inflateEnd(ourStreams[inflatorId]);
-		delete ourStreams[inflatorId];
+		pthread_mutex_lock(&ourStreamsMutex);
+		z_stream *stream = ourStreams[inflatorId];
 		ourStreams[inflatorId] = 0;
+		pthread_mutex_unlock(&ourStreamsMutex);
+		if (stream != 0) {
+			inflateEnd(stream);
+			delete stream;
+		}
 	}
 }
 
-// returns (endFlag << 32) + ((used inLength) << 16) + outLength
 extern "C"
-jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflate(JNIEnv *env, jobject thiz, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out) {
+jint Java_org_amse_ys_zip_DeflatingDecompressor_startInflatingAt(JNIEnv *env, jobject thiz, jint bits, jint value, jbyteArray window) {
+	const jint inflatorId = Java_org_amse_ys_zip_DeflatingDecompressor_startInflating(env, thiz);
+	if (inflatorId == -1) {
+		return -1;
+	}
+	pthread_mutex_lock(&ourStreamsMutex);
+	z_stream *stream = ourStreams[inflatorId];
+	pthread_mutex_unlock(&ourStreamsMutex);
+	if (bits > 0) {
+		inflatePrime(stream, bits, value);
+	}
+	const int windowLength = env->GetArrayLength(window);
+	if (windowLength > 0) {
+		jbyte* windowStart = env->GetByteArrayElements(window, 0);
+		inflateSetDictionary(stream, (Bytef*)windowStart, windowLength);
+		env->ReleaseByteArrayElements(window, windowStart, JNI_ABORT);
+	}
+	return inflatorId;
+}
+
+static jlong doInflate(JNIEnv *env, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out, jint outOffset, jint outLength, int flush) {
 	if (inflatorId < 0 || inflatorId >= SIZE) {
 		return -1;
 	}
+	pthread_mutex_lock(&ourStreamsMutex);
 	z_stream *stream = ourStreams[inflatorId];
+	pthread_mutex_unlock(&ourStreamsMutex);
 	if (stream == 0) {
 		return -2;
 	}
 
-	jbyte* inStart = env->GetByteArrayElements(in, 0);
-	jbyte* outStart = env->GetByteArrayElements(out, 0);
+	// zlib does not call back into JVM, so we can use critical sections
+	// and avoid copying of the arrays
+	jbyte* inStart = (jbyte*)env->GetPrimitiveArrayCritical(in, 0);
+	jbyte* outStart = (jbyte*)env->GetPrimitiveArrayCritical(out, 0);
+	if (inStart == 0 || outStart == 0) {
+		if (outStart != 0) {
+			env->ReleasePrimitiveArrayCritical(out, outStart, JNI_ABORT);
+		}
+		if (inStart != 0) {
+			env->ReleasePrimitiveArrayCritical(in, inStart, JNI_ABORT);
+		}
+		return -3;
+	}
 	stream->next_in = (Bytef*)inStart + inOffset;
 	stream->avail_in = inLength;
-	stream->next_out = (Bytef*)outStart;
-	const int outLength = env->GetArrayLength(out);
+	stream->next_out = (Bytef*)outStart + outOffset;
 	stream->avail_out = outLength;
-	const int code = inflate(stream, Z_SYNC_FLUSH);
-	env->ReleaseByteArrayElements(in, inStart, 0);
-	env->ReleaseByteArrayElements(out, outStart, 0);
+	int code = inflate(stream, flush);
+	if (flush == Z_BLOCK && code == Z_OK && (stream->data_type & 192) == 192) {
+		// stopped after the last block; one more call reaches the stream end
+		code = inflate(stream, flush);
+	}
+	env->ReleasePrimitiveArrayCritical(out, outStart, 0);
+	env->ReleasePrimitiveArrayCritical(in, inStart, JNI_ABORT);
 	if (code == Z_OK || code == Z_STREAM_END) {
-		jlong result = ((inLength - stream->avail_in) << 16) + outLength - stream->avail_out;
+		jlong result = (((jlong)(inLength - stream->avail_in)) << 16) + outLength - stream->avail_out;
 		if (code == Z_STREAM_END) {
 			result |= ((jlong)1) << 32;
+		} else if (flush == Z_BLOCK && (stream->data_type & 128) && !(stream->data_type & 64)) {
+			result |= ((jlong)1) << 33;
+			result |= ((jlong)(stream->data_type & 7)) << 34;
 		}
 		return result;
 	}
 	return -1024 + code;
 }
+
+// returns (endFlag << 32) + ((used inLength) << 16) + (used outLength);
+// inLength and outLength must be less than 65536
+extern "C"
+jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflate(JNIEnv *env, jobject thiz, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out, jint outOffset, jint outLength) {
+	return doInflate(env, inflatorId, in, inOffset, inLength, out, outOffset, outLength, Z_SYNC_FLUSH);
+}
+
+// stops at the end of each deflate block; in addition to inflate() result returns
+// (unusedBits << 34) + (blockEndFlag << 33), unusedBits is the number of
+// unused bits in the last used input byte
+extern "C"
+jlong Java_org_amse_ys_zip_DeflatingDecompressor_inflateBlock(JNIEnv *env, jobject thiz, jint inflatorId, jbyteArray in, jint inOffset, jint inLength, jbyteArray out, jint outOffset, jint outLength) {
+	return doInflate(env, inflatorId, in, inOffset, inLength, out, outOffset, outLength, Z_BLOCK);
+}
@@ -1,8 +1,9 @@
 package org.amse.ys.zip;
 
-import java.util.*;
 import java.io.*;
 
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
+
 public abstract class Decompressor {
     public Decompressor(MyBufferedInputStream is, LocalFileHeader header) {
     }
@@ -13,37 +14,96 @@ public abstract class Decompressor {
     public abstract int read(byte b[], int off, int len) throws IOException;
     public abstract int read() throws IOException;
 
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			final int ready = read(null, 0, (int)Math.min(n - skipped, 8192));
+			if (ready <= 0) {
+				break;
+			}
+			skipped += ready;
+		}
+		return skipped;
+	}
+
     protected Decompressor() {
     }
 
-    private static Queue<DeflatingDecompressor> ourDeflators = new LinkedList<DeflatingDecompressor>();
+    // sizes are approximate: buffers plus the window
+    private static final ZLBufferPool.ObjectPool<DeflatingDecompressor> ourDeflators =
+        new ZLBufferPool.ObjectPool<DeflatingDecompressor>(4, 96 * 1024);
+    private static final ZLBufferPool.ObjectPool<InflaterDecompressor> ourInflaters =
+        new ZLBufferPool.ObjectPool<InflaterDecompressor>(4, 80 * 1024);
+
+    private static volatile boolean ourNativeInflaterIsEnabled = true;
+
+	/**
+	 * Deflated entries are read by the native library if it is loaded and enabled,
+	 * by java.util.zip.Inflater otherwise; inflate checkpoints (see InflateIndex)
+	 * are supported by the native library only.
+	 */
+	public static void setNativeInflaterEnabled(boolean enabled) {
+		ourNativeInflaterIsEnabled = enabled;
+	}
+
+	public static boolean usesNativeInflater() {
+		return ourNativeInflaterIsEnabled && DeflatingDecompressor.isLibraryLoaded();
+	}
 
     static void storeDecompressor(Decompressor decompressor) {
         if (decompressor instanceof DeflatingDecompressor) {
-            synchronized (ourDeflators) {
-                ourDeflators.add((DeflatingDecompressor)decompressor);
+            final DeflatingDecompressor deflator = (DeflatingDecompressor)decompressor;
+            // frees the native inflator even if the decompressor is kept
+            deflator.end();
+            ourDeflators.release(deflator);
+        } else if (decompressor instanceof InflaterDecompressor) {
+            final InflaterDecompressor inflater = (InflaterDecompressor)decompressor;
+            if (!ourInflaters.release(inflater)) {
+                inflater.end();
             }
         }
     }
 
-    static Decompressor init(MyBufferedInputStream is, LocalFileHeader header) throws IOException {
+    static Decompressor init(ZipFile zipFile, MyBufferedInputStream is, LocalFileHeader header) throws IOException {
         switch (header.CompressionMethod) {
         case 0:
             return new NoCompressionDecompressor(is, header);
         case 8:
-            synchronized (ourDeflators) {
-                if (!ourDeflators.isEmpty()) {
-                    DeflatingDecompressor decompressor = ourDeflators.poll();
-                    decompressor.reset(is, header);
+            if (usesNativeInflater()) {
+                final Decompressor decompressor = createNativeDecompressor(zipFile, is, header);
+                if (decompressor != null) {
                     return decompressor;
                 }
             }
-            return new DeflatingDecompressor(is, header);
+            final InflaterDecompressor decompressor = ourInflaters.get();
+            if (decompressor != null) {
+                decompressor.reset(is, header);
+                return decompressor;
+            }
+            return new InflaterDecompressor(is, header);
         default:
             throw new ZipException("Unsupported method of compression");
         }
     }
     
+    // returns null if all native inflators are in use; that happens
+    // with nested archives, every level keeps its own streams open
+    private static Decompressor createNativeDecompressor(ZipFile zipFile, MyBufferedInputStream is, LocalFileHeader header) throws IOException {
+        final DeflatingDecompressor decompressor = ourDeflators.get();
+        try {
+            if (decompressor == null) {
+                return new DeflatingDecompressor(zipFile, is, header);
+            }
+            decompressor.reset(zipFile, is, header);
+            return decompressor;
+        } catch (ZipException e) {
+            if (decompressor != null) {
+                storeDecompressor(decompressor);
+            }
+            return null;
+        }
+    }
+
     public int available() throws IOException {
         return -1;
     }
@@ -3,17 +3,38 @@ package org.amse.ys.zip;
 import java.io.*;
 
 class DeflatingDecompressor extends Decompressor {
+	private static final boolean ourLibraryIsLoaded;
 	static {
-		System.loadLibrary("DeflatingDecompressor-v3");
+		boolean loaded;
+		try {
+			System.loadLibrary("DeflatingDecompressor-v4");
+			loaded = true;
+		} catch (UnsatisfiedLinkError e) {
+			loaded = false;
+		}
+		ourLibraryIsLoaded = loaded;
+	}
+
+	static boolean isLibraryLoaded() {
+		return ourLibraryIsLoaded;
 	}
 
 	// common variables
+	private ZipFile myZipFile;
+	private LocalFileHeader myHeader;
 	private MyBufferedInputStream myStream;
+	private int myCompressedSize;
 	private int myCompressedAvailable;
 	private int myAvailable;
+	// compressed bytes read from myStream, uncompressed bytes put into myOutBuffer
+	private int myInPosition;
+	private int myOutPosition;
 
-	private static final int IN_BUFFER_SIZE = 2048;
+	// both sizes must be less than 65536, see inflate()
+	private static final int IN_BUFFER_SIZE = 32768;
 	private static final int OUT_BUFFER_SIZE = 32768;
+	// reads of this size or more are inflated directly into the caller's buffer
+	private static final int DIRECT_READ_SIZE = 4096;
 
 	private final byte[] myInBuffer = new byte[IN_BUFFER_SIZE];
 	private int myInBufferOffset;
@@ -24,38 +45,150 @@ class DeflatingDecompressor extends Decompressor {
 
 	private volatile int myInflatorId = -1;
 
-	public DeflatingDecompressor(MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
+	// checkpoints for skip(), if the entry is indexed already
+	private InflateIndex myIndex;
+	// index being built while the entry is read from the start
+	private InflateIndex myNewIndex;
+	// last WINDOW_SIZE bytes of output, used for myNewIndex only
+	private byte[] myWindow;
+
+	public DeflatingDecompressor(ZipFile zipFile, MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
 		super();
-		reset(inputStream, header);
+		reset(zipFile, inputStream, header);
 	}
 
-	void reset(MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
+	void reset(ZipFile zipFile, MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
 		if (myInflatorId != -1) {
 			endInflating(myInflatorId);
 			myInflatorId = -1;
 		}
 
+		myZipFile = zipFile;
+		myHeader = header;
 		myStream = inputStream;
-		myCompressedAvailable = header.CompressedSize;
-		if (myCompressedAvailable <= 0) {
-			myCompressedAvailable = Integer.MAX_VALUE;
+		myCompressedSize = header.CompressedSize;
+		if (myCompressedSize <= 0) {
+			myCompressedSize = Integer.MAX_VALUE;
 		}
+		myCompressedAvailable = myCompressedSize;
 		myAvailable = header.UncompressedSize;
 		if (myAvailable <= 0) {
 			myAvailable = Integer.MAX_VALUE;
 		}
+		myInPosition = 0;
+		myOutPosition = 0;
 
 		myInBufferOffset = IN_BUFFER_SIZE;
 		myInBufferLength = 0;
 		myOutBufferOffset = OUT_BUFFER_SIZE;
 		myOutBufferLength = 0;
 
+		myIndex = null;
+		myNewIndex = null;
+		if (InflateIndex.isWorthIndexing(header)) {
+			myIndex = zipFile.getInflateIndex(header);
+			if (myIndex == null) {
+				myNewIndex = new InflateIndex();
+				if (myWindow == null) {
+					myWindow = new byte[InflateIndex.WINDOW_SIZE];
+				}
+			}
+		}
+
 		myInflatorId = startInflating();
 		if (myInflatorId == -1) {
 			throw new ZipException("cannot start inflating");
 		}
 	}
 
+	// stops inflating, the decompressor can be used after reset() only
+	void end() {
+		if (myInflatorId != -1) {
+			endInflating(myInflatorId);
+			myInflatorId = -1;
+		}
+		myAvailable = 0;
+		myZipFile = null;
+		myHeader = null;
+		myStream = null;
+		myIndex = null;
+		myNewIndex = null;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0 || myAvailable <= 0) {
+			return 0;
+		}
+		if (n > myAvailable) {
+			n = myAvailable;
+		}
+		final InflateIndex index = myIndex;
+		if (index != null) {
+			final int position = myOutPosition - myOutBufferLength;
+			final InflateIndex.Checkpoint checkpoint = index.checkpointBefore(position + (int)n);
+			// jump if it saves more than a buffer of inflating
+			if (checkpoint != null && checkpoint.Out > myOutPosition + OUT_BUFFER_SIZE) {
+				final int skipped = checkpoint.Out - position;
+				jumpTo(checkpoint);
+				myAvailable -= skipped;
+				return skipped + super.skip(n - skipped);
+			}
+		}
+		return super.skip(n);
+	}
+
+	private void jumpTo(InflateIndex.Checkpoint checkpoint) throws IOException {
+		if (myInflatorId != -1) {
+			endInflating(myInflatorId);
+			myInflatorId = -1;
+		}
+		int value = 0;
+		if (checkpoint.Bits > 0) {
+			myStream.setPosition(myHeader.DataOffset + checkpoint.In - 1);
+			value = myStream.read() >> (8 - checkpoint.Bits);
+		} else {
+			myStream.setPosition(myHeader.DataOffset + checkpoint.In);
+		}
+		myInPosition = checkpoint.In;
+		myOutPosition = checkpoint.Out;
+		myCompressedAvailable = myCompressedSize - checkpoint.In;
+		myInBufferOffset = IN_BUFFER_SIZE;
+		myInBufferLength = 0;
+		myOutBufferOffset = OUT_BUFFER_SIZE;
+		myOutBufferLength = 0;
+
+		myInflatorId = startInflatingAt(checkpoint.Bits, value, checkpoint.Window);
+		if (myInflatorId == -1) {
+			throw new ZipException("cannot start inflating");
+		}
+	}
+
+	private void addToWindow(byte[] data, int offset, int length) {
+		final int size = InflateIndex.WINDOW_SIZE;
+		int windowOffset = (myOutPosition - length) % size;
+		for (final int end = offset + length; offset < end; ) {
+			final int chunk = Math.min(end - offset, size - windowOffset);
+			System.arraycopy(data, offset, myWindow, windowOffset, chunk);
+			offset += chunk;
+			windowOffset = (windowOffset + chunk) % size;
+		}
+	}
+
+	private byte[] windowCopy() {
+		final int size = InflateIndex.WINDOW_SIZE;
+		if (myOutPosition < size) {
+			final byte[] copy = new byte[myOutPosition];
+			System.arraycopy(myWindow, 0, copy, 0, myOutPosition);
+			return copy;
+		}
+		final byte[] copy = new byte[size];
+		final int start = myOutPosition % size;
+		System.arraycopy(myWindow, start, copy, 0, size - start);
+		System.arraycopy(myWindow, 0, copy, size - start, start);
+		return copy;
+	}
+
 	@Override
 	public int available() {
 		return myAvailable;
@@ -71,6 +204,16 @@ class DeflatingDecompressor extends Decompressor {
 		}
 		for (int toFill = len; toFill > 0; ) {
 			if (myOutBufferLength == 0) {
+				if (b != null && toFill >= DIRECT_READ_SIZE) {
+					final int ready = inflate(b, off, Math.min(toFill, OUT_BUFFER_SIZE));
+					if (ready == 0) {
+						len -= toFill;
+						break;
+					}
+					off += ready;
+					toFill -= ready;
+					continue;
+				}
 				fillOutBuffer();
 			}
 			if (myOutBufferLength == 0) {
@@ -91,9 +234,20 @@ class DeflatingDecompressor extends Decompressor {
 		} else {
 			myAvailable = 0;
 		}
+		if (myAvailable == 0) {
+			completeNewIndex();
+		}
 		return len;
 	}
 
+	// the last output might be returned before the end of deflate stream
+	// is reached; the index is stored on the stream end only
+	private void completeNewIndex() throws IOException {
+		if (myNewIndex != null && myOutBufferLength == 0) {
+			fillOutBuffer();
+		}
+	}
+
 	@Override
 	public int read() throws IOException {
 		if (myAvailable <= 0) {
@@ -108,15 +262,27 @@ class DeflatingDecompressor extends Decompressor {
 		}
 		--myAvailable;
 		--myOutBufferLength;
-		return myOutBuffer[myOutBufferOffset++];
+		final byte b = myOutBuffer[myOutBufferOffset++];
+		if (myAvailable == 0) {
+			completeNewIndex();
+		}
+		return b;
 	}
 
 	private void fillOutBuffer() throws IOException {
+		myOutBufferOffset = 0;
+		myOutBufferLength = inflate(myOutBuffer, 0, OUT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Inflates at most length bytes into out; returns 0 at the end of stream
+	 */
+	private int inflate(byte[] out, int offset, int length) throws IOException {
 		if (myInflatorId == -1) {
-			return;
+			return 0;
 		}
 
-		while (myOutBufferLength == 0) {
+		while (true) {
 			if (myInBufferLength == 0) {
 				myInBufferOffset = 0;
 				final int toRead = (myCompressedAvailable < IN_BUFFER_SIZE) ? myCompressedAvailable : IN_BUFFER_SIZE;
@@ -126,17 +292,23 @@ class DeflatingDecompressor extends Decompressor {
 				} else {
 					myCompressedAvailable -= toRead;
 				}
+				if (myInBufferLength > 0) {
+					myInPosition += myInBufferLength;
+				}
 			}
 			if (myInBufferLength <= 0) {
-				break;
+				return 0;
 			}
-			final long result = inflate(myInflatorId, myInBuffer, myInBufferOffset, myInBufferLength, myOutBuffer);
+			final InflateIndex newIndex = myNewIndex;
+			final long result = newIndex != null
+				? inflateBlock(myInflatorId, myInBuffer, myInBufferOffset, myInBufferLength, out, offset, length)
+				: inflate(myInflatorId, myInBuffer, myInBufferOffset, myInBufferLength, out, offset, length);
 			if (result <= 0) {
 				final StringBuffer extraInfo = new StringBuffer()
 					.append(myStream.offset()).append(":")
 					.append(myInBufferOffset).append(":")
 					.append(myInBufferLength).append(":")
-					.append(myOutBuffer.length).append(":");
+					.append(length).append(":");
 				for (int i = 0; i < Math.min(10, myInBufferLength); ++i) {
 					extraInfo.append(myInBuffer[myInBufferOffset + i]).append(",");
 				}
@@ -146,21 +318,45 @@ class DeflatingDecompressor extends Decompressor {
 			if (in > myInBufferLength) {
 				throw new ZipException("Invalid inflating result, code = " + result + "; buffer length = " + myInBufferLength);
 			}
-			final int out = (int)result & 0xFFFF;
+			final int produced = (int)result & 0xFFFF;
 			myInBufferOffset += in;
 			myInBufferLength -= in;
-			myOutBufferOffset = 0;
-			myOutBufferLength = out;
+			myOutPosition += produced;
+			if (newIndex != null) {
+				addToWindow(out, offset, produced);
+				if ((result & (1L << 33)) != 0 &&
+					myOutPosition - newIndex.lastOut() >= InflateIndex.SPAN) {
+					newIndex.add(new InflateIndex.Checkpoint(
+						myInPosition - myInBufferLength,
+						(int)(result >> 34) & 7,
+						myOutPosition,
+						windowCopy()
+					));
+				}
+			}
 			if ((result & (1L << 32)) != 0) {
 				endInflating(myInflatorId);
 				myInflatorId = -1;
 				myStream.backSkip(myInBufferLength);
-				break;
+				if (newIndex != null) {
+					myNewIndex = null;
+					if (!newIndex.isEmpty()) {
+						newIndex.CompressedSize = myInPosition - myInBufferLength;
+						newIndex.UncompressedSize = myOutPosition;
+						myZipFile.storeInflateIndex(myHeader, newIndex);
+					}
+				}
+				return produced;
+			}
+			if (produced > 0) {
+				return produced;
 			}
 		}
 	}
 
 	private native int startInflating();
+	private native int startInflatingAt(int bits, int value, byte[] window);
 	private native void endInflating(int inflatorId);
-	private native long inflate(int inflatorId, byte[] in, int inOffset, int inLength, byte[] out);
+	private native long inflate(int inflatorId, byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength);
+	private native long inflateBlock(int inflatorId, byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength);
 }
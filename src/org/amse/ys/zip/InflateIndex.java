@@ -0,0 +1,118 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Random access index of a deflated entry (see zran.c in zlib examples):
+ * every SPAN bytes of output, at a deflate block boundary, we remember
+ * input and output offsets and the last 32K of output, so inflating
+ * can be restarted from the checkpoint instead of the entry start.
+ */
+final class InflateIndex {
+	static final int SPAN = 256 * 1024;
+	static final int WINDOW_SIZE = 32768;
+
+	private static final int VERSION = 1;
+
+	static final class Checkpoint {
+		// compressed offset (relative to entry data start) of the first
+		// byte that is not used completely
+		final int In;
+		// number of unused bits in the byte at In - 1
+		final int Bits;
+		// uncompressed offset
+		final int Out;
+		final byte[] Window;
+
+		Checkpoint(int in, int bits, int out, byte[] window) {
+			In = in;
+			Bits = bits;
+			Out = out;
+			Window = window;
+		}
+	}
+
+	static boolean isWorthIndexing(LocalFileHeader header) {
+		return
+			header.CompressionMethod == 8 &&
+			(header.UncompressedSize <= 0 || header.UncompressedSize > 2 * SPAN);
+	}
+
+	private final ArrayList<Checkpoint> myCheckpoints = new ArrayList<Checkpoint>();
+	int CompressedSize;
+	int UncompressedSize;
+
+	boolean isEmpty() {
+		return myCheckpoints.isEmpty();
+	}
+
+	int lastOut() {
+		return myCheckpoints.isEmpty() ? 0 : myCheckpoints.get(myCheckpoints.size() - 1).Out;
+	}
+
+	void add(Checkpoint checkpoint) {
+		myCheckpoints.add(checkpoint);
+	}
+
+	/**
+	 * Returns the last checkpoint with output offset <= offset, or null
+	 */
+	Checkpoint checkpointBefore(int offset) {
+		int low = 0;
+		int high = myCheckpoints.size() - 1;
+		Checkpoint result = null;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final Checkpoint c = myCheckpoints.get(middle);
+			if (c.Out <= offset) {
+				result = c;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	void write(DataOutputStream stream, String key) throws IOException {
+		stream.writeInt(VERSION);
+		stream.writeUTF(key);
+		stream.writeInt(CompressedSize);
+		stream.writeInt(UncompressedSize);
+		stream.writeInt(myCheckpoints.size());
+		for (Checkpoint c : myCheckpoints) {
+			stream.writeInt(c.In);
+			stream.writeByte(c.Bits);
+			stream.writeInt(c.Out);
+			stream.writeInt(c.Window.length);
+			stream.write(c.Window);
+		}
+	}
+
+	/**
+	 * Returns null if the stream contains an index of another entry
+	 */
+	static InflateIndex read(DataInputStream stream, String key) throws IOException {
+		if (stream.readInt() != VERSION || !key.equals(stream.readUTF())) {
+			return null;
+		}
+		final InflateIndex index = new InflateIndex();
+		index.CompressedSize = stream.readInt();
+		index.UncompressedSize = stream.readInt();
+		final int count = stream.readInt();
+		for (int i = 0; i < count; ++i) {
+			final int in = stream.readInt();
+			final int bits = stream.readByte();
+			final int out = stream.readInt();
+			final int windowLength = stream.readInt();
+			if (windowLength < 0 || windowLength > WINDOW_SIZE) {
+				throw new ZipException("Invalid inflate index window length " + windowLength);
+			}
+			final byte[] window = new byte[windowLength];
+			stream.readFully(window);
+			index.add(new Checkpoint(in, bits, out, window));
+		}
+		return index;
+	}
+}
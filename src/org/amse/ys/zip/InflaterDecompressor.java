@@ -0,0 +1,138 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate decompressor based on java.util.zip.Inflater; used when the native
+ * library is not available or disabled by Decompressor.setNativeInflaterEnabled().
+ * Inflates directly into the caller's buffer, no output buffer is used.
+ */
+final class InflaterDecompressor extends Decompressor {
+	private static final int IN_BUFFER_SIZE = 32768;
+
+	private final Inflater myInflater = new Inflater(true);
+	private final byte[] myInBuffer = new byte[IN_BUFFER_SIZE];
+	private byte[] mySkipBuffer;
+	private final byte[] myByte = new byte[1];
+
+	private MyBufferedInputStream myStream;
+	private int myCompressedAvailable;
+	private int myAvailable;
+	private boolean myIsFinished;
+	private boolean myDummyByteIsAdded;
+
+	InflaterDecompressor(MyBufferedInputStream inputStream, LocalFileHeader header) {
+		reset(inputStream, header);
+	}
+
+	void reset(MyBufferedInputStream inputStream, LocalFileHeader header) {
+		myInflater.reset();
+		myStream = inputStream;
+		myCompressedAvailable = header.CompressedSize;
+		if (myCompressedAvailable <= 0) {
+			myCompressedAvailable = Integer.MAX_VALUE;
+		}
+		myAvailable = header.UncompressedSize;
+		if (myAvailable <= 0) {
+			myAvailable = Integer.MAX_VALUE;
+		}
+		myIsFinished = false;
+		myDummyByteIsAdded = false;
+	}
+
+	// releases the native inflater; the decompressor cannot be used any more
+	void end() {
+		myInflater.end();
+		myStream = null;
+		myAvailable = 0;
+	}
+
+	@Override
+	public int available() {
+		return myAvailable;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (myAvailable <= 0) {
+			return -1;
+		}
+		if (len > myAvailable) {
+			len = myAvailable;
+		}
+		if (b == null && mySkipBuffer == null) {
+			mySkipBuffer = new byte[IN_BUFFER_SIZE];
+		}
+		int total = 0;
+		while (total < len) {
+			final int ready = b != null
+				? inflate(b, off + total, len - total)
+				: inflate(mySkipBuffer, 0, Math.min(len - total, IN_BUFFER_SIZE));
+			if (ready == 0) {
+				break;
+			}
+			total += ready;
+		}
+		if (total > 0) {
+			myAvailable -= total;
+			return total;
+		} else {
+			myAvailable = 0;
+			return -1;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(myByte, 0, 1) == 1 ? myByte[0] & 0xFF : -1;
+	}
+
+	/**
+	 * Returns 0 at the end of stream
+	 */
+	private int inflate(byte[] out, int offset, int length) throws IOException {
+		if (myIsFinished) {
+			return 0;
+		}
+		try {
+			while (true) {
+				final int ready = myInflater.inflate(out, offset, length);
+				if (ready > 0) {
+					return ready;
+				}
+				if (myInflater.finished() || myInflater.needsDictionary()) {
+					finish();
+					return 0;
+				}
+				if (myInflater.needsInput()) {
+					final int toRead = (myCompressedAvailable < IN_BUFFER_SIZE) ? myCompressedAvailable : IN_BUFFER_SIZE;
+					final int count = toRead > 0 ? myStream.read(myInBuffer, 0, toRead) : -1;
+					if (count > 0) {
+						myCompressedAvailable -= count;
+						myInflater.setInput(myInBuffer, 0, count);
+					} else if (!myDummyByteIsAdded) {
+						// "nowrap" inflater might need an extra byte after the data
+						myDummyByteIsAdded = true;
+						myInBuffer[0] = 0;
+						myInflater.setInput(myInBuffer, 0, 1);
+					} else {
+						finish();
+						return 0;
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Cannot inflate zip-compressed block: " + e.getMessage());
+		}
+	}
+
+	private void finish() throws IOException {
+		myIsFinished = true;
+		if (!myDummyByteIsAdded) {
+			// returns read-ahead bytes (e.g. a descriptor or next header) to the stream
+			myStream.backSkip(myInflater.getRemaining());
+		}
+	}
+}
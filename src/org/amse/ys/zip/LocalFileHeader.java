@@ -6,6 +6,7 @@ package org.amse.ys.zip;
  */
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 
 public class LocalFileHeader {
     static final int FILE_HEADER_SIGNATURE = 0x04034b50;
@@ -29,6 +30,10 @@ public class LocalFileHeader {
 	public String FileName;
 	int DataOffset;
 
+	// checkpoints for random access, see ZipFile.getInflateIndex()
+	SoftReference<InflateIndex> Index;
+	boolean IndexIsMissing;
+
     LocalFileHeader() {
     }
 
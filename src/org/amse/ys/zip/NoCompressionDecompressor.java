@@ -38,6 +38,17 @@ public class NoCompressionDecompressor extends Decompressor {
         }
     }
     
+    @Override
+	public long skip(long n) throws IOException {
+		final long toSkip = Math.min(n, myHeader.CompressedSize - myCurrentPosition);
+		if (toSkip <= 0) {
+			return 0;
+		}
+		final long skipped = myStream.skip(toSkip);
+		myCurrentPosition += skipped;
+		return skipped;
+	}
+
     @Override
 	public int available() throws IOException {
         return (myHeader.UncompressedSize - myCurrentPosition);
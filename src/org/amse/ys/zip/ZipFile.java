@@ -1,6 +1,7 @@
 package org.amse.ys.zip;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.util.*;
 
 public final class ZipFile {
@@ -20,7 +21,19 @@ public final class ZipFile {
 		}
 	}
 
+	private static volatile File ourIndexDirectory;
+
+	/**
+	 * Sets directory for persistent inflate indices of large entries;
+	 * if not set, indices are kept in memory only
+	 */
+	public static void setIndexDirectory(String path) {
+		ourIndexDirectory = path != null ? new File(path) : null;
+	}
+
 	private final InputStreamHolder myStreamHolder;
+	// identifies the archive in persistent inflate indices; might be null
+	private final String myId;
 	private final LinkedHashMap<String,LocalFileHeader> myFileHeaders = new LinkedHashMap<String,LocalFileHeader>() {
 		private static final long serialVersionUID = -4412796553514902113L;
 
@@ -35,22 +48,39 @@ public final class ZipFile {
 		}
 	};
 
+	// guards myFileHeaders, myAllFilesAreRead and myHeadersEnd;
+	// headers are scanned sequentially, so the whole scan runs under it
+	private final Object myHeadersLock = new Object();
 	private boolean myAllFilesAreRead;
+	// offset of the first local header that is not read yet;
+	// header lookups continue from here instead of the archive start
+	private int myHeadersEnd;
 
 	public ZipFile(String filePath) {
 		this(new FileInputStreamHolder(filePath));
 	}
 
 	public ZipFile(InputStreamHolder streamHolder) {
+		this(streamHolder, null);
+	}
+
+	/**
+	 * id should change if the archive content changes, e.g.
+	 * path + size + modification time
+	 */
+	public ZipFile(InputStreamHolder streamHolder, String id) {
 		myStreamHolder = streamHolder;
+		myId = id;
 	}
 
 	public Collection<LocalFileHeader> headers() {
-		try {
-			readAllHeaders();
-		} catch (IOException e) {
+		synchronized (myHeadersLock) {
+			try {
+				readAllHeaders();
+			} catch (IOException e) {
+			}
+			return new ArrayList<LocalFileHeader>(myFileHeaders.values());
 		}
-		return myFileHeaders.values();
 	}
 
 	private boolean readFileHeader(MyBufferedInputStream baseStream, String fileToFind) throws IOException {
@@ -63,6 +93,9 @@ public final class ZipFile {
 		if (header.FileName != null) {
 			myFileHeaders.put(header.FileName, header);
 			if (header.FileName.equalsIgnoreCase(fileToFind)) {
+				if ((header.Flags & 0x08) == 0) {
+					myHeadersEnd = header.DataOffset + header.CompressedSize;
+				}
 				return true;
 			}
 		}
@@ -71,6 +104,7 @@ public final class ZipFile {
 		} else {
 			findAndReadDescriptor(baseStream, header);
 		}
+		myHeadersEnd = baseStream.offset();
 		return false;
 	}
 
@@ -81,8 +115,7 @@ public final class ZipFile {
 		myAllFilesAreRead = true;
 
 		MyBufferedInputStream baseStream = getBaseStream();
-		baseStream.setPosition(0);
-		myFileHeaders.clear();
+		baseStream.setPosition(myHeadersEnd);
 
 		try {
 			while (baseStream.available() > 0) {
@@ -97,7 +130,13 @@ public final class ZipFile {
 	 * Finds descriptor of the last header and installs sizes of files
 	 */
 	private void findAndReadDescriptor(MyBufferedInputStream baseStream, LocalFileHeader header) throws IOException {
-		final Decompressor decompressor = Decompressor.init(baseStream, header);
+		final InflateIndex index = getInflateIndex(header);
+		if (index != null) {
+			header.UncompressedSize = index.UncompressedSize;
+			baseStream.skip(index.CompressedSize);
+			return;
+		}
+		final Decompressor decompressor = Decompressor.init(this, baseStream, header);
 		int uncompressedSize = 0;
 		while (true) {
 			int blockSize = decompressor.read(null, 0, 2048);
@@ -110,10 +149,91 @@ public final class ZipFile {
 		Decompressor.storeDecompressor(decompressor);
 	}
 
+	private String indexKey(LocalFileHeader header) {
+		return myId + "\n" + header.FileName + "\n" + header.DataOffset;
+	}
+
+	private File indexFile(String key) {
+		final File directory = ourIndexDirectory;
+		return myId != null && directory != null
+			? new File(directory, Integer.toHexString(key.hashCode()) + ".zi") : null;
+	}
+
+	InflateIndex getInflateIndex(LocalFileHeader header) {
+		synchronized (header) {
+			InflateIndex index = header.Index != null ? header.Index.get() : null;
+			if (index != null || header.IndexIsMissing) {
+				return index;
+			}
+			final String key = indexKey(header);
+			final File file = indexFile(key);
+			if (file != null && file.exists()) {
+				try {
+					final DataInputStream stream = new DataInputStream(
+						new BufferedInputStream(new FileInputStream(file))
+					);
+					try {
+						index = InflateIndex.read(stream, key);
+					} finally {
+						stream.close();
+					}
+				} catch (IOException e) {
+					index = null;
+				}
+			}
+			if (index != null) {
+				header.Index = new SoftReference<InflateIndex>(index);
+			} else {
+				header.IndexIsMissing = true;
+			}
+			return index;
+		}
+	}
+
+	void storeInflateIndex(LocalFileHeader header, InflateIndex index) {
+		synchronized (header) {
+			header.Index = new SoftReference<InflateIndex>(index);
+			header.IndexIsMissing = false;
+		}
+		final String key = indexKey(header);
+		final File file = indexFile(key);
+		if (file == null) {
+			return;
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp))
+			);
+			try {
+				index.write(stream, key);
+			} finally {
+				stream.close();
+			}
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+		}
+	}
+
+	// every stored stream keeps a file open
+	private static final int MAX_STORED_STREAMS = 2;
 	private final Queue<MyBufferedInputStream> myStoredStreams = new LinkedList<MyBufferedInputStream>();
 
-	synchronized void storeBaseStream(MyBufferedInputStream baseStream) {
-		myStoredStreams.add(baseStream);
+	void storeBaseStream(MyBufferedInputStream baseStream) {
+		synchronized (this) {
+			if (myStoredStreams.size() < MAX_STORED_STREAMS) {
+				myStoredStreams.add(baseStream);
+				return;
+			}
+		}
+		try {
+			baseStream.close();
+		} catch (IOException e) {
+		}
 	}
 
 	synchronized MyBufferedInputStream getBaseStream() throws IOException {
@@ -142,28 +262,30 @@ public final class ZipFile {
 	}
 
 	public LocalFileHeader getHeader(String entryName) throws IOException {
-		if (!myFileHeaders.isEmpty()) {
-			LocalFileHeader header = myFileHeaders.get(entryName);
-			if (header != null) {
-				return header;
+		synchronized (myHeadersLock) {
+			if (!myFileHeaders.isEmpty()) {
+				LocalFileHeader header = myFileHeaders.get(entryName);
+				if (header != null) {
+					return header;
+				}
+				if (myAllFilesAreRead) {
+					throw new ZipException("Entry " + entryName + " is not found");
+				}
 			}
-			if (myAllFilesAreRead) {
-				throw new ZipException("Entry " + entryName + " is not found");
+			// ready to read file header
+			MyBufferedInputStream baseStream = getBaseStream();
+			baseStream.setPosition(myHeadersEnd);
+			try {
+				while (baseStream.available() > 0 && !readFileHeader(baseStream, entryName)) {
+				}
+				final LocalFileHeader header = myFileHeaders.get(entryName);
+				if (header != null) {
+					return header;
+				}
+			} finally {
+				storeBaseStream(baseStream);
 			}
+			throw new ZipException("Entry " + entryName + " is not found");
 		}
-		// ready to read file header
-		MyBufferedInputStream baseStream = getBaseStream();
-		baseStream.setPosition(0);
-		try {
-			while (baseStream.available() > 0 && !readFileHeader(baseStream, entryName)) {
-			}
-			final LocalFileHeader header = myFileHeaders.get(entryName);
-			if (header != null) {
-				return header;
-			}
-		} finally {
-			storeBaseStream(baseStream);
-		}
-		throw new ZipException("Entry " + entryName + " is not found");
 	}
 }
@@ -12,7 +12,7 @@ class ZipInputStream extends InputStream {
 		myParent = parent;
         myBaseStream = parent.getBaseStream();
         myBaseStream.setPosition(header.DataOffset);
-        myDecompressor = Decompressor.init(myBaseStream, header);
+        myDecompressor = Decompressor.init(parent, myBaseStream, header);
     }
 
 	@Override
@@ -39,6 +39,11 @@ class ZipInputStream extends InputStream {
         return myDecompressor.read();
     }
 
+	@Override
+	public long skip(long n) throws IOException {
+		return n > 0 ? myDecompressor.skip(n) : 0;
+	}
+
     @Override
 	public void close() throws IOException {
 		if (!myIsClosed) {
@@ -19,12 +19,22 @@
 
 package org.geometerplus.android.fbreader;
 
+import org.amse.ys.zip.ZipFile;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLNestedArchiveCache;
+import org.geometerplus.zlibrary.core.xml.ZLXMLEntityTable;
+
 import org.geometerplus.zlibrary.ui.android.library.ZLAndroidApplication;
 
+import org.geometerplus.fbreader.Paths;
+
 public class FBReaderApplication extends ZLAndroidApplication {
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		ZipFile.setIndexDirectory(Paths.cacheDirectory() + "/zip");
+		ZLNestedArchiveCache.setDirectory(Paths.cacheDirectory() + "/nested");
+		ZLXMLEntityTable.setDirectory(Paths.cacheDirectory() + "/entities");
 		//bindService(new Intent(this, LibraryService.class), null, LibraryService.BIND_AUTO_CREATE);
 	}
 }
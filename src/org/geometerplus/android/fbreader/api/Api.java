@@ -44,12 +44,22 @@ public interface Api {
 	int getParagraphsNumber() throws ApiException;
 	int getElementsNumber(int paragraphIndex) throws ApiException;
 	String getParagraphText(int paragraphIndex) throws ApiException;
+	// texts of count paragraphs starting from fromIndex; a long range is cut,
+	// the result always contains at least one paragraph if fromIndex is valid
+	List<String> getParagraphsText(int fromIndex, int count) throws ApiException;
+	// a cursor reads the text paragraph by paragraph, one call returns up to
+	// maxParagraphs paragraphs, empty list means end of text
+	int openTextCursor(int paragraphIndex) throws ApiException;
+	List<String> readTextCursor(int cursorId, int maxParagraphs) throws ApiException;
+	void closeTextCursor(int cursorId) throws ApiException;
 
 	// page information
 	TextPosition getPageStart() throws ApiException;
 	TextPosition getPageEnd() throws ApiException;
 	boolean isPageEndOfSection() throws ApiException;
 	boolean isPageEndOfText() throws ApiException;
+	// words of the current page with their positions
+	List<TextElement> getPageElements() throws ApiException;
 
 	// manage view
 	void setPageStart(TextPosition position) throws ApiException;
@@ -171,6 +171,18 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 		return stringList;
 	}
 
+	private List<TextElement> requestTextElementList(int method, ApiObject[] params) throws ApiException {
+		final List<ApiObject> list = requestList(method, params);
+		final ArrayList<TextElement> elementList = new ArrayList<TextElement>(list.size());
+		for (ApiObject object : list) {
+			if (!(object instanceof TextElement)) {
+				throw new ApiException("Cannot cast an element returned from method " + method + " to TextElement");
+			}
+			elementList.add((TextElement)object);
+		}
+		return elementList;
+	}
+
 	private static final ApiObject[] EMPTY_PARAMETERS = new ApiObject[0];
 
 	private static ApiObject[] envelope(String value) {
@@ -306,6 +318,32 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 		return requestInt(GET_ELEMENTS_NUMBER, envelope(paragraphIndex));
 	}
 
+	public List<String> getParagraphsText(int fromIndex, int count) throws ApiException {
+		return requestStringList(LIST_PARAGRAPHS_TEXT, new ApiObject[] {
+			ApiObject.envelope(fromIndex),
+			ApiObject.envelope(count)
+		});
+	}
+
+	public int openTextCursor(int paragraphIndex) throws ApiException {
+		return requestInt(OPEN_TEXT_CURSOR, envelope(paragraphIndex));
+	}
+
+	public List<String> readTextCursor(int cursorId, int maxParagraphs) throws ApiException {
+		return requestStringList(READ_TEXT_CURSOR, new ApiObject[] {
+			ApiObject.envelope(cursorId),
+			ApiObject.envelope(maxParagraphs)
+		});
+	}
+
+	public void closeTextCursor(int cursorId) throws ApiException {
+		request(CLOSE_TEXT_CURSOR, envelope(cursorId));
+	}
+
+	public List<TextElement> getPageElements() throws ApiException {
+		return requestTextElementList(LIST_PAGE_ELEMENTS, EMPTY_PARAMETERS);
+	}
+
 	public void setPageStart(TextPosition position) throws ApiException {
 		request(SET_PAGE_START, new ApiObject[] { position });
 	}
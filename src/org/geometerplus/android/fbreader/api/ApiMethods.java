@@ -34,12 +34,17 @@ interface ApiMethods {
 	int GET_PARAGRAPHS_NUMBER = 601;
 	int GET_ELEMENTS_NUMBER = 602;
 	int GET_PARAGRAPH_TEXT = 603;
+	int LIST_PARAGRAPHS_TEXT = 604;
+	int OPEN_TEXT_CURSOR = 605;
+	int READ_TEXT_CURSOR = 606;
+	int CLOSE_TEXT_CURSOR = 607;
 
 	// page information
 	int GET_PAGE_START = 701;
 	int GET_PAGE_END = 702;
 	int IS_PAGE_END_OF_TEXT = 703;
 	int IS_PAGE_END_OF_SECTION = 704;
+	int LIST_PAGE_ELEMENTS = 705;
 
 	// view management
 	int SET_PAGE_START = 801;
@@ -20,6 +20,7 @@ public abstract class ApiObject implements Parcelable {
 		int DATE = 4;
 		int LONG = 5;
 		int TEXT_POSITION = 10;
+		int TEXT_ELEMENT = 11;
 	}
 
 	static class Void extends ApiObject {
@@ -209,6 +210,11 @@ public abstract class ApiObject implements Parcelable {
 						return new String(parcel.readString());
 					case Type.TEXT_POSITION:
 						return new TextPosition(parcel.readInt(), parcel.readInt(), parcel.readInt());
+					case Type.TEXT_ELEMENT:
+						return new TextElement(
+							new TextPosition(parcel.readInt(), parcel.readInt(), parcel.readInt()),
+							parcel.readString()
+						);
 				}
 			}
 
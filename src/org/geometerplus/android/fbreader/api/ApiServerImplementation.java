@@ -20,6 +20,7 @@
 package org.geometerplus.android.fbreader.api;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import android.content.ContextWrapper;
 import android.content.Intent;
@@ -27,9 +28,12 @@ import android.content.Intent;
 import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.config.ZLConfig;
 
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+import org.geometerplus.zlibrary.text.model.ZLTextParagraph;
 import org.geometerplus.zlibrary.text.view.*;
 
 import org.geometerplus.fbreader.fbreader.*;
+import org.geometerplus.fbreader.library.Book;
 
 public class ApiServerImplementation extends ApiInterface.Stub implements Api, ApiMethods {
 	public static void sendEvent(ContextWrapper context, String eventType) {
@@ -41,6 +45,36 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 
 	private final FBReaderApp myReader = (FBReaderApp)FBReaderApp.Instance();
 
+	// hashing reads the whole book file, so it is not done in a binder thread;
+	// until the hash is computed, hash requests return null;
+	// the only thread of the pool finishes after a minute without requests
+	private static final ExecutorService ourHashingPool = new ThreadPoolExecutor(
+		0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+	);
+	private static final Set<Long> ourHashedBookIds =
+		Collections.synchronizedSet(new HashSet<Long>());
+
+	private static String storedContentHash(final Book book) {
+		final String hash = book.getStoredContentHashCode();
+		if (hash == null && book.getId() != -1 && ourHashedBookIds.add(book.getId())) {
+			ourHashingPool.execute(new Runnable() {
+				public void run() {
+					try {
+						book.getContentHashCode();
+					} finally {
+						ourHashedBookIds.remove(book.getId());
+					}
+				}
+			});
+		}
+		return hash;
+	}
+
+	private static String uniqueId(Book book) {
+		final String hash = storedContentHash(book);
+		return hash != null ? "SHA-256:" + hash : null;
+	}
+
 	private ApiObject.Error unsupportedMethodError(int method) {
 		return new ApiObject.Error("Unsupported method code: " + method);
 	}
@@ -112,6 +146,13 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 					return ApiObject.envelope(getParagraphText(
 						((ApiObject.Integer)parameters[0]).Value
 					));
+				case OPEN_TEXT_CURSOR:
+					return ApiObject.envelope(openTextCursor(
+						((ApiObject.Integer)parameters[0]).Value
+					));
+				case CLOSE_TEXT_CURSOR:
+					closeTextCursor(((ApiObject.Integer)parameters[0]).Value);
+					return ApiObject.Void.Instance;
 				case GET_PAGE_START:
 					return getPageStart();
 				case GET_PAGE_END:
@@ -213,6 +254,18 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 				}
 				case LIST_ZONEMAPS:
 					return ApiObject.envelope(listZoneMaps());
+				case LIST_PARAGRAPHS_TEXT:
+					return ApiObject.envelope(getParagraphsText(
+						((ApiObject.Integer)parameters[0]).Value,
+						((ApiObject.Integer)parameters[1]).Value
+					));
+				case READ_TEXT_CURSOR:
+					return ApiObject.envelope(readTextCursor(
+						((ApiObject.Integer)parameters[0]).Value,
+						((ApiObject.Integer)parameters[1]).Value
+					));
+				case LIST_PAGE_ELEMENTS:
+					return new ArrayList<ApiObject>(getPageElements());
 				default:
 					return Collections.<ApiObject>singletonList(unsupportedMethodError(method));
 			}
@@ -276,12 +329,11 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 	}
 
 	public String getBookHash() {
-		return myReader.Model.Book.getContentHashCode();
+		return storedContentHash(myReader.Model.Book);
 	}
 
 	public String getBookUniqueId() {
-		// TODO: implement
-		return null;
+		return uniqueId(myReader.Model.Book);
 	}
 
 	public Date getBookLastTurningTime() {
@@ -310,13 +362,13 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 	}
 
 	public String getBookHash(long id) {
-		// TODO: implement
-		return null;
+		final Book book = Book.getById(id);
+		return book != null ? storedContentHash(book) : null;
 	}
 
 	public String getBookUniqueId(long id) {
-		// TODO: implement
-		return null;
+		final Book book = Book.getById(id);
+		return book != null ? uniqueId(book) : null;
 	}
 
 	public Date getBookLastTurningTime(long id) {
@@ -343,6 +395,30 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 		return cursor.isEndOfParagraph() && cursor.getParagraphCursor().isLast();
 	}
 
+	public List<TextElement> getPageElements() {
+		final ZLTextView view = myReader.getTextView();
+		final ZLTextWordCursor end = view.getEndCursor();
+		final ZLTextWordCursor cursor = new ZLTextWordCursor(view.getStartCursor());
+		final List<TextElement> elements = new ArrayList<TextElement>();
+		if (cursor.isNull() || end.isNull()) {
+			return elements;
+		}
+		while (cursor.compareTo(end) < 0) {
+			if (cursor.isEndOfParagraph()) {
+				if (!cursor.nextParagraph()) {
+					break;
+				}
+				continue;
+			}
+			final ZLTextElement element = cursor.getElement();
+			if (element instanceof ZLTextWord) {
+				elements.add(new TextElement(getTextPosition(cursor), element.toString()));
+			}
+			cursor.nextWord();
+		}
+		return elements;
+	}
+
 	private TextPosition getTextPosition(ZLTextWordCursor cursor) {
 		return new TextPosition(
 			cursor.getParagraphIndex(),
@@ -387,21 +463,123 @@ public class ApiServerImplementation extends ApiInterface.Stub implements Api, A
 		return cursor.getElementIndex();
 	}
 
-	public String getParagraphText(int paragraphIndex) {
-		final StringBuffer sb = new StringBuffer();
-		final ZLTextWordCursor cursor = new ZLTextWordCursor(myReader.getTextView().getStartCursor());
-		cursor.moveToParagraph(paragraphIndex);
-		cursor.moveToParagraphStart();
-		while (!cursor.isEndOfParagraph()) {
-			ZLTextElement element = cursor.getElement();
-			if (element instanceof ZLTextWord) {
-				sb.append(element.toString() + " ");
+	private ZLTextModel getTextModel() throws ApiException {
+		final ZLTextModel model = myReader.getTextView().getModel();
+		if (model == null) {
+			throw new ApiException("No book is opened");
+		}
+		return model;
+	}
+
+	private static void checkParagraphIndex(ZLTextModel model, int paragraphIndex, boolean allowEnd) throws ApiException {
+		final int number = model.getParagraphsNumber();
+		if (paragraphIndex < 0 || paragraphIndex > number || (paragraphIndex == number && !allowEnd)) {
+			throw new ApiException("Paragraph index " + paragraphIndex + " is out of range [0," + number + ")");
+		}
+	}
+
+	public String getParagraphText(int paragraphIndex) throws ApiException {
+		final ZLTextModel model = getTextModel();
+		checkParagraphIndex(model, paragraphIndex, false);
+		return getParagraphText(model, paragraphIndex, new StringBuilder());
+	}
+
+	// words of the paragraph separated by (and followed by) single spaces;
+	// reads the model directly, no paragraph cursor/elements are created
+	private static String getParagraphText(ZLTextModel model, int paragraphIndex, StringBuilder sb) {
+		sb.setLength(0);
+		for (ZLTextParagraph.EntryIterator it = model.getParagraph(paragraphIndex).iterator(); it.hasNext(); ) {
+			it.next();
+			if (it.getType() != ZLTextParagraph.Entry.TEXT) {
+				continue;
+			}
+			final char[] data = it.getTextData();
+			final int end = it.getTextOffset() + it.getTextLength();
+			int wordStart = -1;
+			for (int i = it.getTextOffset(); i < end; ++i) {
+				if (Character.isSpace(data[i])) {
+					if (wordStart != -1) {
+						sb.append(data, wordStart, i - wordStart).append(' ');
+						wordStart = -1;
+					}
+				} else if (wordStart == -1) {
+					wordStart = i;
+				}
+			}
+			if (wordStart != -1) {
+				sb.append(data, wordStart, end - wordStart).append(' ');
 			}
-			cursor.nextWord();
 		}
 		return sb.toString();
 	}
 
+	// replies are limited to keep them far below the binder transaction limit
+	private static final int MAX_REPLY_LENGTH = 64 * 1024;
+
+	// fromIndex must be in [0,paragraphsNumber]
+	private static List<String> getParagraphsText(ZLTextModel model, int fromIndex, int count) {
+		final int end = (int)Math.min((long)fromIndex + count, model.getParagraphsNumber());
+		final ArrayList<String> texts = new ArrayList<String>();
+		final StringBuilder sb = new StringBuilder();
+		int length = 0;
+		for (int i = fromIndex; i < end && length < MAX_REPLY_LENGTH; ++i) {
+			final String text = getParagraphText(model, i, sb);
+			texts.add(text);
+			length += text.length();
+		}
+		return texts;
+	}
+
+	public List<String> getParagraphsText(int fromIndex, int count) throws ApiException {
+		final ZLTextModel model = getTextModel();
+		checkParagraphIndex(model, fromIndex, false);
+		return getParagraphsText(model, fromIndex, count);
+	}
+
+	private static final class TextCursor {
+		final ZLTextModel Model;
+		int ParagraphIndex;
+
+		TextCursor(ZLTextModel model, int paragraphIndex) {
+			Model = model;
+			ParagraphIndex = paragraphIndex;
+		}
+	}
+
+	private static final int MAX_TEXT_CURSORS = 16;
+	// cursors not closed by clients are dropped, the oldest first
+	private final LinkedHashMap<Integer,TextCursor> myTextCursors =
+		new LinkedHashMap<Integer,TextCursor>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,TextCursor> eldest) {
+				return size() > MAX_TEXT_CURSORS;
+			}
+		};
+	private int myNextTextCursorId;
+
+	public synchronized int openTextCursor(int paragraphIndex) throws ApiException {
+		final ZLTextModel model = getTextModel();
+		// a cursor at the end of text is valid, it reads nothing
+		checkParagraphIndex(model, paragraphIndex, true);
+		final int id = ++myNextTextCursorId;
+		myTextCursors.put(id, new TextCursor(model, paragraphIndex));
+		return id;
+	}
+
+	public synchronized List<String> readTextCursor(int cursorId, int maxParagraphs) throws ApiException {
+		final TextCursor cursor = myTextCursors.get(cursorId);
+		if (cursor == null) {
+			throw new ApiException("Unknown text cursor " + cursorId);
+		}
+		final List<String> texts = getParagraphsText(cursor.Model, cursor.ParagraphIndex, maxParagraphs);
+		cursor.ParagraphIndex += texts.size();
+		return texts;
+	}
+
+	public synchronized void closeTextCursor(int cursorId) {
+		myTextCursors.remove(cursorId);
+	}
+
 	// action control
 	public List<String> listActions() {
 		// TODO: implement
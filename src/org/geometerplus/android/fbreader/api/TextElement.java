@@ -0,0 +1,31 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import android.os.Parcel;
+
+public final class TextElement extends ApiObject {
+	public final TextPosition Position;
+	public final java.lang.String Text;
+
+	public TextElement(TextPosition position, java.lang.String text) {
+		Position = position;
+		Text = text;
+	}
+
+	@Override
+	protected int type() {
+		return Type.TEXT_ELEMENT;
+	}
+
+	@Override
+	public void writeToParcel(Parcel parcel, int flags) {
+		super.writeToParcel(parcel, flags);
+		parcel.writeInt(Position.ParagraphIndex);
+		parcel.writeInt(Position.ElementIndex);
+		parcel.writeInt(Position.CharIndex);
+		parcel.writeString(Text);
+	}
+}
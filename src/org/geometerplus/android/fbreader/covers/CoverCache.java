@@ -19,37 +19,75 @@
 
 package org.geometerplus.android.fbreader.covers;
 
-import java.util.*;
-
 import android.graphics.Bitmap;
 
+import org.geometerplus.zlibrary.ui.android.image.ZLAndroidBitmapCache;
+
 import org.geometerplus.fbreader.tree.FBTree;
 
+/**
+ * Cover bitmaps of the trees shown by one cover manager; bitmaps are kept
+ * in the shared bitmap cache, so covers and in-book images have one memory budget.
+ */
 class CoverCache {
 	static class NullObjectException extends Exception {
 	}
 
-	private static final Object NULL_BITMAP = new Object();
+	private static final class CoverKey {
+		private final FBTree.Key myKey;
+		private final int myWidth;
+		private final int myHeight;
 
-	volatile int HoldersCounter = 0;
+		CoverKey(FBTree.Key key, int width, int height) {
+			myKey = key;
+			myWidth = width;
+			myHeight = height;
+		}
 
-	private final Map<FBTree.Key,Object> myBitmaps =
-		Collections.synchronizedMap(new LinkedHashMap<FBTree.Key,Object>(10, 0.75f, true) {
-			@Override
-			protected boolean removeEldestEntry(Map.Entry<FBTree.Key,Object> eldest) {
-				return size() > 3 * HoldersCounter;
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
 			}
-		});
+			if (!(other instanceof CoverKey)) {
+				return false;
+			}
+			final CoverKey key = (CoverKey)other;
+			return myWidth == key.myWidth && myHeight == key.myHeight && myKey.equals(key.myKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return (myKey.hashCode() * 31 + myWidth) * 31 + myHeight;
+		}
+	}
+
+	private final ZLAndroidBitmapCache myCache = ZLAndroidBitmapCache.Instance();
+	private final int myWidth;
+	private final int myHeight;
+
+	CoverCache(int width, int height) {
+		myWidth = width;
+		myHeight = height;
+	}
+
+	private CoverKey coverKey(FBTree.Key key) {
+		return new CoverKey(key, myWidth, myHeight);
+	}
 
 	Bitmap getBitmap(FBTree.Key key) throws NullObjectException {
-		final Object bitmap = myBitmaps.get(key);
-		if (bitmap == NULL_BITMAP) {
+		try {
+			return myCache.get(coverKey(key));
+		} catch (ZLAndroidBitmapCache.NullObjectException e) {
 			throw new NullObjectException();
 		}
-		return (Bitmap)bitmap;
+	}
+
+	boolean contains(FBTree.Key key) {
+		return myCache.contains(coverKey(key));
 	}
 
 	void putBitmap(FBTree.Key key, Bitmap bitmap) {
-		myBitmaps.put(key, bitmap != null ? bitmap : NULL_BITMAP);
+		myCache.put(coverKey(key), bitmap);
 	}
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.Future;
 import android.widget.ImageView;
 import android.graphics.Bitmap;
 
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
 
 import org.geometerplus.fbreader.tree.FBTree;
@@ -43,12 +44,14 @@ class CoverHolder {
 		manager.setupCoverView(coverView);
 		CoverView = coverView;
 		Key = key;
-
-		myManager.Cache.HoldersCounter++;
 	}
 
 	synchronized void setKey(FBTree.Key key) {
 		if (!Key.equals(key)) {
+			if (coverSyncRunnable != null) {
+				coverSyncRunnable.cancel();
+				coverSyncRunnable = null;
+			}
 			if (coverBitmapTask != null) {
 				coverBitmapTask.cancel(true);
 				coverBitmapTask = null;
@@ -70,6 +73,10 @@ class CoverHolder {
 			}
 		}
 
+		void cancel() {
+			myImage.cancelSynchronization(this);
+		}
+
 		public void run() {
 			synchronized (CoverHolder.this) {
 				try {
@@ -100,18 +107,22 @@ class CoverHolder {
 		}
 	}
 
-	class CoverBitmapRunnable implements Runnable {
-		private final ZLLoadableImage myImage;
+	private abstract class BitmapRunnable implements Runnable {
 		private final FBTree.Key myKey;
 
-		CoverBitmapRunnable(ZLLoadableImage image) {
-			myImage = image;
+		BitmapRunnable() {
 			synchronized (CoverHolder.this) {
 				myKey = Key;
 				coverBitmapRunnable = this;
 			}
 		}
 
+		boolean isReady() {
+			return true;
+		}
+
+		abstract Bitmap getBitmap();
+
 		public void run() {
 			synchronized (CoverHolder.this) {
 				if (coverBitmapRunnable != this) {
@@ -119,10 +130,10 @@ class CoverHolder {
 				}
 			}
 			try {
-				if (!myImage.isSynchronized()) {
+				if (!isReady()) {
 					return;
 				}
-				final Bitmap coverBitmap = myManager.getBitmap(myImage);
+				final Bitmap coverBitmap = getBitmap();
 				if (coverBitmap == null) {
 					// If bitmap is null, then there's no image
 					// and CoverView already has a stock image
@@ -163,4 +174,37 @@ class CoverHolder {
 			}
 		}
 	}
+
+	class CoverBitmapRunnable extends BitmapRunnable {
+		private final ZLLoadableImage myImage;
+
+		CoverBitmapRunnable(ZLLoadableImage image) {
+			myImage = image;
+		}
+
+		@Override
+		boolean isReady() {
+			return myImage.isSynchronized();
+		}
+
+		@Override
+		Bitmap getBitmap() {
+			return myManager.getBitmap(myImage);
+		}
+	}
+
+	class CoverThumbnailRunnable extends BitmapRunnable {
+		private final FBTree myTree;
+		private final ZLFile myFile;
+
+		CoverThumbnailRunnable(FBTree tree, ZLFile file) {
+			myTree = tree;
+			myFile = file;
+		}
+
+		@Override
+		Bitmap getBitmap() {
+			return myManager.loadThumbnail(myTree, myFile);
+		}
+	}
 }
@@ -19,14 +19,14 @@
 
 package org.geometerplus.android.fbreader.covers;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.*;
+import java.util.concurrent.*;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.widget.ImageView;
 
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.image.ZLImage;
 import org.geometerplus.zlibrary.core.image.ZLImageManager;
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
@@ -34,10 +34,12 @@ import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageManager;
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageData;
 
+import org.geometerplus.fbreader.library.Book;
+import org.geometerplus.fbreader.library.LibraryTree;
 import org.geometerplus.fbreader.tree.FBTree;
 
 public class CoverManager {
-	final CoverCache Cache = new CoverCache();
+	final CoverCache Cache;
 
 	private static class MinPriorityThreadFactory implements ThreadFactory {
 		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
@@ -48,16 +50,120 @@ public class CoverManager {
 			return th;
 		}
 	}
-	private final ExecutorService myPool = Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
+	// all the book parsing (tree.getCover()) is done in this single thread,
+	// format plugins are not used by several threads at once
+	private static final ExecutorService ourPool =
+		Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
+
+	private static final int PREFETCH_QUEUE_SIZE = 16;
+
+	private class PrefetchRunnable implements Runnable {
+		final FBTree.Key Key;
+		private final FBTree myTree;
+		private final ZLFile myFile;
+
+		PrefetchRunnable(FBTree tree, ZLFile file) {
+			Key = tree.getUniqueKey();
+			myTree = tree;
+			myFile = file;
+		}
+
+		// looks for a stored thumbnail only;
+		// the book is parsed later, in the plugin thread
+		public void run() {
+			boolean done = true;
+			try {
+				if (Cache.contains(Key)) {
+					return;
+				}
+				try {
+					final Bitmap thumbnail = myThumbnails.load(myFile);
+					if (thumbnail != null) {
+						Cache.putBitmap(Key, thumbnail);
+					} else {
+						scheduleDecoding(this);
+						done = false;
+					}
+				} catch (ThumbnailCache.NoCoverException e) {
+					Cache.putBitmap(Key, null);
+				}
+			} finally {
+				if (done) {
+					myPrefetchedKeys.remove(Key);
+				}
+			}
+		}
+
+		void decode() {
+			try {
+				if (!Cache.contains(Key)) {
+					Cache.putBitmap(Key, loadThumbnail(myTree, myFile));
+				}
+			} finally {
+				myPrefetchedKeys.remove(Key);
+			}
+		}
+	}
+
+	private final Set<FBTree.Key> myPrefetchedKeys =
+		Collections.synchronizedSet(new HashSet<FBTree.Key>());
+	// when the queue is full, the oldest prefetch request is dropped:
+	// after a fast scroll it is not interesting anymore
+	private final ThreadPoolExecutor myPrefetchPool = new ThreadPoolExecutor(
+		1, 1, 0L, TimeUnit.MILLISECONDS,
+		new LinkedBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE),
+		new MinPriorityThreadFactory(),
+		new RejectedExecutionHandler() {
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+				final Runnable oldest = executor.getQueue().poll();
+				if (oldest instanceof PrefetchRunnable) {
+					myPrefetchedKeys.remove(((PrefetchRunnable)oldest).Key);
+				}
+				executor.execute(runnable);
+			}
+		}
+	);
+
+	// prefetch requests waiting for the plugin thread; bounded the same way
+	// as the prefetch queue, the most recent requests are served first
+	private final LinkedList<PrefetchRunnable> myPendingDecodings =
+		new LinkedList<PrefetchRunnable>();
+	private final Runnable myDecodingRunnable = new Runnable() {
+		public void run() {
+			final PrefetchRunnable request;
+			synchronized (myPendingDecodings) {
+				request = myPendingDecodings.isEmpty() ? null : myPendingDecodings.removeLast();
+			}
+			if (request != null) {
+				request.decode();
+			}
+		}
+	};
+
+	private void scheduleDecoding(PrefetchRunnable request) {
+		synchronized (myPendingDecodings) {
+			myPendingDecodings.add(request);
+			if (myPendingDecodings.size() > PREFETCH_QUEUE_SIZE) {
+				// there is a decoding runnable for each request in the list,
+				// so a new one is not needed
+				myPrefetchedKeys.remove(myPendingDecodings.removeFirst().Key);
+				return;
+			}
+		}
+		ourPool.execute(myDecodingRunnable);
+	}
 
 	private final Activity myActivity;
 	private final int myCoverWidth;
 	private final int myCoverHeight;
+	private final ThumbnailCache myThumbnails;
 
 	public CoverManager(Activity activity, int coverWidth, int coverHeight) {
 		myActivity = activity;
 		myCoverWidth = coverWidth;
 		myCoverHeight = coverHeight;
+		myThumbnails = new ThumbnailCache(2 * coverWidth, 2 * coverHeight);
+		Cache = new CoverCache(2 * coverWidth, 2 * coverHeight);
 	}
 
 	void runOnUiThread(Runnable runnable) {
@@ -77,7 +183,61 @@ public class CoverManager {
 		if (data == null) {
 			return null;
 		}
-		return data.getBitmap(2 * myCoverWidth, 2 * myCoverHeight);
+		// not data.getBitmap(): the result is cached by tree key in Cache
+		return data.decodeBitmap(2 * myCoverWidth, 2 * myCoverHeight);
+	}
+
+	private static ZLFile bookFile(FBTree tree) {
+		if (tree instanceof LibraryTree) {
+			final Book book = ((LibraryTree)tree).getBook();
+			return book != null ? book.File : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cover thumbnail of a book tree, from the thumbnail cache if possible;
+	 * on a cache miss the book cover is decoded and stored in the thumbnail cache.
+	 * Must be called from the plugin thread (ourPool).
+	 *
+	 * @return thumbnail bitmap or null if the book has no cover
+	 */
+	Bitmap loadThumbnail(FBTree tree, ZLFile file) {
+		try {
+			final Bitmap thumbnail = myThumbnails.load(file);
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+		} catch (ThumbnailCache.NoCoverException e) {
+			return null;
+		}
+
+		final ZLImage cover = tree.getCover();
+		if (cover instanceof ZLLoadableImage) {
+			final ZLLoadableImage img = (ZLLoadableImage)cover;
+			if (!img.isSynchronized()) {
+				img.synchronize();
+			}
+		}
+		final Bitmap bitmap = cover != null ? getBitmap(cover) : null;
+		myThumbnails.store(file, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Schedules background loading of the tree cover into the memory cache;
+	 * used for rows that are going to be shown soon.
+	 */
+	public void prefetch(FBTree tree) {
+		final ZLFile file = bookFile(tree);
+		if (file == null) {
+			return;
+		}
+		final FBTree.Key key = tree.getUniqueKey();
+		if (Cache.contains(key) || !myPrefetchedKeys.add(key)) {
+			return;
+		}
+		myPrefetchPool.execute(new PrefetchRunnable(tree, file));
 	}
 
 	void setCoverForView(CoverHolder holder, ZLLoadableImage image) {
@@ -87,7 +247,7 @@ public class CoverManager {
 				if (coverBitmap != null) {
 					holder.CoverView.setImageBitmap(coverBitmap);
 				} else if (holder.coverBitmapTask == null) {
-					holder.coverBitmapTask = myPool.submit(holder.new CoverBitmapRunnable(image));
+					holder.coverBitmapTask = ourPool.submit(holder.new CoverBitmapRunnable(image));
 				}
 			} catch (CoverCache.NullObjectException e) {
 			}
@@ -116,6 +276,17 @@ public class CoverManager {
 		}
 
 		if (coverBitmap == null) {
+			final ZLFile file = bookFile(tree);
+			if (file != null) {
+				synchronized (holder) {
+					if (holder.coverBitmapTask == null) {
+						holder.coverBitmapTask =
+							ourPool.submit(holder.new CoverThumbnailRunnable(tree, file));
+					}
+				}
+				return false;
+			}
+
 			final ZLImage cover = tree.getCover();
 			if (cover instanceof ZLLoadableImage) {
 				final ZLLoadableImage img = (ZLLoadableImage)cover;
@@ -126,6 +297,7 @@ public class CoverManager {
 				}
 			} else if (cover != null) {
 				coverBitmap = getBitmap(cover);
+				Cache.putBitmap(holder.Key, coverBitmap);
 			}
 		}
 		if (coverBitmap != null) {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.android.fbreader.covers;
+
+import java.io.*;
+import java.util.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.filesystem.ZLPhysicalFile;
+
+import org.geometerplus.fbreader.Paths;
+
+/**
+ * On-disk store of pre-scaled cover thumbnails.
+ * Thumbnails are keyed by book file identity (path, size and modification time
+ * of the underlying physical file) and by thumbnail size, so a changed book
+ * file never gets a stale cover. An empty file marks a book without cover.
+ */
+class ThumbnailCache {
+	private static final long MAX_SIZE = 16 * 1024 * 1024;
+
+	// all caches share the same directory, so the size and the lock are shared too
+	private static final Object ourLock = new Object();
+	private static long ourSize = -1;
+
+	private final File myDirectory;
+	private final int myWidth;
+	private final int myHeight;
+
+	ThumbnailCache(int width, int height) {
+		myDirectory = new File(Paths.cacheDirectory(), "covers");
+		myWidth = width;
+		myHeight = height;
+	}
+
+	static class NoCoverException extends Exception {
+	}
+
+	private File thumbnailFile(ZLFile file) {
+		final ZLPhysicalFile physicalFile = file.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+		final File javaFile = physicalFile.javaFile();
+		final String identity =
+			file.getPath() + "\000" + javaFile.length() + "\000" + javaFile.lastModified() +
+			"\000" + myWidth + "x" + myHeight;
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest(identity.getBytes("utf-8"))) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			return new File(myDirectory, name.toString());
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return stored thumbnail or null if there is no thumbnail for the file yet
+	 * @throws NoCoverException if the file is known to have no cover
+	 */
+	Bitmap load(ZLFile file) throws NoCoverException {
+		final File thumbnail = thumbnailFile(file);
+		if (thumbnail == null) {
+			return null;
+		}
+		synchronized (ourLock) {
+			if (!thumbnail.exists()) {
+				return null;
+			}
+			// modification time is the access time for trim()
+			thumbnail.setLastModified(System.currentTimeMillis());
+			if (thumbnail.length() == 0) {
+				throw new NoCoverException();
+			}
+		}
+		try {
+			// null if the file has been trimmed in the meantime
+			return BitmapFactory.decodeFile(thumbnail.getPath());
+		} catch (OutOfMemoryError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the thumbnail; null bitmap means "the book has no cover".
+	 */
+	void store(ZLFile file, Bitmap bitmap) {
+		final File thumbnail = thumbnailFile(file);
+		if (thumbnail == null) {
+			return;
+		}
+		myDirectory.mkdirs();
+		File temp = null;
+		OutputStream stream = null;
+		try {
+			temp = File.createTempFile(thumbnail.getName(), ".tmp", myDirectory);
+			stream = new BufferedOutputStream(new FileOutputStream(temp));
+			if (bitmap != null) {
+				if (bitmap.hasAlpha()) {
+					bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+				} else {
+					bitmap.compress(Bitmap.CompressFormat.JPEG, 85, stream);
+				}
+			}
+			stream.close();
+			stream = null;
+			synchronized (ourLock) {
+				final long oldLength = thumbnail.length();
+				if (temp.renameTo(thumbnail)) {
+					trim(thumbnail.length() - oldLength);
+				} else {
+					temp.delete();
+				}
+			}
+		} catch (IOException e) {
+			if (temp != null) {
+				temp.delete();
+			}
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	// called under ourLock
+	private void trim(long added) {
+		if (ourSize < 0) {
+			ourSize = 0;
+			final File[] files = myDirectory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					ourSize += f.length();
+				}
+			}
+		} else {
+			ourSize += added;
+		}
+		if (ourSize <= MAX_SIZE) {
+			return;
+		}
+
+		final File[] files = myDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		// remove least recently used thumbnails until we have 3/4 of the limit;
+		// times are read once, a file time changing during the sort breaks the order contract
+		final long[] times = new long[files.length];
+		final Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; ++i) {
+			times[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i0, Integer i1) {
+				final long t0 = times[i0];
+				final long t1 = times[i1];
+				return t0 < t1 ? -1 : (t0 == t1 ? 0 : 1);
+			}
+		});
+		for (int i : order) {
+			if (ourSize <= MAX_SIZE * 3 / 4) {
+				break;
+			}
+			final File f = files[i];
+			final long length = f.length();
+			if (f.delete()) {
+				ourSize -= length;
+			}
+		}
+	}
+}
@@ -51,6 +51,7 @@ import org.geometerplus.fbreader.network.HtmlUtil;
 
 import org.geometerplus.android.fbreader.FBReader;
 import org.geometerplus.android.fbreader.preferences.EditBookInfoActivity;
+import org.geometerplus.android.fbreader.libraryService.LibraryShadow;
 
 public class BookInfoActivity extends Activity {
 	private static final boolean ENABLE_EXTENDED_FILE_INFO = false;
@@ -130,6 +131,7 @@ public class BookInfoActivity extends Activity {
 					book.reloadInfoFromFile();
 					setupBookInfo(book);
 					myDontReloadBook = false;
+					refreshBookInLibrary(book);
 				}
 			}
 		});
@@ -145,12 +147,22 @@ public class BookInfoActivity extends Activity {
 		if (book != null) {
 			setupBookInfo(book);
 			myDontReloadBook = false;
+			refreshBookInLibrary(book);
 		}
 
 		myResult = Math.max(myResult, resultCode);
 		setResult(myResult);
 	}
 
+	// the library is built by the library service, it has to re-read the book
+	private void refreshBookInLibrary(final Book book) {
+		LibraryShadow.connect(this, new Runnable() {
+			public void run() {
+				LibraryShadow.Instance().refreshBookInfo(book);
+			}
+		});
+	}
+
 	private Button findButton(int buttonId) {
 		return (Button)findViewById(buttonId);
 	}
@@ -24,11 +24,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Process;
 
+import org.geometerplus.fbreader.library.BooksDatabase;
+
 public class KillerCallback extends BroadcastReceiver {
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		if (LibraryActivity.ourToBeKilled) {
 			System.err.println("kill");
+			BooksDatabase.flushJournal();
 			Process.killProcess(Process.myPid());
 		}
 	}
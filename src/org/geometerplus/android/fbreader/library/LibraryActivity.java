@@ -38,6 +38,7 @@ import org.geometerplus.android.util.UIUtil;
 import org.geometerplus.android.fbreader.FBReader;
 import org.geometerplus.android.fbreader.FBUtil;
 import org.geometerplus.android.fbreader.tree.TreeActivity;
+import org.geometerplus.android.fbreader.libraryService.LibraryShadow;
 
 public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItemClickListener, View.OnCreateContextMenuListener, Library.ChangeListener {
 	static volatile boolean ourToBeKilled = false;
@@ -45,7 +46,8 @@ public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItem
 	public static final String SELECTED_BOOK_PATH_KEY = "SelectedBookPath";
 
 	private BooksDatabase myDatabase;
-	private Library myLibrary;
+	// the library is built by the library service, see LibraryShadow
+	private LibraryShadow myLibrary;
 
 	private Book mySelectedBook;
 
@@ -57,12 +59,6 @@ public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItem
 		if (myDatabase == null) {
 			myDatabase = new SQLiteBooksDatabase(this, "LIBRARY");
 		}
-		if (myLibrary == null) {
-			myLibrary = Library.Instance();
-			myLibrary.addChangeListener(this);
-			myLibrary.startBuild();
-		}
-
 		final String selectedBookPath = getIntent().getStringExtra(SELECTED_BOOK_PATH_KEY);
 		mySelectedBook = null;
 		if (selectedBookPath != null) {
@@ -74,16 +70,29 @@ public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItem
 
 		new LibraryTreeAdapter(this);
 
-		init(getIntent());
-
 		getListView().setTextFilterEnabled(true);
 		getListView().setOnCreateContextMenuListener(this);
+
+		LibraryShadow.connect(this, new Runnable() {
+			public void run() {
+				if (isFinishing()) {
+					return;
+				}
+				myLibrary = LibraryShadow.Instance();
+				init(getIntent());
+				myLibrary.addChangeListener(LibraryActivity.this);
+				setProgressBarIndeterminateVisibility(!myLibrary.isUpToDate());
+			}
+		});
 	}
 
 	@Override
 	public void onResume() {
 	  	super.onResume();
-		setProgressBarIndeterminateVisibility(!myLibrary.isUpToDate());
+		if (myLibrary != null) {
+			setProgressBarIndeterminateVisibility(!myLibrary.isUpToDate());
+			myLibrary.refreshBookLists();
+		}
 	}
 
 	@Override
@@ -94,13 +103,16 @@ public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItem
 	@Override
 	public void onPause() {
 		super.onPause();
+		BooksDatabase.flushJournal();
 		ourToBeKilled = true;
 	}
 
 	@Override
 	protected void onDestroy() {
-		myLibrary.removeChangeListener(this);
-		myLibrary = null;
+		if (myLibrary != null) {
+			myLibrary.removeChangeListener(this);
+			myLibrary = null;
+		}
 		super.onDestroy();
 	}
 
@@ -137,9 +149,8 @@ public class LibraryActivity extends TreeActivity implements MenuItem.OnMenuItem
 	@Override
 	protected void onActivityResult(int requestCode, int returnCode, Intent intent) {
 		if (requestCode == BOOK_INFO_REQUEST && intent != null) {
-			final String path = intent.getStringExtra(BookInfoActivity.CURRENT_BOOK_PATH_KEY);
-			final Book book = Book.getByFile(ZLFile.createFileByPath(path));
-			myLibrary.refreshBookInfo(book);
+			// changed book info is sent to the library service by BookInfoActivity,
+			// the trees are updated by the service notification
 			getListView().invalidateViews();
 		} else {
 			super.onActivityResult(requestCode, returnCode, intent);
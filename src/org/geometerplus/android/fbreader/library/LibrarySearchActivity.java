@@ -24,7 +24,7 @@ import android.app.SearchManager;
 import android.content.Intent;
 import android.os.Bundle;
 
-import org.geometerplus.fbreader.library.Library;
+import org.geometerplus.android.fbreader.libraryService.LibraryShadow;
 
 public class LibrarySearchActivity extends Activity {
 	@Override
@@ -36,7 +36,11 @@ public class LibrarySearchActivity extends Activity {
 			final String pattern = intent.getStringExtra(SearchManager.QUERY);
 			if (pattern != null && pattern.length() > 0) {
 				LibraryActivity.BookSearchPatternOption.setValue(pattern);
-				Library.Instance().startBookSearch(pattern);
+				LibraryShadow.connect(this, new Runnable() {
+					public void run() {
+						LibraryShadow.Instance().startBookSearch(pattern);
+					}
+				});
 			}
 		}
 		finish();
@@ -32,6 +32,8 @@ import org.geometerplus.android.fbreader.tree.TreeAdapter;
 import org.geometerplus.android.fbreader.covers.CoverManager;
 
 class LibraryTreeAdapter extends TreeAdapter {
+	private static final int COVER_PREFETCH_DISTANCE = 8;
+
 	private CoverManager myCoverManager;
 
 	LibraryTreeAdapter(LibraryActivity activity) {
@@ -67,6 +69,10 @@ class LibraryTreeAdapter extends TreeAdapter {
 		if (!myCoverManager.trySetCoverImage(coverView, tree)) {
 			coverView.setImageResource(getCoverResourceId(tree));
 		}
+		final int prefetchEnd = Math.min(position + COVER_PREFETCH_DISTANCE, getCount() - 1);
+		for (int i = position + 1; i <= prefetchEnd; ++i) {
+			myCoverManager.prefetch(getItem(i));
+		}
 
 		return view;
 	}
@@ -58,21 +58,49 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			transactionStarted = true;
 		} catch (Throwable t) {
 		}
+		boolean succeeded = false;
 		try {
 			actions.run();
 			if (transactionStarted) {
 				myDatabase.setTransactionSuccessful();
 			}
+			succeeded = true;
 		} finally {
 			if (transactionStarted) {
 				myDatabase.endTransaction();
+				if (!succeeded) {
+					clearIdCaches();
+				}
 			}
 		}
 	}
 
+	// ids cached inside a rolled back transaction might be not in the database
+	private void clearIdCaches() {
+		myIdByAuthor.clear();
+		myIdBySeries.clear();
+		myIdByTag.clear();
+		myTagById.clear();
+		myTagCacheIsInitialized = false;
+	}
+
+	private static String idSet(Collection<Long> ids) {
+		final StringBuilder idSet = new StringBuilder("(");
+		boolean first = true;
+		for (Long id : ids) {
+			if (first) {
+				first = false;
+			} else {
+				idSet.append(",");
+			}
+			idSet.append(id);
+		}
+		return idSet.append(")").toString();
+	}
+
 	private void migrate(Context context) {
 		final int version = myDatabase.getVersion();
-		final int currentVersion = 19;
+		final int currentVersion = 21;
 		if (version >= currentVersion) {
 			return;
 		}
@@ -119,6 +147,10 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 						updateTables17();
 					case 18:
 						updateTables18();
+					case 19:
+						updateTables19();
+					case 20:
+						updateTables20();
 				}
 				myDatabase.setTransactionSuccessful();
 				myDatabase.endTransaction();
@@ -132,7 +164,10 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 	@Override
 	protected Book loadBook(long bookId) {
 		Book book = null;
-		final Cursor cursor = myDatabase.rawQuery("SELECT file_id,title,encoding,language FROM Books WHERE book_id = " + bookId, null);
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT file_id,title,encoding,language FROM Books WHERE book_id = ?",
+			new String[] { String.valueOf(bookId) }
+		);
 		if (cursor.moveToNext()) {
 			book = createBook(
 				bookId, cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3)
@@ -142,9 +177,47 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return book;
 	}
 
+	@Override
+	protected List<Book> loadBooks(Collection<Long> bookIds) {
+		if (bookIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final HashMap<Long,Long> fileIdById = new HashMap<Long,Long>();
+		final HashMap<Long,String[]> infoById = new HashMap<Long,String[]>();
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT book_id,file_id,title,encoding,language FROM Books WHERE book_id IN " + idSet(bookIds), null
+		);
+		while (cursor.moveToNext()) {
+			final long id = cursor.getLong(0);
+			fileIdById.put(id, cursor.getLong(1));
+			infoById.put(id, new String[] {
+				cursor.getString(2), cursor.getString(3), cursor.getString(4)
+			});
+		}
+		cursor.close();
+
+		final FileInfoSet fileInfos = new FileInfoSet(fileIdById.values());
+		final ArrayList<Book> books = new ArrayList<Book>(fileIdById.size());
+		for (long id : bookIds) {
+			final Long fileId = fileIdById.get(id);
+			if (fileId == null) {
+				continue;
+			}
+			final String[] info = infoById.get(id);
+			final Book book = createBook(id, fileInfos.getFile(fileId), info[0], info[1], info[2]);
+			if (book != null) {
+				books.add(book);
+			}
+		}
+		return books;
+	}
+
 	@Override
 	protected void reloadBook(Book book) {
-		final Cursor cursor = myDatabase.rawQuery("SELECT title,encoding,language FROM Books WHERE book_id = " + book.getId(), null);
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT title,encoding,language FROM Books WHERE book_id = ?",
+			new String[] { String.valueOf(book.getId()) }
+		);
 		if (cursor.moveToNext()) {
 			book.setTitle(cursor.getString(0));
 			book.setEncoding(cursor.getString(1));
@@ -159,7 +232,10 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			return null;
 		}
 		Book book = null;
-		final Cursor cursor = myDatabase.rawQuery("SELECT book_id,title,encoding,language FROM Books WHERE file_id = " + fileId, null);
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT book_id,title,encoding,language FROM Books WHERE file_id = ?",
+			new String[] { String.valueOf(fileId) }
+		);
 		if (cursor.moveToNext()) {
 			book = createBook(
 				cursor.getLong(0), file, cursor.getString(1), cursor.getString(2), cursor.getString(3)
@@ -192,22 +268,17 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	@Override
-	protected Map<Long,Book> loadBooks(FileInfoSet infos, boolean existing) {
+	protected BookMetaStore loadBooks(boolean existing) {
+		final BookMetaStore store = new BookMetaStore();
+
 		Cursor cursor = myDatabase.rawQuery(
-			"SELECT book_id,file_id,title,encoding,language FROM Books WHERE `exists` = " + (existing ? 1 : 0), null
+			"SELECT book_id,file_id,title,encoding,language FROM Books WHERE `exists` = " + (existing ? 1 : 0) + " ORDER BY book_id", null
 		);
-		final HashMap<Long,Book> booksById = new HashMap<Long,Book>();
-		final HashMap<Long,Book> booksByFileId = new HashMap<Long,Book>();
 		while (cursor.moveToNext()) {
-			final long id = cursor.getLong(0);
-			final long fileId = cursor.getLong(1);
-			final Book book = createBook(
-				id, infos.getFile(fileId), cursor.getString(2), cursor.getString(3), cursor.getString(4)
+			store.addBook(
+				cursor.getLong(0), cursor.getLong(1),
+				cursor.getString(2), cursor.getString(3), cursor.getString(4)
 			);
-			if (book != null) {
-				booksById.put(id, book);
-				booksByFileId.put(fileId, book);
-			}
 		}
 		cursor.close();
 
@@ -226,22 +297,13 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			"SELECT book_id,author_id FROM BookAuthor ORDER BY author_index", null
 		);
 		while (cursor.moveToNext()) {
-			Book book = booksById.get(cursor.getLong(0));
-			if (book != null) {
-				Author author = authorById.get(cursor.getLong(1));
-				if (author != null) {
-					addAuthor(book, author);
-				}
-			}
+			store.addAuthor(cursor.getLong(0), authorById.get(cursor.getLong(1)));
 		}
 		cursor.close();
 
 		cursor = myDatabase.rawQuery("SELECT book_id,tag_id FROM BookTag", null);
 		while (cursor.moveToNext()) {
-			Book book = booksById.get(cursor.getLong(0));
-			if (book != null) {
-				addTag(book, getTagById(cursor.getLong(1)));
-			}
+			store.addTag(cursor.getLong(0), getTagById(cursor.getLong(1)));
 		}
 		cursor.close();
 
@@ -258,37 +320,31 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			"SELECT book_id,series_id,book_index FROM BookSeries", null
 		);
 		while (cursor.moveToNext()) {
-			Book book = booksById.get(cursor.getLong(0));
-			if (book != null) {
-				final String series = seriesById.get(cursor.getLong(1));
-				if (series != null) {
-					setSeriesInfo(book, series, cursor.getString(2));
-				}
-			}
+			store.setSeriesInfo(
+				cursor.getLong(0), seriesById.get(cursor.getLong(1)), cursor.getString(2)
+			);
 		}
 		cursor.close();
-		return booksByFileId;
+
+		store.freeze();
+		return store;
 	}
 
 	@Override
-	protected void setExistingFlag(Collection<Book> books, boolean flag) {
-		if (books.isEmpty()) {
+	protected void setExistingFlagByIds(Collection<Long> bookIds, boolean flag) {
+		if (bookIds.isEmpty()) {
 			return;
 		}
-		final StringBuilder bookSet = new StringBuilder("(");
-		boolean first = true;
-		for (Book b : books) {
-			if (first) {
-				first = false;
-			} else {
-				bookSet.append(",");
-			}
-			bookSet.append(b.getId());
-		}
-		bookSet.append(")");
+		final String bookSet = idSet(bookIds);
 		myDatabase.execSQL(
 			"UPDATE Books SET `exists` = " + (flag ? 1 : 0) + " WHERE book_id IN " + bookSet
 		);
+		if (!flag) {
+			// hashes of removed files are never used again
+			synchronized (myDatabase) {
+				myDatabase.execSQL("DELETE FROM BookHash WHERE book_id IN " + bookSet);
+			}
+		}
 	}
 
 	private SQLiteStatement myUpdateBookInfoStatement;
@@ -309,7 +365,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 
 	private SQLiteStatement myInsertBookInfoStatement;
 	@Override
-	protected long insertBookInfo(ZLFile file, String encoding, String language, String title) {
+	protected long insertBookInfo(long fileId, String encoding, String language, String title) {
 		if (myInsertBookInfoStatement == null) {
 			myInsertBookInfoStatement = myDatabase.compileStatement(
 				"INSERT OR IGNORE INTO Books (encoding,language,title,file_id) VALUES (?,?,?,?)"
@@ -318,8 +374,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		SQLiteUtil.bindString(myInsertBookInfoStatement, 1, encoding);
 		SQLiteUtil.bindString(myInsertBookInfoStatement, 2, language);
 		myInsertBookInfoStatement.bindString(3, title);
-		final FileInfoSet infoSet = new FileInfoSet(file);
-		myInsertBookInfoStatement.bindLong(4, infoSet.getId(file));
+		myInsertBookInfoStatement.bindLong(4, fileId);
 		return myInsertBookInfoStatement.executeInsert();
 	}
 
@@ -335,6 +390,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		myDeleteBookAuthorsStatement.execute();
 	}
 
+	private final HashMap<Author,Long> myIdByAuthor = new HashMap<Author,Long>();
 	private SQLiteStatement myGetAuthorIdStatement;
 	private SQLiteStatement myInsertAuthorStatement;
 	private SQLiteStatement myInsertBookAuthorStatement;
@@ -352,15 +408,18 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			);
 		}
 
-		long authorId;
-		try {
-			myGetAuthorIdStatement.bindString(1, author.DisplayName);
-			myGetAuthorIdStatement.bindString(2, author.SortKey);
-			authorId = myGetAuthorIdStatement.simpleQueryForLong();
-		} catch (SQLException e) {
-			myInsertAuthorStatement.bindString(1, author.DisplayName);
-			myInsertAuthorStatement.bindString(2, author.SortKey);
-			authorId = myInsertAuthorStatement.executeInsert();
+		Long authorId = myIdByAuthor.get(author);
+		if (authorId == null) {
+			try {
+				myGetAuthorIdStatement.bindString(1, author.DisplayName);
+				myGetAuthorIdStatement.bindString(2, author.SortKey);
+				authorId = myGetAuthorIdStatement.simpleQueryForLong();
+			} catch (SQLException e) {
+				myInsertAuthorStatement.bindString(1, author.DisplayName);
+				myInsertAuthorStatement.bindString(2, author.SortKey);
+				authorId = myInsertAuthorStatement.executeInsert();
+			}
+			myIdByAuthor.put(author, authorId);
 		}
 		myInsertBookAuthorStatement.bindLong(1, bookId);
 		myInsertBookAuthorStatement.bindLong(2, authorId);
@@ -478,6 +537,7 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return list;
 	}
 
+	private final HashMap<String,Long> myIdBySeries = new HashMap<String,Long>();
 	private SQLiteStatement myGetSeriesIdStatement;
 	private SQLiteStatement myInsertSeriesStatement;
 	private SQLiteStatement myInsertBookSeriesStatement;
@@ -503,13 +563,16 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 			myDeleteBookSeriesStatement.bindLong(1, bookId);
 			myDeleteBookSeriesStatement.execute();
 		} else {
-			long seriesId;
-			try {
-				myGetSeriesIdStatement.bindString(1, seriesInfo.Name);
-				seriesId = myGetSeriesIdStatement.simpleQueryForLong();
-			} catch (SQLException e) {
-				myInsertSeriesStatement.bindString(1, seriesInfo.Name);
-				seriesId = myInsertSeriesStatement.executeInsert();
+			Long seriesId = myIdBySeries.get(seriesInfo.Name);
+			if (seriesId == null) {
+				try {
+					myGetSeriesIdStatement.bindString(1, seriesInfo.Name);
+					seriesId = myGetSeriesIdStatement.simpleQueryForLong();
+				} catch (SQLException e) {
+					myInsertSeriesStatement.bindString(1, seriesInfo.Name);
+					seriesId = myInsertSeriesStatement.executeInsert();
+				}
+				myIdBySeries.put(seriesInfo.Name, seriesId);
 			}
 			myInsertBookSeriesStatement.bindLong(1, bookId);
 			myInsertBookSeriesStatement.bindLong(2, seriesId);
@@ -610,6 +673,29 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return infosById.values();
 	}
 
+	// android 2.x sqlite has no recursive queries, so we resolve paths
+	// by joins of fixed depth; deeper paths are processed by several queries
+	private static final int MAX_JOIN_DEPTH = 16;
+
+	private final String[] myPathByNamesQueries = new String[MAX_JOIN_DEPTH + 1];
+	private String pathByNamesQuery(int depth) {
+		String query = myPathByNamesQueries[depth];
+		if (query == null) {
+			final StringBuilder columns = new StringBuilder("SELECT f0.file_id,f0.size");
+			final StringBuilder tables = new StringBuilder(" FROM Files f0");
+			for (int i = 1; i < depth; ++i) {
+				columns.append(",f").append(i).append(".file_id,f").append(i).append(".size");
+				tables
+					.append(" LEFT JOIN Files f").append(i)
+					.append(" ON f").append(i).append(".parent_id = f").append(i - 1).append(".file_id")
+					.append(" AND f").append(i).append(".name = ?");
+			}
+			query = columns.append(tables).toString();
+			myPathByNamesQueries[depth] = query;
+		}
+		return query;
+	}
+
 	@Override
 	protected Collection<FileInfo> loadFileInfos(ZLFile file) {
 		final LinkedList<ZLFile> fileStack = new LinkedList<ZLFile>();
@@ -618,25 +704,35 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		}
 
 		final ArrayList<FileInfo> infos = new ArrayList<FileInfo>(fileStack.size());
-		final String[] parameters = { null };
 		FileInfo current = null;
-		for (ZLFile f : fileStack) {
-			parameters[0] = f.getLongName();
+		while (!fileStack.isEmpty()) {
+			final int depth = Math.min(fileStack.size(), MAX_JOIN_DEPTH);
+			final String[] names = new String[depth];
+			for (int i = 0; i < depth; ++i) {
+				names[i] = fileStack.removeFirst().getLongName();
+			}
+			// parameters are bound in the text order: joined names first
+			final String[] parameters = new String[depth];
+			System.arraycopy(names, 1, parameters, 0, depth - 1);
+			parameters[depth - 1] = names[0];
 			final Cursor cursor = myDatabase.rawQuery(
-				(current == null) ?
-					"SELECT file_id,size FROM Files WHERE name = ?" :
-					"SELECT file_id,size FROM Files WHERE parent_id = " + current.Id + " AND name = ?",
+				pathByNamesQuery(depth) + (current == null
+					? " WHERE f0.parent_id IS NULL AND f0.name = ?"
+					: " WHERE f0.parent_id = " + current.Id + " AND f0.name = ?"),
 				parameters
 			);
+			int found = 0;
 			if (cursor.moveToNext()) {
-				current = createFileInfo(cursor.getLong(0), parameters[0], current);
-				if (!cursor.isNull(1)) {
-					current.FileSize = cursor.getLong(1);
+				for (; found < depth && !cursor.isNull(2 * found); ++found) {
+					current = createFileInfo(cursor.getLong(2 * found), names[found], current);
+					if (!cursor.isNull(2 * found + 1)) {
+						current.FileSize = cursor.getLong(2 * found + 1);
+					}
+					infos.add(current);
 				}
-				infos.add(current);
-				cursor.close();
-			} else {
-				cursor.close();
+			}
+			cursor.close();
+			if (found < depth) {
 				break;
 			}
 		}
@@ -644,25 +740,52 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return infos;
 	}
 
+	private String myPathByIdQuery;
+	private String pathByIdQuery() {
+		if (myPathByIdQuery == null) {
+			final StringBuilder columns = new StringBuilder("SELECT f0.name,f0.size,f0.parent_id");
+			final StringBuilder tables = new StringBuilder(" FROM Files f0");
+			for (int i = 1; i < MAX_JOIN_DEPTH; ++i) {
+				columns
+					.append(",f").append(i).append(".name")
+					.append(",f").append(i).append(".size")
+					.append(",f").append(i).append(".parent_id");
+				tables
+					.append(" LEFT JOIN Files f").append(i)
+					.append(" ON f").append(i).append(".file_id = f").append(i - 1).append(".parent_id");
+			}
+			myPathByIdQuery = columns.append(tables).append(" WHERE f0.file_id = ?").toString();
+		}
+		return myPathByIdQuery;
+	}
+
 	@Override
 	protected Collection<FileInfo> loadFileInfos(long fileId) {
 		final ArrayList<FileInfo> infos = new ArrayList<FileInfo>();
 		while (fileId != -1) {
 			final Cursor cursor = myDatabase.rawQuery(
-				"SELECT name,size,parent_id FROM Files WHERE file_id = " + fileId, null
+				pathByIdQuery(), new String[] { String.valueOf(fileId) }
 			);
+			long nextId = -1;
 			if (cursor.moveToNext()) {
-				FileInfo info = createFileInfo(fileId, cursor.getString(0), null);
-				if (!cursor.isNull(1)) {
-					info.FileSize = cursor.getLong(1);
+				long id = fileId;
+				for (int i = 0; i < MAX_JOIN_DEPTH && !cursor.isNull(3 * i); ++i) {
+					final FileInfo info = createFileInfo(id, cursor.getString(3 * i), null);
+					if (!cursor.isNull(3 * i + 1)) {
+						info.FileSize = cursor.getLong(3 * i + 1);
+					}
+					infos.add(0, info);
+					id = cursor.isNull(3 * i + 2) ? -1 : cursor.getLong(3 * i + 2);
+					if (id == -1) {
+						break;
+					}
 				}
-				infos.add(0, info);
-				fileId = cursor.isNull(2) ? -1 : cursor.getLong(2);
-			} else {
-				fileId = -1;
+				nextId = id;
 			}
 			cursor.close();
+			fileId = nextId;
 		}
+
 		for (int i = 1; i < infos.size(); ++i) {
 			final FileInfo oldInfo = infos.get(i);
 			final FileInfo newInfo = createFileInfo(oldInfo.Id, oldInfo.Name, infos.get(i - 1));
@@ -672,6 +795,66 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return infos;
 	}
 
+	@Override
+	protected Collection<FileInfo> loadFileInfos(Collection<Long> fileIds) {
+		// one query per level of the file tree, not per file
+		final HashMap<Long,Long> parentIdById = new HashMap<Long,Long>();
+		final HashMap<Long,String> nameById = new HashMap<Long,String>();
+		final HashMap<Long,Long> sizeById = new HashMap<Long,Long>();
+		Set<Long> idsToLoad = new HashSet<Long>(fileIds);
+		while (!idsToLoad.isEmpty()) {
+			final Cursor cursor = myDatabase.rawQuery(
+				"SELECT file_id,name,parent_id,size FROM Files WHERE file_id IN " + idSet(idsToLoad), null
+			);
+			final Set<Long> parentIds = new HashSet<Long>();
+			while (cursor.moveToNext()) {
+				final long id = cursor.getLong(0);
+				nameById.put(id, cursor.getString(1));
+				if (!cursor.isNull(2)) {
+					final long parentId = cursor.getLong(2);
+					parentIdById.put(id, parentId);
+					if (!nameById.containsKey(parentId)) {
+						parentIds.add(parentId);
+					}
+				}
+				if (!cursor.isNull(3)) {
+					sizeById.put(id, cursor.getLong(3));
+				}
+			}
+			cursor.close();
+			idsToLoad = parentIds;
+		}
+
+		final HashMap<Long,FileInfo> infosById = new HashMap<Long,FileInfo>();
+		final LinkedList<Long> path = new LinkedList<Long>();
+		for (Long id : nameById.keySet()) {
+			FileInfo parent = null;
+			for (Long i = id; i != null; i = parentIdById.get(i)) {
+				parent = infosById.get(i);
+				if (parent != null) {
+					break;
+				}
+				if (!nameById.containsKey(i)) {
+					// broken parent reference; such file has no path
+					path.clear();
+					break;
+				}
+				path.addFirst(i);
+			}
+			for (Long i : path) {
+				final FileInfo info = createFileInfo(i, nameById.get(i), parent);
+				final Long size = sizeById.get(i);
+				if (size != null) {
+					info.FileSize = size;
+				}
+				infosById.put(i, info);
+				parent = info;
+			}
+			path.clear();
+		}
+		return infosById.values();
+	}
+
 	private SQLiteStatement mySaveRecentBookStatement;
 	@Override
 	protected void saveRecentBookIds(final List<Long> ids) {
@@ -959,6 +1142,67 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		return links;
 	}
 
+	// content hashes are loaded and saved from library, API and UI threads;
+	// compiled statements must not be shared by several threads at once
+	private SQLiteStatement myLoadContentHashStatement;
+	@Override
+	protected String loadContentHash(long bookId, long fileSize, long fileTime) {
+		synchronized (myDatabase) {
+			if (myLoadContentHashStatement == null) {
+				myLoadContentHashStatement = myDatabase.compileStatement(
+					"SELECT hash FROM BookHash WHERE book_id = ? AND file_size = ? AND file_time = ?"
+				);
+			}
+			myLoadContentHashStatement.bindLong(1, bookId);
+			myLoadContentHashStatement.bindLong(2, fileSize);
+			myLoadContentHashStatement.bindLong(3, fileTime);
+			try {
+				return myLoadContentHashStatement.simpleQueryForString();
+			} catch (SQLException e) {
+				return null;
+			}
+		}
+	}
+
+	private SQLiteStatement mySaveContentHashStatement;
+	@Override
+	protected void saveContentHash(long bookId, long fileSize, long fileTime, String hash) {
+		synchronized (myDatabase) {
+			if (mySaveContentHashStatement == null) {
+				mySaveContentHashStatement = myDatabase.compileStatement(
+					"INSERT OR REPLACE INTO BookHash (book_id,file_size,file_time,hash) VALUES (?,?,?,?)"
+				);
+			}
+			mySaveContentHashStatement.bindLong(1, bookId);
+			mySaveContentHashStatement.bindLong(2, fileSize);
+			mySaveContentHashStatement.bindLong(3, fileTime);
+			mySaveContentHashStatement.bindString(4, hash);
+			mySaveContentHashStatement.execute();
+		}
+	}
+
+	@Override
+	protected void deleteContentHash(long bookId) {
+		synchronized (myDatabase) {
+			myDatabase.execSQL("DELETE FROM BookHash WHERE book_id = " + bookId);
+		}
+	}
+
+	@Override
+	protected List<Long> loadBookIdsByContentHash(String hash) {
+		final Cursor cursor = myDatabase.rawQuery(
+			"SELECT BookHash.book_id FROM BookHash" +
+			" INNER JOIN Books ON Books.book_id = BookHash.book_id" +
+			" WHERE Books.`exists` = 1 AND BookHash.hash = ?", new String[] { hash }
+		);
+		final List<Long> ids = new ArrayList<Long>();
+		while (cursor.moveToNext()) {
+			ids.add(cursor.getLong(0));
+		}
+		cursor.close();
+		return ids;
+	}
+
 
 	private void createTables() {
 		myDatabase.execSQL(
@@ -1303,4 +1547,18 @@ public final class SQLiteBooksDatabase extends BooksDatabase {
 		cursor.close();
 		myDatabase.execSQL("DROP TABLE BookSeries_Obsolete");
 	}
+
+	private void updateTables19() {
+		myDatabase.execSQL(
+			"CREATE TABLE IF NOT EXISTS BookHash(" +
+				"book_id INTEGER NOT NULL REFERENCES Books(book_id) PRIMARY KEY," +
+				"file_size INTEGER NOT NULL," +
+				"file_time INTEGER NOT NULL," +
+				"hash TEXT NOT NULL)");
+		myDatabase.execSQL("CREATE INDEX IF NOT EXISTS BookHash_Hash ON BookHash (hash)");
+	}
+
+	private void updateTables20() {
+		myDatabase.execSQL("CREATE INDEX IF NOT EXISTS Files_ParentName ON Files (parent_id,name)");
+	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.android.fbreader.libraryService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+
+import org.geometerplus.fbreader.library.*;
+
+public final class BookInfo implements Parcelable {
+	public final long Id;
+	public final String Path;
+	public final String Title;
+	public final String Encoding;
+	public final String Language;
+	public final String[] AuthorNames;
+	public final String[] AuthorSortKeys;
+	public final String[] Tags;
+	public final String SeriesName;
+	public final String SeriesIndex;
+
+	BookInfo(Book book) {
+		Id = book.getId();
+		Path = book.File.getPath();
+		Title = book.getTitle();
+		Encoding = book.getEncodingNoDetection();
+		Language = book.getLanguage();
+
+		final List<Author> authors = book.authors();
+		AuthorNames = new String[authors.size()];
+		AuthorSortKeys = new String[authors.size()];
+		for (int i = 0; i < AuthorNames.length; ++i) {
+			final Author a = authors.get(i);
+			AuthorNames[i] = a.DisplayName;
+			AuthorSortKeys[i] = a.SortKey;
+		}
+
+		final List<Tag> tags = book.tags();
+		Tags = new String[tags.size()];
+		for (int i = 0; i < Tags.length; ++i) {
+			Tags[i] = tags.get(i).toString("/");
+		}
+
+		final SeriesInfo series = book.getSeriesInfo();
+		SeriesName = series != null ? series.Name : null;
+		SeriesIndex = series != null && series.Index != null ? series.Index.toPlainString() : null;
+	}
+
+	private BookInfo(Parcel parcel) {
+		Id = parcel.readLong();
+		Path = parcel.readString();
+		Title = parcel.readString();
+		Encoding = parcel.readString();
+		Language = parcel.readString();
+		AuthorNames = parcel.createStringArray();
+		AuthorSortKeys = parcel.createStringArray();
+		Tags = parcel.createStringArray();
+		SeriesName = parcel.readString();
+		SeriesIndex = parcel.readString();
+	}
+
+	/**
+	 * @return book object for the library tree in client process,
+	 * null if the book file cannot be created
+	 */
+	public Book createBook() {
+		final ZLFile file = ZLFile.createFileByPath(Path);
+		if (file == null) {
+			return null;
+		}
+		final List<Author> authors = new ArrayList<Author>(AuthorNames.length);
+		for (int i = 0; i < AuthorNames.length; ++i) {
+			authors.add(new Author(AuthorNames[i], AuthorSortKeys[i]));
+		}
+		final List<Tag> tags = new ArrayList<Tag>(Tags.length);
+		for (String path : Tags) {
+			final Tag tag = Tag.getTag(path.split("/"));
+			if (tag != null) {
+				tags.add(tag);
+			}
+		}
+		return Book.createFromStoredInfo(
+			Id, file, Title, Encoding, Language, authors, tags, SeriesName, SeriesIndex
+		);
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel parcel, int flags) {
+		parcel.writeLong(Id);
+		parcel.writeString(Path);
+		parcel.writeString(Title);
+		parcel.writeString(Encoding);
+		parcel.writeString(Language);
+		parcel.writeStringArray(AuthorNames);
+		parcel.writeStringArray(AuthorSortKeys);
+		parcel.writeStringArray(Tags);
+		parcel.writeString(SeriesName);
+		parcel.writeString(SeriesIndex);
+	}
+
+	public static final Parcelable.Creator<BookInfo> CREATOR =
+		new Parcelable.Creator<BookInfo>() {
+			public BookInfo createFromParcel(Parcel parcel) {
+				return new BookInfo(parcel);
+			}
+
+			public BookInfo[] newArray(int size) {
+				return new BookInfo[size];
+			}
+		};
+}
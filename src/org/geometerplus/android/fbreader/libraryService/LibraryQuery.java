@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.android.fbreader.libraryService;
+
+public interface LibraryQuery {
+	// all queries return books sorted by title (series: by index in series)
+	int ALL = 0;
+	int BY_AUTHOR = 1;    // parameter: author display name
+	int BY_SERIES = 2;    // parameter: series name
+	int BY_TAG = 3;       // parameter: full tag path, "/"-separated
+	int BY_TITLE = 4;     // parameter: title prefix, case insensitive
+	int SEARCH = 5;       // parameter: search pattern
+	int FAVORITES = 6;
+	int RECENT = 7;       // in recent list order
+
+	// binder transactions are limited, larger pages are truncated
+	int MAX_PAGE_SIZE = 500;
+
+	// LibraryListener event codes
+	int EVENT_BOOKS_CHANGED = 1 << 0;
+	int EVENT_STATUS_CHANGED = 1 << 1;
+	int EVENT_FOUND = 1 << 2;
+	int EVENT_NOT_FOUND = 1 << 3;
+}
@@ -19,17 +19,39 @@
 
 package org.geometerplus.android.fbreader.libraryService;
 
+import java.util.*;
+
 import android.app.Service;
 import android.content.Intent;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
 
 import org.geometerplus.fbreader.library.*;
 
 import org.geometerplus.android.fbreader.library.SQLiteBooksDatabase;
 
-public class LibraryService extends Service implements Library.ChangeListener {
+public class LibraryService extends Service implements Library.ChangeListener, Library.BookChangeListener {
+	// delay for collecting book changes into one notification
+	private static final long NOTIFICATION_DELAY = 300;
+
 	public final class LibraryImplementation extends LibraryInterface.Stub {
-		private final AbstractLibrary myBaseLibrary;
+		private final Library myBaseLibrary;
+
+		// changed on every library change; cached data with older revision is dropped
+		private volatile int myRevision;
+
+		// the last query result is kept for paging through it
+		private int myCachedQuery = -1;
+		private String myCachedParameter;
+		private List<Book> myCachedBooks;
+		private int myCachedRevision;
+		private Map<Long,Book> myBooksById;
+		private int myBooksByIdRevision;
+
+		private final RemoteCallbackList<LibraryListener> myListeners =
+			new RemoteCallbackList<LibraryListener>();
 
 		LibraryImplementation() {
 			BooksDatabase database = BooksDatabase.Instance();
@@ -37,15 +59,294 @@ public class LibraryService extends Service implements Library.ChangeListener {
 				database = new SQLiteBooksDatabase(LibraryService.this, "LIBRARY SERVICE");
 			}
 			myBaseLibrary = new Library(database);
-			((Library)myBaseLibrary).startBuild();
+			myBaseLibrary.startBuild();
 		}
 
 		public boolean isUpToDate() {
 			return myBaseLibrary.isUpToDate();
 		}
+
+		public synchronized int count(int query, String parameter) {
+			return query(query, parameter).size();
+		}
+
+		public synchronized List<BookInfo> books(int query, String parameter, int offset, int limit) {
+			final List<Book> books = query(query, parameter);
+			offset = Math.max(offset, 0);
+			final int end = (int)Math.min((long)offset + Math.min(limit, LibraryQuery.MAX_PAGE_SIZE), books.size());
+			if (offset >= end) {
+				return Collections.emptyList();
+			}
+			final List<BookInfo> infos = new ArrayList<BookInfo>(end - offset);
+			for (Book book : books.subList(offset, end)) {
+				infos.add(new BookInfo(book));
+			}
+			return infos;
+		}
+
+		public synchronized List<BookInfo> booksByIds(long[] ids) {
+			final Map<Long,Book> byId = booksById();
+			final List<BookInfo> infos = new ArrayList<BookInfo>(Math.min(ids.length, LibraryQuery.MAX_PAGE_SIZE));
+			for (long id : ids) {
+				final Book book = byId.get(id);
+				if (book != null) {
+					infos.add(new BookInfo(book));
+					if (infos.size() == LibraryQuery.MAX_PAGE_SIZE) {
+						break;
+					}
+				}
+			}
+			return infos;
+		}
+
+		public long recentBookId(int index) {
+			final List<Long> ids = myBaseLibrary.recentBookIds();
+			return index >= 0 && index < ids.size() ? ids.get(index) : -1;
+		}
+
+		public void addBookToRecentList(long bookId) {
+			final Book book = getBook(bookId);
+			if (book != null) {
+				myBaseLibrary.addBookToRecentList(book);
+			}
+		}
+
+		public boolean isBookInFavorites(long bookId) {
+			return myBaseLibrary.isBookInFavorites(getBook(bookId));
+		}
+
+		public void addBookToFavorites(long bookId) {
+			final Book book = getBook(bookId);
+			if (book != null) {
+				myBaseLibrary.addBookToFavorites(book);
+			}
+		}
+
+		public void removeBookFromFavorites(long bookId) {
+			final Book book = getBook(bookId);
+			if (book != null) {
+				myBaseLibrary.removeBookFromFavorites(book);
+			}
+		}
+
+		public boolean canRemoveBookFile(long bookId) {
+			final Book book = getBook(bookId);
+			return book != null && myBaseLibrary.canRemoveBookFile(book);
+		}
+
+		public void removeBook(long bookId, int removeMode) {
+			final Book book = getBook(bookId);
+			if (book != null) {
+				myBaseLibrary.removeBook(book, removeMode);
+			}
+		}
+
+		public void refreshBook(long bookId) {
+			final Book book = Book.getById(bookId);
+			if (book != null) {
+				myBaseLibrary.refreshBookInfo(book);
+			}
+		}
+
+		public void startBookSearch(String pattern) {
+			myBaseLibrary.startBookSearch(pattern);
+		}
+
+		public void addListener(LibraryListener listener) {
+			myListeners.register(listener);
+		}
+
+		public void removeListener(LibraryListener listener) {
+			myListeners.unregister(listener);
+		}
+
+		void invalidate() {
+			++myRevision;
+		}
+
+		private Book getBook(long bookId) {
+			synchronized (this) {
+				final Book book = booksById().get(bookId);
+				if (book != null) {
+					return book;
+				}
+			}
+			return Book.getById(bookId);
+		}
+
+		private Map<Long,Book> booksById() {
+			final int revision = myRevision;
+			if (myBooksById == null || myBooksByIdRevision != revision) {
+				myBooksByIdRevision = revision;
+				final List<Book> books = myBaseLibrary.books();
+				myBooksById = new HashMap<Long,Book>(books.size() * 4 / 3 + 1);
+				for (Book b : books) {
+					myBooksById.put(b.getId(), b);
+				}
+			}
+			return myBooksById;
+		}
+
+		private List<Book> query(int query, String parameter) {
+			// favorites and recent list are changed without book events, so are never cached
+			final boolean cacheable =
+				query != LibraryQuery.FAVORITES && query != LibraryQuery.RECENT;
+			final int revision = myRevision;
+			if (cacheable && myCachedBooks != null && myCachedRevision == revision &&
+				query == myCachedQuery &&
+				(parameter != null ? parameter.equals(myCachedParameter) : myCachedParameter == null)) {
+				return myCachedBooks;
+			}
+
+			final List<Book> result = new ArrayList<Book>();
+			if (query == LibraryQuery.RECENT) {
+				final Map<Long,Book> byId = booksById();
+				for (long id : myBaseLibrary.recentBookIds()) {
+					final Book book = byId.get(id);
+					if (book != null) {
+						result.add(book);
+					}
+				}
+				return result;
+			}
+
+			final String lowerCaseParameter = parameter != null ? parameter.toLowerCase() : "";
+			// loaded once per query, not per book
+			final Set<Long> favoriteIds = query == LibraryQuery.FAVORITES
+				? new HashSet<Long>(myBaseLibrary.favoriteBookIds()) : null;
+			for (Book book : myBaseLibrary.books()) {
+				if (matches(book, query, parameter, lowerCaseParameter, favoriteIds)) {
+					result.add(book);
+				}
+			}
+			Collections.sort(result, query == LibraryQuery.BY_SERIES ? BY_SERIES_INDEX : BY_TITLE);
+
+			if (cacheable) {
+				myCachedQuery = query;
+				myCachedParameter = parameter;
+				myCachedBooks = result;
+				myCachedRevision = revision;
+			}
+			return result;
+		}
+
+		private boolean matches(Book book, int query, String parameter, String lowerCaseParameter, Set<Long> favoriteIds) {
+			switch (query) {
+				default:
+					return false;
+				case LibraryQuery.ALL:
+					return true;
+				case LibraryQuery.BY_AUTHOR:
+					for (Author a : book.authors()) {
+						if (a.DisplayName.equals(parameter)) {
+							return true;
+						}
+					}
+					return false;
+				case LibraryQuery.BY_SERIES:
+				{
+					final SeriesInfo series = book.getSeriesInfo();
+					return series != null && series.Name.equals(parameter);
+				}
+				case LibraryQuery.BY_TAG:
+					for (Tag t : book.tags()) {
+						if (t.toString("/").equals(parameter)) {
+							return true;
+						}
+					}
+					return false;
+				case LibraryQuery.BY_TITLE:
+				{
+					final String title = book.getTitle();
+					return title != null && title.toLowerCase().startsWith(lowerCaseParameter);
+				}
+				case LibraryQuery.SEARCH:
+					return book.matches(lowerCaseParameter);
+				case LibraryQuery.FAVORITES:
+					return favoriteIds.contains(book.getId());
+			}
+		}
+
+		void notifyListeners(int code, long[] addedIds, long[] removedIds) {
+			final boolean upToDate = myBaseLibrary.isUpToDate();
+			final int count = myListeners.beginBroadcast();
+			for (int i = 0; i < count; ++i) {
+				try {
+					myListeners.getBroadcastItem(i).onLibraryChanged(code, addedIds, removedIds, upToDate);
+				} catch (RemoteException e) {
+					// dead listeners are removed by RemoteCallbackList
+				}
+			}
+			myListeners.finishBroadcast();
+		}
+	}
+
+	private static String title(Book book) {
+		final String title = book.getTitle();
+		return title != null ? title : "";
 	}
 
+	private static final Comparator<Book> BY_TITLE = new Comparator<Book>() {
+		public int compare(Book b0, Book b1) {
+			final int diff = title(b0).compareToIgnoreCase(title(b1));
+			if (diff != 0) {
+				return diff;
+			}
+			return b0.getId() < b1.getId() ? -1 : (b0.getId() == b1.getId() ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<Book> BY_SERIES_INDEX = new Comparator<Book>() {
+		public int compare(Book b0, Book b1) {
+			final SeriesInfo s0 = b0.getSeriesInfo();
+			final SeriesInfo s1 = b1.getSeriesInfo();
+			if (s0 != null && s1 != null && s0.Index != null && s1.Index != null) {
+				final int diff = s0.Index.compareTo(s1.Index);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return BY_TITLE.compare(b0, b1);
+		}
+	};
+
 	private LibraryImplementation myLibrary;
+	private Handler myHandler;
+
+	// changes collected since the last notification
+	private final Object myDeltaLock = new Object();
+	private final LinkedHashSet<Long> myAddedIds = new LinkedHashSet<Long>();
+	private final LinkedHashSet<Long> myRemovedIds = new LinkedHashSet<Long>();
+	private int myEventMask;
+
+	private final Runnable myNotifier = new Runnable() {
+		public void run() {
+			final int code;
+			final long[] added;
+			final long[] removed;
+			synchronized (myDeltaLock) {
+				code = myEventMask;
+				added = toArray(myAddedIds);
+				removed = toArray(myRemovedIds);
+				myEventMask = 0;
+				myAddedIds.clear();
+				myRemovedIds.clear();
+			}
+			final LibraryImplementation library = myLibrary;
+			if (library != null && code != 0) {
+				library.notifyListeners(code, added, removed);
+			}
+		}
+	};
+
+	private static long[] toArray(Collection<Long> ids) {
+		final long[] array = new long[ids.size()];
+		int i = 0;
+		for (long id : ids) {
+			array[i++] = id;
+		}
+		return array;
+	}
 
 	@Override
 	public void onStart(Intent intent, int startId) {
@@ -69,20 +370,79 @@ public class LibraryService extends Service implements Library.ChangeListener {
 	public void onCreate() {
 		System.err.println("LibraryService.onCreate()");
 		super.onCreate();
+		myHandler = new Handler();
 		myLibrary = new LibraryImplementation();
 		myLibrary.myBaseLibrary.addChangeListener(this);
+		myLibrary.myBaseLibrary.addBookChangeListener(this);
 	}
 
 	@Override
 	public void onDestroy() {
 		System.err.println("LibraryService.onDestroy()");
+		myHandler.removeCallbacks(myNotifier);
+		myLibrary.myBaseLibrary.removeBookChangeListener(this);
 		myLibrary.myBaseLibrary.removeChangeListener(this);
+		myLibrary.myListeners.kill();
 		myLibrary = null;
+		BooksDatabase.flushJournal();
 		super.onDestroy();
 	}
 
+	private void invalidate() {
+		final LibraryImplementation library = myLibrary;
+		if (library != null) {
+			library.invalidate();
+		}
+	}
+
+	private void scheduleNotification(int event) {
+		synchronized (myDeltaLock) {
+			if (myEventMask == 0) {
+				myHandler.postDelayed(myNotifier, NOTIFICATION_DELAY);
+			}
+			myEventMask |= event;
+		}
+	}
+
+	public void onBookAdded(Book book) {
+		synchronized (myDeltaLock) {
+			myRemovedIds.remove(book.getId());
+			myAddedIds.add(book.getId());
+		}
+		invalidate();
+		scheduleNotification(LibraryQuery.EVENT_BOOKS_CHANGED);
+	}
+
+	public void onBookRemoved(Book book) {
+		synchronized (myDeltaLock) {
+			myAddedIds.remove(book.getId());
+			myRemovedIds.add(book.getId());
+		}
+		invalidate();
+		scheduleNotification(LibraryQuery.EVENT_BOOKS_CHANGED);
+	}
+
 	public void onLibraryChanged(final Code code) {
-		// TODO: implement signal sending
-		System.err.println("LibraryService.onLibraryChanged(" + code + "): " + myLibrary.isUpToDate());
+		final LibraryImplementation library = myLibrary;
+		if (library == null) {
+			return;
+		}
+		switch (code) {
+			case BookAdded:
+			case BookRemoved:
+				library.invalidate();
+				scheduleNotification(LibraryQuery.EVENT_BOOKS_CHANGED);
+				break;
+			case StatusChanged:
+				scheduleNotification(LibraryQuery.EVENT_STATUS_CHANGED);
+				break;
+			case Found:
+				library.invalidate();
+				scheduleNotification(LibraryQuery.EVENT_FOUND);
+				break;
+			case NotFound:
+				scheduleNotification(LibraryQuery.EVENT_NOT_FOUND);
+				break;
+		}
 	}
 }
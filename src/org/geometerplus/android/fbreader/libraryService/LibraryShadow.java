@@ -20,74 +20,383 @@
 package org.geometerplus.android.fbreader.libraryService;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
 import android.os.RemoteException;
 
 import org.geometerplus.fbreader.library.*;
 
+/**
+ * Library for the activities of the library process. Operations are
+ * forwarded to the library service; trees are kept in a local Library
+ * that is not built, but filled with books loaded from the service
+ * and updated by the service change notifications.
+ */
 public class LibraryShadow extends AbstractLibrary {
-	private final LibraryInterface myInterface;
+	private static LibraryShadow ourInstance;
+	private static ServiceConnection ourConnection;
+	private static final List<Runnable> ourPendingActions = new LinkedList<Runnable>();
+
+	/**
+	 * Binds to the library service (once per process) and runs the action
+	 * as soon as the shadow is connected. Must be called in the UI thread.
+	 */
+	public static void connect(Context context, Runnable action) {
+		if (ourInstance != null) {
+			action.run();
+			return;
+		}
+		ourPendingActions.add(action);
+		if (ourConnection != null) {
+			return;
+		}
+		ourConnection = new ServiceConnection() {
+			public void onServiceConnected(ComponentName name, IBinder binder) {
+				final LibraryInterface iface = LibraryInterface.Stub.asInterface(binder);
+				if (ourInstance == null) {
+					ourInstance = new LibraryShadow();
+				}
+				ourInstance.setInterface(iface);
+				for (Runnable action : ourPendingActions) {
+					action.run();
+				}
+				ourPendingActions.clear();
+			}
+
+			public void onServiceDisconnected(ComponentName name) {
+				// calls fail with RemoteException until the service is restarted
+				// and onServiceConnected() is called again
+			}
+		};
+		context.getApplicationContext().bindService(
+			new Intent(context, LibraryService.class), ourConnection, Context.BIND_AUTO_CREATE
+		);
+	}
+
+	public static LibraryShadow Instance() {
+		return ourInstance;
+	}
+
+	private volatile LibraryInterface myInterface;
+
+	private final Library myTrees = new Library(BooksDatabase.Instance());
+	// books in myTrees; changed in myWorker thread only
+	private final Map<Long,Book> myBooks = new HashMap<Long,Book>();
+	// loading and change processing are serialized in this thread
+	private final ExecutorService myWorker = Executors.newSingleThreadExecutor();
+
+	private volatile boolean myIsLoaded;
+	private volatile boolean myIsServiceUpToDate;
+	private volatile String mySearchPattern;
 
-	public LibraryShadow(LibraryInterface iface) {
+	private final LibraryListener.Stub myListener = new LibraryListener.Stub() {
+		public void onLibraryChanged(
+			final int code, final long[] addedIds, final long[] removedIds, boolean isUpToDate
+		) {
+			myIsServiceUpToDate = isUpToDate;
+			myWorker.execute(new Runnable() {
+				public void run() {
+					processChanges(code, addedIds, removedIds);
+				}
+			});
+		}
+	};
+
+	private LibraryShadow() {
+		myTrees.addChangeListener(new ChangeListener() {
+			public void onLibraryChanged(Code code) {
+				fireModelChangedEvent(code);
+			}
+		});
+	}
+
+	private void setInterface(LibraryInterface iface) {
 		myInterface = iface;
+		myIsLoaded = false;
+		try {
+			iface.addListener(myListener);
+		} catch (RemoteException e) {
+		}
+		myWorker.execute(new Runnable() {
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	private void load() {
+		final LibraryInterface iface = myInterface;
+		if (!myBooks.isEmpty()) {
+			// reconnection: the service library has been built again
+			myTrees.removeBooks(new ArrayList<Book>(myBooks.values()));
+			myBooks.clear();
+		}
+		try {
+			myIsServiceUpToDate = iface.isUpToDate();
+			for (int offset = 0; ; offset += LibraryQuery.MAX_PAGE_SIZE) {
+				final List<BookInfo> page =
+					iface.books(LibraryQuery.ALL, null, offset, LibraryQuery.MAX_PAGE_SIZE);
+				for (BookInfo info : page) {
+					final Book book = info.createBook();
+					if (book != null) {
+						myBooks.put(info.Id, book);
+					}
+				}
+				if (page.size() < LibraryQuery.MAX_PAGE_SIZE) {
+					break;
+				}
+			}
+			// all the books are grouped at once, as in Library.build()
+			myTrees.setBooks(myBooks.values());
+			loadBookLists();
+		} catch (RemoteException e) {
+		}
+		myIsLoaded = true;
+		fireModelChangedEvent(ChangeListener.Code.StatusChanged);
+	}
+
+	// books that are already in the trees are replaced
+	private void addBooks(List<BookInfo> infos) {
+		final List<Book> oldBooks = new ArrayList<Book>();
+		final List<Book> newBooks = new ArrayList<Book>(infos.size());
+		for (BookInfo info : infos) {
+			final Book book = info.createBook();
+			if (book == null) {
+				continue;
+			}
+			final Book old = myBooks.put(info.Id, book);
+			if (old != null) {
+				oldBooks.add(old);
+			}
+			newBooks.add(book);
+		}
+		if (!oldBooks.isEmpty()) {
+			myTrees.removeBooks(oldBooks);
+		}
+		if (!newBooks.isEmpty()) {
+			myTrees.addBooks(newBooks);
+		}
+	}
+
+	private void removeBooks(long[] ids) {
+		final List<Book> books = new ArrayList<Book>(ids.length);
+		for (long id : ids) {
+			final Book book = myBooks.remove(id);
+			if (book != null) {
+				books.add(book);
+			}
+		}
+		if (!books.isEmpty()) {
+			myTrees.removeBooks(books);
+		}
+	}
+
+	private List<Book> loadBooks(int query, String parameter) throws RemoteException {
+		final LibraryInterface iface = myInterface;
+		final List<Book> books = new ArrayList<Book>();
+		for (int offset = 0; ; offset += LibraryQuery.MAX_PAGE_SIZE) {
+			final List<BookInfo> page =
+				iface.books(query, parameter, offset, LibraryQuery.MAX_PAGE_SIZE);
+			for (BookInfo info : page) {
+				final Book book = myBooks.get(info.Id);
+				if (book != null) {
+					books.add(book);
+				}
+			}
+			if (page.size() < LibraryQuery.MAX_PAGE_SIZE) {
+				return books;
+			}
+		}
+	}
+
+	// recent list is changed by the reader process without notifications
+	private void loadBookLists() throws RemoteException {
+		myTrees.setBookList(Library.ROOT_RECENT, loadBooks(LibraryQuery.RECENT, null));
+		myTrees.setBookList(Library.ROOT_FAVORITES, loadBooks(LibraryQuery.FAVORITES, null));
+	}
+
+	private void processChanges(int code, long[] addedIds, long[] removedIds) {
+		try {
+			if ((code & LibraryQuery.EVENT_BOOKS_CHANGED) != 0) {
+				removeBooks(removedIds);
+				for (int start = 0; start < addedIds.length; start += LibraryQuery.MAX_PAGE_SIZE) {
+					final long[] ids =
+						new long[Math.min(LibraryQuery.MAX_PAGE_SIZE, addedIds.length - start)];
+					System.arraycopy(addedIds, start, ids, 0, ids.length);
+					addBooks(myInterface.booksByIds(ids));
+				}
+				loadBookLists();
+			}
+			if ((code & LibraryQuery.EVENT_FOUND) != 0) {
+				final String pattern = mySearchPattern;
+				if (pattern != null) {
+					myTrees.setSearchResults(
+						pattern.toLowerCase(), loadBooks(LibraryQuery.SEARCH, pattern)
+					);
+				}
+			}
+		} catch (RemoteException e) {
+		}
+		if ((code & LibraryQuery.EVENT_NOT_FOUND) != 0) {
+			fireModelChangedEvent(ChangeListener.Code.NotFound);
+		}
+		if ((code & LibraryQuery.EVENT_STATUS_CHANGED) != 0) {
+			fireModelChangedEvent(ChangeListener.Code.StatusChanged);
+		}
+	}
+
+	private void reloadBookLists() {
+		myWorker.execute(new Runnable() {
+			public void run() {
+				try {
+					loadBookLists();
+				} catch (RemoteException e) {
+				}
+			}
+		});
+	}
+
+	public LibraryTree getRootTree() {
+		return myTrees.getRootTree();
+	}
+
+	public LibraryTree getLibraryTree(LibraryTree.Key key) {
+		return myTrees.getLibraryTree(key);
+	}
+
+	/**
+	 * Re-reads recent and favorites lists; they can be changed by other processes.
+	 */
+	public void refreshBookLists() {
+		if (myIsLoaded) {
+			reloadBookLists();
+		}
+	}
+
+	/**
+	 * Makes the service re-read book info changed in this process;
+	 * the trees are updated by the following change notification.
+	 */
+	public void refreshBookInfo(Book book) {
+		if (book == null) {
+			return;
+		}
+		try {
+			myInterface.refreshBook(book.getId());
+		} catch (RemoteException e) {
+		}
 	}
 
 	@Override
 	public boolean isUpToDate() {
+		return myIsLoaded && myIsServiceUpToDate;
+	}
+
+	// loads books page by page, pageSize is limited by LibraryQuery.MAX_PAGE_SIZE
+	public List<BookInfo> books(int query, String parameter, int offset, int limit) {
 		try {
-			return myInterface.isUpToDate();
+			return myInterface.books(query, parameter, offset, limit);
 		} catch (RemoteException e) {
-			return false;
+			return Collections.emptyList();
+		}
+	}
+
+	public List<BookInfo> booksByIds(long[] ids) {
+		try {
+			return myInterface.booksByIds(ids);
+		} catch (RemoteException e) {
+			return Collections.emptyList();
 		}
 	}
 
 	@Override
 	public boolean canRemoveBookFile(Book book) {
-		// TODO: implement
-		return false;
+		try {
+			return myInterface.canRemoveBookFile(book.getId());
+		} catch (RemoteException e) {
+			return false;
+		}
 	}
 
 	@Override
 	public void removeBook(Book book, int removeMode) {
-		// TODO: implement
+		try {
+			myInterface.removeBook(book.getId(), removeMode);
+		} catch (RemoteException e) {
+		}
+	}
+
+	private Book recentBook(int index) {
+		try {
+			final long id = myInterface.recentBookId(index);
+			return id != -1 ? Book.getById(id) : null;
+		} catch (RemoteException e) {
+			return null;
+		}
 	}
 
 	@Override
 	public Book getRecentBook() {
-		// TODO: implement
-		return null;
+		return recentBook(0);
 	}
 
 	@Override
 	public Book getPreviousBook() {
-		// TODO: implement
-		return null;
+		return recentBook(1);
 	}
 
 	@Override
 	public void addBookToRecentList(Book book) {
-		// TODO: implement
+		try {
+			myInterface.addBookToRecentList(book.getId());
+		} catch (RemoteException e) {
+		}
+		reloadBookLists();
 	}
 
 	@Override
 	public boolean isBookInFavorites(Book book) {
-		// TODO: implement
-		return false;
+		if (book == null) {
+			return false;
+		}
+		try {
+			return myInterface.isBookInFavorites(book.getId());
+		} catch (RemoteException e) {
+			return false;
+		}
 	}
 
 	@Override
 	public void addBookToFavorites(Book book) {
-		// TODO: implement
+		try {
+			myInterface.addBookToFavorites(book.getId());
+		} catch (RemoteException e) {
+		}
+		reloadBookLists();
 	}
 
 	@Override
 	public void removeBookFromFavorites(Book book) {
-		// TODO: implement
+		try {
+			myInterface.removeBookFromFavorites(book.getId());
+		} catch (RemoteException e) {
+		}
+		reloadBookLists();
 	}
 
 	@Override
 	public void startBookSearch(final String pattern) {
-		// TODO: implement
+		mySearchPattern = pattern;
+		try {
+			myInterface.startBookSearch(pattern);
+		} catch (RemoteException e) {
+		}
 	}
 
 	@Override
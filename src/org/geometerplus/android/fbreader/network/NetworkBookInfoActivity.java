@@ -335,7 +335,7 @@ public class NetworkBookInfoActivity extends Activity implements NetworkLibrary.
 							}
 						}
 					}
-				});
+				}, true);
 			} else {
 				data = mgr.getImageData(cover);
 			}
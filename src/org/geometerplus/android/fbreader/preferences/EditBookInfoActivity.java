@@ -181,5 +181,6 @@ public class EditBookInfoActivity extends ZLPreferenceActivity {
 		if (myBook != null) {
 			myBook.save();
 		}
+		BooksDatabase.flushJournal();
 	}
 }
@@ -81,7 +81,7 @@ public abstract class TreeActivity extends ListActivity {
 
 	@Override
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
-		if (keyCode == KeyEvent.KEYCODE_BACK) {
+		if (keyCode == KeyEvent.KEYCODE_BACK && myCurrentTree != null) {
 			FBTree parent = null;
 			while (parent == null && !myHistory.isEmpty()) {
 				parent = getTreeByKey(myHistory.remove(myHistory.size() - 1));
@@ -30,6 +30,7 @@ import android.os.Message;
 import android.widget.Toast;
 
 import org.geometerplus.zlibrary.core.resources.ZLResource;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
 
 public abstract class UIUtil {
 	private static final Object ourMonitor = new Object();
@@ -105,6 +106,7 @@ public abstract class UIUtil {
 						}
 					}
 				}
+				ZLBufferPool.releaseThreadBuffers();
 			}
 		}).start();
 	}
@@ -120,6 +122,7 @@ public abstract class UIUtil {
 					@Override
 					public void run() {
 						action.run();
+						ZLBufferPool.releaseThreadBuffers();
 						activity.runOnUiThread(new Runnable() {
 							public void run() {
 								try {
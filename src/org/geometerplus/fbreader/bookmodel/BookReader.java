@@ -36,7 +36,8 @@ public class BookReader {
 	private boolean myTextParagraphExists = false;
 	private boolean myTextParagraphIsNonEmpty = false;
 
-	private char[] myTextBuffer = new char[4096];
+	// taken from ZLBufferPool while the paragraph text is buffered
+	private char[] myTextBuffer;
 	private int myTextBufferLength;
 	private StringBuilder myContentsBuffer = new StringBuilder();
 
@@ -66,12 +67,25 @@ public class BookReader {
 		if (myTextBufferLength > 0) {
 			myCurrentTextModel.addText(myTextBuffer, 0, myTextBufferLength);
 			myTextBufferLength = 0;
+			ZLBufferPool.release(myTextBuffer);
+			myTextBuffer = null;
 			if (myByteDecoder != null) {
 				myByteDecoder.reset();
 			}
 		}
 	}
 
+	private void reserveTextBuffer(int length) {
+		if (myTextBuffer == null || myTextBuffer.length < length) {
+			final char[] buffer = ZLBufferPool.getChars(Math.max(length, 4096));
+			if (myTextBufferLength > 0) {
+				System.arraycopy(myTextBuffer, 0, buffer, 0, myTextBufferLength);
+			}
+			ZLBufferPool.release(myTextBuffer);
+			myTextBuffer = buffer;
+		}
+	}
+
 	public final void addControl(byte kind, boolean start) {
 		if (myTextParagraphExists) {
 			flushTextBufferToParagraph();
@@ -212,9 +226,7 @@ public class BookReader {
 		} else {
 			final int oldLength = myTextBufferLength;
 			final int newLength = oldLength + length;
-			if (myTextBuffer.length < newLength) {
-				myTextBuffer = ZLArrayUtils.createCopy(myTextBuffer, oldLength, newLength);
-			}
+			reserveTextBuffer(newLength);
 			System.arraycopy(data, offset, myTextBuffer, oldLength, length);
 			myTextBufferLength = newLength;
 			if (myInsideTitle) {
@@ -236,9 +248,7 @@ public class BookReader {
 		myTextParagraphIsNonEmpty = true;
 
 		final int oldLength = myTextBufferLength;
-		if (myTextBuffer.length < oldLength + length) {
-			myTextBuffer = ZLArrayUtils.createCopy(myTextBuffer, oldLength, oldLength + length);
-		}
+		reserveTextBuffer(oldLength + length);
 		final CharBuffer cb = CharBuffer.wrap(myTextBuffer, myTextBufferLength, length);
 
 		if (myUnderflowLength > 0) {
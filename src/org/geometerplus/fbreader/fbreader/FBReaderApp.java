@@ -367,6 +367,7 @@ public final class FBReaderApp extends ZLApplication {
 		if (Model != null && BookTextView != null) {
 			Model.Book.storePosition(BookTextView.getStartCursor());
 		}
+		BooksDatabase.flushJournal();
 	}
 
 	static enum CancelActionType {
@@ -38,7 +38,7 @@ public class PluginCollection {
 	private final Map<FormatPlugin.Type,List<FormatPlugin>> myPlugins =
 		new HashMap<FormatPlugin.Type,List<FormatPlugin>>();
 
-	public static PluginCollection Instance() {
+	public static synchronized PluginCollection Instance() {
 		if (ourInstance == null) {
 			ourInstance = new PluginCollection();
 
@@ -79,6 +79,17 @@ public class PluginCollection {
 
 	public FormatPlugin getPlugin(ZLFile file, FormatPlugin.Type formatType) {
 		final FileType fileType = FileTypeCollection.Instance.typeForFile(file);
+		if (file.isCompressed()) {
+			// gzip/bzip2 data are decompressed by ZLFile.getInputStream() only;
+			// native and external plugins open the file by path
+			switch (formatType) {
+				case ANY:
+				case JAVA:
+					return getPlugin(fileType, FormatPlugin.Type.JAVA);
+				default:
+					return null;
+			}
+		}
 		return getPlugin(fileType, formatType);
 	}
 
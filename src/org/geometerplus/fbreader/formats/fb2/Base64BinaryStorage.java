@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.formats.fb2;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.image.ZLFileImage;
+import org.geometerplus.zlibrary.core.image.ZLSingleImage;
+import org.geometerplus.zlibrary.core.util.MimeType;
+
+import org.geometerplus.fbreader.Paths;
+
+/**
+ * Decodes base64-encoded <binary> elements on the fly, while the FB2 file is being read,
+ * and writes raw image bytes one after another into a single side file.
+ * Every image is decoded exactly once; after that it is just a slice of the side file.
+ *
+ * Side files are per book (named by a hash of the book path), images of a book
+ * read earlier stay valid while the book is read again: the new file is written
+ * under a temporary name and replaces the old one (with the same content) on close().
+ * Only a few most recently written files of each kind are kept.
+ */
+final class Base64BinaryStorage {
+	private static final byte[] ourDecodingTable = new byte[128];
+	private static final byte PADDING = 64;
+	static {
+		for (int i = 0; i < ourDecodingTable.length; ++i) {
+			ourDecodingTable[i] = -1;
+		}
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); ++i) {
+			ourDecodingTable[alphabet.charAt(i)] = (byte)i;
+		}
+		ourDecodingTable['='] = PADDING;
+	}
+
+	static final class Image extends ZLSingleImage {
+		private final Base64BinaryStorage myStorage;
+		private final int myOffset;
+		private volatile ZLFileImage myImage;
+
+		private Image(MimeType mimeType, Base64BinaryStorage storage, int offset) {
+			super(mimeType);
+			myStorage = storage;
+			myOffset = offset;
+		}
+
+		private void setLength(int length) {
+			myImage = new ZLFileImage(
+				mimeType(), ZLFile.createFileByPath(myStorage.myFile.getPath()),
+				ZLFileImage.ENCODING_NONE, myOffset, length
+			);
+		}
+
+		// null if the side file is removed already
+		@Override
+		public InputStream inputStream() {
+			final ZLFileImage image = myImage;
+			return image != null && myStorage.myFile.exists() ? image.inputStream() : null;
+		}
+
+		public String getURI() {
+			final ZLFileImage image = myImage;
+			return image != null ? image.getURI() : null;
+		}
+	}
+
+	static Base64BinaryStorage forBook(ZLFile book, String kind, int filesToKeep) {
+		final File directory = new File(Paths.cacheDirectory());
+		final String prefix = kind + "-";
+		removeOldFiles(directory, prefix, filesToKeep - 1);
+		return new Base64BinaryStorage(new File(directory, prefix + pathHash(book.getPath())));
+	}
+
+	private static String pathHash(String path) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < path.length(); ++i) {
+			h = (h ^ path.charAt(i)) * 0x100000001B3L;
+		}
+		return Long.toHexString(h);
+	}
+
+	private static void removeOldFiles(File directory, final String prefix, int filesToKeep) {
+		final File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().startsWith(prefix);
+			}
+		});
+		if (files == null || files.length <= filesToKeep) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				final long m0 = f0.lastModified();
+				final long m1 = f1.lastModified();
+				return m0 > m1 ? -1 : (m0 < m1 ? 1 : 0);
+			}
+		});
+		for (int i = Math.max(filesToKeep, 0); i < files.length; ++i) {
+			files[i].delete();
+		}
+	}
+
+	private final File myFile;
+	private File myTemporaryFile;
+	private OutputStream myStream;
+	private int myOffset;
+	private final byte[] myBuffer = new byte[32768];
+	private int myBufferLength;
+
+	private Image myCurrentImage;
+	private int myImageStart;
+	private int myQuantum;
+	private int myQuantumLength;
+	private boolean myPaddingFound;
+
+	private Base64BinaryStorage(File file) {
+		myFile = file;
+		file.getParentFile().mkdirs();
+		try {
+			myTemporaryFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			myStream = new FileOutputStream(myTemporaryFile);
+		} catch (IOException e) {
+			if (myTemporaryFile != null) {
+				myTemporaryFile.delete();
+			}
+		}
+	}
+
+	File getFile() {
+		return myFile;
+	}
+
+	Image startImage(MimeType mimeType) {
+		if (myCurrentImage != null) {
+			endImage();
+		}
+		myImageStart = myOffset;
+		myQuantum = 0;
+		myQuantumLength = 0;
+		myPaddingFound = false;
+		myCurrentImage = new Image(mimeType, this, myOffset);
+		return myCurrentImage;
+	}
+
+	void addData(char[] data, int offset, int length) {
+		if (myCurrentImage == null || myStream == null || myPaddingFound) {
+			return;
+		}
+		final byte[] table = ourDecodingTable;
+		final byte[] buffer = myBuffer;
+		final int end = offset + length;
+		int quantum = myQuantum;
+		int quantumLength = myQuantumLength;
+		try {
+			for (int i = offset; i < end; ++i) {
+				final char ch = data[i];
+				if (ch >= 128) {
+					continue;
+				}
+				final byte code = table[ch];
+				if (code == -1) {
+					// whitespace or garbage
+					continue;
+				}
+				if (code == PADDING) {
+					myQuantum = quantum;
+					myQuantumLength = quantumLength;
+					flushQuantum();
+					myPaddingFound = true;
+					return;
+				}
+				quantum = (quantum << 6) | code;
+				if (++quantumLength == 4) {
+					if (myBufferLength + 3 > buffer.length) {
+						flushBuffer();
+					}
+					buffer[myBufferLength++] = (byte)(quantum >> 16);
+					buffer[myBufferLength++] = (byte)(quantum >> 8);
+					buffer[myBufferLength++] = (byte)quantum;
+					quantum = 0;
+					quantumLength = 0;
+				}
+			}
+			myQuantum = quantum;
+			myQuantumLength = quantumLength;
+		} catch (IOException e) {
+			fail();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		myStream.write(myBuffer, 0, myBufferLength);
+		myOffset += myBufferLength;
+		myBufferLength = 0;
+	}
+
+	// writes bytes of an incomplete (padded) quantum
+	private void flushQuantum() throws IOException {
+		if (myBufferLength + 2 > myBuffer.length) {
+			flushBuffer();
+		}
+		switch (myQuantumLength) {
+			case 2:
+				myBuffer[myBufferLength++] = (byte)(myQuantum >> 4);
+				break;
+			case 3:
+				myBuffer[myBufferLength++] = (byte)(myQuantum >> 10);
+				myBuffer[myBufferLength++] = (byte)(myQuantum >> 2);
+				break;
+		}
+		myQuantum = 0;
+		myQuantumLength = 0;
+	}
+
+	void endImage() {
+		if (myCurrentImage == null) {
+			return;
+		}
+		try {
+			if (myStream != null) {
+				if (!myPaddingFound) {
+					flushQuantum();
+				}
+				flushBuffer();
+				myCurrentImage.setLength(myOffset - myImageStart);
+			}
+		} catch (IOException e) {
+			fail();
+		}
+		myCurrentImage = null;
+	}
+
+	private void fail() {
+		try {
+			myStream.close();
+		} catch (IOException e) {
+		}
+		myStream = null;
+		myTemporaryFile.delete();
+	}
+
+	void close() {
+		endImage();
+		if (myStream != null) {
+			boolean success = false;
+			try {
+				myStream.close();
+				success = myTemporaryFile.renameTo(myFile);
+			} catch (IOException e) {
+			}
+			myStream = null;
+			if (!success) {
+				myTemporaryFile.delete();
+			}
+		}
+	}
+}
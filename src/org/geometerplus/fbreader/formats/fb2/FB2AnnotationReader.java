@@ -24,7 +24,7 @@ import java.io.IOException;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.xml.*;
 
-public class FB2AnnotationReader extends ZLXMLReaderAdapter {
+public class FB2AnnotationReader extends ZLXMLReaderAdapter implements ZLXMLTagIdReader {
 	private final static int READ_NOTHING = 0;
 	private final static int READ_ANNOTATION = 1;
 
@@ -54,9 +54,12 @@ public class FB2AnnotationReader extends ZLXMLReaderAdapter {
 		return null;
 	}
 
-	@Override
-	public boolean startElementHandler(String tagName, ZLStringMap attributes) {
-		switch (FB2Tag.getTagByName(tagName)) {
+	public ZLXMLTagVocabulary tagVocabulary() {
+		return FB2Tag.Vocabulary;
+	}
+
+	public boolean startElementHandler(int tag, ZLStringMap attributes) {
+		switch (tag) {
 			case FB2Tag.BODY:
 				return true;
 			case FB2Tag.ANNOTATION:
@@ -72,12 +75,11 @@ public class FB2AnnotationReader extends ZLXMLReaderAdapter {
 		return false;
 	}
 	
-	@Override
-	public boolean endElementHandler(String tag) {
+	public boolean endElementHandler(int tag) {
 		if (myReadState != READ_ANNOTATION) {
 			return false;
 		}
-		switch (FB2Tag.getTagByName(tag)) {
+		switch (tag) {
 			case FB2Tag.ANNOTATION:
 				return true;
 			case FB2Tag.P:
@@ -19,6 +19,8 @@
 
 package org.geometerplus.fbreader.formats.fb2;
 
+import java.io.InputStream;
+
 import org.geometerplus.zlibrary.core.constants.XMLNamespaces;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.image.ZLSingleImage;
@@ -35,7 +37,8 @@ class FB2CoverImage extends ZLImageProxy {
 
 	@Override
 	public ZLSingleImage getRealImage() {
-		return new BackgroundReader().readCover(myFile);
+		final Base64BinaryStorage.Image image = new BackgroundReader().readCover(myFile);
+		return image != null ? new CoverImage(image) : null;
 	}
 
 	@Override
@@ -48,15 +51,52 @@ class FB2CoverImage extends ZLImageProxy {
 		return myFile.getPath();
 	}
 
-	private static class BackgroundReader extends ZLXMLReaderAdapter {
+	// only a few cover side files are kept, so the file of a cover
+	// read long ago can be removed; the cover is decoded again then
+	private final class CoverImage extends ZLSingleImage {
+		private volatile Base64BinaryStorage.Image myImage;
+
+		CoverImage(Base64BinaryStorage.Image image) {
+			super(image.mimeType());
+			myImage = image;
+		}
+
+		@Override
+		public InputStream inputStream() {
+			InputStream stream = myImage.inputStream();
+			if (stream == null) {
+				final Base64BinaryStorage.Image image = new BackgroundReader().readCover(myFile);
+				if (image != null) {
+					myImage = image;
+					stream = image.inputStream();
+				}
+			}
+			return stream;
+		}
+
+		public String getURI() {
+			return myImage.getURI();
+		}
+	}
+
+	private static class BackgroundReader extends ZLXMLReaderAdapter implements ZLXMLTagIdReader {
+		private ZLFile myFile;
 		private boolean myReadCoverPage;
 		private String myImageReference;
-		private Base64EncodedImage myImage;
+		private Base64BinaryStorage myStorage;
+		private Base64BinaryStorage.Image myImage;
 
-		Base64EncodedImage readCover(ZLFile file) {
+		Base64BinaryStorage.Image readCover(ZLFile file) {
+			myFile = file;
 			myReadCoverPage = false;
 			myImageReference = null;
-			readQuietly(file);
+			try {
+				readQuietly(file);
+			} finally {
+				if (myStorage != null) {
+					myStorage.close();
+				}
+			}
 			return myImage;
 		}
 
@@ -65,9 +105,12 @@ class FB2CoverImage extends ZLImageProxy {
 			return true;
 		}
 
-		@Override
-		public boolean startElementHandler(String tagName, ZLStringMap attributes) {
-			switch (FB2Tag.getTagByName(tagName)) {
+		public ZLXMLTagVocabulary tagVocabulary() {
+			return FB2Tag.Vocabulary;
+		}
+
+		public boolean startElementHandler(int tag, ZLStringMap attributes) {
+			switch (tag) {
 			case FB2Tag.COVERPAGE:
 				myReadCoverPage = true;
 				break;
@@ -84,8 +127,8 @@ class FB2CoverImage extends ZLImageProxy {
 					final String id = attributes.getValue("id");
 					final String contentType = attributes.getValue("content-type");
 					if (id != null && contentType != null && myImageReference.equals(id)) {
-						// FIXME: make different Base64EncodedImage constructor to use another cache for covers
-						myImage = new Base64EncodedImage(contentType != null ? MimeType.get(contentType) : MimeType.IMAGE_AUTO, "-cover");
+						myStorage = Base64BinaryStorage.forBook(myFile, "cover", 32);
+						myImage = myStorage.startImage(MimeType.get(contentType));
 					}
 				}
 				break;
@@ -93,9 +136,8 @@ class FB2CoverImage extends ZLImageProxy {
 			return false;
 		}
 
-		@Override
-		public boolean endElementHandler(String tag) {
-			switch (FB2Tag.getTagByName(tag)) {
+		public boolean endElementHandler(int tag) {
+			switch (tag) {
 			case FB2Tag.COVERPAGE:
 				myReadCoverPage = false;
 				break;
@@ -106,7 +148,7 @@ class FB2CoverImage extends ZLImageProxy {
 				break;
 			case FB2Tag.BINARY:
 				if (myImage != null) {
-					myImage.close();
+					myStorage.endImage();
 					return true;
 				}
 				break;
@@ -117,7 +159,7 @@ class FB2CoverImage extends ZLImageProxy {
 		@Override
 		public void characterDataHandler(char[] data, int start, int length) {
 			if (length > 0 && myImage != null) {
-				myImage.addData(data, start, length);
+				myStorage.addData(data, start, length);
 			}
 		}
 	}
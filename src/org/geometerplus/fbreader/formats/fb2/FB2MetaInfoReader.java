@@ -28,7 +28,7 @@ import org.geometerplus.fbreader.bookmodel.BookReadingException;
 import org.geometerplus.fbreader.library.Book;
 import org.geometerplus.fbreader.library.Tag;
 
-public class FB2MetaInfoReader extends ZLXMLReaderAdapter {
+public class FB2MetaInfoReader extends ZLXMLReaderAdapter implements ZLXMLTagIdReader {
 	private final static int READ_NOTHING = 0;
 	private final static int READ_SOMETHING = 1;
 	private final static int READ_TITLE = 2;
@@ -69,9 +69,12 @@ public class FB2MetaInfoReader extends ZLXMLReaderAdapter {
 		}
 	}
 
-	@Override
-	public boolean startElementHandler(String tagName, ZLStringMap attributes) {
-		switch (FB2Tag.getTagByName(tagName)) {
+	public ZLXMLTagVocabulary tagVocabulary() {
+		return FB2Tag.Vocabulary;
+	}
+
+	public boolean startElementHandler(int tag, ZLStringMap attributes) {
+		switch (tag) {
 			case FB2Tag.BODY:
 				return true;
 			case FB2Tag.TITLE_INFO:
@@ -127,9 +130,11 @@ public class FB2MetaInfoReader extends ZLXMLReaderAdapter {
 		return false;
 	}
 
-	@Override
-	public boolean endElementHandler(String tag) {
-		switch (FB2Tag.getTagByName(tag)) {
+	public boolean endElementHandler(int tag) {
+		switch (tag) {
+			case FB2Tag.DESCRIPTION:
+				// all the meta info is read, the rest of the file is not needed
+				return true;
 			case FB2Tag.TITLE_INFO:
 				myReadState = READ_NOTHING;
 				break;
@@ -32,7 +32,7 @@ import org.geometerplus.zlibrary.text.model.ZLTextParagraph;
 
 import org.geometerplus.fbreader.bookmodel.*;
 
-public final class FB2Reader extends ZLXMLReaderAdapter {
+public final class FB2Reader extends ZLXMLReaderAdapter implements ZLXMLTagIdReader {
 	private final BookReader myBookReader;
 
 	private boolean myInsidePoem = false;
@@ -44,7 +44,8 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 
 	private byte myHyperlinkType;
 
-	private Base64EncodedImage myCurrentImage;
+	private Base64BinaryStorage myBinaryStorage;
+	private Base64BinaryStorage.Image myCurrentImage;
 	private boolean myInsideCoverpage = false;
 	private String myCoverImageReference;
 	private int myParagraphsBeforeBodyNumber = Integer.MAX_VALUE;
@@ -61,12 +62,14 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 	}
 
 	void readBook() throws BookReadingException {
-		Base64EncodedImage.resetCounter();
 		final ZLFile file = myBookReader.Model.Book.File;
+		myBinaryStorage = Base64BinaryStorage.forBook(file, "images", 4);
 		try {
 			ZLXMLProcessor.read(this, file);
 		} catch (IOException e) {
 			throw new BookReadingException(e, file);
+		} finally {
+			myBinaryStorage.close();
 		}
 	}
 
@@ -88,9 +91,8 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 		if (length == 0) {
 			return;
 		}
-		final Base64EncodedImage image = myCurrentImage;
-		if (image != null) {
-			image.addData(ch, start, length);
+		if (myCurrentImage != null) {
+			myBinaryStorage.addData(ch, start, length);
 		} else {
 			myBookReader.addData(ch, start, length, false);
 		}
@@ -101,16 +103,18 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 		if (length == 0) {
 			return;
 		}
-		final Base64EncodedImage image = myCurrentImage;
-		if (image != null) {
-			image.addData(ch, start, length);
+		if (myCurrentImage != null) {
+			myBinaryStorage.addData(ch, start, length);
 		} else {
 			myBookReader.addData(ch, start, length, true);
 		}
 	}
 
-	@Override
-	public boolean endElementHandler(String tagName) {
+	public ZLXMLTagVocabulary tagVocabulary() {
+		return FB2Tag.Vocabulary;
+	}
+
+	public boolean endElementHandler(int tagId) {
 		if (myFootnoteIdDepth > 0) {
 			--myFootnoteIdDepth;
 		}
@@ -214,7 +218,7 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 
 			case FB2Tag.BINARY:
 				if (myCurrentImage != null) {
-					myCurrentImage.close();
+					myBinaryStorage.endImage();
 					myCurrentImage = null;
 				}
 				break;
@@ -225,8 +229,7 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 		return false;
 	}
 
-	@Override
-	public boolean startElementHandler(String tagName, ZLStringMap attributes) {
+	public boolean startElementHandler(int tagId, ZLStringMap attributes) {
 		String id = attributes.getValue("id");
 		if (myFootnoteIdDepth > 0) {
 			++myFootnoteIdDepth;
@@ -238,7 +241,7 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 			}
 			myBookReader.addHyperlinkLabel(id);
 		}
-		final byte tag = FB2Tag.getTagByName(tagName);
+		final byte tag = (byte)tagId;
 		byte[] tagStack = myTagStack;
 		if (tagStack.length == myTagStackSize) {
 			tagStack = ZLArrayUtils.createCopy(tagStack, myTagStackSize, myTagStackSize * 2);
@@ -414,7 +417,7 @@ public final class FB2Reader extends ZLXMLReaderAdapter {
 				final String contentType = attributes.getValue("content-type");
 				final String imgId = attributes.getValue("id");
 				if (contentType != null && id != null) {
-					myCurrentImage = new Base64EncodedImage(MimeType.get(contentType), "");
+					myCurrentImage = myBinaryStorage.startImage(MimeType.get(contentType));
 					myBookReader.addImage(imgId, myCurrentImage);
 				}
 				break;
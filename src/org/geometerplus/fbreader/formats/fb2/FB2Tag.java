@@ -19,7 +19,7 @@
 
 package org.geometerplus.fbreader.formats.fb2;
 
-import java.util.*;
+import org.geometerplus.zlibrary.core.xml.ZLXMLTagVocabulary;
 
 final class FB2Tag {
 	public static final byte UNKNOWN = 0;
@@ -62,63 +62,44 @@ final class FB2Tag {
 	public static final byte DESCRIPTION = 35;
 
 
-	private static final HashMap<String, Byte> ourTagByName = new HashMap<String, Byte>(256, 0.2f);
-	private static final Byte ourUnknownTag;
+	static final ZLXMLTagVocabulary Vocabulary = new ZLXMLTagVocabulary(UNKNOWN);
 
-	static {	
-		ourTagByName.put("unknown", UNKNOWN);
-		ourUnknownTag = ourTagByName.get("unknown");
-		ourTagByName.put("p", P);
-		ourTagByName.put("v", V);
-		ourTagByName.put("subtitle", SUBTITLE);
-		ourTagByName.put("text-author", TEXT_AUTHOR);
-		ourTagByName.put("date", DATE);
-		ourTagByName.put("cite", CITE);
-		ourTagByName.put("section", SECTION);
-		ourTagByName.put("poem", POEM);
-		ourTagByName.put("stanza", STANZA);
-		ourTagByName.put("epigraph", EPIGRAPH);
-		ourTagByName.put("annotation", ANNOTATION);
-		ourTagByName.put("coverpage", COVERPAGE);
-		ourTagByName.put("a", A);
-		ourTagByName.put("empty-line", EMPTY_LINE);
-		ourTagByName.put("sup", SUP);
-		ourTagByName.put("sub", SUB);
-		ourTagByName.put("emphasis", EMPHASIS);
-		ourTagByName.put("strong", STRONG);
-		ourTagByName.put("code", CODE);
-		ourTagByName.put("strikethrough", STRIKETHROUGH);
-		ourTagByName.put("title", TITLE);
-		ourTagByName.put("title-info", TITLE_INFO);
-		ourTagByName.put("body", BODY);
-		ourTagByName.put("image", IMAGE);
-		ourTagByName.put("binary", BINARY);
-		ourTagByName.put("fictionbook", FICTIONBOOK);
-		ourTagByName.put("book-title", BOOK_TITLE);
-		ourTagByName.put("sequence", SEQUENCE);
-		ourTagByName.put("first-name", FIRST_NAME);
-		ourTagByName.put("middle-name", MIDDLE_NAME);
-		ourTagByName.put("last-name", LAST_NAME);
-		ourTagByName.put("book-title", BOOK_TITLE);
-		ourTagByName.put("author", AUTHOR);
-		ourTagByName.put("lang", LANG);
-		ourTagByName.put("genre", GENRE);
-		ourTagByName.put("description", DESCRIPTION);
-	}
-
-	public static byte getTagByName(String name) {
-		final HashMap<String,Byte> tagByName = ourTagByName;
-		Byte num = tagByName.get(name);
-		if (num == null) {
-			final String upperCaseName = name.toLowerCase().intern();
-			num = tagByName.get(upperCaseName);
-			if (num == null) {
-				num = ourUnknownTag;
-				tagByName.put(upperCaseName, num);
-			}
-			tagByName.put(name, num);
-		}
-		return num.byteValue();
+	static {
+		Vocabulary.add("p", P);
+		Vocabulary.add("v", V);
+		Vocabulary.add("subtitle", SUBTITLE);
+		Vocabulary.add("text-author", TEXT_AUTHOR);
+		Vocabulary.add("date", DATE);
+		Vocabulary.add("cite", CITE);
+		Vocabulary.add("section", SECTION);
+		Vocabulary.add("poem", POEM);
+		Vocabulary.add("stanza", STANZA);
+		Vocabulary.add("epigraph", EPIGRAPH);
+		Vocabulary.add("annotation", ANNOTATION);
+		Vocabulary.add("coverpage", COVERPAGE);
+		Vocabulary.add("a", A);
+		Vocabulary.add("empty-line", EMPTY_LINE);
+		Vocabulary.add("sup", SUP);
+		Vocabulary.add("sub", SUB);
+		Vocabulary.add("emphasis", EMPHASIS);
+		Vocabulary.add("strong", STRONG);
+		Vocabulary.add("code", CODE);
+		Vocabulary.add("strikethrough", STRIKETHROUGH);
+		Vocabulary.add("title", TITLE);
+		Vocabulary.add("title-info", TITLE_INFO);
+		Vocabulary.add("body", BODY);
+		Vocabulary.add("image", IMAGE);
+		Vocabulary.add("binary", BINARY);
+		Vocabulary.add("fictionbook", FICTIONBOOK);
+		Vocabulary.add("book-title", BOOK_TITLE);
+		Vocabulary.add("sequence", SEQUENCE);
+		Vocabulary.add("first-name", FIRST_NAME);
+		Vocabulary.add("middle-name", MIDDLE_NAME);
+		Vocabulary.add("last-name", LAST_NAME);
+		Vocabulary.add("author", AUTHOR);
+		Vocabulary.add("lang", LANG);
+		Vocabulary.add("genre", GENRE);
+		Vocabulary.add("description", DESCRIPTION);
 	}
 
 	private FB2Tag() {
@@ -29,7 +29,7 @@ import org.geometerplus.fbreader.library.Tag;
 abstract class FB2TagManager {
 	private static final HashMap<String,ArrayList<Tag>> ourMap = new HashMap<String,ArrayList<Tag>>();
 
-	static ArrayList<Tag> humanReadableTags(String id) {
+	static synchronized ArrayList<Tag> humanReadableTags(String id) {
 		if (ourMap.isEmpty()) {
 			new FB2TagInfoReader().readQuietly(
 				ZLResourceFile.createResourceFile("formats/fb2/fb2genres.xml")
@@ -107,11 +107,12 @@ public class HtmlReader extends BookReader implements ZLHtmlReader {
 	private HashMap<String,char[]> myEntityMap;
 	public void entityDataHandler(String entity) {
 		if (myEntityMap == null) {
-			myEntityMap = new HashMap<String,char[]>(ZLXMLProcessor.getEntityMap(XHTMLReader.xhtmlDTDs()));
+			myEntityMap = new HashMap<String,char[]>();
 		}
 		char[] data = myEntityMap.get(entity);
 		if (data == null) {
-			if ((entity.length() > 0) && (entity.charAt(0) == '#')) {
+			data = ZLXMLProcessor.getEntityTable(XHTMLReader.xhtmlDTDs()).getValue(entity);
+			if (data == null && (entity.length() > 0) && (entity.charAt(0) == '#')) {
 				try {
 					int number;
 					if (entity.charAt(1) == 'x') {
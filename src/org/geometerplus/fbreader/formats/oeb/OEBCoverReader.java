@@ -33,7 +33,15 @@ class OEBCoverReader {
 
 		@Override
 		public ZLSingleImage getRealImage() {
-			return new OEBCoverBackgroundReader().readCover(myFile);
+			final ZLFile archive = myFile.getParent();
+			final boolean cached = archive != null && OEBPlugin.cacheArchive(archive);
+			try {
+				return new OEBCoverBackgroundReader().readCover(myFile);
+			} finally {
+				if (cached) {
+					archive.setCached(false);
+				}
+			}
 		}
 
 		@Override
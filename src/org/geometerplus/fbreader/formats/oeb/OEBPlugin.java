@@ -56,9 +56,27 @@ public class OEBPlugin extends JavaFormatPlugin {
 		throw new BookReadingException("opfFileNotFound", oebFile);
 	}
 
+	// container.xml, OPF and the files it refers to are read from
+	// the same archive; its directory is kept while they are read;
+	// returns true if the archive was not cached before
+	static boolean cacheArchive(ZLFile oebFile) {
+		if (oebFile.isArchive() && !oebFile.isCached()) {
+			oebFile.setCached(true);
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	public void readMetaInfo(Book book) throws BookReadingException {
-		new OEBMetaInfoReader(book).readMetaInfo(getOpfFile(book.File));
+		final boolean cached = cacheArchive(book.File);
+		try {
+			new OEBMetaInfoReader(book).readMetaInfo(getOpfFile(book.File));
+		} finally {
+			if (cached) {
+				book.File.setCached(false);
+			}
+		}
 	}
 
 	@Override
@@ -69,19 +87,29 @@ public class OEBPlugin extends JavaFormatPlugin {
 
 	@Override
 	public ZLImage readCover(ZLFile file) {
+		final boolean cached = cacheArchive(file);
 		try {
 			return new OEBCoverReader().readCover(getOpfFile(file));
 		} catch (BookReadingException e) {
 			return null;
+		} finally {
+			if (cached) {
+				file.setCached(false);
+			}
 		}
 	}
 
 	@Override
 	public String readAnnotation(ZLFile file) {
+		final boolean cached = cacheArchive(file);
 		try {
 			return new OEBAnnotationReader().readAnnotation(getOpfFile(file));
 		} catch (BookReadingException e) {
 			return null;
+		} finally {
+			if (cached) {
+				file.setCached(false);
+			}
 		}
 	}
 
@@ -161,7 +161,9 @@ public class MobipocketPlugin extends JavaFormatPlugin {
 				return null;
 			}
 			final int length = (int)PdbUtil.readInt(stream);
-			PdbUtil.skip(stream, 104);
+			PdbUtil.skip(stream, 84);
+			final int imageStartIndex = (int)PdbUtil.readInt(stream);
+			PdbUtil.skip(stream, 16);
 
 			final int exthFlags = (int)PdbUtil.readInt(stream);
 			int coverIndex = -1;
@@ -220,12 +222,15 @@ public class MobipocketPlugin extends JavaFormatPlugin {
 				coverIndex = thumbIndex;
 			}
 
-			MobipocketStream myMobipocketStream = new MobipocketStream(file);
-			int start = myMobipocketStream.getImageOffset(coverIndex);
-			if (start >= 0) {
-				int len = myMobipocketStream.getImageLength(coverIndex);
-				if (len > 0) {
-					return new ZLFileImage(MimeType.IMAGE_AUTO, file, ZLFileImage.ENCODING_NONE, start, len);
+			// record offsets are already known from the header,
+			// so there is no need to re-open the file as a MobipocketStream
+			final int index = coverIndex + imageStartIndex;
+			if (index >= 0 && index < header.Offsets.length) {
+				final int start = header.Offsets[index];
+				final int end = index + 1 < header.Offsets.length
+					? header.Offsets[index + 1] : (int)file.size();
+				if (end > start) {
+					return new ZLFileImage(MimeType.IMAGE_AUTO, file, ZLFileImage.ENCODING_NONE, start, end - start);
 				}
 			}
 			return null; 
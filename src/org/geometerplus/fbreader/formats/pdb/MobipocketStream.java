@@ -38,7 +38,7 @@ class MobipocketStream extends PalmDocLikeStream {
 		if (maxRecordSize == 0) {
 			throw new IOException("The records are too short");
 		}
-		myBuffer = new byte[maxRecordSize];
+		myDecompressionBuffer = new byte[maxRecordSize];
 		myRecordIndex = 0;
 
 		PdbUtil.skip(myBase, 96);
@@ -57,7 +57,7 @@ class MobipocketStream extends PalmDocLikeStream {
 		try {
 			final int i = index + myImageStartIndex;
 			final int start = myHeader.Offsets[i];
-			final int end = (i == myHeader.Offsets.length) ? myFileSize : myHeader.Offsets[i + 1];
+			final int end = (i + 1 == myHeader.Offsets.length) ? myFileSize : myHeader.Offsets[i + 1];
 			return end - start;
 		} catch (ArrayIndexOutOfBoundsException e) {
 			return -1;
@@ -20,10 +20,13 @@
 package org.geometerplus.fbreader.formats.pdb;
 
 import java.io.IOException;
+import java.util.*;
 
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 
 abstract class PalmDocLikeStream extends PdbStream {
+	private static final int RECORD_CACHE_SIZE = 16;
+
 	protected int myMaxRecordIndex;
 	protected int myRecordIndex;
 	protected interface CompressionType {
@@ -32,55 +35,200 @@ abstract class PalmDocLikeStream extends PdbStream {
 		int HUFFDIC = 17480;
 	}
 	protected int myCompressionType;
+	// scratch buffer for record decompression, allocated by subclasses
+	protected byte[] myDecompressionBuffer;
 
 	private final long myFileSize;
 
+	// myRecordStarts[i] is the offset of record i in decompressed data;
+	// values are valid for indices 1..myKnownRecordIndex
+	private int[] myRecordStarts;
+	private int myKnownRecordIndex;
+
+	private final LinkedHashMap<Integer,byte[]> myRecordCache =
+		new LinkedHashMap<Integer,byte[]>(RECORD_CACHE_SIZE, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,byte[]> eldest) {
+				return size() > RECORD_CACHE_SIZE;
+			}
+		};
+
 	PalmDocLikeStream(ZLFile file) throws IOException {
 		super(file);
 		myFileSize = file.size();
 	}
 
+	private void initRecordTable() {
+		if (myRecordStarts != null) {
+			return;
+		}
+		myRecordStarts = new int[myMaxRecordIndex + 2];
+		myKnownRecordIndex = 1;
+		if (myCompressionType == CompressionType.NONE) {
+			// for uncompressed records decompressed offsets are known in advance
+			for (int i = 1; i <= myMaxRecordIndex; ++i) {
+				myRecordStarts[i + 1] = myRecordStarts[i] + rawRecordSize(i);
+			}
+			myKnownRecordIndex = myMaxRecordIndex + 1;
+		}
+	}
+
+	private int rawRecordSize(int index) {
+		final int currentOffset = myHeader.Offsets[index];
+		final int nextOffset =
+			(index + 1 < myHeader.Offsets.length) ?
+				myHeader.Offsets[index + 1] :
+				(int)myFileSize;
+		if (nextOffset < currentOffset) {
+			return -1;
+		}
+		return Math.min(nextOffset - currentOffset, myDecompressionBuffer.length);
+	}
+
+	private int readFully(int size) throws IOException {
+		int length = 0;
+		while (length < size) {
+			final int count = myBase.read(myDecompressionBuffer, length, size - length);
+			if (count <= 0) {
+				break;
+			}
+			length += count;
+		}
+		return length;
+	}
+
+	private byte[] readRecord(int index) throws IOException {
+		byte[] record = myRecordCache.get(index);
+		if (record != null) {
+			return record;
+		}
+
+		final int recordSize = rawRecordSize(index);
+		if (recordSize < 0) {
+			return null;
+		}
+		seekBase(myHeader.Offsets[index]);
+		final int length;
+		switch (myCompressionType) {
+			case CompressionType.NONE:
+				length = readFully(recordSize);
+				if (length < recordSize) {
+					// truncated file: the record is the last one,
+					// offsets precomputed for the next records are wrong
+					myMaxRecordIndex = index;
+					myRecordStarts[index + 1] = myRecordStarts[index] + length;
+					myKnownRecordIndex = index + 1;
+				}
+				break;
+			case CompressionType.DOC:
+				length = DocDecompressor.decompress(myBase, myDecompressionBuffer, recordSize);
+				break;
+			//case CompressionType.HUFFDIC:
+			//	length = HuffdicDecompressor.decompress(myBase, myDecompressionBuffer, recordSize);
+			//	break;
+			default:
+				// Unsupported compression type
+				return null;
+		}
+		record = new byte[length];
+		System.arraycopy(myDecompressionBuffer, 0, record, 0, length);
+		myRecordCache.put(index, record);
+
+		if (index == myKnownRecordIndex) {
+			myRecordStarts[index + 1] = myRecordStarts[index] + length;
+			++myKnownRecordIndex;
+		}
+		return record;
+	}
+
+	private boolean loadRecord(int index) {
+		initRecordTable();
+		try {
+			final byte[] record = readRecord(index);
+			if (record == null) {
+				return false;
+			}
+			myRecordIndex = index;
+			myBuffer = record;
+			myBufferLength = record.length;
+			myBufferOffset = 0;
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
 	@Override
 	protected final boolean fillBuffer() {
 		while (myBufferOffset == myBufferLength) {
 			if (myRecordIndex + 1 > myMaxRecordIndex) {
 				return false;
 			}
-			++myRecordIndex;
-			final int currentOffset = myHeader.Offsets[myRecordIndex];
-
-			try {
-				myBase.skip(currentOffset - myBase.offset());
-				final int nextOffset =
-					(myRecordIndex + 1 < myHeader.Offsets.length) ?
-						myHeader.Offsets[myRecordIndex + 1] :
-						(int)myFileSize;
-				if (nextOffset < currentOffset) {
-					return false;
-				}
-				final short recordSize = (short)Math.min(nextOffset - currentOffset, myBuffer.length);
-
-				switch (myCompressionType) {
-					case CompressionType.NONE:
-						myBase.read(myBuffer, 0, recordSize);
-						myBufferLength = recordSize;
-						break;
-					case CompressionType.DOC:
-						myBufferLength = (short)DocDecompressor.decompress(myBase, myBuffer, recordSize);
-						break;
-					//case CompressionType.HUFFDIC:
-					//	myBufferLength = (short)HuffdicDecompressor.decompress(myBase, myBuffer, recordSize);
-					//	break;
-					default:
-						// Unsupported compression type
-						return false;
-				}
-			} catch (IOException e) {
+			if (!loadRecord(myRecordIndex + 1)) {
 				return false;
 			}
-			myBufferOffset = 0;
 		}
-		
 		return true;
 	}
+
+	/**
+	 * @return current offset in decompressed data
+	 */
+	public long position() {
+		initRecordTable();
+		if (myRecordIndex == 0) {
+			return 0;
+		}
+		return myRecordStarts[myRecordIndex] + myBufferOffset;
+	}
+
+	/**
+	 * Moves the stream to the given offset in decompressed data.
+	 * Records are located by binary search in the record offset table;
+	 * records with unknown decompressed size are decoded (once) to fill the table.
+	 */
+	public void position(long position) throws IOException {
+		if (position < 0) {
+			throw new IOException("Cannot seek to position " + position);
+		}
+		initRecordTable();
+		while (myKnownRecordIndex <= myMaxRecordIndex && myRecordStarts[myKnownRecordIndex] <= position) {
+			if (readRecord(myKnownRecordIndex) == null) {
+				break;
+			}
+		}
+
+		int index = Arrays.binarySearch(myRecordStarts, 1, myKnownRecordIndex + 1, (int)position);
+		if (index < 0) {
+			index = -index - 2;
+		}
+		// skip empty records
+		while (index < myKnownRecordIndex && myRecordStarts[index + 1] == myRecordStarts[index]) {
+			++index;
+		}
+		if (index > myMaxRecordIndex) {
+			// position is beyond the end of data
+			index = myMaxRecordIndex;
+		}
+		if (!loadRecord(index)) {
+			throw new IOException("Cannot read record " + index);
+		}
+		myBufferOffset = Math.min((int)position - myRecordStarts[index], myBufferLength);
+	}
+
+	@Override
+	public void close() throws IOException {
+		myRecordCache.clear();
+		super.close();
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		final long start = position();
+		position(start + n);
+		return position() - start;
+	}
 }
@@ -26,14 +26,16 @@ import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.util.ZLInputStreamWithOffset;
 
 public abstract class PdbStream extends InputStream {
-	protected final ZLInputStreamWithOffset myBase;
+	protected final ZLFile myFile;
+	protected ZLInputStreamWithOffset myBase;
 	public PdbHeader myHeader;
 	protected byte[] myBuffer;
 
-	protected short myBufferLength;
-	protected short myBufferOffset;
+	protected int myBufferLength;
+	protected int myBufferOffset;
 
 	public PdbStream(ZLFile file) throws IOException {
+		myFile = file;
 		myBase = new ZLInputStreamWithOffset(file.getInputStream());
 
 		myHeader = new PdbHeader(myBase);
@@ -49,7 +51,7 @@ public abstract class PdbStream extends InputStream {
 		if (!fillBuffer()) {
 			return -1;
 		}
-		return myBuffer[myBufferOffset++];
+		return myBuffer[myBufferOffset++] & 0xFF;
 	}
 
 	@Override
@@ -89,5 +91,21 @@ public abstract class PdbStream extends InputStream {
 		}
 	}
 
+	/**
+	 * Moves the base (raw file) stream to the given absolute file offset.
+	 * Forward moves are skips; backward ones reopen the file,
+	 * so the cost is never larger than reading from the beginning.
+	 */
+	protected final void seekBase(int offset) throws IOException {
+		if (offset < myBase.offset()) {
+			myBase.close();
+			myBase = new ZLInputStreamWithOffset(myFile.getInputStream());
+		}
+		final int shift = offset - myBase.offset();
+		if (shift > 0 && myBase.skip(shift) != shift) {
+			throw new IOException("Cannot seek to offset " + offset);
+		}
+	}
+
 	protected abstract boolean fillBuffer();
 }
@@ -36,6 +36,14 @@ public abstract class AbstractLibrary {
 		void onLibraryChanged(Code code);
 	}
 
+	// per-book notifications, used for sending deltas to library clients
+	public interface BookChangeListener {
+		void onBookAdded(Book book);
+		void onBookRemoved(Book book);
+	}
+
+	private final List<BookChangeListener> myBookListeners = Collections.synchronizedList(new LinkedList<BookChangeListener>());
+
 	public void addChangeListener(ChangeListener listener) {
 		myListeners.add(listener);
 	}
@@ -52,6 +60,26 @@ public abstract class AbstractLibrary {
 		}
 	}
 
+	public void addBookChangeListener(BookChangeListener listener) {
+		myBookListeners.add(listener);
+	}
+
+	public void removeBookChangeListener(BookChangeListener listener) {
+		myBookListeners.remove(listener);
+	}
+
+	protected void fireBookChangedEvent(Book book, boolean removed) {
+		synchronized (myBookListeners) {
+			for (BookChangeListener l : myBookListeners) {
+				if (removed) {
+					l.onBookRemoved(book);
+				} else {
+					l.onBookAdded(book);
+				}
+			}
+		}
+	}
+
 	public abstract boolean isUpToDate();
 
 	public static final int REMOVE_DONT_REMOVE = 0x00;
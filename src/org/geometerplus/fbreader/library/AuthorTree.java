@@ -61,4 +61,14 @@ public class AuthorTree extends LibraryTree {
 	public boolean containsBook(Book book) {
 		return book != null && book.authors().contains(Author);
 	}
+
+	@Override
+	void insertBook(Book book) {
+		final SeriesInfo seriesInfo = book.getSeriesInfo();
+		if (seriesInfo == null) {
+			getBookSubTree(book, false);
+		} else {
+			getSeriesSubTree(seriesInfo.Name).addBook(book);
+		}
+	}
 }
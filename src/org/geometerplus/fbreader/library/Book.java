@@ -22,8 +22,10 @@ package org.geometerplus.fbreader.library;
 import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
 import java.util.*;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -69,6 +71,24 @@ public class Book {
 		}
 	}
 
+	/**
+	 * Loads several books at once; unlike getById(), does not re-read
+	 * meta info of changed files, books of missing files are skipped
+	 */
+	public static List<Book> getByIds(Collection<Long> bookIds) {
+		final List<Book> books = BooksDatabase.Instance().loadBooks(bookIds);
+		for (Iterator<Book> it = books.iterator(); it.hasNext(); ) {
+			final Book book = it.next();
+			final ZLPhysicalFile physicalFile = book.File.getPhysicalFile();
+			if (physicalFile != null && !physicalFile.exists()) {
+				it.remove();
+			} else {
+				book.loadLists();
+			}
+		}
+		return books;
+	}
+
 	public static Book getByFile(ZLFile bookFile) {
 		if (bookFile == null) {
 			return null;
@@ -130,6 +150,27 @@ public class Book {
 		myIsSaved = true;
 	}
 
+	/**
+	 * Creates a book from the data got from the library service;
+	 * neither the database nor the book file is read.
+	 */
+	public static Book createFromStoredInfo(
+		long id, ZLFile file, String title, String encoding, String language,
+		List<Author> authors, List<Tag> tags, String seriesName, String seriesIndex
+	) {
+		final Book book = new Book(id, file, title, encoding, language);
+		if (!authors.isEmpty()) {
+			book.setAuthorsWithNoCheck(new ArrayList<Author>(authors));
+		}
+		if (!tags.isEmpty()) {
+			book.setTagsWithNoCheck(new ArrayList<Tag>(tags));
+		}
+		if (seriesName != null) {
+			book.setSeriesInfoWithNoCheck(seriesName, SeriesInfo.createIndex(seriesIndex));
+		}
+		return book;
+	}
+
 	Book(ZLFile file) throws BookReadingException {
 		myId = -1;
 		final FormatPlugin plugin = getPlugin(file);
@@ -208,6 +249,10 @@ public class Book {
 		return (myAuthors != null) ? Collections.unmodifiableList(myAuthors) : Collections.<Author>emptyList();
 	}
 
+	void setAuthorsWithNoCheck(List<Author> authors) {
+		myAuthors = authors;
+	}
+
 	void addAuthorWithNoCheck(Author author) {
 		if (myAuthors == null) {
 			myAuthors = new ArrayList<Author>();
@@ -346,6 +391,10 @@ public class Book {
 		return myTags != null ? Collections.unmodifiableList(myTags) : Collections.<Tag>emptyList();
 	}
 
+	void setTagsWithNoCheck(List<Tag> tags) {
+		myTags = tags;
+	}
+
 	void addTagWithNoCheck(Tag tag) {
 		if (myTags == null) {
 			myTags = new ArrayList<Tag>();
@@ -376,7 +425,7 @@ public class Book {
 		addTag(Tag.getTag(null, tagName));
 	}
 
-	boolean matches(String pattern) {
+	public boolean matches(String pattern) {
 		if (myTitle != null && ZLMiscUtil.matchesIgnoreCase(myTitle, pattern)) {
 			return true;
 		}
@@ -404,17 +453,25 @@ public class Book {
 	}
 
 	public boolean save() {
+		return save(null);
+	}
+
+	/**
+	 * fileInfos (if not null) must contain the book file;
+	 * used to save many books without loading file infos for each one.
+	 */
+	boolean save(final FileInfoSet fileInfos) {
 		if (myIsSaved) {
 			return false;
 		}
 		final BooksDatabase database = BooksDatabase.Instance();
 		database.executeAsATransaction(new Runnable() {
 			public void run() {
+				final long fileId = (fileInfos != null ? fileInfos : new FileInfoSet(File)).getId(File);
 				if (myId >= 0) {
-					final FileInfoSet fileInfos = new FileInfoSet(File);
-					database.updateBookInfo(myId, fileInfos.getId(File), myEncoding, myLanguage, myTitle);
+					database.updateBookInfo(myId, fileId, myEncoding, myLanguage, myTitle);
 				} else {
-					myId = database.insertBookInfo(File, myEncoding, myLanguage, myTitle);
+					myId = database.insertBookInfo(fileId, myEncoding, myLanguage, myTitle);
 					storeAllVisitedHyperinks();
 				}
 
@@ -436,12 +493,12 @@ public class Book {
 	}
 
 	public ZLTextPosition getStoredPosition() {
-		return BooksDatabase.Instance().getStoredPosition(myId);
+		return BooksDatabase.Instance().Journal.getStoredPosition(myId);
 	}
 
 	public void storePosition(ZLTextPosition position) {
 		if (myId != -1) {
-			BooksDatabase.Instance().storePosition(myId, position);
+			BooksDatabase.Instance().Journal.storePosition(myId, position);
 		}
 	}
 
@@ -450,7 +507,7 @@ public class Book {
 		if (myVisitedHyperlinks == null) {
 			myVisitedHyperlinks = new TreeSet<String>();
 			if (myId != -1) {
-				myVisitedHyperlinks.addAll(BooksDatabase.Instance().loadVisitedHyperlinks(myId));
+				myVisitedHyperlinks.addAll(BooksDatabase.Instance().Journal.loadVisitedHyperlinks(myId));
 			}
 		}
 	}
@@ -465,7 +522,7 @@ public class Book {
 		if (!myVisitedHyperlinks.contains(linkId)) {
 			myVisitedHyperlinks.add(linkId);
 			if (myId != -1) {
-				BooksDatabase.Instance().addVisitedHyperlink(myId, linkId);
+				BooksDatabase.Instance().Journal.addVisitedHyperlink(myId, linkId);
 			}
 		}
 	}
@@ -484,39 +541,118 @@ public class Book {
 		}
 	}
 
+	/**
+	 * Returns SHA-256 of the book file content; the hash is stored in the database
+	 * and is recomputed only if the file size or modification time has changed.
+	 */
 	public String getContentHashCode() {
-		InputStream stream = null;
-
-		try {
-			final MessageDigest hash = MessageDigest.getInstance("SHA-256");
-			stream = File.getInputStream();
-
-			final byte[] buffer = new byte[2048];
-			while (true) {
-				final int nread = stream.read(buffer);
-				if (nread == -1) {
-					break;
-				}
-				hash.update(buffer, 0, nread);
+		final ZLPhysicalFile physicalFile = File.getPhysicalFile();
+		if (physicalFile == null) {
+			return computeContentHash(File);
+		}
+		final long fileSize = File.size();
+		final long fileTime = physicalFile.javaFile().lastModified();
+		final BooksDatabase database = BooksDatabase.Instance();
+		if (myId != -1) {
+			final String stored = database.loadContentHash(myId, fileSize, fileTime);
+			if (stored != null) {
+				return stored;
 			}
+		}
+		final String hash = computeContentHash(File);
+		if (hash != null && myId != -1) {
+			database.saveContentHash(myId, fileSize, fileTime, hash);
+		}
+		return hash;
+	}
 
-			final Formatter f = new Formatter();
-			for (byte b : hash.digest()) {
-				f.format("%02X", b & 0xFF);
-			}
-			return f.toString();
-		} catch (IOException e) {
+	/**
+	 * Returns the stored content hash without reading the book file;
+	 * null if the hash is not computed yet or the file has changed.
+	 */
+	public String getStoredContentHashCode() {
+		final ZLPhysicalFile physicalFile = File.getPhysicalFile();
+		if (physicalFile == null || myId == -1) {
 			return null;
+		}
+		return BooksDatabase.Instance().loadContentHash(
+			myId, File.size(), physicalFile.javaFile().lastModified()
+		);
+	}
+
+	/**
+	 * Returns an id that does not depend on file location,
+	 * i.e. is equal for copies of the same book.
+	 */
+	public String getUniqueId() {
+		final String hash = getContentHashCode();
+		return hash != null ? "SHA-256:" + hash : null;
+	}
+
+	private static final int HASH_MAPPING_SIZE = 16 * 1024 * 1024;
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	private static String computeContentHash(ZLFile file) {
+		final MessageDigest hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256");
 		} catch (NoSuchAlgorithmException e) {
 			return null;
-		} finally {
-			if (stream != null) {
-				try {
-					stream.close();
-				} catch (IOException e) {
+		}
+
+		// compressed files are hashed decompressed, as the same files in archives are
+		if (file instanceof ZLPhysicalFile && !file.isCompressed()) {
+			FileInputStream stream = null;
+			try {
+				stream = new FileInputStream(((ZLPhysicalFile)file).javaFile());
+				final FileChannel channel = stream.getChannel();
+				final long size = channel.size();
+				for (long offset = 0; offset < size; offset += HASH_MAPPING_SIZE) {
+					hash.update(channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						offset,
+						Math.min(HASH_MAPPING_SIZE, size - offset)
+					));
+				}
+			} catch (IOException e) {
+				return null;
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
 				}
 			}
+		} else {
+			InputStream stream = null;
+			try {
+				stream = file.getInputStream();
+				final byte[] buffer = new byte[HASH_BUFFER_SIZE];
+				while (true) {
+					final int nread = stream.read(buffer);
+					if (nread == -1) {
+						break;
+					}
+					hash.update(buffer, 0, nread);
+				}
+			} catch (IOException e) {
+				return null;
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		final Formatter f = new Formatter();
+		for (byte b : hash.digest()) {
+			f.format("%02X", b & 0xFF);
 		}
+		return f.toString();
 	}
 
 	synchronized ZLImage getCover() {
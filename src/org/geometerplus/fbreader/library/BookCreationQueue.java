@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.library;
+
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
+
+import org.geometerplus.fbreader.bookmodel.BookReadingException;
+import org.geometerplus.fbreader.formats.*;
+
+/**
+ * Creates books for new files (i.e. reads their meta info) in a few
+ * background threads. Entries are taken in the order the files were added,
+ * so the library is filled in the same order as by a single thread.
+ * Native plugins are not thread-safe, books for them are created
+ * in the thread that takes the entry.
+ */
+final class BookCreationQueue {
+	static final class Entry {
+		final ZLFile File;
+		// passed by the caller, not used by the queue
+		final boolean IsChanged;
+		private final FutureTask<Book> myTask;
+
+		private Entry(ZLFile file, boolean isChanged, FutureTask<Book> task) {
+			File = file;
+			IsChanged = isChanged;
+			myTask = task;
+		}
+
+		/**
+		 * Returns null if the file is not a book
+		 */
+		Book getBook() {
+			// if no thread has started the task yet, it is run here
+			myTask.run();
+			try {
+				return myTask.get();
+			} catch (InterruptedException e) {
+				return null;
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				throw (Error)cause;
+			}
+		}
+	}
+
+	private final ExecutorService myExecutor;
+	private final int myCapacity;
+	private final LinkedList<Entry> myEntries = new LinkedList<Entry>();
+
+	BookCreationQueue() {
+		final int threadCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		myCapacity = 4 * threadCount;
+		myExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							runnable.run();
+						} finally {
+							ZLBufferPool.releaseThreadBuffers();
+						}
+					}
+				}, "Library.readMetaInfo");
+				thread.setPriority((Thread.MIN_PRIORITY + Thread.NORM_PRIORITY) / 2);
+				return thread;
+			}
+		});
+	}
+
+	boolean isEmpty() {
+		return myEntries.isEmpty();
+	}
+
+	boolean isFull() {
+		return myEntries.size() >= myCapacity;
+	}
+
+	void add(final ZLFile file, boolean isChanged) {
+		if (file.isArchive()) {
+			// archive directory is read once for the book and archive entries;
+			// caller resets the flag after processing the entry
+			file.setCached(true);
+		}
+		final FormatPlugin plugin = PluginCollection.Instance().getPlugin(file);
+		final FutureTask<Book> task = new FutureTask<Book>(new Callable<Book>() {
+			public Book call() {
+				if (plugin == null) {
+					return null;
+				}
+				try {
+					return new Book(file);
+				} catch (BookReadingException e) {
+					return null;
+				}
+			}
+		});
+		if (plugin != null && plugin.type() == FormatPlugin.Type.JAVA) {
+			myExecutor.execute(task);
+		}
+		myEntries.add(new Entry(file, isChanged, task));
+	}
+
+	Entry poll() {
+		return myEntries.poll();
+	}
+
+	void shutdown() {
+		myExecutor.shutdown();
+	}
+}
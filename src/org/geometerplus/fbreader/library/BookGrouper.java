@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.library;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Groups a book list by keys (authors, series names, title letters, tags)
+ * on several threads: the list is split into slices, every thread groups
+ * its own slice, and partial results are merged in slice order, so books
+ * in each group keep the order of the source list.
+ */
+final class BookGrouper {
+	interface Classifier {
+		// adds keys of all the groups the book belongs to; null is a valid key
+		void collectKeys(Book book, List<Object> keys);
+	}
+
+	private static final int MIN_SLICE_SIZE = 1000;
+	private static final int THREADS_NUMBER = Runtime.getRuntime().availableProcessors();
+
+	// slice 0 is always processed by the calling thread
+	private static ExecutorService ourPool;
+
+	private static synchronized ExecutorService pool() {
+		if (ourPool == null) {
+			ourPool = Executors.newFixedThreadPool(THREADS_NUMBER - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "BookGrouper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return ourPool;
+	}
+
+	static Map<Object,List<Book>> group(final List<Book> books, final Classifier classifier) {
+		final int size = books.size();
+		final int slicesNumber = Math.min(THREADS_NUMBER, size / MIN_SLICE_SIZE);
+		if (slicesNumber <= 1) {
+			return groupSlice(books, classifier);
+		}
+
+		final List<Future<Map<Object,List<Book>>>> parts =
+			new ArrayList<Future<Map<Object,List<Book>>>>(slicesNumber);
+		parts.add(null);
+		for (int i = 1; i < slicesNumber; ++i) {
+			final List<Book> slice = books.subList(size * i / slicesNumber, size * (i + 1) / slicesNumber);
+			parts.add(pool().submit(new Callable<Map<Object,List<Book>>>() {
+				public Map<Object,List<Book>> call() {
+					return groupSlice(slice, classifier);
+				}
+			}));
+		}
+		final Map<Object,List<Book>> result =
+			groupSlice(books.subList(0, size / slicesNumber), classifier);
+		for (int i = 1; i < slicesNumber; ++i) {
+			Map<Object,List<Book>> part = null;
+			try {
+				part = parts.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+			}
+			if (part == null) {
+				// the task has failed or we were interrupted
+				part = groupSlice(books.subList(size * i / slicesNumber, size * (i + 1) / slicesNumber), classifier);
+			}
+			for (Map.Entry<Object,List<Book>> entry : part.entrySet()) {
+				final List<Book> group = result.get(entry.getKey());
+				if (group != null) {
+					group.addAll(entry.getValue());
+				} else {
+					result.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Map<Object,List<Book>> groupSlice(List<Book> books, Classifier classifier) {
+		final Map<Object,List<Book>> groups = new LinkedHashMap<Object,List<Book>>();
+		final List<Object> keys = new ArrayList<Object>();
+		for (Book book : books) {
+			keys.clear();
+			classifier.collectKeys(book, keys);
+			for (Object k : keys) {
+				List<Book> group = groups.get(k);
+				if (group == null) {
+					group = new ArrayList<Book>();
+					groups.put(k, group);
+				}
+				group.add(book);
+			}
+		}
+		return groups;
+	}
+}
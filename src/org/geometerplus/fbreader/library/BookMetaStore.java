@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.library;
+
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+/**
+ * Columnar storage for book rows loaded from the database; it is used
+ * while the library is built only. Books are kept in primitive arrays,
+ * strings (titles, encodings, languages, series names and indices) are
+ * stored once in a shared table; Book objects are created on demand by
+ * getBook() and cached, the library keeps the books of existing files.
+ * Lookups are fast if books are added in ascending id order and file ids
+ * are in [0, 2^31); other rows are indexed by maps.
+ */
+public final class BookMetaStore {
+	private int mySize;
+	private long[] myIds = new long[256];
+	private long[] myFileIds = new long[256];
+	private int[] myTitles = new int[256];
+	private int[] myEncodings = new int[256];
+	private int[] myLanguages = new int[256];
+	private int[] mySeries = new int[256];
+	private int[] mySeriesIndices = new int[256];
+	// per-row singly linked lists of author/tag indices, stored in the arrays
+	private int[] myFirstAuthorLinks = new int[256];
+	private int[] myLastAuthorLinks = new int[256];
+	private int[] myFirstTagLinks = new int[256];
+	private int[] myLastTagLinks = new int[256];
+
+	private final RefList<Author> myAuthorLinks = new RefList<Author>();
+	private final RefList<Tag> myTagLinks = new RefList<Tag>();
+
+	private final ArrayList<String> myStrings = new ArrayList<String>();
+	private HashMap<String,Integer> myStringIndices = new HashMap<String,Integer>();
+
+	// non-null if ids were not added in ascending order
+	private HashMap<Long,Integer> myRowsById;
+	// false if a file id does not fit into the packed keys in freeze()
+	private boolean myFileIdsArePackable = true;
+
+	// created in freeze()
+	private long[] mySortedFileIds;
+	private int[] myRowsByFileId;
+
+	private Book[] myBooks;
+
+	private static final class RefList<T> {
+		private final ArrayList<T> myObjects = new ArrayList<T>();
+		private final HashMap<T,Integer> myIndices = new HashMap<T,Integer>();
+		private int mySize;
+		private int[] myObjectIndices = new int[256];
+		private int[] myNext = new int[256];
+
+		int add(T object) {
+			Integer index = myIndices.get(object);
+			if (index == null) {
+				index = myObjects.size();
+				myObjects.add(object);
+				myIndices.put(object, index);
+			}
+			if (mySize == myNext.length) {
+				myObjectIndices = ZLArrayUtils.createCopy(myObjectIndices, mySize, 2 * mySize);
+				myNext = ZLArrayUtils.createCopy(myNext, mySize, 2 * mySize);
+			}
+			myObjectIndices[mySize] = index;
+			myNext[mySize] = -1;
+			return mySize++;
+		}
+
+		T get(int link) {
+			return myObjects.get(myObjectIndices[link]);
+		}
+
+		int next(int link) {
+			return myNext[link];
+		}
+
+		void setNext(int link, int next) {
+			myNext[link] = next;
+		}
+
+		int count(int link) {
+			int count = 0;
+			for (; link != -1; link = myNext[link]) {
+				++count;
+			}
+			return count;
+		}
+	}
+
+	private int stringIndex(String string) {
+		if (string == null) {
+			return -1;
+		}
+		Integer index = myStringIndices.get(string);
+		if (index == null) {
+			index = myStrings.size();
+			myStrings.add(string);
+			myStringIndices.put(string, index);
+		}
+		return index;
+	}
+
+	private String string(int index) {
+		return index != -1 ? myStrings.get(index) : null;
+	}
+
+	private void ensureCapacity() {
+		if (mySize < myIds.length) {
+			return;
+		}
+		final int newLength = 2 * mySize;
+		myIds = ZLArrayUtils.createCopy(myIds, mySize, newLength);
+		myFileIds = ZLArrayUtils.createCopy(myFileIds, mySize, newLength);
+		myTitles = ZLArrayUtils.createCopy(myTitles, mySize, newLength);
+		myEncodings = ZLArrayUtils.createCopy(myEncodings, mySize, newLength);
+		myLanguages = ZLArrayUtils.createCopy(myLanguages, mySize, newLength);
+		mySeries = ZLArrayUtils.createCopy(mySeries, mySize, newLength);
+		mySeriesIndices = ZLArrayUtils.createCopy(mySeriesIndices, mySize, newLength);
+		myFirstAuthorLinks = ZLArrayUtils.createCopy(myFirstAuthorLinks, mySize, newLength);
+		myLastAuthorLinks = ZLArrayUtils.createCopy(myLastAuthorLinks, mySize, newLength);
+		myFirstTagLinks = ZLArrayUtils.createCopy(myFirstTagLinks, mySize, newLength);
+		myLastTagLinks = ZLArrayUtils.createCopy(myLastTagLinks, mySize, newLength);
+	}
+
+	public void addBook(long id, long fileId, String title, String encoding, String language) {
+		if (myRowsById == null && mySize > 0 && myIds[mySize - 1] >= id) {
+			// binary search by id is impossible, slow path
+			myRowsById = new HashMap<Long,Integer>();
+			for (int i = 0; i < mySize; ++i) {
+				myRowsById.put(myIds[i], i);
+			}
+		}
+		if (myRowsById != null) {
+			myRowsById.put(id, mySize);
+		}
+		// see freeze(): file id is packed into the upper half of a long
+		if (fileId < 0 || fileId > Integer.MAX_VALUE) {
+			myFileIdsArePackable = false;
+		}
+		ensureCapacity();
+		myIds[mySize] = id;
+		myFileIds[mySize] = fileId;
+		myTitles[mySize] = stringIndex(title);
+		myEncodings[mySize] = stringIndex(encoding);
+		myLanguages[mySize] = stringIndex(language);
+		mySeries[mySize] = -1;
+		mySeriesIndices[mySize] = -1;
+		myFirstAuthorLinks[mySize] = -1;
+		myLastAuthorLinks[mySize] = -1;
+		myFirstTagLinks[mySize] = -1;
+		myLastTagLinks[mySize] = -1;
+		++mySize;
+	}
+
+	public void addAuthor(long bookId, Author author) {
+		final int row = rowById(bookId);
+		if (row == -1 || author == null) {
+			return;
+		}
+		final int link = myAuthorLinks.add(author);
+		if (myLastAuthorLinks[row] == -1) {
+			myFirstAuthorLinks[row] = link;
+		} else {
+			myAuthorLinks.setNext(myLastAuthorLinks[row], link);
+		}
+		myLastAuthorLinks[row] = link;
+	}
+
+	public void addTag(long bookId, Tag tag) {
+		final int row = rowById(bookId);
+		if (row == -1 || tag == null) {
+			return;
+		}
+		final int link = myTagLinks.add(tag);
+		if (myLastTagLinks[row] == -1) {
+			myFirstTagLinks[row] = link;
+		} else {
+			myTagLinks.setNext(myLastTagLinks[row], link);
+		}
+		myLastTagLinks[row] = link;
+	}
+
+	public void setSeriesInfo(long bookId, String series, String index) {
+		final int row = rowById(bookId);
+		if (row == -1 || series == null) {
+			return;
+		}
+		mySeries[row] = stringIndex(series);
+		mySeriesIndices[row] = stringIndex(index);
+	}
+
+	/**
+	 * Must be called after the loading; drops loading-time maps
+	 * and builds the file id index.
+	 */
+	public void freeze() {
+		myStringIndices = null;
+		myAuthorLinks.myIndices.clear();
+		myTagLinks.myIndices.clear();
+
+		mySortedFileIds = new long[mySize];
+		myRowsByFileId = new int[mySize];
+		if (myFileIdsArePackable) {
+			final long[] keys = new long[mySize];
+			for (int i = 0; i < mySize; ++i) {
+				// file ids are in [0, 2^31), so the keys
+				// are non-negative and are sorted by file id first
+				keys[i] = (myFileIds[i] << 32) | i;
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < mySize; ++i) {
+				mySortedFileIds[i] = keys[i] >>> 32;
+				myRowsByFileId[i] = (int)(keys[i] & 0xFFFFFFFFL);
+			}
+		} else {
+			final Integer[] rows = new Integer[mySize];
+			for (int i = 0; i < mySize; ++i) {
+				rows[i] = i;
+			}
+			final long[] fileIds = myFileIds;
+			Arrays.sort(rows, new Comparator<Integer>() {
+				public int compare(Integer row0, Integer row1) {
+					final long id0 = fileIds[row0];
+					final long id1 = fileIds[row1];
+					return id0 < id1 ? -1 : (id0 == id1 ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < mySize; ++i) {
+				mySortedFileIds[i] = myFileIds[rows[i]];
+				myRowsByFileId[i] = rows[i];
+			}
+		}
+		myBooks = new Book[mySize];
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public long getId(int row) {
+		return myIds[row];
+	}
+
+	public long getFileId(int row) {
+		return myFileIds[row];
+	}
+
+	public String getTitle(int row) {
+		return string(myTitles[row]);
+	}
+
+	public int rowById(long bookId) {
+		if (myRowsById != null) {
+			final Integer row = myRowsById.get(bookId);
+			return row != null ? row : -1;
+		}
+		final int row = Arrays.binarySearch(myIds, 0, mySize, bookId);
+		return row >= 0 ? row : -1;
+	}
+
+	public int rowByFileId(long fileId) {
+		final int index = Arrays.binarySearch(mySortedFileIds, fileId);
+		return index >= 0 ? myRowsByFileId[index] : -1;
+	}
+
+	/**
+	 * Returns the book for given row if it has been already created, null otherwise.
+	 */
+	public Book getCachedBook(int row) {
+		return myBooks[row];
+	}
+
+	/**
+	 * Returns the book for given row, null if the book file is unknown.
+	 * The same object is returned for all calls with the same row.
+	 */
+	public Book getBook(int row, FileInfoSet infos) {
+		Book book = myBooks[row];
+		if (book != null) {
+			return book;
+		}
+		final ZLFile file = infos.getFile(myFileIds[row]);
+		if (file == null) {
+			return null;
+		}
+		book = new Book(
+			myIds[row], file,
+			string(myTitles[row]), string(myEncodings[row]), string(myLanguages[row])
+		);
+
+		int link = myFirstAuthorLinks[row];
+		if (link != -1) {
+			final ArrayList<Author> authors = new ArrayList<Author>(myAuthorLinks.count(link));
+			for (; link != -1; link = myAuthorLinks.next(link)) {
+				authors.add(myAuthorLinks.get(link));
+			}
+			book.setAuthorsWithNoCheck(authors);
+		}
+		link = myFirstTagLinks[row];
+		if (link != -1) {
+			final ArrayList<Tag> tags = new ArrayList<Tag>(myTagLinks.count(link));
+			for (; link != -1; link = myTagLinks.next(link)) {
+				tags.add(myTagLinks.get(link));
+			}
+			book.setTagsWithNoCheck(tags);
+		}
+		if (mySeries[row] != -1) {
+			book.setSeriesInfoWithNoCheck(
+				string(mySeries[row]),
+				SeriesInfo.createIndex(string(mySeriesIndices[row]))
+			);
+		}
+
+		myBooks[row] = book;
+		return book;
+	}
+}
@@ -36,12 +36,16 @@ public class BookTree extends LibraryTree {
 		super(parent);
 		Book = book;
 		myShowAuthors = showAuthors;
+		setLazy(false);
+		parent.registerBookTree(this);
 	}
 
 	BookTree(LibraryTree parent, Book book, boolean showAuthors, int position) {
 		super(parent, position);
 		Book = book;
 		myShowAuthors = showAuthors;
+		setLazy(false);
+		parent.registerBookTree(this);
 	}
 
 	@Override
@@ -135,14 +135,18 @@ public final class Bookmark extends ZLTextFixedPosition {
 
 	public void save() {
 		if (myIsChanged) {
-			myId = BooksDatabase.Instance().saveBookmark(this);
+			if (myId == -1) {
+				myId = BooksDatabase.Instance().saveBookmark(this);
+			} else {
+				BooksDatabase.Instance().Journal.saveBookmark(this);
+			}
 			myIsChanged = false;
 		}
 	}
 
 	public void delete() {
 		if (myId != -1) {
-			BooksDatabase.Instance().deleteBookmark(this);
+			BooksDatabase.Instance().Journal.deleteBookmark(this);
 		}
 	}
 
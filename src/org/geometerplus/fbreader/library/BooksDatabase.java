@@ -32,6 +32,16 @@ public abstract class BooksDatabase {
 		return ourInstance;
 	}
 
+	// writes changes collected by the journal, if the database exists in this process
+	public static void flushJournal() {
+		final BooksDatabase database = ourInstance;
+		if (database != null) {
+			database.Journal.flush();
+		}
+	}
+
+	public final BooksDatabaseJournal Journal = new BooksDatabaseJournal(this);
+
 	protected BooksDatabase() {
 		ourInstance = this;
 	}
@@ -55,10 +65,18 @@ public abstract class BooksDatabase {
 
 	protected abstract void executeAsATransaction(Runnable actions);
 
-	// returns map fileId -> book
-	protected abstract Map<Long,Book> loadBooks(FileInfoSet infos, boolean existing);
-	protected abstract void setExistingFlag(Collection<Book> books, boolean flag);
+	protected abstract BookMetaStore loadBooks(boolean existing);
+	protected void setExistingFlag(Collection<Book> books, boolean flag) {
+		final List<Long> ids = new ArrayList<Long>(books.size());
+		for (Book b : books) {
+			ids.add(b.getId());
+		}
+		setExistingFlagByIds(ids, flag);
+	}
+	protected abstract void setExistingFlagByIds(Collection<Long> bookIds, boolean flag);
 	protected abstract Book loadBook(long bookId);
+	// books in the order of given ids; file infos are loaded for all the books at once
+	protected abstract List<Book> loadBooks(Collection<Long> bookIds);
 	protected abstract void reloadBook(Book book);
 	protected abstract Book loadBookByFile(long fileId, ZLFile file);
 
@@ -66,7 +84,7 @@ public abstract class BooksDatabase {
 	protected abstract List<Tag> loadTags(long bookId);
 	protected abstract SeriesInfo loadSeriesInfo(long bookId);
 	protected abstract void updateBookInfo(long bookId, long fileId, String encoding, String language, String title);
-	protected abstract long insertBookInfo(ZLFile file, String encoding, String language, String title);
+	protected abstract long insertBookInfo(long fileId, String encoding, String language, String title);
 	protected abstract void deleteAllBookAuthors(long bookId);
 	protected abstract void saveBookAuthorInfo(long bookId, long index, Author author);
 	protected abstract void deleteAllBookTags(long bookId);
@@ -80,6 +98,7 @@ public abstract class BooksDatabase {
 	protected abstract Collection<FileInfo> loadFileInfos();
 	protected abstract Collection<FileInfo> loadFileInfos(ZLFile file);
 	protected abstract Collection<FileInfo> loadFileInfos(long fileId);
+	protected abstract Collection<FileInfo> loadFileInfos(Collection<Long> fileIds);
 	protected abstract void removeFileInfo(long fileId);
 	protected abstract void saveFileInfo(FileInfo fileInfo);
 
@@ -108,4 +127,11 @@ public abstract class BooksDatabase {
 
 	protected abstract Collection<String> loadVisitedHyperlinks(long bookId);
 	protected abstract void addVisitedHyperlink(long bookId, String hyperlinkId);
+
+	// returns null if there is no hash stored for given file size & modification time
+	protected abstract String loadContentHash(long bookId, long fileSize, long fileTime);
+	protected abstract void saveContentHash(long bookId, long fileSize, long fileTime, String hash);
+	protected abstract void deleteContentHash(long bookId);
+	// returns ids of "existing" books with given content hash
+	protected abstract List<Long> loadBookIdsByContentHash(String hash);
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.library;
+
+import java.util.*;
+
+import org.geometerplus.zlibrary.text.view.ZLTextPosition;
+import org.geometerplus.zlibrary.text.view.ZLTextFixedPosition;
+
+/**
+ * Write-behind queue for the data changed while reading: positions,
+ * bookmark updates & deletions, visited hyperlinks and the recent books list.
+ * Changes are merged in memory (only the last position per book is kept)
+ * and written in a single transaction by a background thread, or by flush()
+ * that is called when the reading window or a library activity is
+ * closed/paused and before a library process is killed.
+ * Several processes use the same database, so the recent list is not
+ * cached: list changes are kept as operations and applied to the list
+ * read from the database at write time.
+ * A crash can lose at most the changes made during the last DELAY ms;
+ * every batch is written atomically, so the database is never left with
+ * a partially applied batch.
+ */
+public final class BooksDatabaseJournal {
+	private static final long DELAY = 2000;
+	static final int RECENT_LIST_SIZE = 12;
+
+	private final BooksDatabase myDatabase;
+	private final Object myFlushLock = new Object();
+
+	private Batch myPending = new Batch();
+	// batch being written at the moment, still visible for readers
+	private Batch myInFlight;
+
+	private Thread myWriter;
+
+	private static final class RecentChange {
+		final Long BookId;
+		final boolean IsRemoval;
+
+		RecentChange(Long bookId, boolean isRemoval) {
+			BookId = bookId;
+			IsRemoval = isRemoval;
+		}
+
+		// applying the same changes twice gives the same list
+		static void apply(List<Long> ids, List<RecentChange> changes) {
+			for (RecentChange change : changes) {
+				ids.remove(change.BookId);
+				if (!change.IsRemoval) {
+					ids.add(0, change.BookId);
+					while (ids.size() > RECENT_LIST_SIZE) {
+						ids.remove(ids.size() - 1);
+					}
+				}
+			}
+		}
+	}
+
+	private static final class Batch {
+		final LinkedHashMap<Long,ZLTextPosition> Positions = new LinkedHashMap<Long,ZLTextPosition>();
+		final LinkedHashMap<Long,Bookmark> BookmarksToSave = new LinkedHashMap<Long,Bookmark>();
+		final LinkedHashMap<Long,Bookmark> BookmarksToDelete = new LinkedHashMap<Long,Bookmark>();
+		final HashMap<Long,Set<String>> Hyperlinks = new HashMap<Long,Set<String>>();
+		final ArrayList<RecentChange> RecentChanges = new ArrayList<RecentChange>();
+
+		boolean isEmpty() {
+			return
+				Positions.isEmpty() &&
+				BookmarksToSave.isEmpty() &&
+				BookmarksToDelete.isEmpty() &&
+				Hyperlinks.isEmpty() &&
+				RecentChanges.isEmpty();
+		}
+
+		void write(BooksDatabase database) {
+			for (Map.Entry<Long,ZLTextPosition> entry : Positions.entrySet()) {
+				database.storePosition(entry.getKey(), entry.getValue());
+			}
+			for (Bookmark bookmark : BookmarksToSave.values()) {
+				database.saveBookmark(bookmark);
+			}
+			for (Bookmark bookmark : BookmarksToDelete.values()) {
+				database.deleteBookmark(bookmark);
+			}
+			for (Map.Entry<Long,Set<String>> entry : Hyperlinks.entrySet()) {
+				for (String linkId : entry.getValue()) {
+					database.addVisitedHyperlink(entry.getKey(), linkId);
+				}
+			}
+			if (!RecentChanges.isEmpty()) {
+				final List<Long> ids = database.loadRecentBookIds();
+				RecentChange.apply(ids, RecentChanges);
+				database.saveRecentBookIds(ids);
+			}
+		}
+	}
+
+	BooksDatabaseJournal(BooksDatabase database) {
+		myDatabase = database;
+	}
+
+	synchronized void storePosition(long bookId, ZLTextPosition position) {
+		myPending.Positions.put(bookId, new ZLTextFixedPosition(position));
+		schedule();
+	}
+
+	ZLTextPosition getStoredPosition(long bookId) {
+		synchronized (this) {
+			ZLTextPosition position = myPending.Positions.get(bookId);
+			if (position == null && myInFlight != null) {
+				position = myInFlight.Positions.get(bookId);
+			}
+			if (position != null) {
+				return position;
+			}
+		}
+		return myDatabase.getStoredPosition(bookId);
+	}
+
+	// bookmark must be already stored (i.e. have an id)
+	synchronized void saveBookmark(Bookmark bookmark) {
+		myPending.BookmarksToSave.put(bookmark.getId(), bookmark);
+		schedule();
+	}
+
+	synchronized void deleteBookmark(Bookmark bookmark) {
+		myPending.BookmarksToSave.remove(bookmark.getId());
+		myPending.BookmarksToDelete.put(bookmark.getId(), bookmark);
+		schedule();
+	}
+
+	List<Bookmark> loadBookmarks(long bookId, boolean isVisible) {
+		flush();
+		return myDatabase.loadBookmarks(bookId, isVisible);
+	}
+
+	List<Bookmark> loadAllVisibleBookmarks() {
+		flush();
+		return myDatabase.loadAllVisibleBookmarks();
+	}
+
+	synchronized void addVisitedHyperlink(long bookId, String linkId) {
+		Set<String> links = myPending.Hyperlinks.get(bookId);
+		if (links == null) {
+			links = new HashSet<String>();
+			myPending.Hyperlinks.put(bookId, links);
+		}
+		links.add(linkId);
+		schedule();
+	}
+
+	Collection<String> loadVisitedHyperlinks(long bookId) {
+		// not written links are collected before reading the database:
+		// anything written after this point is already in the collected set
+		final List<String> notWritten = new ArrayList<String>();
+		synchronized (this) {
+			Set<String> links = myPending.Hyperlinks.get(bookId);
+			if (links != null) {
+				notWritten.addAll(links);
+			}
+			if (myInFlight != null) {
+				links = myInFlight.Hyperlinks.get(bookId);
+				if (links != null) {
+					notWritten.addAll(links);
+				}
+			}
+		}
+		final Collection<String> links = myDatabase.loadVisitedHyperlinks(bookId);
+		links.addAll(notWritten);
+		return links;
+	}
+
+	void deleteFromBookList(long bookId) {
+		synchronized (this) {
+			myPending.Hyperlinks.remove(bookId);
+			myPending.Positions.remove(bookId);
+			for (Iterator<Bookmark> it = myPending.BookmarksToSave.values().iterator(); it.hasNext(); ) {
+				if (it.next().getBookId() == bookId) {
+					it.remove();
+				}
+			}
+		}
+		// waits for the batch in flight, it could contain data for this book
+		synchronized (myFlushLock) {
+			myDatabase.deleteFromBookList(bookId);
+		}
+	}
+
+	List<Long> loadRecentBookIds() {
+		// changes are collected before reading the database: changes
+		// written after this point are applied twice, that does not matter
+		final List<RecentChange> notWritten = new ArrayList<RecentChange>();
+		synchronized (this) {
+			if (myInFlight != null) {
+				notWritten.addAll(myInFlight.RecentChanges);
+			}
+			notWritten.addAll(myPending.RecentChanges);
+		}
+		final List<Long> ids = new LinkedList<Long>(myDatabase.loadRecentBookIds());
+		RecentChange.apply(ids, notWritten);
+		return ids;
+	}
+
+	synchronized void addRecentBook(long bookId) {
+		myPending.RecentChanges.add(new RecentChange(bookId, false));
+		schedule();
+	}
+
+	synchronized void removeRecentBook(long bookId) {
+		myPending.RecentChanges.add(new RecentChange(bookId, true));
+		schedule();
+	}
+
+	public void flush() {
+		synchronized (myFlushLock) {
+			final Batch batch;
+			synchronized (this) {
+				if (myPending.isEmpty()) {
+					return;
+				}
+				batch = myPending;
+				myInFlight = batch;
+				myPending = new Batch();
+			}
+			try {
+				myDatabase.executeAsATransaction(new Runnable() {
+					public void run() {
+						batch.write(myDatabase);
+					}
+				});
+			} finally {
+				synchronized (this) {
+					myInFlight = null;
+				}
+			}
+		}
+	}
+
+	private void schedule() {
+		if (myWriter == null) {
+			myWriter = new Thread("BooksDatabaseJournal") {
+				public void run() {
+					try {
+						while (true) {
+							synchronized (BooksDatabaseJournal.this) {
+								while (myPending.isEmpty()) {
+									BooksDatabaseJournal.this.wait();
+								}
+							}
+							// collect changes for a while, then write them at once
+							Thread.sleep(DELAY);
+							flush();
+						}
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			myWriter.setDaemon(true);
+			myWriter.setPriority(Thread.MIN_PRIORITY);
+			myWriter.start();
+		} else {
+			notify();
+		}
+	}
+}
@@ -26,6 +26,10 @@ public final class FileInfo extends ZLTree<FileInfo> {
 	public long Id;
 	public long FileSize = -1;
 
+	// hash chains of FileInfoSet tables
+	FileInfo NextByName;
+	FileInfo NextById;
+
 	FileInfo(String name, FileInfo parent) {
 		this(name, parent, -1);
 	}
@@ -21,41 +21,23 @@ package org.geometerplus.fbreader.library;
 
 import java.util.*;
 
-import org.geometerplus.zlibrary.core.util.ZLMiscUtil;
 import org.geometerplus.zlibrary.core.filesystem.*;
 
 public final class FileInfoSet {
-	private static final class Pair {
-		private final String myName;
-		private final FileInfo myParent;
-
-		Pair(String name, FileInfo parent) {
-			myName = name;
-			myParent = parent;
-		}
-
-		@Override
-		public int hashCode() {
-			return (myParent == null) ? myName.hashCode() : myParent.hashCode() + myName.hashCode();
-		}
-
-		@Override
-		public boolean equals(Object o) {
-			if (this == o) {
-				return true;
-			}
-			if (!(o instanceof Pair)) {
-				return false;
-			}
-			Pair p = (Pair)o;
-			return (myName.equals(p.myName)) && ZLMiscUtil.equals(myParent, p.myParent);
-		}
-	}
+	// FileInfo objects form a path trie (parent -> children);
+	// (parent, name) -> info and id -> info tables are hash tables chained
+	// through FileInfo fields, so lookups do not allocate anything
+	private FileInfo[] myInfosByName = new FileInfo[256];
+	private int myInfosByNameCount;
+	private FileInfo[] myInfosById = new FileInfo[256];
+	private int myInfosByIdCount;
 
+	// physical files only; archive entries are found via their parents
 	private final HashMap<ZLFile,FileInfo> myInfosByFile = new HashMap<ZLFile,FileInfo>();
 	private final HashMap<FileInfo,ZLFile> myFilesByInfo = new HashMap<FileInfo,ZLFile>();
-	private final HashMap<Pair,FileInfo> myInfosByPair = new HashMap<Pair,FileInfo>();
-	private final HashMap<Long,FileInfo> myInfosById = new HashMap<Long,FileInfo>();
+	// consecutive lookups of entries of the same archive hit this one-element cache
+	private ZLFile myLastFile;
+	private FileInfo myLastInfo;
 
 	private final LinkedHashSet<FileInfo> myInfosToSave = new LinkedHashSet<FileInfo>();
 	private final LinkedHashSet<FileInfo> myInfosToRemove = new LinkedHashSet<FileInfo>();
@@ -72,24 +54,119 @@ public final class FileInfoSet {
 		load(BooksDatabase.Instance().loadFileInfos(fileId));
 	}
 
+	public FileInfoSet(Collection<Long> fileIds) {
+		load(BooksDatabase.Instance().loadFileInfos(fileIds));
+	}
+
 	private void load(Collection<FileInfo> infos) {
 		for (FileInfo info : infos) {
-			myInfosByPair.put(new Pair(info.Name, info.Parent), info);
-			myInfosById.put(info.Id, info);
+			addByName(info);
+			addById(info);
 		}
 	}
 
+	private static int nameHash(String name, FileInfo parent) {
+		final int h = name.hashCode() + (parent != null ? 31 * System.identityHashCode(parent) : 0);
+		return h ^ (h >>> 16);
+	}
+
+	private static int idHash(long id) {
+		final int h = (int)(id ^ (id >>> 32));
+		return h ^ (h >>> 16);
+	}
+
+	private FileInfo findByName(String name, FileInfo parent) {
+		final FileInfo[] table = myInfosByName;
+		FileInfo info = table[nameHash(name, parent) & (table.length - 1)];
+		for (; info != null; info = info.NextByName) {
+			if (info.Parent == parent && info.Name.equals(name)) {
+				break;
+			}
+		}
+		return info;
+	}
+
+	private void addByName(FileInfo info) {
+		if (++myInfosByNameCount > myInfosByName.length * 3 / 4) {
+			final FileInfo[] table = new FileInfo[myInfosByName.length * 2];
+			for (FileInfo head : myInfosByName) {
+				while (head != null) {
+					final FileInfo next = head.NextByName;
+					final int index = nameHash(head.Name, head.Parent) & (table.length - 1);
+					head.NextByName = table[index];
+					table[index] = head;
+					head = next;
+				}
+			}
+			myInfosByName = table;
+		}
+		final int index = nameHash(info.Name, info.Parent) & (myInfosByName.length - 1);
+		info.NextByName = myInfosByName[index];
+		myInfosByName[index] = info;
+	}
+
+	private void removeByName(FileInfo info) {
+		final int index = nameHash(info.Name, info.Parent) & (myInfosByName.length - 1);
+		FileInfo previous = null;
+		for (FileInfo i = myInfosByName[index]; i != null; previous = i, i = i.NextByName) {
+			if (i == info) {
+				if (previous == null) {
+					myInfosByName[index] = info.NextByName;
+				} else {
+					previous.NextByName = info.NextByName;
+				}
+				info.NextByName = null;
+				--myInfosByNameCount;
+				return;
+			}
+		}
+	}
+
+	private FileInfo findById(long id) {
+		final FileInfo[] table = myInfosById;
+		FileInfo info = table[idHash(id) & (table.length - 1)];
+		for (; info != null; info = info.NextById) {
+			if (info.Id == id) {
+				break;
+			}
+		}
+		return info;
+	}
+
+	private void addById(FileInfo info) {
+		if (++myInfosByIdCount > myInfosById.length * 3 / 4) {
+			final FileInfo[] table = new FileInfo[myInfosById.length * 2];
+			for (FileInfo head : myInfosById) {
+				while (head != null) {
+					final FileInfo next = head.NextById;
+					final int index = idHash(head.Id) & (table.length - 1);
+					head.NextById = table[index];
+					table[index] = head;
+					head = next;
+				}
+			}
+			myInfosById = table;
+		}
+		final int index = idHash(info.Id) & (myInfosById.length - 1);
+		info.NextById = myInfosById[index];
+		myInfosById[index] = info;
+	}
+
 	public void save() {
 		final BooksDatabase database = BooksDatabase.Instance();
 		database.executeAsATransaction(new Runnable() {
 			public void run() {
 				for (FileInfo info : myInfosToRemove) {
 					database.removeFileInfo(info.Id);
-					myInfosByPair.remove(new Pair(info.Name, info.Parent));
+					removeByName(info);
 				}
 				myInfosToRemove.clear();
 				for (FileInfo info : myInfosToSave) {
+					final boolean isNew = info.Id == -1;
 					database.saveFileInfo(info);
+					if (isNew && info.Id != -1) {
+						addById(info);
+					}
 				}
 				myInfosToSave.clear();
 			}
@@ -122,8 +199,10 @@ public final class FileInfoSet {
 		if (!info.hasChildren()) {
 			return Collections.emptyList();
 		}
-		final LinkedList<ZLFile> entries = new LinkedList<ZLFile>();
-		for (FileInfo child : info.subTrees()) {
+		final int size = info.subTreesNumber();
+		final ArrayList<ZLFile> entries = new ArrayList<ZLFile>(size);
+		for (int i = 0; i < size; ++i) {
+			final FileInfo child = info.subTreeAt(i);
 			if (!myInfosToRemove.contains(child)) {
 				entries.add(ZLArchiveEntryFile.createArchiveEntryFile(file, child.Name));
 			}
@@ -132,26 +211,33 @@ public final class FileInfoSet {
 	}
 
 	private FileInfo get(String name, FileInfo parent) {
-		final Pair pair = new Pair(name, parent);
-		FileInfo info = myInfosByPair.get(pair);
+		FileInfo info = findByName(name, parent);
 		if (info == null) {
 			info = new FileInfo(name, parent);
-			myInfosByPair.put(pair, info);
+			addByName(info);
 			myInfosToSave.add(info);
 		}
 		return info;
 	}
 
-
 	private FileInfo get(ZLFile file) {
 		if (file == null) {
 			return null;
 		}
+		if (file instanceof ZLArchiveEntryFile) {
+			// parent is stored in the entry, no need to cache by path
+			return get(file.getLongName(), get(file.getParent()));
+		}
+		if (file == myLastFile) {
+			return myLastInfo;
+		}
 		FileInfo info = myInfosByFile.get(file);
 		if (info == null) {
 			info = get(file.getLongName(), get(file.getParent()));
 			myInfosByFile.put(file, info);
 		}
+		myLastFile = file;
+		myLastInfo = info;
 		return info;
 	}
 
@@ -179,11 +265,12 @@ public final class FileInfoSet {
 	}
 
 	public ZLFile getFile(long id) {
-		return getFile(myInfosById.get(id));
+		return getFile(findById(id));
 	}
 
 	private void removeChildren(FileInfo info) {
-		for (FileInfo child : info.subTrees()) {
+		for (int i = 0; i < info.subTreesNumber(); ++i) {
+			final FileInfo child = info.subTreeAt(i);
 			if (myInfosToSave.contains(child)) {
 				myInfosToSave.remove(child);
 			} else {
@@ -19,11 +19,14 @@
 
 package org.geometerplus.fbreader.library;
 
+import java.util.*;
+
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 
 public class FirstLevelTree extends LibraryTree {
 	private final String myId;
 	private final ZLResource myResource;
+	private boolean myGroupTitlesByFirstLetter;
 
 	FirstLevelTree(RootTree root, int position, String id) {
 		super(root, position);
@@ -61,4 +64,93 @@ public class FirstLevelTree extends LibraryTree {
 	public boolean isSelectable() {
 		return false;
 	}
+
+	void setGroupTitlesByFirstLetter(boolean group) {
+		myGroupTitlesByFirstLetter = group;
+	}
+
+	// keys of the subtrees the book belongs to, see getSubTreeByKey()
+	private void collectKeys(Book book, List<Object> keys) {
+		if (Library.ROOT_BY_AUTHOR.equals(myId)) {
+			final List<Author> authors = book.authors();
+			if (authors.isEmpty()) {
+				keys.add(null);
+			} else {
+				keys.addAll(authors);
+			}
+		} else if (Library.ROOT_BY_SERIES.equals(myId)) {
+			final SeriesInfo seriesInfo = book.getSeriesInfo();
+			if (seriesInfo != null) {
+				keys.add(seriesInfo.Name);
+			}
+		} else if (Library.ROOT_BY_TITLE.equals(myId)) {
+			if (myGroupTitlesByFirstLetter) {
+				final String letter = TitleTree.firstTitleLetter(book);
+				if (letter != null) {
+					keys.add(letter);
+				}
+			} else {
+				keys.add(book);
+			}
+		} else if (Library.ROOT_BY_TAG.equals(myId)) {
+			final List<Tag> tags = book.tags();
+			if (tags.isEmpty()) {
+				keys.add(null);
+			} else {
+				final Set<Tag> topTags = new LinkedHashSet<Tag>();
+				for (Tag t : tags) {
+					while (t.Parent != null) {
+						t = t.Parent;
+					}
+					topTags.add(t);
+				}
+				keys.addAll(topTags);
+			}
+		}
+	}
+
+	private LibraryTree getSubTreeByKey(Object key) {
+		if (Library.ROOT_BY_AUTHOR.equals(myId)) {
+			return getAuthorSubTree((Author)key);
+		} else if (Library.ROOT_BY_SERIES.equals(myId)) {
+			return getSeriesSubTree((String)key);
+		} else if (Library.ROOT_BY_TITLE.equals(myId)) {
+			return myGroupTitlesByFirstLetter
+				? getTitleSubTree((String)key) : getBookSubTree((Book)key, true);
+		} else {
+			return getTagSubTree((Tag)key);
+		}
+	}
+
+	@Override
+	void insertBook(Book book) {
+		final List<Object> keys = new ArrayList<Object>(2);
+		collectKeys(book, keys);
+		for (Object k : keys) {
+			final LibraryTree subTree = getSubTreeByKey(k);
+			if (!(subTree instanceof BookTree)) {
+				subTree.addBook(book);
+			}
+		}
+	}
+
+	@Override
+	void insertBooks(List<Book> books) {
+		final Map<Object,List<Book>> groups = BookGrouper.group(books, new BookGrouper.Classifier() {
+			public void collectKeys(Book book, List<Object> keys) {
+				FirstLevelTree.this.collectKeys(book, keys);
+			}
+		});
+		final boolean bulk = startBulkInsertion();
+		try {
+			for (Map.Entry<Object,List<Book>> entry : groups.entrySet()) {
+				final LibraryTree subTree = getSubTreeByKey(entry.getKey());
+				if (!(subTree instanceof BookTree)) {
+					subTree.addBooks(entry.getValue());
+				}
+			}
+		} finally {
+			finishBulkInsertion(bulk);
+		}
+	}
 }
@@ -23,10 +23,12 @@ import java.io.File;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.filesystem.*;
+import org.geometerplus.zlibrary.core.options.ZLBooleanOption;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
 
-import org.geometerplus.fbreader.tree.FBTree;
 import org.geometerplus.fbreader.Paths;
 import org.geometerplus.fbreader.bookmodel.BookReadingException;
+import org.geometerplus.fbreader.tree.FBTree;
 
 public final class Library extends AbstractLibrary {
 	public static final String ROOT_FOUND = "found";
@@ -51,7 +53,12 @@ public final class Library extends AbstractLibrary {
 	private final Map<ZLFile,Book> myBooks =
 		Collections.synchronizedMap(new HashMap<ZLFile,Book>());
 	private final RootTree myRootTree = new RootTree();
-	private boolean myDoGroupTitlesByFirstLetter;
+
+	// in lazy mode "by author", "by title", "by series" and "by tag" trees
+	// create subtrees only when opened; takes effect on next start
+	public final ZLBooleanOption LazyTreesOption =
+		new ZLBooleanOption("Library", "LazyTrees", true);
+	private final boolean myLazyTrees;
 
 	private final static int STATUS_LOADING = 1;
 	private final static int STATUS_SEARCHING = 2;
@@ -70,14 +77,31 @@ public final class Library extends AbstractLibrary {
 	public Library(BooksDatabase db) {
 		myDatabase = db;
 
+		myLazyTrees = LazyTreesOption.getValue();
+
 		new FavoritesTree(myRootTree, ROOT_FAVORITES);
 		new FirstLevelTree(myRootTree, ROOT_RECENT);
-		new FirstLevelTree(myRootTree, ROOT_BY_AUTHOR);
-		new FirstLevelTree(myRootTree, ROOT_BY_TITLE);
-		new FirstLevelTree(myRootTree, ROOT_BY_TAG);
+		new FirstLevelTree(myRootTree, ROOT_BY_AUTHOR).setLazy(myLazyTrees);
+		new FirstLevelTree(myRootTree, ROOT_BY_TITLE).setLazy(myLazyTrees);
+		new FirstLevelTree(myRootTree, ROOT_BY_TAG).setLazy(myLazyTrees);
 		new FileFirstLevelTree(myRootTree, ROOT_FILE_TREE);
 	}
 
+	// snapshot of all books in the library
+	public List<Book> books() {
+		synchronized (myBooks) {
+			return new ArrayList<Book>(myBooks.values());
+		}
+	}
+
+	public List<Long> recentBookIds() {
+		return myDatabase.Journal.loadRecentBookIds();
+	}
+
+	public List<Long> favoriteBookIds() {
+		return myDatabase.loadFavoritesIds();
+	}
+
 	public LibraryTree getRootTree() {
 		return myRootTree;
 	}
@@ -94,7 +118,11 @@ public final class Library extends AbstractLibrary {
 			return key.Id.equals(myRootTree.getUniqueKey().Id) ? myRootTree : null;
 		}
 		final LibraryTree parentTree = getLibraryTree(key.Parent);
-		return parentTree != null ? (LibraryTree)parentTree.getSubTree(key.Id) : null;
+		if (parentTree == null) {
+			return null;
+		}
+		parentTree.materialize();
+		return (LibraryTree)parentTree.getSubTree(key.Id);
 	}
 
 	public static ZLResourceFile getHelpFile() {
@@ -119,45 +147,76 @@ public final class Library extends AbstractLibrary {
 
 	private void collectBooks(
 		ZLFile file, FileInfoSet fileInfos,
-		Map<Long,Book> savedBooksByFileId, Map<Long,Book> orphanedBooksByFileId,
+		BookMetaStore savedBooks, BookMetaStore orphanedBooks,
 		Set<Book> newBooks,
 		boolean doReadMetaInfo
 	) {
-		final long fileId = fileInfos.getId(file);
-		if (savedBooksByFileId.get(fileId) != null) {
+		if (collectKnownBook(file, fileInfos, savedBooks, orphanedBooks, newBooks, doReadMetaInfo)) {
 			return;
 		}
 
 		try {
-			final Book book = orphanedBooksByFileId.get(fileId);
-			if (book != null) {
-				if (doReadMetaInfo) {
-					book.readMetaInfo();
-				}
-				addBookToLibrary(book);
-				fireModelChangedEvent(ChangeListener.Code.BookAdded);
-				newBooks.add(book);
-				return;
-			}
+			addNewBook(new Book(file), newBooks);
+			return;
 		} catch (BookReadingException e) {
 			// ignore
 		}
 
+		collectArchiveEntries(file, fileInfos, savedBooks, orphanedBooks, newBooks, doReadMetaInfo);
+	}
+
+	private void collectBooks(
+		BookCreationQueue.Entry entry, FileInfoSet fileInfos,
+		BookMetaStore savedBooks, BookMetaStore orphanedBooks,
+		Set<Book> newBooks
+	) {
+		final Book book = entry.getBook();
+		if (book != null) {
+			addNewBook(book, newBooks);
+		} else {
+			collectArchiveEntries(entry.File, fileInfos, savedBooks, orphanedBooks, newBooks, entry.IsChanged);
+		}
+		entry.File.setCached(false);
+	}
+
+	// returns true if the file is a book from database
+	private boolean collectKnownBook(
+		ZLFile file, FileInfoSet fileInfos,
+		BookMetaStore savedBooks, BookMetaStore orphanedBooks,
+		Set<Book> newBooks,
+		boolean doReadMetaInfo
+	) {
+		final long fileId = fileInfos.getId(file);
+		if (getBookByFileId(savedBooks, fileId, fileInfos) != null) {
+			return true;
+		}
+
 		try {
-			final Book book = new Book(file);
-			addBookToLibrary(book);
-			fireModelChangedEvent(ChangeListener.Code.BookAdded);
-			newBooks.add(book);
-			return;
+			final Book book = getBookByFileId(orphanedBooks, fileId, fileInfos);
+			if (book != null) {
+				if (doReadMetaInfo) {
+					book.readMetaInfo();
+				}
+				addNewBook(book, newBooks);
+				return true;
+			}
 		} catch (BookReadingException e) {
 			// ignore
 		}
+		return false;
+	}
 
+	private void collectArchiveEntries(
+		ZLFile file, FileInfoSet fileInfos,
+		BookMetaStore savedBooks, BookMetaStore orphanedBooks,
+		Set<Book> newBooks,
+		boolean doReadMetaInfo
+	) {
 		if (file.isArchive()) {
 			for (ZLFile entry : fileInfos.archiveEntries(file)) {
 				collectBooks(
 					entry, fileInfos,
-					savedBooksByFileId, orphanedBooksByFileId,
+					savedBooks, orphanedBooks,
 					newBooks,
 					doReadMetaInfo
 				);
@@ -165,6 +224,41 @@ public final class Library extends AbstractLibrary {
 		}
 	}
 
+	private void addNewBook(Book book, Set<Book> newBooks) {
+		addBookToLibrary(book);
+		fireModelChangedEvent(ChangeListener.Code.BookAdded);
+		newBooks.add(book);
+	}
+
+	private static Book getBookByFileId(BookMetaStore store, long fileId, FileInfoSet fileInfos) {
+		final int row = store.rowByFileId(fileId);
+		return row != -1 ? store.getBook(row, fileInfos) : null;
+	}
+
+	private static Book getStoredBook(BookMetaStore store, long bookId, FileInfoSet fileInfos) {
+		final int row = store.rowById(bookId);
+		return row != -1 ? store.getBook(row, fileInfos) : null;
+	}
+
+	// books that are not in the store are loaded from the database at once
+	private static Map<Long,Book> loadOtherBooks(BookMetaStore store, FileInfoSet fileInfos, Collection<Long> bookIds) {
+		final Set<Long> otherIds = new LinkedHashSet<Long>();
+		for (long id : bookIds) {
+			if (getStoredBook(store, id, fileInfos) == null) {
+				otherIds.add(id);
+			}
+		}
+		final Map<Long,Book> books = new HashMap<Long,Book>();
+		if (!otherIds.isEmpty()) {
+			for (Book book : Book.getByIds(otherIds)) {
+				if (book.File.exists()) {
+					books.put(book.getId(), book);
+				}
+			}
+		}
+		return books;
+	}
+
 	private List<ZLPhysicalFile> collectPhysicalFiles() {
 		final Queue<ZLFile> dirQueue = new LinkedList<ZLFile>();
 		final HashSet<ZLFile> dirSet = new HashSet<ZLFile>();
@@ -188,72 +282,148 @@ public final class Library extends AbstractLibrary {
 		return fileList;
 	}
 
-	private final List<?> myNullList = Collections.singletonList(null);
-
-	private LibraryTree getTagTree(Tag tag) {
-		if (tag == null || tag.Parent == null) {
-			return getFirstLevelTree(ROOT_BY_TAG).getTagSubTree(tag);
-		} else {
-			return getTagTree(tag.Parent).getTagSubTree(tag);
-		}
-	}
-
 	private synchronized void addBookToLibrary(Book book) {
 		if (myBooks.containsKey(book.File)) {
 			return;
 		}
 		myBooks.put(book.File, book);
+		fireBookChangedEvent(book, false);
 
-		List<Author> authors = book.authors();
-		if (authors.isEmpty()) {
-			authors = (List<Author>)myNullList;
+		getFirstLevelTree(ROOT_BY_AUTHOR).addBook(book);
+		if (book.getSeriesInfo() != null) {
+			FirstLevelTree seriesRoot = getFirstLevelTree(ROOT_BY_SERIES);
+			if (seriesRoot == null) {
+				seriesRoot = new FirstLevelTree(
+					myRootTree,
+					myRootTree.indexOf(getFirstLevelTree(ROOT_BY_TITLE)) + 1,
+					ROOT_BY_SERIES
+				);
+				seriesRoot.setLazy(myLazyTrees);
+			}
+			seriesRoot.addBook(book);
 		}
-		final SeriesInfo seriesInfo = book.getSeriesInfo();
-		for (Author a : authors) {
-			final AuthorTree authorTree = getFirstLevelTree(ROOT_BY_AUTHOR).getAuthorSubTree(a);
-			if (seriesInfo == null) {
-				authorTree.getBookSubTree(book, false);
-			} else {
-				authorTree.getSeriesSubTree(seriesInfo.Name).getBookInSeriesSubTree(book);
+		getFirstLevelTree(ROOT_BY_TITLE).addBook(book);
+		getFirstLevelTree(ROOT_BY_TAG).addBook(book);
+
+		final SearchResultsTree found =
+			(SearchResultsTree)getFirstLevelTree(ROOT_FOUND);
+		if (found != null && book.matches(found.getPattern())) {
+			found.getBookSubTree(book, true);
+		}
+	}
+
+	// used for both built and mirrored (see LibraryShadow) libraries
+	private static boolean groupTitlesByFirstLetter(int booksNumber, int lettersNumber) {
+		return booksNumber > 10 && booksNumber > lettersNumber * 5 / 4;
+	}
+
+	/**
+	 * Rebuilds "by author", "by title", "by series" and "by tag" trees for
+	 * the whole book set at once.
+	 */
+	private synchronized void regroupBooks() {
+		final List<Book> books = books();
+		final List<Book> booksInSeries = new ArrayList<Book>();
+		final HashSet<String> letterSet = new HashSet<String>();
+		for (Book book : books) {
+			if (book.getSeriesInfo() != null) {
+				booksInSeries.add(book);
+			}
+			final String letter = TitleTree.firstTitleLetter(book);
+			if (letter != null) {
+				letterSet.add(letter);
 			}
 		}
 
-		if (seriesInfo != null) {
+		synchronized (myRootTree) {
+			getFirstLevelTree(ROOT_BY_AUTHOR).resetBooks(books);
 			FirstLevelTree seriesRoot = getFirstLevelTree(ROOT_BY_SERIES);
-			if (seriesRoot == null) {
+			if (seriesRoot == null && !booksInSeries.isEmpty()) {
 				seriesRoot = new FirstLevelTree(
 					myRootTree,
 					myRootTree.indexOf(getFirstLevelTree(ROOT_BY_TITLE)) + 1,
 					ROOT_BY_SERIES
 				);
+				seriesRoot.setLazy(myLazyTrees);
+			}
+			if (seriesRoot != null) {
+				seriesRoot.resetBooks(booksInSeries);
 			}
-			seriesRoot.getSeriesSubTree(seriesInfo.Name).getBookInSeriesSubTree(book);
+			final FirstLevelTree titleRoot = getFirstLevelTree(ROOT_BY_TITLE);
+			titleRoot.setGroupTitlesByFirstLetter(
+				groupTitlesByFirstLetter(books.size(), letterSet.size())
+			);
+			titleRoot.resetBooks(books);
+			getFirstLevelTree(ROOT_BY_TAG).resetBooks(books);
 		}
+		fireModelChangedEvent(ChangeListener.Code.BookAdded);
+	}
 
-		if (myDoGroupTitlesByFirstLetter) {
-			final String letter = TitleTree.firstTitleLetter(book);
-			if (letter != null) {
-				final TitleTree tree =
-					getFirstLevelTree(ROOT_BY_TITLE).getTitleSubTree(letter);
-				tree.getBookSubTree(book, true);
+	// a library that is not built, but gets books from the library service
+	// (see LibraryShadow), is changed by the next methods only;
+	// they change the trees, not the database
+
+	/**
+	 * Replaces the whole book set; the trees are filled in bulk.
+	 */
+	public synchronized void setBooks(Collection<Book> books) {
+		synchronized (myBooks) {
+			myBooks.clear();
+			for (Book book : books) {
+				myBooks.put(book.File, book);
 			}
-		} else {
-			getFirstLevelTree(ROOT_BY_TITLE).getBookSubTree(book, true);
 		}
+		regroupBooks();
+	}
 
-		List<Tag> tags = book.tags();
-		if (tags.isEmpty()) {
-			tags = (List<Tag>)myNullList;
+	public void addBooks(Collection<Book> books) {
+		for (Book book : books) {
+			addBookToLibrary(book);
 		}
-		for (Tag t : tags) {
-			getTagTree(t).getBookSubTree(book, true);
+		fireModelChangedEvent(ChangeListener.Code.BookAdded);
+	}
+
+	public synchronized void removeBooks(Collection<Book> books) {
+		for (Book book : books) {
+			myBooks.remove(book.File);
+			myRootTree.removeBook(book, true);
 		}
+		fireModelChangedEvent(ChangeListener.Code.BookRemoved);
+	}
 
-		final SearchResultsTree found =
-			(SearchResultsTree)getFirstLevelTree(ROOT_FOUND);
-		if (found != null && book.matches(found.getPattern())) {
-			found.getBookSubTree(book, true);
+	/**
+	 * Replaces the content of the recent or favorites list.
+	 */
+	public synchronized void setBookList(String rootId, List<Book> books) {
+		final LibraryTree tree = getFirstLevelTree(rootId);
+		for (FBTree subTree : new ArrayList<FBTree>(tree.subTrees())) {
+			final Book book = ((LibraryTree)subTree).getBook();
+			if (book != null) {
+				tree.removeBook(book, false);
+			}
+		}
+		for (Book book : books) {
+			if (ROOT_RECENT.equals(rootId)) {
+				// recent list is not sorted
+				new BookTree(tree, book, true);
+			} else {
+				tree.getBookSubTree(book, true);
+			}
+		}
+		fireModelChangedEvent(ChangeListener.Code.BookAdded);
+	}
+
+	public synchronized void setSearchResults(String pattern, List<Book> books) {
+		final FirstLevelTree oldSearchResults = getFirstLevelTree(ROOT_FOUND);
+		if (oldSearchResults != null) {
+			oldSearchResults.removeSelf();
 		}
+		final FirstLevelTree newSearchResults =
+			new SearchResultsTree(myRootTree, ROOT_FOUND, pattern);
+		for (Book book : books) {
+			newSearchResults.getBookSubTree(book, true);
+		}
+		fireModelChangedEvent(ChangeListener.Code.Found);
 	}
 
 	private void removeFromTree(String rootId, Book book) {
@@ -294,45 +464,43 @@ public final class Library extends AbstractLibrary {
 	private void build() {
 		// Step 0: get database books marked as "existing"
 		final FileInfoSet fileInfos = new FileInfoSet();
-		final Map<Long,Book> savedBooksByFileId = myDatabase.loadBooks(fileInfos, true);
-		final Map<Long,Book> savedBooksByBookId = new HashMap<Long,Book>();
-		for (Book b : savedBooksByFileId.values()) {
-			savedBooksByBookId.put(b.getId(), b);
-		}
+		// books are kept in columnar form, Book objects are created on demand
+		final BookMetaStore savedBooks = myDatabase.loadBooks(true);
 
-		// Step 1: set myDoGroupTitlesByFirstLetter value,
+		// Step 1: set "group titles by first letter" flag,
 		// add "existing" books into recent and favorites lists
-		if (savedBooksByFileId.size() > 10) {
-			final HashSet<String> letterSet = new HashSet<String>();
-			for (Book book : savedBooksByFileId.values()) {
-				final String letter = TitleTree.firstTitleLetter(book);
-				if (letter != null) {
-					letterSet.add(letter);
-				}
+		final int savedBooksNumber = savedBooks.size();
+		final HashSet<String> letterSet = new HashSet<String>();
+		for (int i = 0; i < savedBooksNumber; ++i) {
+			final String letter = TitleTree.firstTitleLetter(savedBooks.getTitle(i));
+			if (letter != null) {
+				letterSet.add(letter);
 			}
-			myDoGroupTitlesByFirstLetter = savedBooksByFileId.values().size() > letterSet.size() * 5 / 4;
 		}
+		getFirstLevelTree(ROOT_BY_TITLE).setGroupTitlesByFirstLetter(
+			groupTitlesByFirstLetter(savedBooksNumber, letterSet.size())
+		);
 
-		for (long id : myDatabase.loadRecentBookIds()) {
-			Book book = savedBooksByBookId.get(id);
+		final List<Long> recentIds = myDatabase.Journal.loadRecentBookIds();
+		final List<Long> favoritesIds = myDatabase.loadFavoritesIds();
+		final List<Long> listedIds = new ArrayList<Long>(recentIds);
+		listedIds.addAll(favoritesIds);
+		final Map<Long,Book> otherBooks = loadOtherBooks(savedBooks, fileInfos, listedIds);
+
+		for (long id : recentIds) {
+			Book book = getStoredBook(savedBooks, id, fileInfos);
 			if (book == null) {
-				book = Book.getById(id);
-				if (book != null && !book.File.exists()) {
-					book = null;
-				}
+				book = otherBooks.get(id);
 			}
 			if (book != null) {
 				new BookTree(getFirstLevelTree(ROOT_RECENT), book, true);
 			}
 		}
 
-		for (long id : myDatabase.loadFavoritesIds()) {
-			Book book = savedBooksByBookId.get(id);
+		for (long id : favoritesIds) {
+			Book book = getStoredBook(savedBooks, id, fileInfos);
 			if (book == null) {
-				book = Book.getById(id);
-				if (book != null && !book.File.exists()) {
-					book = null;
-				}
+				book = otherBooks.get(id);
 			}
 			if (book != null) {
 				getFirstLevelTree(ROOT_FAVORITES).getBookSubTree(book, true);
@@ -344,29 +512,35 @@ public final class Library extends AbstractLibrary {
 		// Step 2: check if files corresponding to "existing" books really exists;
 		//         add books to library if yes (and reload book info if needed);
 		//         remove from recent/favorites list if no;
-		//         collect newly "orphaned" books
-		final Set<Book> orphanedBooks = new HashSet<Book>();
+		//         collect newly "orphaned" books;
+		//         Book objects are created only for books added to the library
+		final List<Long> orphanedBookIds = new ArrayList<Long>();
 		final Set<ZLPhysicalFile> physicalFiles = new HashSet<ZLPhysicalFile>();
 		int count = 0;
-		for (Book book : savedBooksByFileId.values()) {
+		for (int i = 0; i < savedBooksNumber; ++i) {
+			final ZLFile bookFile = fileInfos.getFile(savedBooks.getFileId(i));
+			if (bookFile == null) {
+				continue;
+			}
 			synchronized (this) {
-				final ZLPhysicalFile file = book.File.getPhysicalFile();
+				final ZLPhysicalFile file = bookFile.getPhysicalFile();
 				if (file != null) {
 					physicalFiles.add(file);
 				}
-				if (file != book.File && file != null && file.getPath().endsWith(".epub")) {
-					myDatabase.deleteFromBookList(book.getId());
+				if (file != bookFile && file != null && file.getPath().endsWith(".epub")) {
+					myDatabase.Journal.deleteFromBookList(savedBooks.getId(i));
 					continue;
 				}
-				if (book.File.exists()) {
-					boolean doAdd = true;
+				if (bookFile.exists()) {
 					if (file == null) {
 						continue;
 					}
+					final Book book = savedBooks.getBook(i, fileInfos);
+					boolean doAdd = true;
 					if (!fileInfos.check(file, true)) {
 						try {
 							book.readMetaInfo();
-							book.save();
+							book.save(fileInfos);
 						} catch (BookReadingException e) {
 							doAdd = false;
 						}
@@ -379,38 +553,57 @@ public final class Library extends AbstractLibrary {
 						}
 					}
 				} else {
-					myRootTree.removeBook(book, true);
-					fireModelChangedEvent(ChangeListener.Code.BookRemoved);
-					orphanedBooks.add(book);
+					// only books from recent and favorites lists can be in the trees
+					final Book book = savedBooks.getCachedBook(i);
+					if (book != null) {
+						myRootTree.removeBook(book, true);
+						fireModelChangedEvent(ChangeListener.Code.BookRemoved);
+					}
+					orphanedBookIds.add(savedBooks.getId(i));
 				}
 			}
 		}
 		fireModelChangedEvent(ChangeListener.Code.BookAdded);
-		myDatabase.setExistingFlag(orphanedBooks, false);
+		myDatabase.setExistingFlagByIds(orphanedBookIds, false);
 
 		// Step 3: collect books from physical files; add new, update already added,
 		//         unmark orphaned as existing again, collect newly added
-		final Map<Long,Book> orphanedBooksByFileId = myDatabase.loadBooks(fileInfos, false);
+		final BookMetaStore storedOrphanedBooks = myDatabase.loadBooks(false);
 		final Set<Book> newBooks = new HashSet<Book>();
 
+		// meta info of new books is read in several threads
 		final List<ZLPhysicalFile> physicalFilesList = collectPhysicalFiles();
-		for (ZLPhysicalFile file : physicalFilesList) {
-			if (physicalFiles.contains(file)) {
-				continue;
+		final BookCreationQueue queue = new BookCreationQueue();
+		try {
+			for (ZLPhysicalFile file : physicalFilesList) {
+				if (physicalFiles.contains(file)) {
+					continue;
+				}
+				final boolean doReadMetaInfo = !fileInfos.check(file, true);
+				if (collectKnownBook(
+					file, fileInfos,
+					savedBooks, storedOrphanedBooks,
+					newBooks,
+					doReadMetaInfo
+				)) {
+					continue;
+				}
+				queue.add(file, doReadMetaInfo);
+				if (queue.isFull()) {
+					collectBooks(queue.poll(), fileInfos, savedBooks, storedOrphanedBooks, newBooks);
+				}
 			}
-			collectBooks(
-				file, fileInfos,
-				savedBooksByFileId, orphanedBooksByFileId,
-				newBooks,
-				!fileInfos.check(file, true)
-			);
-			file.setCached(false);
+			while (!queue.isEmpty()) {
+				collectBooks(queue.poll(), fileInfos, savedBooks, storedOrphanedBooks, newBooks);
+			}
+		} finally {
+			queue.shutdown();
 		}
 		
 		// Step 4: add help file
 		try {
 			final ZLFile helpFile = getHelpFile();
-			Book helpBook = savedBooksByFileId.get(fileInfos.getId(helpFile));
+			Book helpBook = getBookByFileId(savedBooks, fileInfos.getId(helpFile), fileInfos);
 			if (helpBook == null) {
 				helpBook = new Book(helpFile);
 			}
@@ -427,13 +620,28 @@ public final class Library extends AbstractLibrary {
 		myDatabase.executeAsATransaction(new Runnable() {
 			public void run() {
 				for (Book book : newBooks) {
-					book.save();
+					book.save(fileInfos);
 				}
 			}
 		});
 		myDatabase.setExistingFlag(newBooks, true);
 	}
 
+	/**
+	 * Returns other books with the same file content. Hash of the given
+	 * book is computed if it is not stored yet, so do not call it in the UI
+	 * thread; books that were never hashed are not found.
+	 */
+	public List<Book> getDuplicates(Book book) {
+		final String hash = book.getContentHashCode();
+		if (hash == null) {
+			return Collections.emptyList();
+		}
+		final List<Long> ids = myDatabase.loadBookIdsByContentHash(hash);
+		ids.remove(Long.valueOf(book.getId()));
+		return Book.getByIds(ids);
+	}
+
 	private volatile boolean myBuildStarted = false;
 
 	public synchronized void startBuild() {
@@ -451,6 +659,7 @@ public final class Library extends AbstractLibrary {
 					build();
 				} finally {
 					setStatus(myStatusMask & ~STATUS_LOADING);
+					ZLBufferPool.releaseThreadBuffers();
 				}
 			}
 		};
@@ -465,13 +674,13 @@ public final class Library extends AbstractLibrary {
 
 	@Override
 	public Book getRecentBook() {
-		List<Long> recentIds = myDatabase.loadRecentBookIds();
+		List<Long> recentIds = myDatabase.Journal.loadRecentBookIds();
 		return recentIds.size() > 0 ? Book.getById(recentIds.get(0)) : null;
 	}
 
 	@Override
 	public Book getPreviousBook() {
-		List<Long> recentIds = myDatabase.loadRecentBookIds();
+		List<Long> recentIds = myDatabase.Journal.loadRecentBookIds();
 		return recentIds.size() > 1 ? Book.getById(recentIds.get(1)) : null;
 	}
 
@@ -533,14 +742,7 @@ public final class Library extends AbstractLibrary {
 
 	@Override
 	public void addBookToRecentList(Book book) {
-		final List<Long> ids = myDatabase.loadRecentBookIds();
-		final Long bookId = book.getId();
-		ids.remove(bookId);
-		ids.add(0, bookId);
-		if (ids.size() > 12) {
-			ids.remove(12);
-		}
-		myDatabase.saveRecentBookIds(ids);
+		myDatabase.Journal.addRecentBook(book.getId());
 	}
 
 	@Override
@@ -548,13 +750,7 @@ public final class Library extends AbstractLibrary {
 		if (book == null) {
 			return false;
 		}
-		final LibraryTree rootFavorites = getFirstLevelTree(ROOT_FAVORITES);
-		for (FBTree tree : rootFavorites.subTrees()) {
-			if (tree instanceof BookTree && book.equals(((BookTree)tree).Book)) {
-				return true;
-			}
-		}
-		return false;
+		return getFirstLevelTree(ROOT_FAVORITES).hasBookTree(book);
 	}
 
 	@Override
@@ -595,29 +791,30 @@ public final class Library extends AbstractLibrary {
 		if (removeMode == REMOVE_DONT_REMOVE) {
 			return;
 		}
-		myBooks.remove(book.File);
+		if (myBooks.remove(book.File) != null) {
+			fireBookChangedEvent(book, true);
+		}
 		if (getFirstLevelTree(ROOT_RECENT).removeBook(book, false)) {
-			final List<Long> ids = myDatabase.loadRecentBookIds();
-			ids.remove(book.getId());
-			myDatabase.saveRecentBookIds(ids);
+			myDatabase.Journal.removeRecentBook(book.getId());
 		}
 		getFirstLevelTree(ROOT_FAVORITES).removeBook(book, false);
 		myRootTree.removeBook(book, true);
 
-		myDatabase.deleteFromBookList(book.getId());
+		myDatabase.Journal.deleteFromBookList(book.getId());
 		if ((removeMode & REMOVE_FROM_DISK) != 0) {
 			book.File.getPhysicalFile().delete();
+			myDatabase.deleteContentHash(book.getId());
 		}
 	}
 
 	@Override
 	public List<Bookmark> allBookmarks() {
-		return BooksDatabase.Instance().loadAllVisibleBookmarks();
+		return myDatabase.Journal.loadAllVisibleBookmarks();
 	}
 
 	@Override
 	public List<Bookmark> invisibleBookmarks(Book book) {
-		final List<Bookmark> list = BooksDatabase.Instance().loadBookmarks(book.getId(), false);
+		final List<Bookmark> list = myDatabase.Journal.loadBookmarks(book.getId(), false);
 		Collections.sort(list, new Bookmark.ByTimeComparator());
 		return list;
 	}
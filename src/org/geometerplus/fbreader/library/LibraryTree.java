@@ -24,16 +24,200 @@ import java.util.*;
 import org.geometerplus.fbreader.tree.FBTree;
 
 public abstract class LibraryTree extends FBTree {
+	// lazy mode: books are collected in myPendingBooks and are placed
+	// into subtrees (by insertBook()) only when this tree is opened
+	private boolean myIsLazy;
+	private volatile boolean myIsMaterialized;
+	private List<Book> myPendingBooks;
+	// non-null while insertBooks() fills an empty tree: key -> subtree;
+	// new subtrees are appended and the children list is sorted once at the end
+	private Map<Object,LibraryTree> myBulkSubTrees;
+
 	protected LibraryTree() {
 		super();
 	}
 
 	protected LibraryTree(LibraryTree parent) {
 		super(parent);
+		myIsLazy = parent.myIsLazy;
 	}
 
 	protected LibraryTree(LibraryTree parent, int position) {
 		super(parent, position);
+		myIsLazy = parent.myIsLazy;
+	}
+
+	void setLazy(boolean lazy) {
+		myIsLazy = lazy;
+	}
+
+	/**
+	 * Places the book (known to belong to this tree) into subtrees;
+	 * trees that are filled by Library.addBookToLibrary() override this method.
+	 */
+	void insertBook(Book book) {
+	}
+
+	/**
+	 * Places a list of books into subtrees; if the tree is empty, subtrees
+	 * are found by hash lookups instead of binary search insertions.
+	 */
+	void insertBooks(List<Book> books) {
+		final boolean bulk = startBulkInsertion();
+		try {
+			for (Book book : books) {
+				insertBook(book);
+			}
+		} finally {
+			finishBulkInsertion(bulk);
+		}
+	}
+
+	final boolean startBulkInsertion() {
+		if (hasChildren()) {
+			return false;
+		}
+		myBulkSubTrees = new HashMap<Object,LibraryTree>();
+		return true;
+	}
+
+	final void finishBulkInsertion(boolean started) {
+		if (started) {
+			myBulkSubTrees = null;
+			sortSubTrees();
+		}
+	}
+
+	// keys of different subtree kinds never clash inside one tree:
+	// books, authors, tags and strings (series names or title letters)
+	final boolean isBulkInserting() {
+		return myBulkSubTrees != null;
+	}
+
+	final LibraryTree getBulkSubTree(Object key) {
+		return myBulkSubTrees.get(key);
+	}
+
+	final <T extends LibraryTree> T putBulkSubTree(Object key, T tree) {
+		myBulkSubTrees.put(key, tree);
+		return tree;
+	}
+
+	final void addBook(Book book) {
+		final LibraryTree root = getRoot();
+		synchronized (root) {
+			if (myIsLazy && !myIsMaterialized) {
+				if (myPendingBooks == null) {
+					myPendingBooks = new ArrayList<Book>();
+				}
+				myPendingBooks.add(book);
+				root.registerBookNode(this, book);
+			} else {
+				insertBook(book);
+			}
+		}
+	}
+
+	final void addBooks(List<Book> books) {
+		final LibraryTree root = getRoot();
+		synchronized (root) {
+			if (myIsLazy && !myIsMaterialized) {
+				if (myPendingBooks == null) {
+					myPendingBooks = new ArrayList<Book>(books.size());
+				}
+				myPendingBooks.addAll(books);
+				for (Book book : books) {
+					root.registerBookNode(this, book);
+				}
+			} else {
+				insertBooks(books);
+			}
+		}
+	}
+
+	final void materialize() {
+		final LibraryTree root = getRoot();
+		synchronized (root) {
+			if (!myIsLazy || myIsMaterialized) {
+				return;
+			}
+			final List<Book> books = myPendingBooks;
+			myPendingBooks = null;
+			if (books != null) {
+				for (Book book : books) {
+					root.unregisterBookNode(this, book);
+				}
+				insertBooks(books);
+			}
+			myIsMaterialized = true;
+		}
+	}
+
+	/**
+	 * Drops all the subtrees and fills the tree with given books again;
+	 * a lazy tree only stores the list and is regrouped when opened.
+	 */
+	final void resetBooks(List<Book> books) {
+		final LibraryTree root = getRoot();
+		synchronized (root) {
+			if (myPendingBooks != null) {
+				for (Book book : myPendingBooks) {
+					root.unregisterBookNode(this, book);
+				}
+				myPendingBooks = null;
+			}
+			clear();
+			if (myIsLazy) {
+				myIsMaterialized = false;
+			}
+			addBooks(books);
+		}
+	}
+
+	private boolean isEmpty() {
+		return !hasChildren() && (myPendingBooks == null || myPendingBooks.isEmpty());
+	}
+
+	@Override
+	public Status getOpeningStatus() {
+		return myIsLazy && !myIsMaterialized
+			? Status.WAIT_FOR_OPEN : super.getOpeningStatus();
+	}
+
+	@Override
+	public String getOpeningStatusMessage() {
+		final List<Book> books = myPendingBooks;
+		return books != null && books.size() > 500
+			? "loadingBookList" : super.getOpeningStatusMessage();
+	}
+
+	@Override
+	public void waitForOpening() {
+		materialize();
+	}
+
+	@Override
+	public String getSummary() {
+		final List<String> titles = new ArrayList<String>(5);
+		synchronized (getRoot()) {
+			if (myPendingBooks == null) {
+				return super.getSummary();
+			}
+			for (Book book : myPendingBooks) {
+				titles.add(book.getTitle());
+				if (titles.size() == 5) {
+					break;
+				}
+			}
+		}
+		final StringBuilder builder = new StringBuilder();
+		for (String t : titles) {
+			if (builder.length() > 0) {
+				builder.append(",  ");
+			}
+			builder.append(t);
+		}
+		return builder.toString();
 	}
 
 	public Book getBook() {
@@ -49,72 +233,180 @@ public abstract class LibraryTree extends FBTree {
 	}
 
 	TagTree getTagSubTree(Tag tag) {
+		if (isBulkInserting()) {
+			final TagTree tree = (TagTree)getBulkSubTree(tag);
+			return tree != null ? tree : putBulkSubTree(tag, new TagTree(this, tag, subTreesNumber()));
+		}
 		final TagTree temp = new TagTree(tag);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (TagTree)subTrees().get(position);
+			return (TagTree)subTreeAt(position);
 		} else {
 			return new TagTree(this, tag, - position - 1);
 		}
 	}
 
 	TitleTree getTitleSubTree(String title) {
+		if (isBulkInserting()) {
+			final TitleTree tree = (TitleTree)getBulkSubTree(title);
+			return tree != null ? tree : putBulkSubTree(title, new TitleTree(this, title, subTreesNumber()));
+		}
 		final TitleTree temp = new TitleTree(title);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (TitleTree)subTrees().get(position);
+			return (TitleTree)subTreeAt(position);
 		} else {
 			return new TitleTree(this, title, - position - 1);
 		}
 	}
 
 	AuthorTree getAuthorSubTree(Author author) {
+		if (isBulkInserting()) {
+			final AuthorTree tree = (AuthorTree)getBulkSubTree(author);
+			return tree != null ? tree : putBulkSubTree(author, new AuthorTree(this, author, subTreesNumber()));
+		}
 		final AuthorTree temp = new AuthorTree(author);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (AuthorTree)subTrees().get(position);
+			return (AuthorTree)subTreeAt(position);
 		} else {
 			return new AuthorTree(this, author, - position - 1);
 		}
 	}
 
 	BookTree getBookSubTree(Book book, boolean showAuthors) {
+		if (isBulkInserting()) {
+			final BookTree tree = (BookTree)getBulkSubTree(book);
+			return tree != null ? tree : putBulkSubTree(book, new BookTree(this, book, showAuthors, subTreesNumber()));
+		}
 		final BookTree temp = new BookTree(book, showAuthors);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (BookTree)subTrees().get(position);
+			return (BookTree)subTreeAt(position);
 		} else {
 			return new BookTree(this, book, showAuthors, - position - 1);
 		}
 	}
 
 	SeriesTree getSeriesSubTree(String series) {
+		if (isBulkInserting()) {
+			final SeriesTree tree = (SeriesTree)getBulkSubTree(series);
+			return tree != null ? tree : putBulkSubTree(series, new SeriesTree(this, series, subTreesNumber()));
+		}
 		final SeriesTree temp = new SeriesTree(series);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (SeriesTree)subTrees().get(position);
+			return (SeriesTree)subTreeAt(position);
 		} else {
 			return new SeriesTree(this, series, - position - 1);
 		}
 	}
 
-	public boolean removeBook(Book book, boolean recursively) {
-		final LinkedList<FBTree> toRemove = new LinkedList<FBTree>();
-		for (FBTree tree : this) {
-			if (tree instanceof BookTree && ((BookTree)tree).Book.equals(book)) {
-				toRemove.add(tree);
+	// book -> BookTree nodes and lazy trees with the book in the pending list,
+	// for all the trees below this one; used in root only
+	private Map<Book,List<LibraryTree>> myBookNodes;
+
+	private LibraryTree getRoot() {
+		LibraryTree root = this;
+		while (root.Parent != null) {
+			root = (LibraryTree)root.Parent;
+		}
+		return root;
+	}
+
+	void registerBookTree(BookTree tree) {
+		getRoot().registerBookNode(tree, tree.Book);
+	}
+
+	private synchronized void registerBookNode(LibraryTree tree, Book book) {
+		if (myBookNodes == null) {
+			myBookNodes = new HashMap<Book,List<LibraryTree>>();
+		}
+		List<LibraryTree> nodes = myBookNodes.get(book);
+		if (nodes == null) {
+			nodes = new ArrayList<LibraryTree>(2);
+			myBookNodes.put(book, nodes);
+		} else {
+			for (Iterator<LibraryTree> it = nodes.iterator(); it.hasNext(); ) {
+				if (!it.next().isAttachedTo(this)) {
+					it.remove();
+				}
 			}
 		}
-		for (FBTree tree : toRemove) {
-			tree.removeSelf();
-			FBTree parent = tree.Parent;
-			if (recursively) {
-				for (; parent != null && !parent.hasChildren(); parent = parent.Parent) {
-					parent.removeSelf();
+		nodes.add(tree);
+	}
+
+	private synchronized void unregisterBookNode(LibraryTree tree, Book book) {
+		final List<LibraryTree> nodes = myBookNodes != null ? myBookNodes.get(book) : null;
+		if (nodes == null) {
+			return;
+		}
+		// BookTree.equals() compares books, so we have to compare references here
+		for (Iterator<LibraryTree> it = nodes.iterator(); it.hasNext(); ) {
+			if (it.next() == tree) {
+				it.remove();
+				break;
+			}
+		}
+		if (nodes.isEmpty()) {
+			myBookNodes.remove(book);
+		}
+	}
+
+	private List<LibraryTree> bookNodes(Book book) {
+		final LibraryTree root = getRoot();
+		final List<LibraryTree> result = new LinkedList<LibraryTree>();
+		synchronized (root) {
+			final List<LibraryTree> nodes =
+				root.myBookNodes != null ? root.myBookNodes.get(book) : null;
+			if (nodes != null) {
+				for (LibraryTree tree : nodes) {
+					if (tree.isAttachedTo(this)) {
+						result.add(tree);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	boolean hasBookTree(Book book) {
+		if (book == null) {
+			return false;
+		}
+		for (LibraryTree tree : bookNodes(book)) {
+			if (tree instanceof BookTree) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean removeBook(Book book, boolean recursively) {
+		final LibraryTree root = getRoot();
+		synchronized (root) {
+			final List<LibraryTree> nodes = bookNodes(book);
+			for (LibraryTree tree : nodes) {
+				if (tree instanceof BookTree) {
+					tree.removeSelf();
+				} else {
+					tree.myPendingBooks.removeAll(Collections.singleton(book));
+					if (!recursively || !tree.isEmpty()) {
+						root.unregisterBookNode(tree, book);
+						continue;
+					}
+					tree.removeSelf();
+				}
+				root.unregisterBookNode(tree, book);
+				if (recursively) {
+					LibraryTree parent = (LibraryTree)tree.Parent;
+					for (; parent != null && parent.isEmpty(); parent = (LibraryTree)parent.Parent) {
+						parent.removeSelf();
+					}
 				}
 			}
+			return !nodes.isEmpty();
 		}
-		return !toRemove.isEmpty();
 	}
 
 	@Override
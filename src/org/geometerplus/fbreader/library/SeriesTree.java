@@ -19,8 +19,6 @@
 
 package org.geometerplus.fbreader.library;
 
-import java.util.Collections;
-
 public final class SeriesTree extends LibraryTree {
 	public final String Series;
 
@@ -44,15 +42,24 @@ public final class SeriesTree extends LibraryTree {
 	}
 
 	BookTree getBookInSeriesSubTree(Book book) {
+		if (isBulkInserting()) {
+			final BookTree tree = (BookTree)getBulkSubTree(book);
+			return tree != null ? tree : putBulkSubTree(book, new BookInSeriesTree(this, book, subTreesNumber()));
+		}
 		final BookInSeriesTree temp = new BookInSeriesTree(book);
-		int position = Collections.binarySearch(subTrees(), temp);
+		final int position = binarySearchSubTrees(temp);
 		if (position >= 0) {
-			return (BookInSeriesTree)subTrees().get(position);
+			return (BookInSeriesTree)subTreeAt(position);
 		} else {
 			return new BookInSeriesTree(this, book, - position - 1);
 		}
 	}
 
+	@Override
+	void insertBook(Book book) {
+		getBookInSeriesSubTree(book);
+	}
+
 	@Override
 	public boolean containsBook(Book book) {
 		if (book == null) {
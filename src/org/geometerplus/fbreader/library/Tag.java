@@ -33,11 +33,13 @@ public final class Tag {
 			return parent;
 		}
 		Tag tag = new Tag(parent, name);
-		Tag stored = ourTagSet.get(tag);
-		if (stored != null) {
-			return stored;
+		synchronized (ourTagSet) {
+			Tag stored = ourTagSet.get(tag);
+			if (stored != null) {
+				return stored;
+			}
+			ourTagSet.put(tag, tag);
 		}
-		ourTagSet.put(tag, tag);
 		return tag;
 	}
 
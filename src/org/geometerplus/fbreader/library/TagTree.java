@@ -19,6 +19,9 @@
 
 package org.geometerplus.fbreader.library;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public final class TagTree extends LibraryTree {
 	public final Tag Tag;
 
@@ -64,4 +67,32 @@ public final class TagTree extends LibraryTree {
 		}
 		return false;
 	}
+
+	@Override
+	void insertBook(Book book) {
+		if (Tag == null) {
+			getBookSubTree(book, true);
+			return;
+		}
+		boolean isDirectlyTagged = false;
+		final Set<Tag> subTags = new LinkedHashSet<Tag>();
+		for (Tag t : book.tags()) {
+			if (t == Tag) {
+				isDirectlyTagged = true;
+				continue;
+			}
+			for (; t != null; t = t.Parent) {
+				if (t.Parent == Tag) {
+					subTags.add(t);
+					break;
+				}
+			}
+		}
+		if (isDirectlyTagged) {
+			getBookSubTree(book, true);
+		}
+		for (Tag t : subTags) {
+			getTagSubTree(t).addBook(book);
+		}
+	}
 }
@@ -21,10 +21,10 @@ package org.geometerplus.fbreader.library;
 
 public final class TitleTree extends LibraryTree {
 	static String firstTitleLetter(Book book) {
-		if (book == null) {
-			return null;
-		}
-		String title = book.getTitle();
+		return book != null ? firstTitleLetter(book.getTitle()) : null;
+	}
+
+	static String firstTitleLetter(String title) {
 		if (title == null) {
 			return null;
 		}
@@ -66,4 +66,9 @@ public final class TitleTree extends LibraryTree {
 	public boolean containsBook(Book book) {
 		return Title.equals(firstTitleLetter(book));
 	}
+
+	@Override
+	void insertBook(Book book) {
+		getBookSubTree(book, true);
+	}
 }
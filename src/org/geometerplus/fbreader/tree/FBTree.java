@@ -20,6 +20,8 @@
 package org.geometerplus.fbreader.tree;
 
 import java.io.Serializable;
+import java.util.Comparator;
+import java.util.List;
 
 import org.geometerplus.zlibrary.core.tree.ZLTree;
 import org.geometerplus.zlibrary.core.image.ZLImage;
@@ -109,7 +111,7 @@ public abstract class FBTree extends ZLTree<FBTree> implements Comparable<FBTree
 	}
 
 	public int indexOf(FBTree tree) {
-		return subTrees().indexOf(tree);
+		return indexOfSubTree(tree);
 	}
 
 	public abstract String getName();
@@ -152,15 +154,50 @@ public abstract class FBTree extends ZLTree<FBTree> implements Comparable<FBTree
 		if (s0.length() > len) {
 		  	return 1;
 		}
-		if (s0.length() > len) {
+		if (s1.length() > len) {
 		  	return -1;
 		}
 		return 0;
 	}
 
+	// compareTo() builds sort keys on every call; while children are sorted
+	// the keys are computed once per subtree and cached in these fields
+	private String myCachedSortKey;
+	private boolean myIsSortKeyCached;
+
+	private String sortKey() {
+		return myIsSortKeyCached ? myCachedSortKey : getSortKey();
+	}
+
+	private static final Comparator<FBTree> ourComparator = new Comparator<FBTree>() {
+		public int compare(FBTree tree0, FBTree tree1) {
+			return tree0.compareTo(tree1);
+		}
+	};
+
+	protected final int binarySearchSubTrees(FBTree key) {
+		return binarySearchSubTrees(key, ourComparator);
+	}
+
+	protected void sortSubTrees() {
+		final List<FBTree> subTrees = subTrees();
+		for (FBTree tree : subTrees) {
+			tree.myCachedSortKey = tree.getSortKey();
+			tree.myIsSortKeyCached = true;
+		}
+		try {
+			sortSubTrees(ourComparator);
+		} finally {
+			for (FBTree tree : subTrees) {
+				tree.myIsSortKeyCached = false;
+				tree.myCachedSortKey = null;
+			}
+		}
+	}
+
 	public int compareTo(FBTree tree) {
-		final String key0 = getSortKey();
-		final String key1 = tree.getSortKey();
+		final String key0 = sortKey();
+		final String key1 = tree.sortKey();
 		if (key0 == null) {
 			return (key1 == null) ? 0 : -1;
 		}
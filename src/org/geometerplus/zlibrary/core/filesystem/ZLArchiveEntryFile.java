@@ -55,18 +55,18 @@ public abstract class ZLArchiveEntryFile extends ZLFile {
 			return null;
 		}
 		entryName = normalizeEntryName(entryName);
-		switch (archive.myArchiveType & ArchiveType.ARCHIVE) {
+		switch (archive.archiveType() & ArchiveType.ARCHIVE) {
 			case ArchiveType.ZIP: 
-				return new ZLZipEntryFile(archive, entryName);
+				return shared(new ZLZipEntryFile(archive, entryName));
 			case ArchiveType.TAR: 
-				return new ZLTarEntryFile(archive, entryName);
+				return shared(new ZLTarEntryFile(archive, entryName));
 			default:
 				return null;
 		}
 	}
 
 	static List<ZLFile> archiveEntries(ZLFile archive) {
-		switch (archive.myArchiveType & ArchiveType.ARCHIVE) {
+		switch (archive.archiveType() & ArchiveType.ARCHIVE) {
 			case ArchiveType.ZIP:
 				return ZLZipEntryFile.archiveEntries(archive);
 			case ArchiveType.TAR:
@@ -82,7 +82,6 @@ public abstract class ZLArchiveEntryFile extends ZLFile {
 	protected ZLArchiveEntryFile(ZLFile parent, String name) {
 		myParent = parent;
 		myName = name;
-		init();
 	}
 	
 	@Override
@@ -95,6 +94,22 @@ public abstract class ZLArchiveEntryFile extends ZLFile {
 		return myParent.getPath() + ":" + myName;
 	}
 	
+	@Override
+	protected int pathHashCode() {
+		return pathHashCode(myParent.hashCode(), ':', myName);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof ZLArchiveEntryFile) {
+			final ZLArchiveEntryFile file = (ZLArchiveEntryFile)o;
+			if (myParent == file.myParent) {
+				return myName.equals(file.myName);
+			}
+		}
+		return super.equals(o);
+	}
+
 	@Override
 	public String getLongName() {
 		return myName;
@@ -20,10 +20,19 @@
 package org.geometerplus.zlibrary.core.filesystem;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import org.geometerplus.zlibrary.core.filesystem.bzip2.ZLBzip2InputStream;
 
 public abstract class ZLFile {
-	private final static HashMap<String,ZLFile> ourCachedFiles = new HashMap<String,ZLFile>();
+	// shared instances of files created by path: equal files created by
+	// createFile() are the same object while any of them is referenced
+	private final static WeakHashMap<ZLFile,WeakReference<ZLFile>> ourFiles =
+		new WeakHashMap<ZLFile,WeakReference<ZLFile>>();
+	// cached files are kept (and shared) until setCached(false)
+	private final static HashSet<ZLFile> ourCachedFiles = new HashSet<ZLFile>();
 
 	protected interface ArchiveType {
 		int	NONE = 0;
@@ -35,88 +44,97 @@ public abstract class ZLFile {
 		int	ARCHIVE = 0xff00;
 	};
 	
+	// name properties are computed on demand, most files created
+	// by library scanning are never asked for them
 	private String myExtension;
-	private String myShortName;
-	protected int myArchiveType;
+	private int myArchiveType = -1;
+	private int myHashCode;
 	private boolean myIsCached;
-	protected void init() {
+	// compressed file was read (decompressed) at least once
+	private boolean myIsRead;
+
+	private static boolean endsWithIgnoreCase(String name, String suffix) {
+		final int length = suffix.length();
+		return
+			name.length() > length &&
+			name.regionMatches(true, name.length() - length, suffix, 0, length);
+	}
+
+	int archiveType() {
+		if (myArchiveType != -1) {
+			return myArchiveType;
+		}
 		final String name = getLongName();
-		final int index = name.lastIndexOf('.');
-		myExtension = (index > 0) ? name.substring(index + 1).toLowerCase().intern() : "";
-		myShortName = name.substring(name.lastIndexOf('/') + 1);
-
-		/*
-		if (lowerCaseName.endsWith(".gz")) {
-			myNameWithoutExtension = myNameWithoutExtension.substring(0, myNameWithoutExtension.length() - 3);
-			lowerCaseName = lowerCaseName.substring(0, lowerCaseName.length() - 3);
-			myArchiveType = myArchiveType | ArchiveType.GZIP;
-		}
-		if (lowerCaseName.endsWith(".bz2")) {
-			myNameWithoutExtension = myNameWithoutExtension.substring(0, myNameWithoutExtension.length() - 4);
-			lowerCaseName = lowerCaseName.substring(0, lowerCaseName.length() - 4);
-			myArchiveType = myArchiveType | ArchiveType.BZIP2;
-		}
-		*/
 		int archiveType = ArchiveType.NONE;
-		if (myExtension == "zip") {
+		if (endsWithIgnoreCase(name, ".gz") || endsWithIgnoreCase(name, ".tgz")) {
+			archiveType |= ArchiveType.GZIP;
+		} else if (endsWithIgnoreCase(name, ".bz2") || endsWithIgnoreCase(name, ".tbz2")) {
+			archiveType |= ArchiveType.BZIP2;
+		}
+		// extension does not include .gz/.bz2, it is "tar" for .tgz
+		final String extension = getExtension();
+		if (extension == "zip") {
 			archiveType |= ArchiveType.ZIP;
-		} else if (myExtension == "oebzip") {
+		} else if (extension == "oebzip") {
 			archiveType |= ArchiveType.ZIP;
-		} else if (myExtension == "epub") {
+		} else if (extension == "epub") {
 			archiveType |= ArchiveType.ZIP;
-		} else if (myExtension == "tar") {
+		} else if (extension == "tar") {
 			archiveType |= ArchiveType.TAR;
-		//} else if (lowerCaseName.endsWith(".tgz")) {
-			//nothing to-do myNameWithoutExtension = myNameWithoutExtension.substr(0, myNameWithoutExtension.length() - 3) + "tar";
-			//myArchiveType = myArchiveType | ArchiveType.TAR | ArchiveType.GZIP;
 		}
 		myArchiveType = archiveType;
+		return archiveType;
 	}
 	
 	public static ZLFile createFile(ZLFile parent, String name) {
 		ZLFile file = null;
 		if (parent == null) {
-			ZLFile cached = ourCachedFiles.get(name);
-			if (cached != null) {
-				return cached;
-			}
 			if (!name.startsWith("/")) {
-				return ZLResourceFile.createResourceFile(name);
+				file = ZLResourceFile.createResourceFile(name);
 			} else {
-				return new ZLPhysicalFile(name);
+				file = new ZLPhysicalFile(name);
 			}
 		} else if ((parent instanceof ZLPhysicalFile) && (parent.getParent() == null)) {
 			// parent is a directory
-			file = new ZLPhysicalFile(parent.getPath() + '/' + name);
+			file = ((ZLPhysicalFile)parent).createChild(name);
 		} else if (parent instanceof ZLResourceFile) {
 			file = ZLResourceFile.createResourceFile((ZLResourceFile)parent, name);
 		} else {
 			file = ZLArchiveEntryFile.createArchiveEntryFile(parent, name);
 		}
+		return shared(file);
+	}
 
-		if (!ourCachedFiles.isEmpty() && (file != null)) {
-			ZLFile cached = ourCachedFiles.get(file.getPath());
-			if (cached != null) {
-				return cached;
+	// files are created and cached by library scanning threads too
+	static <T extends ZLFile> T shared(T file) {
+		if (file == null) {
+			return null;
+		}
+		synchronized (ourFiles) {
+			final WeakReference<ZLFile> ref = ourFiles.get(file);
+			final ZLFile shared = ref != null ? ref.get() : null;
+			// equal files are always of the same class, the check only
+			// proves that the cast is safe
+			if (shared != null && shared.getClass() == file.getClass()) {
+				@SuppressWarnings("unchecked")
+				final T result = (T)shared;
+				return result;
 			}
+			ourFiles.put(file, new WeakReference<ZLFile>(file));
+			return file;
 		}
-		return file;
 	}
 
 	public static ZLFile createFileByPath(String path) {
 		if (path == null) {
 			return null;
 		}
-		ZLFile cached = ourCachedFiles.get(path);
-		if (cached != null) {
-			return cached;
-		}
 
 		if (!path.startsWith("/")) {
 			while (path.startsWith("./")) {
 				path = path.substring(2);
 			}
-			return ZLResourceFile.createResourceFile(path);
+			return shared(ZLResourceFile.createResourceFile(path));
 		}
 		int index = path.lastIndexOf(':');
 		if (index > 1) {
@@ -124,7 +142,7 @@ public abstract class ZLFile {
 				createFileByPath(path.substring(0, index)), path.substring(index + 1)
 			);
 		}
-		return new ZLPhysicalFile(path);
+		return shared(new ZLPhysicalFile(path));
 	}
 
 	public abstract long size();
@@ -135,26 +153,75 @@ public abstract class ZLFile {
 	public abstract ZLPhysicalFile getPhysicalFile();
 	public abstract InputStream getInputStream() throws IOException;
 
+	/**
+	 * Returns the data as stored; for compressed files getInputStream()
+	 * returns decompressed data, subclasses use getDecompressedInputStream()
+	 */
+	protected InputStream getRawInputStream() throws IOException {
+		return getInputStream();
+	}
+
+	/**
+	 * Sequential readers (e.g. library scanning) get a decompressing stream.
+	 * If the file is read again (images, covers, tar entries: they skip to
+	 * an offset) or is cached, it is decompressed once into the copy cache
+	 * and the copy is read instead.
+	 */
+	protected final InputStream getDecompressedInputStream() throws IOException {
+		final File copy = ZLNestedArchiveCache.getDecompressedCopy(this, myIsRead || isCached());
+		myIsRead = true;
+		return copy != null ? new FileInputStream(copy) : decompress(getRawInputStream());
+	}
+
+	final InputStream decompress(InputStream stream) throws IOException {
+		switch (archiveType() & ArchiveType.COMPRESSED) {
+			case ArchiveType.GZIP:
+				return new GZIPInputStream(stream, 8192);
+			case ArchiveType.BZIP2:
+				return new ZLBzip2InputStream(stream);
+			default:
+				return stream;
+		}
+	}
+
 	public boolean isReadable() {
 		return true;
 	}
 
 	public final boolean isCompressed() {
-		return (0 != (myArchiveType & ArchiveType.COMPRESSED)); 
+		return (0 != (archiveType() & ArchiveType.COMPRESSED)); 
 	}
 	
 	public final boolean isArchive() {
-		return (0 != (myArchiveType & ArchiveType.ARCHIVE));
+		return (0 != (archiveType() & ArchiveType.ARCHIVE));
 	}
 
 	public abstract String getLongName();
 
 	public final String getShortName() {
-		return myShortName;
+		final String name = getLongName();
+		return name.substring(name.lastIndexOf('/') + 1);
 	}
 
 	public final String getExtension() {
-		return myExtension;
+		String extension = myExtension;
+		if (extension == null) {
+			final String name = getLongName();
+			if (endsWithIgnoreCase(name, ".tgz") || endsWithIgnoreCase(name, ".tbz2")) {
+				extension = "tar";
+			} else {
+				int end = name.length();
+				if (endsWithIgnoreCase(name, ".gz")) {
+					end -= 3;
+				} else if (endsWithIgnoreCase(name, ".bz2")) {
+					end -= 4;
+				}
+				final int index = name.lastIndexOf('.', end - 1);
+				extension = (index > 0) ? name.substring(index + 1, end).toLowerCase().intern() : "";
+			}
+			myExtension = extension;
+		}
+		return extension;
 	}
 
 	protected List<ZLFile> directoryEntries() {
@@ -172,11 +239,33 @@ public abstract class ZLFile {
 		return Collections.emptyList();
 	}
 
-	@Override
-	public int hashCode() {
+	/**
+	 * Returns getPath().hashCode(); subclasses compute it
+	 * from the parent hash without building the path
+	 */
+	protected int pathHashCode() {
 		return getPath().hashCode();
 	}
 
+	// String.hashCode() of prefix + separator + name
+	static int pathHashCode(int prefixHashCode, char separator, String name) {
+		int h = 31 * prefixHashCode + separator;
+		for (int i = 0; i < name.length(); ++i) {
+			h = 31 * h + name.charAt(i);
+		}
+		return h;
+	}
+
+	@Override
+	public final int hashCode() {
+		int h = myHashCode;
+		if (h == 0) {
+			h = pathHashCode();
+			myHashCode = h;
+		}
+		return h;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o == this) {
@@ -185,7 +274,8 @@ public abstract class ZLFile {
 		if (!(o instanceof ZLFile)) {
 			return false;
 		}
-		return getPath().equals(((ZLFile)o).getPath());
+		final ZLFile file = (ZLFile)o;
+		return hashCode() == file.hashCode() && getPath().equals(file.getPath());
 	}
 
 	@Override
@@ -193,19 +283,23 @@ public abstract class ZLFile {
 	  	return "ZLFile [" + getPath() + "]";
 	}
 
-	protected boolean isCached() {
+	public boolean isCached() {
 		return myIsCached;
 	}
 
 	public void setCached(boolean cached) {
 		myIsCached = cached;
-		if (cached) {
-			ourCachedFiles.put(getPath(), this);
-		} else {
-			ourCachedFiles.remove(getPath());
-			if (0 != (myArchiveType & ArchiveType.ZIP)) {
-				ZLZipEntryFile.removeFromCache(this);
+		synchronized (ourFiles) {
+			// this instance replaces an equal one, if any
+			ourCachedFiles.remove(this);
+			if (cached) {
+				ourCachedFiles.add(this);
+				ourFiles.remove(this);
+				ourFiles.put(this, new WeakReference<ZLFile>(this));
 			}
 		}
+		if (!cached && 0 != (archiveType() & ArchiveType.ZIP)) {
+			ZLZipEntryFile.removeFromCache(this);
+		}
 	}
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.filesystem;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Copies of archives stored inside other archives (e.g. an epub inside a zip)
+ * and decompressed copies of gzip/bzip2 files. A backward seek in such a file
+ * means re-reading (and decompressing) it from its start, so the data is
+ * extracted into the cache directory once and is read as a regular file.
+ * Total size of the copies is bounded, least recently used copies are
+ * removed first.
+ */
+public final class ZLNestedArchiveCache {
+	private static final long MAX_FILE_SIZE = 32 * 1024 * 1024;
+	private static final long MAX_TOTAL_SIZE = 64 * 1024 * 1024;
+
+	private static volatile File ourDirectory;
+	// archive id -> file name
+	private static final Map<String,String> ourNames = new HashMap<String,String>();
+	// ids of files that are too large or cannot be decompressed
+	private static final Set<String> ourFailedIds = new HashSet<String>();
+
+	/**
+	 * Nested archives are not copied if directory is not set
+	 */
+	public static void setDirectory(String path) {
+		ourDirectory = path != null ? new File(path) : null;
+	}
+
+	private ZLNestedArchiveCache() {
+	}
+
+	/**
+	 * Returns a copy of the archive, extracts it if needed; returns null
+	 * if the archive is not nested, too large or cannot be copied.
+	 */
+	static synchronized File getCopy(ZLFile archive) {
+		final File directory = ourDirectory;
+		if (directory == null || !(archive instanceof ZLArchiveEntryFile) || archive.isCompressed()) {
+			return null;
+		}
+		final long size = archive.size();
+		if (size <= 0 || size > MAX_FILE_SIZE) {
+			return null;
+		}
+		final ZLPhysicalFile physicalFile = archive.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+
+		final String id = archive.getPath() + ":" + size + ":" + physicalFile.javaFile().lastModified();
+		final File copy = new File(directory, name(id, archive));
+		if (copy.length() == size) {
+			copy.setLastModified(System.currentTimeMillis());
+			return copy;
+		}
+
+		directory.mkdirs();
+		freeSpace(directory, copy, size);
+		try {
+			return copy(archive.getInputStream(), copy, size);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns decompressed copy of the file; if there is no copy yet,
+	 * it is created only if create is true; returns null if the file
+	 * is too large or cannot be decompressed.
+	 */
+	static synchronized File getDecompressedCopy(ZLFile file, boolean create) {
+		final File directory = ourDirectory;
+		if (directory == null) {
+			return null;
+		}
+		final ZLPhysicalFile physicalFile = file.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+
+		// decompressed size is unknown, so copies are created
+		// under temporary names; an existing copy is complete
+		final File javaFile = physicalFile.javaFile();
+		final String id = file.getPath() + ":" + javaFile.length() + ":" + javaFile.lastModified();
+		final File copy = new File(directory, name(id, file));
+		if (copy.exists()) {
+			copy.setLastModified(System.currentTimeMillis());
+			return copy;
+		}
+		if (!create || ourFailedIds.contains(id)) {
+			return null;
+		}
+
+		directory.mkdirs();
+		File result = null;
+		try {
+			result = copy(file.decompress(file.getRawInputStream()), copy, -1);
+		} catch (IOException e) {
+		}
+		if (result != null) {
+			freeSpace(directory, result, result.length());
+		} else {
+			ourFailedIds.add(id);
+		}
+		return result;
+	}
+
+	private static String name(String id, ZLFile file) {
+		String name = ourNames.get(id);
+		if (name == null) {
+			name = fileName(id) + "." + file.getExtension();
+			ourNames.put(id, name);
+		}
+		return name;
+	}
+
+	// size == -1 means unknown size, at most MAX_FILE_SIZE bytes are copied
+	private static File copy(InputStream is, File copy, long size) throws IOException {
+		final File tmp = new File(copy.getPath() + ".tmp");
+		long total = 0;
+		try {
+			final OutputStream os = new FileOutputStream(tmp);
+			try {
+				final byte[] buffer = new byte[32768];
+				int count;
+				while ((count = is.read(buffer, 0, buffer.length)) > 0) {
+					total += count;
+					if (total > MAX_FILE_SIZE) {
+						break;
+					}
+					os.write(buffer, 0, count);
+				}
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			is.close();
+		}
+		if (total == (size == -1 ? Math.min(total, MAX_FILE_SIZE) : size) &&
+			tmp.length() == total && tmp.renameTo(copy)) {
+			return copy;
+		}
+		tmp.delete();
+		return null;
+	}
+
+	private static String fileName(String id) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes("utf-8"));
+			final StringBuilder builder = new StringBuilder(2 * digest.length);
+			for (byte b : digest) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+				builder.append(Character.forDigit(b & 0xF, 16));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+		} catch (UnsupportedEncodingException e) {
+		}
+		return Integer.toHexString(id.hashCode()) + "-" + id.length();
+	}
+
+	// total size of the copies, -1 if it is not known yet
+	private static long ourTotalSize = -1;
+
+	/**
+	 * Accounts a new copy (it may not exist yet); if the total size is
+	 * too large, least recently used copies are removed until it is 3/4
+	 * of the limit, so the directory is not listed for each new copy.
+	 */
+	private static void freeSpace(File directory, File newCopy, long size) {
+		if (ourTotalSize != -1 && ourTotalSize + size <= MAX_TOTAL_SIZE) {
+			ourTotalSize += size;
+			return;
+		}
+		ourTotalSize = -1;
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long total = size;
+		for (File f : files) {
+			if (!f.equals(newCopy)) {
+				total += f.length();
+			}
+		}
+		if (total > MAX_TOTAL_SIZE) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File f0, File f1) {
+					final long m0 = f0.lastModified();
+					final long m1 = f1.lastModified();
+					return m0 < m1 ? -1 : (m0 == m1 ? 0 : 1);
+				}
+			});
+			for (File f : files) {
+				if (total <= MAX_TOTAL_SIZE / 4 * 3) {
+					break;
+				}
+				if (f.equals(newCopy)) {
+					continue;
+				}
+				final long length = f.length();
+				if (f.delete()) {
+					total -= length;
+				}
+			}
+		}
+		ourTotalSize = total;
+	}
+}
@@ -21,65 +21,154 @@ package org.geometerplus.zlibrary.core.filesystem;
 
 import java.util.*;
 import java.io.*;
+import java.lang.ref.WeakReference;
 
 public final class ZLPhysicalFile extends ZLFile {
-	private final File myFile;
+	// directories by (not canonical) path; a directory object
+	// is shared by all the files in it while any of them is referenced
+	private static final WeakHashMap<String,WeakReference<ZLPhysicalFile>> ourDirectories =
+		new WeakHashMap<String,WeakReference<ZLPhysicalFile>>();
+
+	private static ZLPhysicalFile directory(String path) {
+		synchronized (ourDirectories) {
+			final WeakReference<ZLPhysicalFile> ref = ourDirectories.get(path);
+			ZLPhysicalFile directory = ref != null ? ref.get() : null;
+			if (directory == null) {
+				directory = new ZLPhysicalFile(null, path);
+				// key is the directory own field, so the entry lives as long as the directory
+				ourDirectories.put(directory.myName, new WeakReference<ZLPhysicalFile>(directory));
+			}
+			return directory;
+		}
+	}
+
+	// a file is stored as (directory, name), a shared directory object or
+	// a file system root is stored as its path; full paths are built on demand,
+	// only stored paths are canonicalized and kept.
+	// This is a storage form only: instances are shared and live long, so
+	// whether the file is a directory is asked from the file system every time
+	private final ZLPhysicalFile myDirectory;
+	private final String myName;
+	private volatile String myCanonicalPath;
 
 	ZLPhysicalFile(String path) {
 		this(new File(path));
 	}
 
 	public ZLPhysicalFile(File file) {
-		myFile = file;
-		init();
+		final String directoryPath = file.getAbsoluteFile().getParent();
+		if (directoryPath == null) {
+			myDirectory = null;
+			myName = file.getPath();
+		} else {
+			myDirectory = directory(directoryPath);
+			myName = file.getName();
+		}
+	}
+
+	private ZLPhysicalFile(ZLPhysicalFile directory, String name) {
+		myDirectory = directory;
+		myName = name;
+	}
+
+	// the shared directory object for this directory
+	private ZLPhysicalFile asDirectory() {
+		return myDirectory == null ? this : directory(getPath());
+	}
+
+	// this is a directory
+	ZLPhysicalFile createChild(String name) {
+		return name.indexOf('/') == -1
+			? new ZLPhysicalFile(asDirectory(), name) : new ZLPhysicalFile(new File(getPath(), name));
 	}
 
 	@Override
 	public boolean exists() {
-		return myFile.exists();
+		return javaFile().exists();
 	}
 
 	@Override
 	public long size() {
-		return myFile.length();
+		return javaFile().length();
 	}
 
 	@Override
 	public boolean isDirectory() {
-		return myFile.isDirectory();
+		return javaFile().isDirectory();
 	}
 
 	@Override
 	public boolean isReadable() {
-		return myFile.canRead();
+		return javaFile().canRead();
 	}
 
 	public boolean delete() {
-		return myFile.delete();
+		return javaFile().delete();
 	}
 
 	public File javaFile() {
-		return myFile;
+		return new File(getPath());
 	}
 
 	@Override
 	public String getPath() {
-		try {
-			return myFile.getCanonicalPath();
-		} catch (IOException e) {
-			// should bew never thrown
-		  	return myFile.getPath();
+		if (myDirectory != null) {
+			final String directoryPath = myDirectory.getPath();
+			return directoryPath.endsWith("/")
+				? directoryPath + myName : directoryPath + '/' + myName;
+		}
+		String path = myCanonicalPath;
+		if (path == null) {
+			try {
+				path = new File(myName).getCanonicalPath();
+			} catch (IOException e) {
+				// should bew never thrown
+				path = myName;
+			}
+			myCanonicalPath = path;
+		}
+		return path;
+	}
+
+	@Override
+	protected int pathHashCode() {
+		if (myDirectory == null) {
+			return super.pathHashCode();
+		}
+		final String directoryPath = myDirectory.getPath();
+		return directoryPath.endsWith("/")
+			? getPath().hashCode() : pathHashCode(myDirectory.hashCode(), '/', myName);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof ZLPhysicalFile) {
+			final ZLPhysicalFile file = (ZLPhysicalFile)o;
+			if (myDirectory != null && myDirectory == file.myDirectory) {
+				return myName.equals(file.myName);
+			}
 		}
+		return super.equals(o);
 	}
 
 	@Override
 	public String getLongName() {
-		return isDirectory() ? getPath() : myFile.getName();
+		if (isDirectory()) {
+			return getPath();
+		}
+		return myDirectory != null ? myName : new File(getPath()).getName();
 	}
 
 	@Override
 	public ZLFile getParent() {
-		return isDirectory() ? null : new ZLPhysicalFile(myFile.getParent());
+		if (isDirectory()) {
+			return null;
+		}
+		if (myDirectory != null) {
+			return myDirectory;
+		}
+		final String directoryPath = new File(getPath()).getParent();
+		return directoryPath != null ? directory(directoryPath) : null;
 	}
 
 	@Override
@@ -89,20 +178,27 @@ public final class ZLPhysicalFile extends ZLFile {
 
 	@Override
 	public InputStream getInputStream() throws IOException {
-		return new FileInputStream(myFile);
+		return isCompressed() ? getDecompressedInputStream() : getRawInputStream();
+	}
+
+	@Override
+	protected InputStream getRawInputStream() throws IOException {
+		return new FileInputStream(getPath());
 	}
 
 	@Override
 	protected List<ZLFile> directoryEntries() {
-		File[] subFiles = myFile.listFiles();
+		File[] subFiles = javaFile().listFiles();
 		if ((subFiles == null) || (subFiles.length == 0)) {
 			return Collections.emptyList();
 		}
 
+		final ZLPhysicalFile directory = asDirectory();
 		ArrayList<ZLFile> entries = new ArrayList<ZLFile>(subFiles.length);
 		for (File f : subFiles) {
-			if (!f.getName().startsWith(".")) {
-				entries.add(new ZLPhysicalFile(f));
+			final String name = f.getName();
+			if (!name.startsWith(".")) {
+				entries.add(f.isDirectory() ? directory(f.getPath()) : new ZLPhysicalFile(directory, name));
 			}
 		}
 		return entries;
@@ -34,7 +34,6 @@ public abstract class ZLResourceFile extends ZLFile {
 	
 	protected ZLResourceFile(String path) {
 		myPath = path;
-		init();
 	}
 	
 	@Override
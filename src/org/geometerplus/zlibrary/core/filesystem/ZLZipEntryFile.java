@@ -48,9 +48,12 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 			if (zf == null) {
 				zf = new ZipFile(new ZipFile.InputStreamHolder() {
 					public InputStream getInputStream() throws IOException {
-						return file.getInputStream();
+						// nested archive is read from an extracted copy, if possible;
+						// copy is checked on each call since it might be removed from cache
+						final File copy = ZLNestedArchiveCache.getCopy(file);
+						return copy != null ? new FileInputStream(copy) : file.getInputStream();
 					}
-				});
+				}, file.isCached() ? archiveId(file) : null);
 				if (file.isCached()) {
 					ourZipFileMap.put(file, zf);
 				}
@@ -59,8 +62,19 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 		}
 	}
 
+	// identifies archive version for persistent inflate indices
+	private static String archiveId(ZLFile file) {
+		final ZLPhysicalFile physicalFile = file.getPhysicalFile();
+		if (physicalFile == null) {
+			return null;
+		}
+		return file.getPath() + ":" + file.size() + ":" + physicalFile.javaFile().lastModified();
+	}
+
 	static void removeFromCache(ZLFile file) {
-		ourZipFileMap.remove(file);
+		synchronized (ourZipFileMap) {
+			ourZipFileMap.remove(file);
+		}
 	}
 
 	ZLZipEntryFile(ZLFile parent, String name) {
@@ -87,6 +101,11 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 
 	@Override
 	public InputStream getInputStream() throws IOException {
+		return isCompressed() ? getDecompressedInputStream() : getRawInputStream();
+	}
+
+	@Override
+	protected InputStream getRawInputStream() throws IOException {
 		return getZipFile(myParent).getInputStream(myName);
 	}
 }
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.filesystem.bzip2;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * bzip2 decompressor (concatenated streams are read one after another).
+ * Blocks are decoded as in libbzip2: Huffman -> MTF/RLE2 -> inverse BWT,
+ * the run-length (RLE1) step is undone while reading the output;
+ * block and stream CRCs are checked.
+ */
+public final class ZLBzip2InputStream extends InputStream {
+	private static final int MAX_GROUPS = 6;
+	private static final int GROUP_SIZE = 50;
+	private static final int MAX_ALPHA_SIZE = 258;
+	private static final int MAX_CODE_LENGTH = 20;
+	private static final int MAX_SELECTORS = 18002;
+	private static final int RUNA = 0;
+	private static final int RUNB = 1;
+
+	private static final int[] ourCRCTable = new int[256];
+	static {
+		for (int i = 0; i < 256; ++i) {
+			int c = i << 24;
+			for (int j = 0; j < 8; ++j) {
+				c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04C11DB7 : c << 1;
+			}
+			ourCRCTable[i] = c;
+		}
+	}
+
+	private final InputStream myBase;
+	private final byte[] myInBuffer = new byte[8192];
+	private int myInOffset;
+	private int myInLength;
+	private long myBitBuffer;
+	private int myBitCount;
+
+	private int myBlockSize;
+	private int myStreamCRC;
+	private boolean myIsFinished;
+
+	// tt[i] = byte | (next position << 8), as in libbzip2
+	private int[] myTT;
+	private final int[] myCounts = new int[256];
+	private final byte[] mySeqToUnseq = new byte[256];
+	private final byte[] mySelectors = new byte[MAX_SELECTORS];
+	private final int[][] myLimit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+	private final int[][] myCodeBase = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+	private final int[][] myPerm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+	private final int[] myMinLength = new int[MAX_GROUPS];
+	private final byte[][] myLengths = new byte[MAX_GROUPS][MAX_ALPHA_SIZE];
+	private int myAlphaSize;
+
+	// output state of the current block
+	private int myBlockLength;
+	private int myBlockIndex;
+	private int myTPos;
+	private int myBlockCRC;
+	private int myExpectedBlockCRC;
+	private int myLastByte;
+	private int myRunLength;
+	private int myRepeat;
+
+	public ZLBzip2InputStream(InputStream base) throws IOException {
+		myBase = base;
+		if (!readStreamHeader()) {
+			throw new IOException("Not a bzip2 stream");
+		}
+	}
+
+	private int nextByte() throws IOException {
+		if (myInOffset == myInLength) {
+			myInLength = myBase.read(myInBuffer, 0, myInBuffer.length);
+			myInOffset = 0;
+			if (myInLength <= 0) {
+				myInLength = 0;
+				return -1;
+			}
+		}
+		return myInBuffer[myInOffset++] & 0xFF;
+	}
+
+	private int readBits(int count) throws IOException {
+		while (myBitCount < count) {
+			final int b = nextByte();
+			if (b == -1) {
+				throw new EOFException("Unexpected end of bzip2 stream");
+			}
+			myBitBuffer = (myBitBuffer << 8) | b;
+			myBitCount += 8;
+		}
+		myBitCount -= count;
+		return (int)(myBitBuffer >>> myBitCount) & ((1 << count) - 1);
+	}
+
+	private boolean readBit() throws IOException {
+		return readBits(1) != 0;
+	}
+
+	private int readInt() throws IOException {
+		return (readBits(16) << 16) | readBits(16);
+	}
+
+	// returns false at the end of input
+	private boolean readStreamHeader() throws IOException {
+		// streams are byte aligned
+		myBitCount -= myBitCount & 7;
+		final int b = myBitCount >= 8 ? readBits(8) : nextByte();
+		if (b == -1) {
+			return false;
+		}
+		// anything but a new stream after a stream is ignored, as bzip2 does
+		final int level;
+		try {
+			if (b != 'B' || readBits(8) != 'Z' || readBits(8) != 'h') {
+				return false;
+			}
+			level = readBits(8) - '0';
+		} catch (EOFException e) {
+			return false;
+		}
+		if (level < 1 || level > 9) {
+			return false;
+		}
+		myBlockSize = level * 100000;
+		if (myTT == null || myTT.length < myBlockSize) {
+			myTT = new int[myBlockSize];
+		}
+		myStreamCRC = 0;
+		return true;
+	}
+
+	// returns false at the end of input
+	private boolean readBlock() throws IOException {
+		while (true) {
+			final int magic0 = readBits(24);
+			final int magic1 = readBits(24);
+			if (magic0 == 0x314159 && magic1 == 0x265359) {
+				break;
+			}
+			if (magic0 != 0x177245 || magic1 != 0x385090) {
+				throw new IOException("Invalid bzip2 block header");
+			}
+			if (readInt() != myStreamCRC) {
+				throw new IOException("bzip2 stream CRC error");
+			}
+			if (!readStreamHeader()) {
+				return false;
+			}
+		}
+
+		myExpectedBlockCRC = readInt();
+		if (readBit()) {
+			throw new IOException("Randomized bzip2 blocks are not supported");
+		}
+		final int origPtr = readBits(24);
+
+		int inUseCount = 0;
+		final int inUse16 = readBits(16);
+		for (int i = 0; i < 16; ++i) {
+			if ((inUse16 & (0x8000 >> i)) != 0) {
+				final int inUse = readBits(16);
+				for (int j = 0; j < 16; ++j) {
+					if ((inUse & (0x8000 >> j)) != 0) {
+						mySeqToUnseq[inUseCount++] = (byte)(16 * i + j);
+					}
+				}
+			}
+		}
+		if (inUseCount == 0) {
+			throw new IOException("Invalid bzip2 block");
+		}
+		final int alphaSize = inUseCount + 2;
+		myAlphaSize = alphaSize;
+
+		final int groupCount = readBits(3);
+		int selectorCount = readBits(15);
+		if (groupCount < 2 || groupCount > MAX_GROUPS || selectorCount < 1) {
+			throw new IOException("Invalid bzip2 block");
+		}
+		final byte[] groupMTF = { 0, 1, 2, 3, 4, 5 };
+		for (int i = 0; i < selectorCount; ++i) {
+			int j = 0;
+			while (readBit()) {
+				if (++j >= groupCount) {
+					throw new IOException("Invalid bzip2 selector");
+				}
+			}
+			final byte group = groupMTF[j];
+			for (; j > 0; --j) {
+				groupMTF[j] = groupMTF[j - 1];
+			}
+			groupMTF[0] = group;
+			if (i < MAX_SELECTORS) {
+				mySelectors[i] = group;
+			}
+		}
+		if (selectorCount > MAX_SELECTORS) {
+			selectorCount = MAX_SELECTORS;
+		}
+
+		for (int t = 0; t < groupCount; ++t) {
+			final byte[] lengths = myLengths[t];
+			int length = readBits(5);
+			for (int i = 0; i < alphaSize; ++i) {
+				while (true) {
+					if (length < 1 || length > MAX_CODE_LENGTH) {
+						throw new IOException("Invalid bzip2 code length");
+					}
+					if (!readBit()) {
+						break;
+					}
+					length += readBit() ? -1 : 1;
+				}
+				lengths[i] = (byte)length;
+			}
+			createDecodeTables(t, alphaSize);
+		}
+
+		// Huffman + MTF/RLE2 decoding
+		final int[] tt = myTT;
+		final int[] counts = myCounts;
+		Arrays.fill(counts, 0);
+		final byte[] mtf = new byte[256];
+		for (int i = 0; i < 256; ++i) {
+			mtf[i] = (byte)i;
+		}
+		final int endOfBlock = inUseCount + 1;
+		int count = 0;
+		int groupIndex = -1;
+		int groupPosition = 0;
+		int group = 0;
+		int run = 0;
+		int runWeight = 1;
+		while (true) {
+			if (groupPosition == 0) {
+				if (++groupIndex >= selectorCount) {
+					throw new IOException("Invalid bzip2 block");
+				}
+				groupPosition = GROUP_SIZE;
+				group = mySelectors[groupIndex];
+			}
+			--groupPosition;
+			final int symbol = decodeSymbol(group);
+
+			if (symbol == RUNA || symbol == RUNB) {
+				if (runWeight >= 0x200000) {
+					throw new IOException("Invalid bzip2 run");
+				}
+				run += symbol == RUNA ? runWeight : 2 * runWeight;
+				runWeight <<= 1;
+				continue;
+			}
+			if (run > 0) {
+				if (count + run > myBlockSize) {
+					throw new IOException("Invalid bzip2 block length");
+				}
+				final int b = mySeqToUnseq[mtf[0] & 0xFF] & 0xFF;
+				counts[b] += run;
+				Arrays.fill(tt, count, count + run, b);
+				count += run;
+				run = 0;
+				runWeight = 1;
+			}
+			if (symbol == endOfBlock) {
+				break;
+			}
+			if (count >= myBlockSize) {
+				throw new IOException("Invalid bzip2 block length");
+			}
+			final int index = symbol - 1;
+			final byte u = mtf[index];
+			System.arraycopy(mtf, 0, mtf, 1, index);
+			mtf[0] = u;
+			final int b = mySeqToUnseq[u & 0xFF] & 0xFF;
+			++counts[b];
+			tt[count++] = b;
+		}
+		if (origPtr >= count) {
+			throw new IOException("Invalid bzip2 block origin");
+		}
+
+		// inverse BWT
+		final int[] starts = new int[256];
+		for (int i = 1; i < 256; ++i) {
+			starts[i] = starts[i - 1] + counts[i - 1];
+		}
+		for (int i = 0; i < count; ++i) {
+			final int b = tt[i] & 0xFF;
+			tt[starts[b]++] |= i << 8;
+		}
+
+		myBlockLength = count;
+		myBlockIndex = 0;
+		myTPos = tt[origPtr] >>> 8;
+		myBlockCRC = -1;
+		myLastByte = -1;
+		myRunLength = 0;
+		myRepeat = 0;
+		return true;
+	}
+
+	// canonical Huffman tables, as hbCreateDecodeTables in libbzip2
+	private void createDecodeTables(int t, int alphaSize) {
+		final byte[] lengths = myLengths[t];
+		final int[] limit = myLimit[t];
+		final int[] base = myCodeBase[t];
+		final int[] perm = myPerm[t];
+		int minLength = MAX_CODE_LENGTH;
+		int maxLength = 0;
+		for (int i = 0; i < alphaSize; ++i) {
+			minLength = Math.min(minLength, lengths[i]);
+			maxLength = Math.max(maxLength, lengths[i]);
+		}
+		int p = 0;
+		for (int l = minLength; l <= maxLength; ++l) {
+			for (int i = 0; i < alphaSize; ++i) {
+				if (lengths[i] == l) {
+					perm[p++] = i;
+				}
+			}
+		}
+		Arrays.fill(base, 0);
+		for (int i = 0; i < alphaSize; ++i) {
+			++base[lengths[i] + 1];
+		}
+		for (int i = 1; i < base.length; ++i) {
+			base[i] += base[i - 1];
+		}
+		// limit[l] is the largest code of length l; lengths above
+		// maxLength are never reached for a valid code
+		Arrays.fill(limit, -1);
+		int code = 0;
+		for (int l = minLength; l <= maxLength; ++l) {
+			code += base[l + 1] - base[l];
+			limit[l] = code - 1;
+			code <<= 1;
+		}
+		for (int l = minLength + 1; l <= maxLength; ++l) {
+			base[l] = ((limit[l - 1] + 1) << 1) - base[l];
+		}
+		limit[MAX_CODE_LENGTH + 1] = Integer.MAX_VALUE;
+		myMinLength[t] = minLength;
+	}
+
+	private int decodeSymbol(int t) throws IOException {
+		final int[] limit = myLimit[t];
+		int length = myMinLength[t];
+		int code = readBits(length);
+		while (code > limit[length]) {
+			if (++length > MAX_CODE_LENGTH) {
+				throw new IOException("Invalid bzip2 code");
+			}
+			code = (code << 1) | readBits(1);
+		}
+		final int index = code - myCodeBase[t][length];
+		if (index < 0 || index >= myAlphaSize) {
+			throw new IOException("Invalid bzip2 code");
+		}
+		return myPerm[t][index];
+	}
+
+	private void finishBlock() throws IOException {
+		if (~myBlockCRC != myExpectedBlockCRC) {
+			throw new IOException("bzip2 block CRC error");
+		}
+		myStreamCRC = ((myStreamCRC << 1) | (myStreamCRC >>> 31)) ^ myExpectedBlockCRC;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		final int[] tt = myTT;
+		int crc = myBlockCRC;
+		int done = 0;
+		while (done < len) {
+			if (myRepeat > 0) {
+				final int n = Math.min(myRepeat, len - done);
+				final byte ch = (byte)myLastByte;
+				for (int i = 0; i < n; ++i) {
+					b[off + done + i] = ch;
+					crc = (crc << 8) ^ ourCRCTable[(crc >>> 24) ^ myLastByte];
+				}
+				done += n;
+				myRepeat -= n;
+				continue;
+			}
+			if (myBlockIndex == myBlockLength) {
+				if (myIsFinished) {
+					break;
+				}
+				myBlockCRC = crc;
+				if (myBlockLength > 0) {
+					finishBlock();
+				}
+				if (!readBlock()) {
+					myIsFinished = true;
+					myBlockLength = 0;
+					myBlockIndex = 0;
+					break;
+				}
+				crc = myBlockCRC;
+				continue;
+			}
+			final int t = tt[myTPos];
+			final int ch = t & 0xFF;
+			myTPos = t >>> 8;
+			++myBlockIndex;
+			if (myRunLength == 4) {
+				// the byte after 4 equal bytes is the number of extra repeats
+				myRepeat = ch;
+				myRunLength = 0;
+				continue;
+			}
+			if (ch == myLastByte) {
+				++myRunLength;
+			} else {
+				myLastByte = ch;
+				myRunLength = 1;
+			}
+			b[off + done++] = (byte)ch;
+			crc = (crc << 8) ^ ourCRCTable[(crc >>> 24) ^ ch];
+		}
+		myBlockCRC = crc;
+		return done > 0 ? done : -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		myBase.close();
+	}
+}
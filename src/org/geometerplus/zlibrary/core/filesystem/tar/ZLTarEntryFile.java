@@ -39,7 +39,7 @@ public final class ZLTarEntryFile extends ZLArchiveEntryFile {
 					if (lenToSkip < 0) {
 						break;
 					}
-					if (stream.skip(lenToSkip) != lenToSkip) {
+					if (!ZLTarHeader.skipFully(stream, lenToSkip)) {
 						break;
 					}
 					header.erase();
@@ -69,6 +69,11 @@ public final class ZLTarEntryFile extends ZLArchiveEntryFile {
 
 	@Override
 	public InputStream getInputStream() throws IOException {
+		return isCompressed() ? getDecompressedInputStream() : getRawInputStream();
+	}
+
+	@Override
+	protected InputStream getRawInputStream() throws IOException {
 		return new ZLTarInputStream(myParent.getInputStream(), myName);
 	}
 }
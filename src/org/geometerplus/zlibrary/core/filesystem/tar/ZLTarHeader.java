@@ -27,67 +27,118 @@ class ZLTarHeader {
 	int Size;
 	boolean IsRegularFile;
 
-	private static String getStringFromByteArray(byte[] buffer) {
-		String s = new String(buffer);
-		final int indexOfZero = s.indexOf((char)0);
-		if (indexOfZero != -1) {
-			return s.substring(0, indexOfZero);
-		} else {
-			return s;
+	// decompressing streams (.tar.gz) return less than requested
+	static boolean readFully(InputStream stream, byte[] buffer, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			final int count = stream.read(buffer, offset, length - offset);
+			if (count <= 0) {
+				return false;
+			}
+			offset += count;
 		}
+		return true;
 	}
 
-	boolean read(InputStream stream) throws IOException {
-		final byte[] fileName = new byte[100];
-		if (stream.read(fileName) != 100) {
-			return false;
+	static boolean skipFully(InputStream stream, long length) throws IOException {
+		while (length > 0) {
+			long count = stream.skip(length);
+			if (count <= 0) {
+				if (stream.read() == -1) {
+					return false;
+				}
+				count = 1;
+			}
+			length -= count;
 		}
-		if (fileName[0] == 0) {
-			return false;
+		return true;
+	}
+
+	private static String getStringFromByteArray(byte[] buffer, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && buffer[end] != 0) {
+			++end;
 		}
-		Name = getStringFromByteArray(fileName);
+		return new String(buffer, offset, end - offset);
+	}
 
-		if (stream.skip(24) != 24) {
+	private final byte[] myBlock = new byte[512];
+
+	boolean read(InputStream stream) throws IOException {
+		final byte[] block = myBlock;
+		if (!readFully(stream, block, 512)) {
 			return false;
 		}
-	
-		final byte[] fileSizeString = new byte[12];
-		if (stream.read(fileSizeString) != 12) {
+		if (block[0] == 0) {
 			return false;
 		}
+		Name = getStringFromByteArray(block, 0, 100);
+
 		Size = 0;
-		for (int i = 0; i < 12; ++i) {
-			final byte digit = fileSizeString[i];
+		for (int i = 124; i < 136; ++i) {
+			final byte digit = block[i];
+			if (digit == (byte)' ' && Size == 0) {
+				continue;
+			}
 			if ((digit < (byte)'0') || (digit > (byte)'7')) {
 				break;
 			}
 			Size *= 8;
 			Size += digit - (byte)'0';
 		}
-	
-		if (stream.skip(20) != 20) {
-			return false;
-		}
 
-		final byte linkFlag = (byte)stream.read();
-		if (linkFlag == -1) {
-			return false;
-		}
+		final byte linkFlag = block[156];
 		IsRegularFile = (linkFlag == 0) || (linkFlag == (byte)'0');
 
-		stream.skip(355);
-	
-		if (((linkFlag == (byte)'L') ||
-				 (linkFlag == (byte)'K')) && (Name == "././@LongLink") && (Size < 10240)) {
-			final byte[] nameBuffer = new byte[Size - 1];
-			stream.read(nameBuffer);
-			Name = getStringFromByteArray(nameBuffer);
-			final int skip = 512 - (Size & 0x1ff);
-			stream.skip(skip + 1);
+		// ustar: long names are split into prefix and name
+		if (block[257] == 'u' && block[258] == 's' && block[259] == 't' &&
+			block[260] == 'a' && block[261] == 'r' && block[345] != 0) {
+			Name = getStringFromByteArray(block, 345, 155) + "/" + Name;
+		}
+
+		// GNU (L) and pax (x) long names are stored as data of an extra
+		// header followed by the entry header
+		if ((linkFlag == (byte)'L' || linkFlag == (byte)'x') && Size < 10240) {
+			final byte[] data = new byte[(Size + 0x1ff) & -0x200];
+			if (!readFully(stream, data, data.length)) {
+				return false;
+			}
+			final String longName = linkFlag == (byte)'L'
+				? getStringFromByteArray(data, 0, Size) : paxPath(data, Size);
+			if (!read(stream)) {
+				return false;
+			}
+			if (longName != null) {
+				Name = longName;
+			}
 		}
 		return true;
 	}
 
+	// pax records are "<length> <key>=<value>\n"
+	private static String paxPath(byte[] data, int size) throws IOException {
+		int offset = 0;
+		while (offset < size) {
+			int space = offset;
+			while (space < size && data[space] != ' ') {
+				++space;
+			}
+			int length = 0;
+			for (int i = offset; i < space; ++i) {
+				length = 10 * length + data[i] - '0';
+			}
+			if (space + 2 > offset + length || offset + length > size) {
+				return null;
+			}
+			final String record = new String(data, space + 1, offset + length - space - 2, "utf-8");
+			if (record.startsWith("path=")) {
+				return record.substring(5);
+			}
+			offset += length;
+		}
+		return null;
+	}
+
 	void erase() {
 		Name = null;
 	}
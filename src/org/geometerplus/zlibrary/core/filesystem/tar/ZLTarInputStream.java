@@ -25,6 +25,7 @@ import java.io.IOException;
 class ZLTarInputStream extends InputStream {
 	private final InputStream myBase;
 	//private final String myFileName;
+	private int myRemaining;
 
 	ZLTarInputStream(InputStream base, String fileName) throws IOException {
 		myBase = base;
@@ -33,13 +34,14 @@ class ZLTarInputStream extends InputStream {
 		ZLTarHeader header = new ZLTarHeader();
 		while (header.read(myBase)) {
 			if ((header.IsRegularFile) && fileName.equals(header.Name)) {
+				myRemaining = header.Size;
 				return;
 			}
 			final int sizeToSkip = (header.Size + 0x1ff) & -0x200;
 			if (sizeToSkip < 0) {
 				throw new IOException("Bad tar archive");
 			}
-			if (myBase.skip(sizeToSkip) != sizeToSkip) {
+			if (!ZLTarHeader.skipFully(myBase, sizeToSkip)) {
 				break;
 			}
 			header.erase();
@@ -49,26 +51,49 @@ class ZLTarInputStream extends InputStream {
 
 	@Override
 	public int read() throws IOException {
-		return myBase.read();
+		if (myRemaining <= 0) {
+			return -1;
+		}
+		final int b = myBase.read();
+		if (b != -1) {
+			--myRemaining;
+		}
+		return b;
 	}
 
 	@Override
 	public int read(byte b[]) throws IOException {
-		return myBase.read(b);
+		return read(b, 0, b.length);
 	}
 
 	@Override
 	public int read(byte b[], int off, int len) throws IOException {
-		return myBase.read(b, off, len);
+		if (myRemaining <= 0) {
+			return -1;
+		}
+		final int count = myBase.read(b, off, Math.min(len, myRemaining));
+		if (count > 0) {
+			myRemaining -= count;
+		}
+		return count;
 	}
 
 	@Override
 	public long skip(long n) throws IOException {
-		return myBase.skip(n);
+		final long count = myBase.skip(Math.min(n, myRemaining));
+		if (count > 0) {
+			myRemaining -= count;
+		}
+		return count;
 	}
 
 	@Override
 	public int available() throws IOException {
-		return myBase.available();
+		return Math.min(myBase.available(), myRemaining);
+	}
+
+	@Override
+	public void close() throws IOException {
+		myBase.close();
 	}
 }
@@ -33,7 +33,8 @@ class FileTypeFB2 extends FileType {
 	@Override
 	public boolean acceptsFile(ZLFile file) {
 		final String lName = file.getShortName().toLowerCase();
-		return lName.endsWith(".fb2") || lName.endsWith(".fb2.zip");
+		// extension of .fb2.gz and .fb2.bz2 files is fb2 too
+		return "fb2".equals(file.getExtension()) || lName.endsWith(".fb2.zip");
 	}
 
 	/*
@@ -31,7 +31,8 @@ public abstract class ZLImageManager {
 	}
 
 	public abstract ZLImageData getImageData(ZLImage image);
-	protected abstract void startImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable);
+	protected abstract void startImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable, boolean isUrgent);
+	protected abstract void cancelImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable);
 	
 	protected final static class PalmImageHeader {
 		public final int Width;
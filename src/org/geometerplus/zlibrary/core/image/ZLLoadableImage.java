@@ -37,7 +37,23 @@ public abstract class ZLLoadableImage extends ZLSingleImage {
 	}
 
 	public void startSynchronization(Runnable postSynchronizationAction) {
-		ZLImageManager.Instance().startImageLoading(this, postSynchronizationAction);
+		startSynchronization(postSynchronizationAction, false);
+	}
+
+	/**
+	 * @param isUrgent true for images that must be loaded before all the other ones;
+	 *        non-urgent requests are served in the reverse order (the latest first)
+	 */
+	public void startSynchronization(Runnable postSynchronizationAction, boolean isUrgent) {
+		ZLImageManager.Instance().startImageLoading(this, postSynchronizationAction, isUrgent);
+	}
+
+	/**
+	 * Withdraws the request made by startSynchronization(); the image is not loaded
+	 * if nobody else is waiting for it and the loading is not started yet.
+	 */
+	public void cancelSynchronization(Runnable postSynchronizationAction) {
+		ZLImageManager.Instance().cancelImageLoading(this, postSynchronizationAction);
 	}
 
 	public static interface SourceType {
@@ -26,6 +26,7 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 	public final T Parent;
 	public final int Level;
 	private volatile List<T> mySubTrees;
+	private volatile boolean myIsDetached;
 
 	protected ZLTree() {
 		this(null);
@@ -37,10 +38,10 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 
 	protected ZLTree(T parent, int position) {
 		if (position == -1) {
-			position = parent == null ? 0 : parent.subTrees().size();
+			position = parent == null ? 0 : parent.subTreesNumber();
 		}
-		if (parent != null && (position < 0 || position > parent.subTrees().size())) {
-			throw new IndexOutOfBoundsException("`position` value equals " + position + " but must be in range [0; " + parent.subTrees().size() + "]");
+		if (parent != null && (position < 0 || position > parent.subTreesNumber())) {
+			throw new IndexOutOfBoundsException("`position` value equals " + position + " but must be in range [0; " + parent.subTreesNumber() + "]");
 		}
 		Parent = parent;
 		if (parent != null) {
@@ -59,15 +60,84 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 		return mySubTrees != null && !mySubTrees.isEmpty();
 	}
 
+	/**
+	 * Returns a snapshot of the children list; every call copies it,
+	 * so use subTreesNumber(), subTreeAt() or binarySearchSubTrees()
+	 * for lookups.
+	 */
 	public List<T> subTrees() {
-		if (mySubTrees == null) {
+		final List<T> subTrees = mySubTrees;
+		if (subTrees == null) {
 			return Collections.emptyList();
 		}
-		synchronized (mySubTrees) {
-			return new ArrayList<T>(mySubTrees);
+		synchronized (subTrees) {
+			return new ArrayList<T>(subTrees);
+		}
+	}
+
+	public final int subTreesNumber() {
+		final List<T> subTrees = mySubTrees;
+		return subTrees != null ? subTrees.size() : 0;
+	}
+
+	public final T subTreeAt(int index) {
+		final List<T> subTrees = mySubTrees;
+		if (subTrees == null) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+		}
+		synchronized (subTrees) {
+			return subTrees.get(index);
+		}
+	}
+
+	public final int indexOfSubTree(T subtree) {
+		final List<T> subTrees = mySubTrees;
+		return subTrees != null ? subTrees.indexOf(subtree) : -1;
+	}
+
+	/**
+	 * Searches children list sorted by comparator in place,
+	 * the result has the same meaning as for Collections.binarySearch().
+	 */
+	protected final int binarySearchSubTrees(T key, Comparator<? super T> comparator) {
+		final List<T> subTrees = mySubTrees;
+		if (subTrees == null) {
+			return -1;
+		}
+		synchronized (subTrees) {
+			return Collections.binarySearch(subTrees, key, comparator);
 		}
 	}
 
+	/**
+	 * Sorts children list in place.
+	 */
+	protected final void sortSubTrees(Comparator<? super T> comparator) {
+		final List<T> subTrees = mySubTrees;
+		if (subTrees == null) {
+			return;
+		}
+		synchronized (subTrees) {
+			Collections.sort(subTrees, comparator);
+		}
+	}
+
+	/**
+	 * Returns true if this tree is still reachable from ancestor, i.e.
+	 * neither this tree nor any tree between it and ancestor was removed.
+	 */
+	public final boolean isAttachedTo(ZLTree<?> ancestor) {
+		for (ZLTree<?> tree = this; tree != null; tree = tree.Parent) {
+			if (tree == ancestor) {
+				return true;
+			}
+			if (tree.myIsDetached) {
+				return false;
+			}
+		}
+		return false;
+	}
+
 	public synchronized final T getTreeByParagraphNumber(int index) {
 		if (index < 0 || index >= mySize) {
 			// TODO: throw an exception?
@@ -97,11 +167,7 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 		}
 		final int subTreeSize = subtree.getSize();
 		synchronized (mySubTrees) {
-			final int thisSubTreesSize = mySubTrees.size();
-			while (position < thisSubTreesSize) {
-				subtree = mySubTrees.set(position++, subtree);
-			}
-			mySubTrees.add(subtree);
+			mySubTrees.add(position, subtree);
 			for (ZLTree<?> parent = this; parent != null; parent = parent.Parent) {
 				parent.mySize += subTreeSize;
 			}
@@ -113,6 +179,7 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 		ZLTree<?> parent = Parent;
 		if (parent != null) {
 			parent.mySubTrees.remove(this);
+			myIsDetached = true;
 			for (; parent != null; parent = parent.Parent) {
 				parent.mySize -= subTreeSize;
 			}
@@ -122,7 +189,12 @@ public abstract class ZLTree<T extends ZLTree<T>> implements Iterable<T> {
 	public final void clear() {
 		final int subTreesSize = mySize - 1;
 		if (mySubTrees != null) {
-			mySubTrees.clear();
+			synchronized (mySubTrees) {
+				for (T subtree : mySubTrees) {
+					((ZLTree<?>)subtree).myIsDetached = true;
+				}
+				mySubTrees.clear();
+			}
 		}
 		mySize = 1;
 		if (subTreesSize > 0) {
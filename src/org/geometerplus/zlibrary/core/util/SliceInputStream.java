@@ -35,7 +35,7 @@ public class SliceInputStream extends ZLInputStreamWithOffset {
 	
 	@Override
 	public int read() throws IOException {
-		if (myLength >= offset()) {
+		if (offset() >= myLength) {
 			return -1;
 		}
 		return super.read();
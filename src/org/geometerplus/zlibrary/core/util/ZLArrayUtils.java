@@ -52,6 +52,14 @@ public abstract class ZLArrayUtils {
 		return newArray;
 	}
 
+	public static long[] createCopy(long[] array, int dataSize, int newLength) {
+		long[] newArray = new long[newLength];
+		if (dataSize > 0) {
+			System.arraycopy(array, 0, newArray, 0, dataSize);
+		}
+		return newArray;
+	}
+
 	public static String[] createCopy(String[] array, int dataSize, int newLength) {
 		String[] newArray = new String[newLength];
 		if (dataSize > 0) {
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of temporary byte[] and char[] buffers. Buffers are
+ * grouped by power of 2 size classes, so get*() can return a buffer longer
+ * than requested. Every thread keeps one free buffer of each class in its
+ * own slots; other free buffers are shared. A short-living worker thread
+ * should call releaseThreadBuffers() when it finishes; slots of finished
+ * threads that did not are reclaimed when a new thread takes slots.
+ * All free buffers (and objects
+ * in ObjectPools) together never take more than getLimit() bytes,
+ * extra buffers are left to the garbage collector.
+ *
+ * A released buffer must not be used by the caller any more.
+ */
+public final class ZLBufferPool {
+	private static final int MIN_SHIFT = 8;
+	private static final int MAX_SHIFT = 20;
+	private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+	// element size shifts
+	private static final int BYTES = 0;
+	private static final int CHARS = 1;
+
+	private static volatile long ourLimit = 4 << 20;
+
+	private static final AtomicLong ourRetainedBytes = new AtomicLong();
+	private static final AtomicLong ourHitCounter = new AtomicLong();
+	private static final AtomicLong ourMissCounter = new AtomicLong();
+	private static final AtomicLong ourDropCounter = new AtomicLong();
+
+	// index = kind * CLASSES + sizeClass
+	private static final ArrayList<ArrayList<Object>> ourFree = new ArrayList<ArrayList<Object>>();
+	static {
+		for (int i = 0; i < 2 * CLASSES; ++i) {
+			ourFree.add(new ArrayList<Object>());
+		}
+	}
+
+	// slots are locked by the owner thread and by clear() only,
+	// so the lock is almost never contended
+	private static final class Slots {
+		final WeakReference<Thread> Owner = new WeakReference<Thread>(Thread.currentThread());
+		final Object[] Buffers = new Object[2 * CLASSES];
+		long Bytes;
+
+		synchronized void clear() {
+			for (int i = 0; i < Buffers.length; ++i) {
+				Buffers[i] = null;
+			}
+			ourRetainedBytes.addAndGet(-Bytes);
+			Bytes = 0;
+		}
+
+		// moves the buffers to the shared lists, they are already counted
+		synchronized void release() {
+			for (int index = 0; index < Buffers.length; ++index) {
+				final Object buffer = Buffers[index];
+				if (buffer != null) {
+					Buffers[index] = null;
+					final ArrayList<Object> free = ourFree.get(index);
+					synchronized (free) {
+						free.add(buffer);
+					}
+				}
+			}
+			Bytes = 0;
+		}
+
+		boolean isOwnerAlive() {
+			final Thread owner = Owner.get();
+			return owner != null && owner.isAlive();
+		}
+	}
+
+	// slots of all the threads
+	private static final ArrayList<Slots> ourAllSlots = new ArrayList<Slots>();
+
+	private static final ThreadLocal<Slots> ourSlots = new ThreadLocal<Slots>() {
+		@Override
+		protected Slots initialValue() {
+			final Slots slots = new Slots();
+			synchronized (ourAllSlots) {
+				for (int i = ourAllSlots.size() - 1; i >= 0; --i) {
+					final Slots other = ourAllSlots.get(i);
+					if (!other.isOwnerAlive()) {
+						other.release();
+						ourAllSlots.remove(i);
+					}
+				}
+				ourAllSlots.add(slots);
+			}
+			return slots;
+		}
+	};
+
+	private ZLBufferPool() {
+	}
+
+	public static byte[] getBytes(int minLength) {
+		final byte[] buffer = (byte[])get(BYTES, minLength);
+		return buffer != null ? buffer : new byte[allocationLength(minLength)];
+	}
+
+	public static char[] getChars(int minLength) {
+		final char[] buffer = (char[])get(CHARS, minLength);
+		return buffer != null ? buffer : new char[allocationLength(minLength)];
+	}
+
+	public static void release(byte[] buffer) {
+		if (buffer != null) {
+			release(BYTES, buffer, buffer.length);
+		}
+	}
+
+	public static void release(char[] buffer) {
+		if (buffer != null) {
+			release(CHARS, buffer, buffer.length);
+		}
+	}
+
+	/**
+	 * Drops all free buffers, shared and kept by threads
+	 */
+	public static void clear() {
+		synchronized (ourAllSlots) {
+			for (Slots slots : ourAllSlots) {
+				slots.clear();
+			}
+		}
+		for (int index = 0; index < ourFree.size(); ++index) {
+			final ArrayList<Object> free = ourFree.get(index);
+			final int count;
+			synchronized (free) {
+				count = free.size();
+				free.clear();
+			}
+			ourRetainedBytes.addAndGet(-((long)count << (index / CLASSES + index % CLASSES + MIN_SHIFT)));
+		}
+	}
+
+	/**
+	 * Gives free buffers of the current thread to other threads;
+	 * call it at the end of a worker thread.
+	 */
+	public static void releaseThreadBuffers() {
+		final Slots slots = ourSlots.get();
+		slots.release();
+		synchronized (ourAllSlots) {
+			ourAllSlots.remove(slots);
+		}
+		ourSlots.remove();
+	}
+
+	public static long getLimit() {
+		return ourLimit;
+	}
+
+	public static void setLimit(long bytes) {
+		ourLimit = bytes;
+	}
+
+	public static long getRetainedBytes() {
+		return ourRetainedBytes.get();
+	}
+
+	public static long getHitCount() {
+		return ourHitCounter.get();
+	}
+
+	public static long getMissCount() {
+		return ourMissCounter.get();
+	}
+
+	/**
+	 * @return number of buffers and objects not kept because of the limit
+	 */
+	public static long getDropCount() {
+		return ourDropCounter.get();
+	}
+
+	// -1 for too large buffers, they are not pooled
+	private static int sizeClass(int minLength) {
+		if (minLength <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		if (minLength > 1 << MAX_SHIFT) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(minLength - 1) - MIN_SHIFT;
+	}
+
+	private static int allocationLength(int minLength) {
+		final int sizeClass = sizeClass(minLength);
+		return sizeClass != -1 ? 1 << (sizeClass + MIN_SHIFT) : minLength;
+	}
+
+	private static Object get(int kind, int minLength) {
+		final int sizeClass = sizeClass(minLength);
+		if (sizeClass == -1) {
+			ourMissCounter.incrementAndGet();
+			return null;
+		}
+		final int index = kind * CLASSES + sizeClass;
+		final long size = 1L << (sizeClass + MIN_SHIFT + kind);
+
+		final Slots slots = ourSlots.get();
+		Object buffer;
+		synchronized (slots) {
+			buffer = slots.Buffers[index];
+			if (buffer != null) {
+				slots.Buffers[index] = null;
+				slots.Bytes -= size;
+			}
+		}
+		if (buffer == null) {
+			final ArrayList<Object> free = ourFree.get(index);
+			synchronized (free) {
+				if (!free.isEmpty()) {
+					buffer = free.remove(free.size() - 1);
+				}
+			}
+			if (buffer == null) {
+				ourMissCounter.incrementAndGet();
+				return null;
+			}
+		}
+		ourRetainedBytes.addAndGet(-size);
+		ourHitCounter.incrementAndGet();
+		return buffer;
+	}
+
+	private static void release(int kind, Object buffer, int length) {
+		if (Integer.bitCount(length) != 1) {
+			return;
+		}
+		final int shift = Integer.numberOfTrailingZeros(length);
+		if (shift < MIN_SHIFT || shift > MAX_SHIFT) {
+			return;
+		}
+		final long size = (long)length << kind;
+		if (!reserve(size)) {
+			return;
+		}
+		final int index = kind * CLASSES + shift - MIN_SHIFT;
+		final Slots slots = ourSlots.get();
+		synchronized (slots) {
+			if (slots.Buffers[index] == null) {
+				slots.Buffers[index] = buffer;
+				slots.Bytes += size;
+				return;
+			}
+		}
+		final ArrayList<Object> free = ourFree.get(index);
+		synchronized (free) {
+			free.add(buffer);
+		}
+	}
+
+	private static boolean reserve(long size) {
+		if (ourRetainedBytes.addAndGet(size) > ourLimit) {
+			ourRetainedBytes.addAndGet(-size);
+			ourDropCounter.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Bounded pool of reusable objects (decoders, decompressors etc.);
+	 * objects are counted in the pool statistics and in the limit
+	 * as objectSize bytes each.
+	 */
+	public static final class ObjectPool<T> {
+		private final ArrayList<T> myFree = new ArrayList<T>();
+		private final int myCapacity;
+		private final int myObjectSize;
+
+		public ObjectPool(int capacity, int objectSize) {
+			myCapacity = capacity;
+			myObjectSize = objectSize;
+		}
+
+		/**
+		 * @return a free object, or null if there is no one
+		 */
+		public T get() {
+			final T object;
+			synchronized (myFree) {
+				object = myFree.isEmpty() ? null : myFree.remove(myFree.size() - 1);
+			}
+			if (object == null) {
+				ourMissCounter.incrementAndGet();
+				return null;
+			}
+			ourRetainedBytes.addAndGet(-myObjectSize);
+			ourHitCounter.incrementAndGet();
+			return object;
+		}
+
+		/**
+		 * @return false if the object is not kept, the caller should dispose it then
+		 */
+		public boolean release(T object) {
+			if (!reserve(myObjectSize)) {
+				return false;
+			}
+			synchronized (myFree) {
+				if (myFree.size() < myCapacity) {
+					myFree.add(object);
+					return true;
+				}
+			}
+			ourRetainedBytes.addAndGet(-myObjectSize);
+			ourDropCounter.incrementAndGet();
+			return false;
+		}
+	}
+}
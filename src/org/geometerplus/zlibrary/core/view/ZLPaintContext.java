@@ -158,6 +158,11 @@ abstract public class ZLPaintContext {
 			final Size s = (Size)other;
 			return Width == s.Width && Height == s.Height;
 		}
+
+		@Override
+		public int hashCode() {
+			return Width * 31 + Height;
+		}
 	}
 	public static enum ScalingType {
 		OriginalSize,
@@ -167,6 +172,12 @@ abstract public class ZLPaintContext {
 
 	abstract public Size imageSize(ZLImageData image, Size maxSize, ScalingType scaling);
 	abstract public void drawImage(int x, int y, ZLImageData image, Size maxSize, ScalingType scaling);
+	/**
+	 * Hints that the image is going to be drawn soon with given parameters;
+	 * implementations may decode it in background.
+	 */
+	public void prepareImage(ZLImageData image, Size maxSize, ScalingType scaling) {
+	}
 
 	abstract public void drawLine(int x0, int y0, int x1, int y1);
 	abstract public void fillRectangle(int x0, int y0, int x1, int y1);
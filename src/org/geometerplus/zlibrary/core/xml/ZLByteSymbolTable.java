@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+// open addressing hash table byte sequence -> (string, id);
+// lookups do not allocate anything
+final class ZLByteSymbolTable {
+	private int[] mySlots = new int[64];
+	private byte[][] myKeys = new byte[32][];
+	private int[] myHashes = new int[32];
+	private String[] myStrings = new String[32];
+	private int[] myIds = new int[32];
+	private int mySize;
+
+	private int myLastHash;
+	private int myLastSlot;
+
+	private static int hash(byte[] data, int length) {
+		int h = length;
+		for (int i = 0; i < length; ++i) {
+			h = 31 * h + data[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	// returns entry index or -1; in the latter case add() must follow
+	int find(byte[] data, int length) {
+		final int h = hash(data, length);
+		final int[] slots = mySlots;
+		final int mask = slots.length - 1;
+		int slot = h & mask;
+		while (true) {
+			final int index = slots[slot] - 1;
+			if (index == -1) {
+				myLastHash = h;
+				myLastSlot = slot;
+				return -1;
+			}
+			if (myHashes[index] == h) {
+				final byte[] key = myKeys[index];
+				if (key.length == length) {
+					int i = length;
+					while (--i >= 0 && key[i] == data[i]);
+					if (i < 0) {
+						return index;
+					}
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	int add(byte[] data, int length, String string, int id) {
+		final int index = mySize++;
+		if (index == myKeys.length) {
+			final int capacity = index << 1;
+			final byte[][] keys = new byte[capacity][];
+			System.arraycopy(myKeys, 0, keys, 0, index);
+			myKeys = keys;
+			myHashes = ZLArrayUtils.createCopy(myHashes, index, capacity);
+			myStrings = ZLArrayUtils.createCopy(myStrings, index, capacity);
+			myIds = ZLArrayUtils.createCopy(myIds, index, capacity);
+		}
+		myKeys[index] = ZLArrayUtils.createCopy(data, length, length);
+		myHashes[index] = myLastHash;
+		myStrings[index] = string;
+		myIds[index] = id;
+		mySlots[myLastSlot] = index + 1;
+		if (mySize * 2 > mySlots.length) {
+			rehash(mySlots.length << 1);
+		}
+		return index;
+	}
+
+	private void rehash(int capacity) {
+		final int[] slots = new int[capacity];
+		final int mask = capacity - 1;
+		for (int index = 0; index < mySize; ++index) {
+			int slot = myHashes[index] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = index + 1;
+		}
+		mySlots = slots;
+	}
+
+	String getString(int index) {
+		return myStrings[index];
+	}
+
+	int getId(int index) {
+		return myIds[index];
+	}
+}
@@ -0,0 +1,776 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
+
+/**
+ * Byte level version of ZLXMLParser for ZLXMLTagIdReader.
+ * Markup is tokenized on raw bytes, tag and attribute names are looked up
+ * in byte symbol tables, so a name is decoded only the first time it is met;
+ * only text runs and attribute values are decoded, into reusable buffers.
+ */
+final class ZLXMLByteParser {
+	private static final byte START_DOCUMENT = 0;
+	private static final byte START_TAG = 1;
+	private static final byte END_TAG = 2;
+	private static final byte TEXT = 3;
+	private static final byte COMMENT = 6;
+	private static final byte END_OF_COMMENT1 = 7;
+	private static final byte END_OF_COMMENT2 = 8;
+	private static final byte EXCL_TAG = 9;
+	private static final byte EXCL_TAG_START = 10;
+	private static final byte Q_TAG = 11;
+	private static final byte END_OF_Q_TAG = 12;
+	private static final byte LANGLE = 13;
+	private static final byte WS_AFTER_START_TAG_NAME = 14;
+	private static final byte WS_AFTER_ATTRIBUTE_VALUE = 15;
+	private static final byte WAIT_EQUALS = 17;
+	private static final byte WAIT_ATTRIBUTE_VALUE = 18;
+	private static final byte SLASH = 19;
+	private static final byte ATTRIBUTE_NAME = 20;
+	private static final byte ATTRIBUTE_VALUE_QUOT = 21;
+	private static final byte ATTRIBUTE_VALUE_APOS = 22;
+	private static final byte ENTITY_REF = 23;
+	private static final byte CDATA = 24;
+	private static final byte END_OF_CDATA1 = 25;
+	private static final byte END_OF_CDATA2 = 26;
+
+	static final int DESCRIPTION_LIMIT = 256;
+
+	private static final class Bytes {
+		byte[] Data = new byte[20];
+		int Length;
+
+		void append(byte[] buffer, int offset, int count) {
+			final int newLength = Length + count;
+			if (Data.length < newLength) {
+				Data = ZLArrayUtils.createCopy(Data, Length, newLength);
+			}
+			System.arraycopy(buffer, offset, Data, Length, count);
+			Length = newLength;
+		}
+	}
+
+	/**
+	 * Reads the xml declaration; returns null (and pushes the read bytes back)
+	 * if the document encoding is not supported by ZLXMLTextDecoder.
+	 * The stream must allow to unread DESCRIPTION_LIMIT bytes.
+	 */
+	static ZLXMLByteParser create(ZLXMLTagIdReader xmlReader, PushbackInputStream stream, int bufferSize) throws IOException {
+		final byte[] buffer = ZLBufferPool.getBytes(bufferSize);
+		final int limit = Math.min(DESCRIPTION_LIMIT, bufferSize);
+		// read by blocks, not by bytes: the stream is usually not buffered
+		int len = 0;
+		int end = -1;
+		while (end == -1 && len < limit) {
+			final int count = stream.read(buffer, len, limit - len);
+			if (count <= 0) {
+				break;
+			}
+			for (int i = len; i < len + count; ++i) {
+				if (buffer[i] == '>') {
+					end = i + 1;
+					break;
+				}
+			}
+			len += count;
+		}
+		String encoding = "utf-8";
+		boolean isDeclaration = false;
+		if (end != -1) {
+			final String declared =
+				ZLXMLParser.getDeclaredEncoding(new String(buffer, 0, end, "ISO-8859-1").trim());
+			if (declared != null) {
+				isDeclaration = true;
+				encoding = declared;
+			}
+		}
+		final ZLXMLTextDecoder decoder = ZLXMLTextDecoder.forEncoding(encoding);
+		if (decoder == null) {
+			stream.unread(buffer, 0, len);
+			ZLBufferPool.release(buffer);
+			return null;
+		}
+		// data after the declaration is parsed as the first block
+		int descriptionLength = len;
+		if (isDeclaration) {
+			descriptionLength = len - end;
+			System.arraycopy(buffer, end, buffer, 0, descriptionLength);
+		}
+		return new ZLXMLByteParser(xmlReader, stream, buffer, descriptionLength, encoding, decoder);
+	}
+
+	private final ZLXMLTagIdReader myXMLReader;
+	private final InputStream myStream;
+	private final byte[] myBuffer;
+	private int myBufferDescriptionLength;
+	private final String myEncoding;
+	// decodes text and attribute values that can be split between buffers
+	private final ZLXMLTextDecoder myDecoder;
+	// decodes complete names
+	private final ZLXMLTextDecoder myNameDecoder;
+	private final char[] myChars;
+	private char[] myNameChars = new char[64];
+
+	private ZLXMLByteParser(ZLXMLTagIdReader xmlReader, InputStream stream, byte[] buffer, int descriptionLength, String encoding, ZLXMLTextDecoder decoder) {
+		myXMLReader = xmlReader;
+		myStream = stream;
+		myBuffer = buffer;
+		myBufferDescriptionLength = descriptionLength;
+		myEncoding = encoding;
+		myDecoder = decoder;
+		myNameDecoder = decoder.copy();
+		myChars = new char[buffer.length + 2];
+	}
+
+	// parsing state, kept between parse() calls
+	private final Bytes myTagName = new Bytes();
+	private final Bytes myAttributeName = new Bytes();
+	private final Bytes myEntityName = new Bytes();
+	private final ZLMutableString myCData = new ZLMutableString();
+	private final ZLMutableString myAttributeValue = new ZLMutableString();
+	private final ZLByteSymbolTable myTags = new ZLByteSymbolTable();
+	private final ZLByteSymbolTable myNames = new ZLByteSymbolTable();
+	private final Map<ZLMutableString,String> myValues = new HashMap<ZLMutableString,String>();
+	private final ZLStringMap myAttributes = new ZLStringMap();
+	private ZLXMLEntityResolver myEntities;
+	private HashMap<String,String> myOldNamespaceMap;
+	private HashMap<String,String> myCurrentNamespaceMap;
+	private final ArrayList<HashMap<String,String>> myNamespaceMapStack = new ArrayList<HashMap<String,String>>();
+	private int[] myTagStack = new int[10];
+	private int myTagStackSize;
+	private byte myState = START_DOCUMENT;
+	private byte mySavedState = START_DOCUMENT;
+	private boolean myHasData;
+	private int myCount;
+	private int myStartPosition;
+	private int myPosition;
+	private boolean myIsFinished;
+
+	void finish() {
+		ZLBufferPool.release(myBuffer);
+	}
+
+	private String decodeName(Bytes name) {
+		final int len = name.Length;
+		if (myNameChars.length < len + 1) {
+			myNameChars = new char[len + 1];
+		}
+		final int count = myNameDecoder.decode(name.Data, 0, len, myNameChars, 0);
+		myNameDecoder.reset();
+		return new String(myNameChars, 0, count).intern();
+	}
+
+	// returns symbol index, clears the name
+	private int lookup(ZLByteSymbolTable table, Bytes name, ZLXMLTagVocabulary vocabulary) {
+		int index = table.find(name.Data, name.Length);
+		if (index == -1) {
+			final String string = decodeName(name);
+			index = table.add(name.Data, name.Length, string, vocabulary != null ? vocabulary.getId(string) : 0);
+		}
+		name.Length = 0;
+		return index;
+	}
+
+	private void appendChars(Bytes name, char[] value, int offset, int length) throws UnsupportedEncodingException {
+		// entities in names are very rare, no need to be fast here
+		final byte[] bytes = new String(value, offset, length).getBytes(myEncoding);
+		name.append(bytes, 0, bytes.length);
+	}
+
+	private void appendDecoded(ZLMutableString string, byte[] buffer, int offset, int length) {
+		string.append(myChars, 0, myDecoder.decode(buffer, offset, length, myChars, 0));
+	}
+
+	// see ZLXMLParser.parse()
+	boolean parse(int maxEvents, int maxBytes) throws IOException {
+		if (myIsFinished) {
+			return false;
+		}
+		final ZLXMLTagIdReader xmlReader = myXMLReader;
+		final boolean processNamespaces = xmlReader.processNamespaces();
+		if (myEntities == null) {
+			myEntities = new ZLXMLEntityResolver(xmlReader);
+			if (processNamespaces) {
+				myOldNamespaceMap = new HashMap<String,String>();
+			}
+		}
+		final ZLXMLTagVocabulary vocabulary = xmlReader.tagVocabulary();
+		final ZLXMLEntityResolver entities = myEntities;
+		final InputStream stream = myStream;
+		HashMap<String,String> oldNamespaceMap = myOldNamespaceMap;
+		HashMap<String,String> currentNamespaceMap = myCurrentNamespaceMap;
+		final ArrayList<HashMap<String,String>> namespaceMapStack = myNamespaceMapStack;
+		final byte[] buffer = myBuffer;
+		final char[] chars = myChars;
+		final ZLXMLTextDecoder decoder = myDecoder;
+		final Bytes tagName = myTagName;
+		final Bytes attributeName = myAttributeName;
+		final Bytes entityName = myEntityName;
+		final ZLMutableString cData = myCData;
+		final ZLMutableString attributeValue = myAttributeValue;
+		final boolean dontCacheAttributeValues = xmlReader.dontCacheAttributeValues();
+		final ZLByteSymbolTable tags = myTags;
+		final ZLByteSymbolTable names = myNames;
+		final Map<ZLMutableString,String> values = myValues;
+		final ZLStringMap attributes = myAttributes;
+		int[] tagStack = myTagStack;
+		int tagStackSize = myTagStackSize;
+
+		byte state = myState;
+		byte savedState = mySavedState;
+		boolean hasData = myHasData;
+		int count = myCount;
+		int startPosition = myStartPosition;
+		int i = myPosition;
+		int events = 0;
+		int bytes = 0;
+parsing:
+		while (true) {
+			if (!hasData) {
+				if (bytes > 0 && bytes >= maxBytes) {
+					break;
+				}
+				if (myBufferDescriptionLength > 0) {
+					count = myBufferDescriptionLength;
+					myBufferDescriptionLength = 0;
+				} else {
+					count = stream.read(buffer);
+				}
+				if (count <= 0) {
+					myIsFinished = true;
+					stream.close();
+					return false;
+				}
+				bytes += count;
+				startPosition = 0;
+				if (count < buffer.length) {
+					startPosition = buffer.length - count;
+					System.arraycopy(buffer, 0, buffer, startPosition, count);
+					count = buffer.length;
+				}
+				i = startPosition - 1;
+				hasData = true;
+			}
+			try {
+				while (true) {
+					if (events >= maxEvents) {
+						break parsing;
+					}
+mainSwitchLabel:
+					switch (state) {
+						case START_DOCUMENT:
+							while (buffer[++i] != '<');
+							state = LANGLE;
+							startPosition = i + 1;
+							break;
+						case LANGLE:
+							switch (buffer[++i]) {
+								case '/':
+									state = END_TAG;
+									startPosition = i + 1;
+									break;
+								case '!':
+									state = EXCL_TAG_START;
+									break;
+								case '?':
+									state = Q_TAG;
+									break;
+								default:
+									state = START_TAG;
+									startPosition = i;
+									break;
+							}
+							break;
+						case EXCL_TAG_START:
+							switch (buffer[++i]) {
+								case '-':
+									state = COMMENT;
+									break;
+								case '[':
+									state = CDATA;
+									startPosition = i + 1;
+									break;
+								default:
+									state = EXCL_TAG;
+									break;
+							}
+							break;
+						case EXCL_TAG:
+							while (buffer[++i] != '>');
+							state = TEXT;
+							startPosition = i + 1;
+							break;
+						case CDATA:
+							while (buffer[++i] != ']');
+							state = END_OF_CDATA1;
+							break;
+						case END_OF_CDATA1:
+							state = buffer[++i] == ']' ? END_OF_CDATA2 : CDATA;
+							break;
+						case END_OF_CDATA2:
+							if (buffer[++i] == '>') {
+								appendDecoded(cData, buffer, startPosition, i - startPosition);
+								decoder.reset();
+								final int len = cData.myLength;
+								if (len > 8) {
+									final char[] data = cData.myData;
+									if (data[0] == 'C' && data[1] == 'D' && data[2] == 'A' &&
+										data[3] == 'T' && data[4] == 'A' && data[5] == '[') {
+										xmlReader.characterDataHandler(data, 6, len - 8);
+									}
+								}
+								cData.clear();
+								state = TEXT;
+								startPosition = i + 1;
+							} else {
+								state = CDATA;
+							}
+							break;
+						case COMMENT:
+							while (buffer[++i] != '-');
+							state = END_OF_COMMENT1;
+							break;
+						case END_OF_COMMENT1:
+							state = buffer[++i] == '-' ? END_OF_COMMENT2 : COMMENT;
+							break;
+						case END_OF_COMMENT2:
+							switch (buffer[++i]) {
+								case '>':
+									state = TEXT;
+									startPosition = i + 1;
+									break;
+								case '-':
+									break;
+								default:
+									state = COMMENT;
+									break;
+							}
+							break;
+						case Q_TAG:
+							while (buffer[++i] != '?');
+							state = END_OF_Q_TAG;
+							break;
+						case END_OF_Q_TAG:
+							if (buffer[++i] == '>') {
+								state = TEXT;
+								startPosition = i + 1;
+							} else {
+								state = Q_TAG;
+							}
+							break;
+						case START_TAG:
+							while (true) {
+								switch (buffer[++i]) {
+									case 0x0008:
+									case 0x0009:
+									case 0x000A:
+									case 0x000B:
+									case 0x000C:
+									case 0x000D:
+									case ' ':
+										state = WS_AFTER_START_TAG_NAME;
+										tagName.append(buffer, startPosition, i - startPosition);
+										break mainSwitchLabel;
+									case '>':
+										state = TEXT;
+										tagName.append(buffer, startPosition, i - startPosition);
+										{
+											final int tag = tags.getId(lookup(tags, tagName, vocabulary));
+											if (tagStackSize == tagStack.length) {
+												tagStack = ZLArrayUtils.createCopy(tagStack, tagStackSize, tagStackSize << 1);
+											}
+											tagStack[tagStackSize++] = tag;
+											if (processNamespaces) {
+												if (currentNamespaceMap != null) {
+													oldNamespaceMap = currentNamespaceMap;
+												}
+												namespaceMapStack.add(currentNamespaceMap);
+											}
+											++events;
+											if (processStartTag(xmlReader, tag, attributes, currentNamespaceMap)) {
+												myIsFinished = true;
+												stream.close();
+												return false;
+											}
+											currentNamespaceMap = null;
+										}
+										startPosition = i + 1;
+										break mainSwitchLabel;
+									case '/':
+										state = SLASH;
+										tagName.append(buffer, startPosition, i - startPosition);
+										++events;
+										if (processFullTag(xmlReader, tags.getId(lookup(tags, tagName, vocabulary)), attributes)) {
+											myIsFinished = true;
+											stream.close();
+											return false;
+										}
+										currentNamespaceMap = null;
+										break mainSwitchLabel;
+									case '&':
+										savedState = START_TAG;
+										tagName.append(buffer, startPosition, i - startPosition);
+										state = ENTITY_REF;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+								}
+							}
+						case WS_AFTER_START_TAG_NAME:
+							switch (buffer[++i]) {
+								case '>':
+									{
+										final int tag = tags.getId(lookup(tags, tagName, vocabulary));
+										if (tagStackSize == tagStack.length) {
+											tagStack = ZLArrayUtils.createCopy(tagStack, tagStackSize, tagStackSize << 1);
+										}
+										tagStack[tagStackSize++] = tag;
+										if (processNamespaces) {
+											if (currentNamespaceMap != null) {
+												oldNamespaceMap = currentNamespaceMap;
+											}
+											namespaceMapStack.add(currentNamespaceMap);
+										}
+										++events;
+										if (processStartTag(xmlReader, tag, attributes, currentNamespaceMap)) {
+											myIsFinished = true;
+											stream.close();
+											return false;
+										}
+										currentNamespaceMap = null;
+									}
+									state = TEXT;
+									startPosition = i + 1;
+									break;
+								case '/':
+									state = SLASH;
+									++events;
+									if (processFullTag(xmlReader, tags.getId(lookup(tags, tagName, vocabulary)), attributes)) {
+										myIsFinished = true;
+										stream.close();
+										return false;
+									}
+									currentNamespaceMap = null;
+									break;
+								case 0x0008:
+								case 0x0009:
+								case 0x000A:
+								case 0x000B:
+								case 0x000C:
+								case 0x000D:
+								case ' ':
+									break;
+								default:
+									state = ATTRIBUTE_NAME;
+									startPosition = i;
+									break;
+							}
+							break;
+						case ATTRIBUTE_NAME:
+							while (true) {
+								switch (buffer[++i]) {
+									case '=':
+										attributeName.append(buffer, startPosition, i - startPosition);
+										state = WAIT_ATTRIBUTE_VALUE;
+										break mainSwitchLabel;
+									case '&':
+										attributeName.append(buffer, startPosition, i - startPosition);
+										savedState = ATTRIBUTE_NAME;
+										state = ENTITY_REF;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+									case 0x0008:
+									case 0x0009:
+									case 0x000A:
+									case 0x000B:
+									case 0x000C:
+									case 0x000D:
+									case ' ':
+										attributeName.append(buffer, startPosition, i - startPosition);
+										state = WAIT_EQUALS;
+										break mainSwitchLabel;
+								}
+							}
+						case WAIT_EQUALS:
+							while (buffer[++i] != '=');
+							state = WAIT_ATTRIBUTE_VALUE;
+							break;
+						case WAIT_ATTRIBUTE_VALUE:
+							while (true) {
+								switch (buffer[++i]) {
+									case '"':
+										state = ATTRIBUTE_VALUE_QUOT;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+									case '\'':
+										state = ATTRIBUTE_VALUE_APOS;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+								}
+							}
+						case WS_AFTER_ATTRIBUTE_VALUE:
+							switch (buffer[++i]) {
+								case 0x0008:
+								case 0x0009:
+								case 0x000A:
+								case 0x000B:
+								case 0x000C:
+								case 0x000D:
+								case ' ':
+									state = WS_AFTER_START_TAG_NAME;
+									break;
+								case '/':
+								case '>':
+									state = WS_AFTER_START_TAG_NAME;
+									--i;
+									break;
+								case '"':
+									if (i != 0) {
+										appendDecoded(attributeValue, buffer, i - 1, 1);
+									}
+									break mainSwitchLabel;
+								default:
+									state = ATTRIBUTE_NAME;
+									break mainSwitchLabel;
+							}
+							{
+								final String aName = names.getString(lookup(names, attributeName, null));
+								if (processNamespaces && aName.equals("xmlns")) {
+									if (currentNamespaceMap == null) {
+										currentNamespaceMap = new HashMap<String,String>(oldNamespaceMap);
+									}
+									currentNamespaceMap.put("", attributeValue.toString());
+									attributeValue.clear();
+								} else if (processNamespaces && aName.startsWith("xmlns:")) {
+									if (currentNamespaceMap == null) {
+										currentNamespaceMap = new HashMap<String,String>(oldNamespaceMap);
+									}
+									currentNamespaceMap.put(aName.substring(6), attributeValue.toString());
+									attributeValue.clear();
+								} else if (dontCacheAttributeValues) {
+									attributes.put(aName, attributeValue.toString());
+									attributeValue.clear();
+								} else {
+									attributes.put(aName, ZLXMLParser.convertToString(values, attributeValue));
+								}
+							}
+							break;
+						case ATTRIBUTE_VALUE_QUOT:
+							while (true) {
+								switch (buffer[++i]) {
+									case '"':
+										appendDecoded(attributeValue, buffer, startPosition, i - startPosition);
+										decoder.reset();
+										state = WS_AFTER_ATTRIBUTE_VALUE;
+										break mainSwitchLabel;
+									case '&':
+										appendDecoded(attributeValue, buffer, startPosition, i - startPosition);
+										decoder.reset();
+										savedState = ATTRIBUTE_VALUE_QUOT;
+										state = ENTITY_REF;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+								}
+							}
+						case ATTRIBUTE_VALUE_APOS:
+							while (true) {
+								switch (buffer[++i]) {
+									case '\'':
+										appendDecoded(attributeValue, buffer, startPosition, i - startPosition);
+										decoder.reset();
+										state = WS_AFTER_ATTRIBUTE_VALUE;
+										break mainSwitchLabel;
+									case '&':
+										appendDecoded(attributeValue, buffer, startPosition, i - startPosition);
+										decoder.reset();
+										savedState = ATTRIBUTE_VALUE_APOS;
+										state = ENTITY_REF;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+								}
+							}
+						case ENTITY_REF:
+							while (buffer[++i] != ';');
+							entityName.append(buffer, startPosition, i - startPosition);
+							state = savedState;
+							startPosition = i + 1;
+							{
+								final int valueLength = entities.resolve(entityName.Data, entityName.Length);
+								entityName.Length = 0;
+								if (valueLength > 0) {
+									final char[] value = entities.Data;
+									final int offset = entities.Offset;
+									switch (state) {
+										case ATTRIBUTE_VALUE_QUOT:
+										case ATTRIBUTE_VALUE_APOS:
+											attributeValue.append(value, offset, valueLength);
+											break;
+										case ATTRIBUTE_NAME:
+											appendChars(attributeName, value, offset, valueLength);
+											break;
+										case START_TAG:
+											appendChars(tagName, value, offset, valueLength);
+											break;
+										case TEXT:
+											xmlReader.characterDataHandler(value, offset, valueLength);
+											break;
+									}
+								}
+							}
+							break;
+						case SLASH:
+							while (buffer[++i] != '>');
+							state = TEXT;
+							startPosition = i + 1;
+							break;
+						case END_TAG:
+							while (buffer[++i] != '>');
+							if (tagStackSize > 0) {
+								if (processNamespaces &&
+										(namespaceMapStack.remove(tagStackSize - 1) != null)) {
+									for (int j = namespaceMapStack.size() - 1; j >= 0; --j) {
+										HashMap<String,String> element = namespaceMapStack.get(j);
+										if (element != null) {
+											oldNamespaceMap = element;
+											currentNamespaceMap = oldNamespaceMap;
+											break;
+										}
+									}
+								}
+								++events;
+								if (processEndTag(xmlReader, tagStack[--tagStackSize], currentNamespaceMap)) {
+									myIsFinished = true;
+									stream.close();
+									return false;
+								}
+								currentNamespaceMap = null;
+							}
+							state = TEXT;
+							startPosition = i + 1;
+							break;
+						case TEXT:
+							while (true) {
+								switch (buffer[++i]) {
+									case '<':
+										if (i > startPosition) {
+											final int len = decoder.decode(buffer, startPosition, i - startPosition, chars, 0);
+											xmlReader.characterDataHandlerFinal(chars, 0, len);
+										}
+										decoder.reset();
+										state = LANGLE;
+										break mainSwitchLabel;
+									case '&':
+										if (i > startPosition) {
+											final int len = decoder.decode(buffer, startPosition, i - startPosition, chars, 0);
+											xmlReader.characterDataHandler(chars, 0, len);
+										}
+										decoder.reset();
+										savedState = TEXT;
+										state = ENTITY_REF;
+										startPosition = i + 1;
+										break mainSwitchLabel;
+								}
+							}
+					}
+				}
+			} catch (ArrayIndexOutOfBoundsException e) {
+				hasData = false;
+				if (count > startPosition) {
+					switch (state) {
+						case START_TAG:
+							tagName.append(buffer, startPosition, count - startPosition);
+							break;
+						case ATTRIBUTE_NAME:
+							attributeName.append(buffer, startPosition, count - startPosition);
+							break;
+						case ATTRIBUTE_VALUE_QUOT:
+						case ATTRIBUTE_VALUE_APOS:
+							appendDecoded(attributeValue, buffer, startPosition, count - startPosition);
+							break;
+						case ENTITY_REF:
+							entityName.append(buffer, startPosition, count - startPosition);
+							break;
+						case CDATA:
+						case END_OF_CDATA1:
+						case END_OF_CDATA2:
+							appendDecoded(cData, buffer, startPosition, count - startPosition);
+							break;
+						case TEXT:
+						{
+							final int len = decoder.decode(buffer, startPosition, count - startPosition, chars, 0);
+							if (len > 0) {
+								xmlReader.characterDataHandler(chars, 0, len);
+							}
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		myOldNamespaceMap = oldNamespaceMap;
+		myCurrentNamespaceMap = currentNamespaceMap;
+		myTagStack = tagStack;
+		myTagStackSize = tagStackSize;
+		myState = state;
+		mySavedState = savedState;
+		myHasData = hasData;
+		myCount = count;
+		myStartPosition = startPosition;
+		myPosition = i;
+		return true;
+	}
+
+	private static boolean processFullTag(ZLXMLTagIdReader xmlReader, int tag, ZLStringMap attributes) {
+		if (xmlReader.startElementHandler(tag, attributes)) {
+			return true;
+		}
+		if (xmlReader.endElementHandler(tag)) {
+			return true;
+		}
+		attributes.clear();
+		return false;
+	}
+
+	private static boolean processStartTag(ZLXMLTagIdReader xmlReader, int tag, ZLStringMap attributes, HashMap<String,String> currentNamespaceMap) {
+		if (currentNamespaceMap != null) {
+			xmlReader.namespaceMapChangedHandler(currentNamespaceMap);
+		}
+		if (xmlReader.startElementHandler(tag, attributes)) {
+			return true;
+		}
+		attributes.clear();
+		return false;
+	}
+
+	private static boolean processEndTag(ZLXMLTagIdReader xmlReader, int tag, HashMap<String,String> currentNamespaceMap) {
+		final boolean result = xmlReader.endElementHandler(tag);
+		if (currentNamespaceMap != null) {
+			xmlReader.namespaceMapChangedHandler(currentNamespaceMap);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+// resolves entity references for one parser run: reader entities,
+// then DTD entities, then character references; does not allocate
+final class ZLXMLEntityResolver {
+	private final ZLXMLEntityTable myTable;
+	private final ZLXMLEntityTable myReaderTable;
+	private char[] myName = new char[16];
+	private char[] myValue = new char[16];
+	private final char[] myCharacter = new char[2];
+	// resolved value is Data[Offset .. Offset + length);
+	// it is valid until the next resolve() call
+	char[] Data;
+	int Offset;
+
+	ZLXMLEntityResolver(ZLXMLReader reader) throws IOException {
+		myTable = ZLXMLEntityTable.forDTDs(reader.externalDTDs());
+		final HashMap<String,char[]> readerEntities = new HashMap<String,char[]>();
+		reader.collectExternalEntities(readerEntities);
+		myReaderTable = readerEntities.isEmpty() ? null : ZLXMLEntityTable.forMap(readerEntities);
+	}
+
+	/**
+	 * Sets Data and Offset, returns the value length or -1 for unknown entities
+	 */
+	int resolve(char[] name, int length) {
+		final long hash = ZLXMLEntityTable.hash(name, length);
+		if (myReaderTable != null) {
+			final int index = myReaderTable.find(name, length, hash);
+			if (index != -1) {
+				return setValue(myReaderTable, index);
+			}
+		}
+		final int index = myTable.find(name, length, hash);
+		if (index != -1) {
+			return setValue(myTable, index);
+		}
+		if (length > 1 && name[0] == '#') {
+			return decodeCharacterReference(name, length);
+		}
+		return -1;
+	}
+
+	private int setValue(ZLXMLEntityTable table, int index) {
+		final int length = table.valueLength(index);
+		if (myValue.length < length) {
+			myValue = new char[length];
+		}
+		table.getValue(index, myValue);
+		Data = myValue;
+		Offset = 0;
+		return length;
+	}
+
+	// entity names are ASCII, so bytes can be used as chars
+	int resolve(byte[] name, int length) {
+		if (myName.length < length) {
+			myName = new char[length];
+		}
+		final char[] chars = myName;
+		for (int i = 0; i < length; ++i) {
+			chars[i] = (char)(name[i] & 0xFF);
+		}
+		return resolve(chars, length);
+	}
+
+	private int decodeCharacterReference(char[] name, int length) {
+		int radix = 10;
+		int i = 1;
+		if (length > 2 && (name[1] == 'x' || name[1] == 'X')) {
+			radix = 16;
+			i = 2;
+		}
+		int number = 0;
+		for (; i < length; ++i) {
+			final int digit = Character.digit(name[i], radix);
+			if (digit < 0) {
+				return -1;
+			}
+			number = number * radix + digit;
+			if (number > 0x10FFFF) {
+				return -1;
+			}
+		}
+		Data = myCharacter;
+		Offset = 0;
+		if (number < 0x10000) {
+			myCharacter[0] = (char)number;
+			return 1;
+		}
+		number -= 0x10000;
+		myCharacter[0] = (char)(0xD800 + (number >> 10));
+		myCharacter[1] = (char)(0xDC00 + (number & 0x3FF));
+		return 2;
+	}
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
+import org.geometerplus.zlibrary.core.library.ZLibrary;
+
+/**
+ * Immutable entity name -> value table with a perfect hash
+ * (hash and displace: a bucket is chosen by the name hash, the bucket
+ * seed gives a collision-free slot). The table is stored as a flat binary
+ * image, so a table built from DTDs once is saved to the cache directory
+ * and memory-mapped on the next runs instead of parsing DTDs again.
+ * Lookups read the image in place and do not allocate anything.
+ * Entity names must be ASCII.
+ *
+ * Image layout (big-endian): header (MAGIC, VERSION, key hash, entry count,
+ * bucket count, slot count, names length, values length), bucket seeds,
+ * slots (entry index or -1), name offsets, value offsets, names (bytes),
+ * values (chars).
+ */
+public final class ZLXMLEntityTable {
+	private static final int MAGIC = 0x5A4C4554;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+
+	private static String ourDirectory;
+	private static final HashMap<List<String>,ZLXMLEntityTable> ourTables =
+		new HashMap<List<String>,ZLXMLEntityTable>();
+
+	public static void setDirectory(String directory) {
+		ourDirectory = directory;
+	}
+
+	static synchronized ZLXMLEntityTable forDTDs(List<String> dtdList) throws IOException {
+		ZLXMLEntityTable table = ourTables.get(dtdList);
+		if (table == null) {
+			int keyHash = 0;
+			File file = null;
+			if (ourDirectory != null) {
+				// bundled DTDs can change only with a new version
+				keyHash = (dtdList.toString() + ":" + ZLibrary.Instance().getVersionName()).hashCode();
+				file = new File(ourDirectory, "entities-" + Integer.toHexString(keyHash));
+				table = map(file, keyHash);
+			}
+			if (table == null) {
+				final HashMap<String,char[]> entityMap = new HashMap<String,char[]>();
+				entityMap.put("amp", new char[] { '&' });
+				entityMap.put("apos", new char[] { '\'' });
+				entityMap.put("gt", new char[] { '>' });
+				entityMap.put("lt", new char[] { '<' });
+				entityMap.put("quot", new char[] { '\"' });
+				for (String fileName : dtdList) {
+					final InputStream stream = ZLResourceFile.createResourceFile(fileName).getInputStream();
+					if (stream != null) {
+						new ZLDTDParser().doIt(stream, entityMap);
+					}
+				}
+				final byte[] image = buildImage(entityMap, keyHash);
+				if (file != null) {
+					save(file, image);
+				}
+				table = new ZLXMLEntityTable(ByteBuffer.wrap(image));
+			}
+			ourTables.put(new ArrayList<String>(dtdList), table);
+		}
+		return table;
+	}
+
+	// used for entities added by a reader in collectExternalEntities()
+	static ZLXMLEntityTable forMap(Map<String,char[]> entityMap) {
+		return new ZLXMLEntityTable(ByteBuffer.wrap(buildImage(entityMap, 0)));
+	}
+
+	private static ZLXMLEntityTable map(File file, int keyHash) {
+		if (!file.exists()) {
+			return null;
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (isValid(buffer, keyHash)) {
+				return new ZLXMLEntityTable(buffer);
+			}
+		} catch (IOException e) {
+		} catch (RuntimeException e) {
+			// e.g. BufferUnderflowException for a truncated file
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		// the file is damaged or stale; it will be rebuilt
+		file.delete();
+		return null;
+	}
+
+	private static boolean isPowerOf2(int number) {
+		return number > 0 && (number & (number - 1)) == 0;
+	}
+
+	// checks the whole image once, so lookups in a damaged file cannot fail
+	private static boolean isValid(ByteBuffer image, int keyHash) {
+		if (image.limit() < HEADER_SIZE ||
+			image.getInt(0) != MAGIC ||
+			image.getInt(4) != VERSION ||
+			image.getInt(8) != keyHash) {
+			return false;
+		}
+		final int count = image.getInt(12);
+		final int bucketCount = image.getInt(16);
+		final int slotCount = image.getInt(20);
+		final int namesLength = image.getInt(24);
+		final int valuesLength = image.getInt(28);
+		if (count < 0 || !isPowerOf2(bucketCount) || !isPowerOf2(slotCount) ||
+			namesLength < 0 || valuesLength < 0) {
+			return false;
+		}
+		final long size = HEADER_SIZE
+			+ 4L * (bucketCount + slotCount + 2L * (count + 1))
+			+ namesLength + 2L * valuesLength;
+		if (size != image.limit()) {
+			return false;
+		}
+		int position = HEADER_SIZE + 4 * bucketCount;
+		for (int i = 0; i < slotCount; ++i, position += 4) {
+			final int entry = image.getInt(position);
+			if (entry < -1 || entry >= count) {
+				return false;
+			}
+		}
+		if (!areOffsetsValid(image, position, count, namesLength)) {
+			return false;
+		}
+		position += 4 * (count + 1);
+		return areOffsetsValid(image, position, count, valuesLength);
+	}
+
+	private static boolean areOffsetsValid(ByteBuffer image, int position, int count, int total) {
+		int previous = image.getInt(position);
+		if (previous != 0) {
+			return false;
+		}
+		for (int i = 1; i <= count; ++i) {
+			final int offset = image.getInt(position + 4 * i);
+			if (offset < previous) {
+				return false;
+			}
+			previous = offset;
+		}
+		return previous == total;
+	}
+
+	private static void save(File file, byte[] image) {
+		file.getParentFile().mkdirs();
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			final OutputStream stream = new FileOutputStream(tmp);
+			try {
+				stream.write(image);
+			} finally {
+				stream.close();
+			}
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+		}
+	}
+
+	private static long hash(String name) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < name.length(); ++i) {
+			h = (h ^ name.charAt(i)) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	private static boolean isASCII(String name) {
+		for (int i = 0; i < name.length(); ++i) {
+			if (name.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] buildImage(Map<String,char[]> entityMap, int keyHash) {
+		final ArrayList<String> names = new ArrayList<String>();
+		for (String name : entityMap.keySet()) {
+			if (name.length() > 0 && name.length() <= Short.MAX_VALUE && isASCII(name)) {
+				names.add(name);
+			}
+		}
+		final int count = names.size();
+		// power of 2 sizes, so lookups use masks instead of division
+		final int bucketCount = Integer.highestOneBit(count / 2 + 1) * 2;
+		final int slotCount = Integer.highestOneBit(count + count / 4 + 1) * 2;
+
+		final ArrayList<ArrayList<String>> buckets = new ArrayList<ArrayList<String>>(bucketCount);
+		for (int i = 0; i < bucketCount; ++i) {
+			buckets.add(new ArrayList<String>());
+		}
+		for (String name : names) {
+			buckets.get(bucket(hash(name), bucketCount)).add(name);
+		}
+		final Integer[] order = new Integer[bucketCount];
+		for (int i = 0; i < bucketCount; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer b0, Integer b1) {
+				return buckets.get(b1).size() - buckets.get(b0).size();
+			}
+		});
+
+		final int[] seeds = new int[bucketCount];
+		final String[] slots = new String[slotCount];
+		final int[] bucketSlots = new int[count];
+		for (int b : order) {
+			final ArrayList<String> bucket = buckets.get(b);
+			if (bucket.isEmpty()) {
+				break;
+			}
+			for (int seed = 1;; ++seed) {
+				int placed = 0;
+				for (String name : bucket) {
+					final int slot = slot(hash(name), seed, slotCount);
+					if (slots[slot] != null) {
+						break;
+					}
+					slots[slot] = name;
+					bucketSlots[placed++] = slot;
+				}
+				if (placed == bucket.size()) {
+					seeds[b] = seed;
+					break;
+				}
+				for (int i = 0; i < placed; ++i) {
+					slots[bucketSlots[i]] = null;
+				}
+			}
+		}
+
+		final int[] entries = new int[slotCount];
+		final int[] nameOffsets = new int[count + 1];
+		final int[] valueOffsets = new int[count + 1];
+		int index = 0;
+		for (int slot = 0; slot < slotCount; ++slot) {
+			final String name = slots[slot];
+			if (name == null) {
+				entries[slot] = -1;
+			} else {
+				entries[slot] = index;
+				nameOffsets[index + 1] = nameOffsets[index] + name.length();
+				valueOffsets[index + 1] = valueOffsets[index] + entityMap.get(name).length;
+				++index;
+			}
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream stream = new DataOutputStream(bytes);
+		try {
+			stream.writeInt(MAGIC);
+			stream.writeInt(VERSION);
+			stream.writeInt(keyHash);
+			stream.writeInt(count);
+			stream.writeInt(bucketCount);
+			stream.writeInt(slotCount);
+			stream.writeInt(nameOffsets[count]);
+			stream.writeInt(valueOffsets[count]);
+			for (int seed : seeds) {
+				stream.writeInt(seed);
+			}
+			for (int entry : entries) {
+				stream.writeInt(entry);
+			}
+			for (int offset : nameOffsets) {
+				stream.writeInt(offset);
+			}
+			for (int offset : valueOffsets) {
+				stream.writeInt(offset);
+			}
+			for (String name : slots) {
+				if (name != null) {
+					stream.writeBytes(name);
+				}
+			}
+			for (String name : slots) {
+				if (name != null) {
+					for (char ch : entityMap.get(name)) {
+						stream.writeChar(ch);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// cannot happen with ByteArrayOutputStream
+		}
+		return bytes.toByteArray();
+	}
+
+	// views of the image, all reads are absolute
+	private final IntBuffer mySeeds;
+	private final IntBuffer mySlots;
+	private final IntBuffer myNameOffsets;
+	private final IntBuffer myValueOffsets;
+	private final ByteBuffer myNames;
+	private final CharBuffer myValues;
+
+	private ZLXMLEntityTable(ByteBuffer image) {
+		final int count = image.getInt(12);
+		final int bucketCount = image.getInt(16);
+		final int slotCount = image.getInt(20);
+		int position = HEADER_SIZE;
+		mySeeds = view(image, position, 4 * bucketCount).asIntBuffer();
+		position += 4 * bucketCount;
+		mySlots = view(image, position, 4 * slotCount).asIntBuffer();
+		position += 4 * slotCount;
+		myNameOffsets = view(image, position, 4 * (count + 1)).asIntBuffer();
+		position += 4 * (count + 1);
+		myValueOffsets = view(image, position, 4 * (count + 1)).asIntBuffer();
+		position += 4 * (count + 1);
+		final int namesLength = image.getInt(24);
+		myNames = view(image, position, namesLength);
+		position += namesLength;
+		myValues = view(image, position, 2 * image.getInt(28)).asCharBuffer();
+	}
+
+	private static ByteBuffer view(ByteBuffer image, int offset, int length) {
+		final ByteBuffer buffer = image.duplicate();
+		buffer.limit(offset + length);
+		buffer.position(offset);
+		return buffer.slice();
+	}
+
+	// 64-bit FNV-1a; one hash gives both the bucket and (mixed with
+	// the bucket seed) the slot, so a lookup reads the name only once
+	static long hash(char[] name, int length) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < length; ++i) {
+			h = (h ^ name[i]) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	// FNV bits are poorly mixed for short names, so both the bucket
+	// and the slot are taken from a mixed value
+	private static long mix(long h) {
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static int bucket(long hash, int bucketCount) {
+		return (int)(mix(hash) >>> 32) & (bucketCount - 1);
+	}
+
+	private static int slot(long hash, int seed, int slotCount) {
+		return (int)mix(hash + seed * 0x9E3779B97F4A7C15L) & (slotCount - 1);
+	}
+
+	/**
+	 * Returns index of the entry, or -1 if there is no such entity;
+	 * hash is hash(name, length), it is the same for all tables
+	 */
+	int find(char[] name, int length, long hash) {
+		final IntBuffer seeds = mySeeds;
+		final IntBuffer slots = mySlots;
+		final int index = slots.get(slot(hash, seeds.get(bucket(hash, seeds.limit())), slots.limit()));
+		if (index == -1) {
+			return -1;
+		}
+		final int start = myNameOffsets.get(index);
+		if (myNameOffsets.get(index + 1) - start != length) {
+			return -1;
+		}
+		final ByteBuffer names = myNames;
+		for (int i = 0; i < length; ++i) {
+			if (names.get(start + i) != name[i]) {
+				return -1;
+			}
+		}
+		return index;
+	}
+
+	int valueLength(int index) {
+		return myValueOffsets.get(index + 1) - myValueOffsets.get(index);
+	}
+
+	// copies value of the entry into buffer; buffer must be long enough
+	void getValue(int index, char[] buffer) {
+		final CharBuffer values = myValues;
+		final int start = myValueOffsets.get(index);
+		final int length = myValueOffsets.get(index + 1) - start;
+		for (int i = 0; i < length; ++i) {
+			buffer[i] = values.get(start + i);
+		}
+	}
+
+	public char[] getValue(String name) {
+		final char[] chars = name.toCharArray();
+		final int index = find(chars, chars.length, hash(chars, chars.length));
+		if (index == -1) {
+			return null;
+		}
+		final char[] value = new char[valueLength(index)];
+		getValue(index, value);
+		return value;
+	}
+}
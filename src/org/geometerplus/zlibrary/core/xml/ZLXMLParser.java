@@ -25,6 +25,7 @@ import java.util.*;
 import org.geometerplus.zlibrary.core.filesystem.*;
 
 import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
 import org.geometerplus.zlibrary.core.xml.ZLStringMap;
 import org.geometerplus.zlibrary.core.xml.ZLXMLReader;
 
@@ -57,7 +58,7 @@ final class ZLXMLParser {
 	private static final byte END_OF_CDATA1 = 25;
 	private static final byte END_OF_CDATA2 = 26;
 
-	private static String convertToString(Map<ZLMutableString,String> strings, ZLMutableString container) {
+	static String convertToString(Map<ZLMutableString,String> strings, ZLMutableString container) {
 		String s = strings.get(container);
 		if (s == null) {
 			s = container.toString();
@@ -71,38 +72,14 @@ final class ZLXMLParser {
 	private final ZLXMLReader myXMLReader;
 	private final boolean myProcessNamespaces;
 
-	private static HashMap<Integer,Queue<char[]>> ourBufferPool = new HashMap<Integer,Queue<char[]>>();
-	private static Queue<ZLMutableString> ourStringPool = new LinkedList<ZLMutableString>();
+	private static final ZLBufferPool.ObjectPool<ZLMutableString> ourStringPool =
+		new ZLBufferPool.ObjectPool<ZLMutableString>(64, 256);
 
-	private static synchronized char[] getBuffer(int bufferSize) {
-		Queue<char[]> queue = ourBufferPool.get(bufferSize);
-		if (queue != null) {
-			char[] buffer = queue.poll();
-			if (buffer != null) {
-				return buffer;
-			}
-		}
-		return new char[bufferSize];
-	}
-
-	private static synchronized void storeBuffer(char[] buffer) {
-		Queue<char[]> queue = ourBufferPool.get(buffer.length);
-		if (queue == null) {
-			queue = new LinkedList<char[]>();
-			ourBufferPool.put(buffer.length, queue);
-		}
-		queue.add(buffer);
-	}
-
-	private static synchronized ZLMutableString getMutableString() {
-		ZLMutableString string = ourStringPool.poll();
+	private static ZLMutableString getMutableString() {
+		final ZLMutableString string = ourStringPool.get();
 		return (string != null) ? string : new ZLMutableString();
 	}
 
-	private static synchronized void storeString(ZLMutableString string) {
-		ourStringPool.add(string);
-	}
-
 	private final char[] myBuffer;
 	private int myBufferDescriptionLength;
 	private final ZLMutableString myTagName = getMutableString();
@@ -111,12 +88,30 @@ final class ZLXMLParser {
 	private final ZLMutableString myAttributeValue = getMutableString();
 	private final ZLMutableString myEntityName = getMutableString();
 
+	// parsing state, kept between parse() calls
+	private ZLXMLEntityResolver myEntities;
+	private HashMap<String,String> myOldNamespaceMap;
+	private HashMap<String,String> myCurrentNamespaceMap;
+	private final ArrayList<HashMap<String,String>> myNamespaceMapStack = new ArrayList<HashMap<String,String>>();
+	private final Map<ZLMutableString,String> myStrings = new HashMap<ZLMutableString,String>();
+	private final ZLStringMap myAttributes = new ZLStringMap();
+	private String[] myTagStack = new String[10];
+	private int myTagStackSize;
+	private byte myState = START_DOCUMENT;
+	private byte mySavedState = START_DOCUMENT;
+	// true if the buffer contains not processed data
+	private boolean myHasData;
+	private int myCount;
+	private int myStartPosition;
+	private int myPosition;
+	private boolean myIsFinished;
+
 	void finish() {
-		storeBuffer(myBuffer);
-		storeString(myTagName);
-		storeString(myAttributeName);
-		storeString(myAttributeValue);
-		storeString(myEntityName);
+		ZLBufferPool.release(myBuffer);
+		ourStringPool.release(myTagName);
+		ourStringPool.release(myAttributeName);
+		ourStringPool.release(myAttributeValue);
+		ourStringPool.release(myEntityName);
 	}
 
 	public ZLXMLParser(ZLXMLReader xmlReader, InputStream stream, int bufferSize) throws IOException {
@@ -124,7 +119,7 @@ final class ZLXMLParser {
 		myProcessNamespaces = xmlReader.processNamespaces();
 
 		String encoding = "utf-8";
-		final char[] buffer = getBuffer(bufferSize);
+		final char[] buffer = ZLBufferPool.getChars(bufferSize);
 		myBuffer = buffer;
 		boolean found = false;
 		int len = 0;
@@ -138,77 +133,56 @@ final class ZLXMLParser {
 		}
 		myBufferDescriptionLength = len;
 		if (found) {
-			final String xmlDescription = new String(buffer, 0, len).trim();
-			if (xmlDescription.startsWith("<?xml") && xmlDescription.endsWith("?>")) {
+			final String declared = getDeclaredEncoding(new String(buffer, 0, len).trim());
+			if (declared != null) {
 				myBufferDescriptionLength = 0;
-				int index = xmlDescription.indexOf("encoding");
-				if (index > 0) {
-					int startIndex = xmlDescription.indexOf('"', index);
-					if (startIndex > 0) {
-						int endIndex = xmlDescription.indexOf('"', startIndex + 1);
-						if (endIndex > 0) {
-							encoding = xmlDescription.substring(startIndex + 1, endIndex);
-						}
-					}
-				}
+				encoding = declared;
 			}
 		}
 
 		myStreamReader = new InputStreamReader(stream, encoding);
 	}
 
-	private static char[] getEntityValue(HashMap<String,char[]> entityMap, String name) {
-		char[] value = entityMap.get(name);
-		if (value == null) {
-			if ((name.length() > 0) && (name.charAt(0) == '#')) {
-				try {
-					int number;
-					if (name.charAt(1) == 'x') {
-						number = Integer.parseInt(name.substring(2), 16);
-					} else {
-						number = Integer.parseInt(name.substring(1));
-					}
-					value = new char[] { (char)number };
-					entityMap.put(name, value);
-				} catch (NumberFormatException e) {
-				}
-			}
+	// returns null if xmlDescription is not an xml declaration
+	static String getDeclaredEncoding(String xmlDescription) {
+		if (!xmlDescription.startsWith("<?xml") || !xmlDescription.endsWith("?>")) {
+			return null;
 		}
-		return value;
-	}
-
-	private static HashMap<List<String>,HashMap<String,char[]>> ourDTDMaps = 
-		new HashMap<List<String>,HashMap<String,char[]>>();
-
-	static synchronized HashMap<String,char[]> getDTDMap(List<String> dtdList) throws IOException {
-		HashMap<String,char[]> entityMap = ourDTDMaps.get(dtdList);
-		if (entityMap == null) {
-			entityMap = new HashMap<String,char[]>();
-			entityMap.put("amp", new char[] { '&' });
-			entityMap.put("apos", new char[] { '\'' });
-			entityMap.put("gt", new char[] { '>' });
-			entityMap.put("lt", new char[] { '<' });
-			entityMap.put("quot", new char[] { '\"' });
-			for (String fileName : dtdList) {
-				final InputStream stream = ZLResourceFile.createResourceFile(fileName).getInputStream();
-				if (stream != null) {
-					new ZLDTDParser().doIt(stream, entityMap);
+		int index = xmlDescription.indexOf("encoding");
+		if (index > 0) {
+			int startIndex = xmlDescription.indexOf('"', index);
+			if (startIndex > 0) {
+				int endIndex = xmlDescription.indexOf('"', startIndex + 1);
+				if (endIndex > 0) {
+					return xmlDescription.substring(startIndex + 1, endIndex);
 				}
 			}
-			ourDTDMaps.put(dtdList, entityMap);
 		}
-		return entityMap;
+		return "utf-8";
 	}
 
-	void doIt() throws IOException {
+	/**
+	 * Parses the next part of the document. Stops after maxEvents start/end tag events
+	 * or after the buffer in which maxBytes input chars have been read is processed.
+	 * Returns false if the document is finished or the reader asked to stop.
+	 */
+	boolean parse(int maxEvents, int maxBytes) throws IOException {
+		if (myIsFinished) {
+			return false;
+		}
 		final ZLXMLReader xmlReader = myXMLReader;
-		final HashMap<String,char[]> entityMap = getDTDMap(xmlReader.externalDTDs());
-		xmlReader.collectExternalEntities(entityMap);
+		if (myEntities == null) {
+			myEntities = new ZLXMLEntityResolver(xmlReader);
+			if (myProcessNamespaces) {
+				myOldNamespaceMap = new HashMap<String,String>();
+			}
+		}
+		final ZLXMLEntityResolver entities = myEntities;
 		final InputStreamReader streamReader = myStreamReader;
 		final boolean processNamespaces = myProcessNamespaces;
-		HashMap<String,String> oldNamespaceMap = processNamespaces ? new HashMap<String,String>() : null;
-		HashMap<String,String> currentNamespaceMap = null;
-		final ArrayList<HashMap<String,String>> namespaceMapStack = new ArrayList<HashMap<String,String>>();
+		HashMap<String,String> oldNamespaceMap = myOldNamespaceMap;
+		HashMap<String,String> currentNamespaceMap = myCurrentNamespaceMap;
+		final ArrayList<HashMap<String,String>> namespaceMapStack = myNamespaceMapStack;
 		char[] buffer = myBuffer;
 		final ZLMutableString tagName = myTagName;
 		final ZLMutableString cData = myCData;
@@ -216,34 +190,52 @@ final class ZLXMLParser {
 		final ZLMutableString attributeValue = myAttributeValue;
 		final boolean dontCacheAttributeValues = xmlReader.dontCacheAttributeValues();
 		final ZLMutableString entityName = myEntityName;
-		final Map<ZLMutableString,String> strings = new HashMap<ZLMutableString, String>();
-		final ZLStringMap attributes = new ZLStringMap();
-		String[] tagStack = new String[10];
-		int tagStackSize = 0;
+		final Map<ZLMutableString,String> strings = myStrings;
+		final ZLStringMap attributes = myAttributes;
+		String[] tagStack = myTagStack;
+		int tagStackSize = myTagStackSize;
 
-		byte state = START_DOCUMENT;
-		byte savedState = START_DOCUMENT;
+		byte state = myState;
+		byte savedState = mySavedState;
+		boolean hasData = myHasData;
+		int count = myCount;
+		int startPosition = myStartPosition;
+		int i = myPosition;
+		int events = 0;
+		int bytes = 0;
+parsing:
 		while (true) {
-			int count;
-			if (myBufferDescriptionLength > 0) {
-				count = myBufferDescriptionLength;
-				myBufferDescriptionLength = 0;
-			} else {
-				count = streamReader.read(buffer);
-			}
-			if (count <= 0) {
-				streamReader.close();
-				return;
-			}
-			int startPosition = 0;
-			if (count < buffer.length) {
-				//buffer = ZLArrayUtils.createCopy(buffer, count, count);
-				startPosition = buffer.length - count;
-				System.arraycopy(buffer, 0, buffer, startPosition, count);
-				count = buffer.length;
+			if (!hasData) {
+				if (bytes > 0 && bytes >= maxBytes) {
+					break;
+				}
+				if (myBufferDescriptionLength > 0) {
+					count = myBufferDescriptionLength;
+					myBufferDescriptionLength = 0;
+				} else {
+					count = streamReader.read(buffer);
+				}
+				if (count <= 0) {
+					myIsFinished = true;
+					streamReader.close();
+					return false;
+				}
+				bytes += count;
+				startPosition = 0;
+				if (count < buffer.length) {
+					//buffer = ZLArrayUtils.createCopy(buffer, count, count);
+					startPosition = buffer.length - count;
+					System.arraycopy(buffer, 0, buffer, startPosition, count);
+					count = buffer.length;
+				}
+				i = startPosition - 1;
+				hasData = true;
 			}
 			try {
-				for (int i = startPosition - 1;;) {
+				while (true) {
+					if (events >= maxEvents) {
+						break parsing;
+					}
 mainSwitchLabel:
 					switch (state) {
 						case START_DOCUMENT:
@@ -400,9 +392,11 @@ mainSwitchLabel:
 												}
 												namespaceMapStack.add(currentNamespaceMap);
 											}
+											++events;
 											if (processStartTag(xmlReader, stringTagName, attributes, currentNamespaceMap)) {
+												myIsFinished = true;
 												streamReader.close();
-												return;
+												return false;
 											}
 											currentNamespaceMap = null;
 										}
@@ -411,9 +405,11 @@ mainSwitchLabel:
 									case '/':
 										state = SLASH;
 										tagName.append(buffer, startPosition, i - startPosition);
+										++events;
 										if (processFullTag(xmlReader, convertToString(strings, tagName), attributes)) {
+											myIsFinished = true;
 											streamReader.close();
-											return;
+											return false;
 										}
 										currentNamespaceMap = null;
 										break mainSwitchLabel;
@@ -440,9 +436,11 @@ mainSwitchLabel:
 											}
 											namespaceMapStack.add(currentNamespaceMap);
 										}
+										++events;
 										if (processStartTag(xmlReader, stringTagName, attributes, currentNamespaceMap)) {
+											myIsFinished = true;
 											streamReader.close();
-											return;
+											return false;
 										}
 										currentNamespaceMap = null;
 									}
@@ -451,9 +449,11 @@ mainSwitchLabel:
 									break;
 								case '/':
 									state = SLASH;
+									++events;
 									if (processFullTag(xmlReader, convertToString(strings, tagName), attributes)) {
+										myIsFinished = true;
 										streamReader.close();
-										return;
+										return false;
 									}
 									currentNamespaceMap = null;
 									break;
@@ -599,22 +599,25 @@ mainSwitchLabel:
 										entityName.append(buffer, startPosition, i - startPosition);
 										state = savedState;
 										startPosition = i + 1;
-										final char[] value = getEntityValue(entityMap, convertToString(strings, entityName));
-										if ((value != null) && (value.length != 0)) {
+										final int valueLength = entities.resolve(entityName.myData, entityName.myLength);
+										entityName.clear();
+										if (valueLength > 0) {
+											final char[] value = entities.Data;
+											final int offset = entities.Offset;
 											switch (state) {
 												case ATTRIBUTE_VALUE_QUOT:
 												case ATTRIBUTE_VALUE_APOS:
-													attributeValue.append(value, 0, value.length);
+													attributeValue.append(value, offset, valueLength);
 													break;
 												case ATTRIBUTE_NAME:
-													attributeName.append(value, 0, value.length);
+													attributeName.append(value, offset, valueLength);
 													break;
 												case START_TAG:
 												//case END_TAG:
-													tagName.append(value, 0, value.length);
+													tagName.append(value, offset, valueLength);
 													break;
 												case TEXT:
-													xmlReader.characterDataHandler(value, 0, value.length);
+													xmlReader.characterDataHandler(value, offset, valueLength);
 													break;
 											}
 										}
@@ -647,9 +650,11 @@ mainSwitchLabel:
 													}
 												}
 											}
+											++events;
 											if (processEndTag(xmlReader, tagStack[--tagStackSize], currentNamespaceMap)) {
+												myIsFinished = true;
 												streamReader.close();
-												return;
+												return false;
 											}
 											currentNamespaceMap = null;
 										}
@@ -712,6 +717,7 @@ mainSwitchLabel:
 					}
 				}
 			} catch (ArrayIndexOutOfBoundsException e) {
+				hasData = false;
 				if (count > startPosition) {
 					switch (state) {
 						case START_TAG:
@@ -740,13 +746,41 @@ mainSwitchLabel:
 				}
 			}
 		}
+
+		myOldNamespaceMap = oldNamespaceMap;
+		myCurrentNamespaceMap = currentNamespaceMap;
+		myTagStack = tagStack;
+		myTagStackSize = tagStackSize;
+		myState = state;
+		mySavedState = savedState;
+		myHasData = hasData;
+		myCount = count;
+		myStartPosition = startPosition;
+		myPosition = i;
+		return true;
+	}
+
+	private static boolean startElement(ZLXMLReader xmlReader, String tagName, ZLStringMap attributes) {
+		if (xmlReader instanceof ZLXMLTagIdReader) {
+			final ZLXMLTagIdReader reader = (ZLXMLTagIdReader)xmlReader;
+			return reader.startElementHandler(reader.tagVocabulary().getId(tagName), attributes);
+		}
+		return xmlReader.startElementHandler(tagName, attributes);
+	}
+
+	private static boolean endElement(ZLXMLReader xmlReader, String tagName) {
+		if (xmlReader instanceof ZLXMLTagIdReader) {
+			final ZLXMLTagIdReader reader = (ZLXMLTagIdReader)xmlReader;
+			return reader.endElementHandler(reader.tagVocabulary().getId(tagName));
+		}
+		return xmlReader.endElementHandler(tagName);
 	}
 
 	private static boolean processFullTag(ZLXMLReader xmlReader, String tagName, ZLStringMap attributes) {
-		if (xmlReader.startElementHandler(tagName, attributes)) {
+		if (startElement(xmlReader, tagName, attributes)) {
 			return true;
 		}
-		if (xmlReader.endElementHandler(tagName)) {
+		if (endElement(xmlReader, tagName)) {
 			return true;
 		}
 		attributes.clear();
@@ -757,7 +791,7 @@ mainSwitchLabel:
 		if (currentNamespaceMap != null) {
 			xmlReader.namespaceMapChangedHandler(currentNamespaceMap);
 		}
-		if (xmlReader.startElementHandler(tagName, attributes)) {
+		if (startElement(xmlReader, tagName, attributes)) {
 			return true;
 		}
 		attributes.clear();
@@ -765,7 +799,7 @@ mainSwitchLabel:
 	}
 
 	private static boolean processEndTag(ZLXMLReader xmlReader, String tagName, HashMap<String,String> currentNamespaceMap) {
-		final boolean result = xmlReader.endElementHandler(tagName);
+		final boolean result = endElement(xmlReader, tagName);
 		if (currentNamespaceMap != null) {
 			xmlReader.namespaceMapChangedHandler(currentNamespaceMap);
 		}
@@ -25,26 +25,17 @@ import java.io.*;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 
 public abstract class ZLXMLProcessor {
-	public static Map<String,char[]> getEntityMap(List<String> dtdList) {
+	public static ZLXMLEntityTable getEntityTable(List<String> dtdList) {
 		try {
-			return ZLXMLParser.getDTDMap(dtdList);
+			return ZLXMLEntityTable.forDTDs(dtdList);
 		} catch (IOException e) {
-			return Collections.emptyMap();
+			return ZLXMLEntityTable.forMap(Collections.<String,char[]>emptyMap());
 		}
 	}
 
 	public static void read(ZLXMLReader reader, InputStream stream, int bufferSize) throws IOException {
-		ZLXMLParser parser = null;
-		try {
-			parser = new ZLXMLParser(reader, stream, bufferSize);
-			reader.startDocumentHandler();
-			parser.doIt();
-			reader.endDocumentHandler();
-		} finally {
-			if (parser != null) {
-				parser.finish();
-			}
-		}
+		final ZLXMLResumableParser parser = new ZLXMLResumableParser(reader, stream, bufferSize);
+		while (parser.step(Integer.MAX_VALUE, Integer.MAX_VALUE));
 	}
 
 	public static void read(ZLXMLReader xmlReader, ZLFile file) throws IOException {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+
+/**
+ * Parses a document in slices: every step() call delivers a bounded part
+ * of the document to the reader and returns, so reading can be
+ * time-sliced, interleaved with other work or cancelled by close().
+ * ZLXMLProcessor.read() is a single unbounded step.
+ */
+public final class ZLXMLResumableParser {
+	private final ZLXMLReader myReader;
+	private final InputStream myStream;
+	private ZLXMLByteParser myByteParser;
+	private ZLXMLParser myParser;
+	private boolean myIsStarted;
+	private boolean myIsFinished;
+
+	public ZLXMLResumableParser(ZLXMLReader reader, ZLFile file) throws IOException {
+		this(reader, file.getInputStream(), 65536);
+	}
+
+	public ZLXMLResumableParser(ZLXMLReader reader, InputStream stream, int bufferSize) throws IOException {
+		myReader = reader;
+		myStream = stream;
+		if (reader instanceof ZLXMLTagIdReader) {
+			final PushbackInputStream pushbackStream =
+				new PushbackInputStream(stream, ZLXMLByteParser.DESCRIPTION_LIMIT);
+			myByteParser = ZLXMLByteParser.create((ZLXMLTagIdReader)reader, pushbackStream, bufferSize);
+			if (myByteParser == null) {
+				myParser = new ZLXMLParser(reader, pushbackStream, bufferSize);
+			}
+		} else {
+			myParser = new ZLXMLParser(reader, stream, bufferSize);
+		}
+	}
+
+	/**
+	 * Parses until maxEvents start/end tag events are delivered or at least
+	 * maxBytes bytes (chars for documents in multi-byte encodings other than
+	 * UTF-8) are read. Returns false when the document is finished or the
+	 * reader has interrupted parsing; endDocumentHandler() is called then.
+	 */
+	public boolean step(int maxEvents, int maxBytes) throws IOException {
+		if (myIsFinished) {
+			return false;
+		}
+		if (!myIsStarted) {
+			myIsStarted = true;
+			myReader.startDocumentHandler();
+		}
+		final boolean hasMore;
+		try {
+			hasMore = myByteParser != null
+				? myByteParser.parse(maxEvents, maxBytes)
+				: myParser.parse(maxEvents, maxBytes);
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+		if (!hasMore) {
+			close();
+			myReader.endDocumentHandler();
+		}
+		return hasMore;
+	}
+
+	public boolean isFinished() {
+		return myIsFinished;
+	}
+
+	/**
+	 * Stops parsing (if not finished yet) and closes the stream;
+	 * endDocumentHandler() is not called.
+	 */
+	public void close() {
+		if (myIsFinished) {
+			return;
+		}
+		myIsFinished = true;
+		if (myByteParser != null) {
+			myByteParser.finish();
+		} else {
+			myParser.finish();
+		}
+		try {
+			myStream.close();
+		} catch (IOException e) {
+		}
+	}
+}
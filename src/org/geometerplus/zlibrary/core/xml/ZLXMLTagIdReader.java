@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+/**
+ * A reader that gets tags as ids from its vocabulary instead of names.
+ * The String versions of startElementHandler/endElementHandler are not called.
+ * UTF-8 and single-byte encoded documents are tokenized directly on bytes,
+ * without decoding the markup.
+ */
+public interface ZLXMLTagIdReader extends ZLXMLReader {
+	ZLXMLTagVocabulary tagVocabulary();
+
+	// returns true iff xml processing should be interrupted
+	boolean startElementHandler(int tag, ZLStringMap attributes);
+	boolean endElementHandler(int tag);
+}
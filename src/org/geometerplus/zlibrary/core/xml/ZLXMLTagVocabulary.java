@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.util.HashMap;
+
+/**
+ * Tag name -> tag id mapping for ZLXMLTagIdReader.
+ * Names not found as is are looked up in lower case;
+ * unknown names get the id passed to the constructor.
+ */
+public final class ZLXMLTagVocabulary {
+	private final HashMap<String,Integer> myIds = new HashMap<String,Integer>();
+	private final int myUnknownId;
+
+	public ZLXMLTagVocabulary(int unknownId) {
+		myUnknownId = unknownId;
+	}
+
+	public void add(String name, int id) {
+		myIds.put(name, id);
+	}
+
+	public int getId(String name) {
+		Integer id = myIds.get(name);
+		if (id == null) {
+			id = myIds.get(name.toLowerCase());
+		}
+		return id != null ? id : myUnknownId;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.core.xml;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+// decodes UTF-8 or single-byte encoded text without intermediate objects;
+// an incomplete UTF-8 sequence at the end of input is kept for the next call
+final class ZLXMLTextDecoder {
+	private static final char REPLACEMENT = '\uFFFD';
+	private static final HashMap<String,char[]> ourTables = new HashMap<String,char[]>();
+
+	// returns null if the encoding is neither UTF-8 nor a single-byte ASCII-based one
+	static ZLXMLTextDecoder forEncoding(String encoding) {
+		try {
+			if ("UTF-8".equals(Charset.forName(encoding).name())) {
+				return new ZLXMLTextDecoder(null);
+			}
+		} catch (Exception e) {
+			return null;
+		}
+		final char[] table = getTable(encoding);
+		return table != null ? new ZLXMLTextDecoder(table) : null;
+	}
+
+	private static synchronized char[] getTable(String encoding) {
+		final String key = encoding.toLowerCase();
+		if (ourTables.containsKey(key)) {
+			return ourTables.get(key);
+		}
+		char[] table = null;
+		try {
+			final byte[] bytes = new byte[256];
+			for (int i = 0; i < 256; ++i) {
+				bytes[i] = (byte)i;
+			}
+			final String decoded = new String(bytes, encoding);
+			if (decoded.length() == 256) {
+				table = decoded.toCharArray();
+				for (int i = 0; i < 128; ++i) {
+					if (table[i] != i) {
+						table = null;
+						break;
+					}
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+		}
+		ourTables.put(key, table);
+		return table;
+	}
+
+	private final char[] myTable;
+	private int myCodePoint;
+	private int myPendingBytes;
+
+	private ZLXMLTextDecoder(char[] table) {
+		myTable = table;
+	}
+
+	ZLXMLTextDecoder copy() {
+		return new ZLXMLTextDecoder(myTable);
+	}
+
+	void reset() {
+		myPendingBytes = 0;
+	}
+
+	// writes at most length + 1 chars; returns number of written chars
+	int decode(byte[] in, int offset, int length, char[] out, int outOffset) {
+		final int end = offset + length;
+		int o = outOffset;
+		final char[] table = myTable;
+		if (table != null) {
+			for (int i = offset; i < end; ++i) {
+				out[o++] = table[in[i] & 0xFF];
+			}
+			return length;
+		}
+
+		int codePoint = myCodePoint;
+		int pending = myPendingBytes;
+		for (int i = offset; i < end; ) {
+			final int b = in[i++];
+			if (pending == 0) {
+				if (b >= 0) {
+					out[o++] = (char)b;
+				} else if ((b & 0xE0) == 0xC0 && i < end && (in[i] & 0xC0) == 0x80) {
+					// complete 2-byte sequence, the most usual case for non-latin texts
+					out[o++] = (char)(((b & 0x1F) << 6) | (in[i++] & 0x3F));
+				} else if ((b & 0xE0) == 0xC0) {
+					codePoint = b & 0x1F;
+					pending = 1;
+				} else if ((b & 0xF0) == 0xE0) {
+					codePoint = b & 0x0F;
+					pending = 2;
+				} else if ((b & 0xF8) == 0xF0) {
+					codePoint = b & 0x07;
+					pending = 3;
+				} else {
+					out[o++] = REPLACEMENT;
+				}
+			} else if ((b & 0xC0) == 0x80) {
+				codePoint = (codePoint << 6) | (b & 0x3F);
+				if (--pending == 0) {
+					if (codePoint < 0x10000) {
+						out[o++] = (char)codePoint;
+					} else if (codePoint < 0x110000) {
+						codePoint -= 0x10000;
+						out[o++] = (char)(0xD800 + (codePoint >> 10));
+						out[o++] = (char)(0xDC00 + (codePoint & 0x3FF));
+					} else {
+						out[o++] = REPLACEMENT;
+					}
+				}
+			} else {
+				// broken sequence; the byte is processed again as a start byte
+				out[o++] = REPLACEMENT;
+				pending = 0;
+				--i;
+			}
+		}
+		myCodePoint = codePoint;
+		myPendingBytes = pending;
+		return o - outOffset;
+	}
+}
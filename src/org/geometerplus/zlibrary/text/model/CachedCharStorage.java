@@ -22,6 +22,8 @@ package org.geometerplus.zlibrary.text.model;
 import java.lang.ref.WeakReference;
 import java.io.*;
 
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
+
 public final class CachedCharStorage extends CachedCharStorageBase {
 	private final int myBlockSize;
 
@@ -49,13 +51,23 @@ public final class CachedCharStorage extends CachedCharStorageBase {
 				throw new CachedCharStorageException("Block reference in null during freeze");
 			}
 			try {
-				final OutputStreamWriter writer =
-					new OutputStreamWriter(
-						new FileOutputStream(fileName(index)),
-						"UTF-16LE"
-					);
-				writer.write(block);
-				writer.close();
+				final OutputStream stream = new FileOutputStream(fileName(index));
+				final byte[] buffer = ZLBufferPool.getBytes(IO_BUFFER_SIZE);
+				try {
+					for (int offset = 0; offset < block.length; ) {
+						final int count = 2 * Math.min(block.length - offset, buffer.length / 2);
+						// UTF-16LE
+						for (int i = 0; i < count; i += 2) {
+							final char ch = block[offset++];
+							buffer[i] = (byte)ch;
+							buffer[i + 1] = (byte)(ch >> 8);
+						}
+						stream.write(buffer, 0, count);
+					}
+				} finally {
+					ZLBufferPool.release(buffer);
+					stream.close();
+				}
 			} catch (IOException e) {
 				throw new CachedCharStorageException("Error during writing " + fileName(index));
 			}
@@ -23,7 +23,11 @@ import java.lang.ref.WeakReference;
 import java.io.*;
 import java.util.ArrayList;
 
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
+
 abstract class CachedCharStorageBase implements CharStorage {
+	protected static final int IO_BUFFER_SIZE = 16384;
+
 	protected final ArrayList<WeakReference<char[]>> myArray =
 		new ArrayList<WeakReference<char[]>>();
 
@@ -53,15 +57,27 @@ abstract class CachedCharStorageBase implements CharStorage {
 					throw new CachedCharStorageException("Error during reading " + fileName(index));
 				}
 				block = new char[size / 2];
-				InputStreamReader reader =
-					new InputStreamReader(
-						new FileInputStream(file),
-						"UTF-16LE"
-					);
-				if (reader.read(block) != block.length) {
-					throw new CachedCharStorageException("Error during reading " + fileName(index));
+				final InputStream stream = new FileInputStream(file);
+				final byte[] buffer = ZLBufferPool.getBytes(IO_BUFFER_SIZE);
+				try {
+					for (int offset = 0; offset < block.length; ) {
+						final int count = 2 * Math.min(block.length - offset, buffer.length / 2);
+						for (int read = 0; read < count; ) {
+							final int ready = stream.read(buffer, read, count - read);
+							if (ready <= 0) {
+								throw new CachedCharStorageException("Error during reading " + fileName(index));
+							}
+							read += ready;
+						}
+						// UTF-16LE
+						for (int i = 0; i < count; i += 2) {
+							block[offset++] = (char)((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+						}
+					}
+				} finally {
+					ZLBufferPool.release(buffer);
+					stream.close();
 				}
-				reader.close();
 			} catch (IOException e) {
 				throw new CachedCharStorageException("Error during reading " + fileName(index));
 			}
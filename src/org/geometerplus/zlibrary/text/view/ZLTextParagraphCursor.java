@@ -23,6 +23,7 @@ import java.util.*;
 import org.vimgadgets.linebreak.LineBreaker;
 
 import org.geometerplus.zlibrary.core.image.*;
+import org.geometerplus.zlibrary.core.util.ZLBufferPool;
 import org.geometerplus.zlibrary.text.model.*;
 
 public final class ZLTextParagraphCursor {
@@ -113,16 +114,12 @@ public final class ZLTextParagraphCursor {
 			}
 		}
 
-		private static byte[] ourBreaks = new byte[1024];
 		private static final int NO_SPACE = 0;
 		private static final int SPACE = 1;
 		//private static final int NON_BREAKABLE_SPACE = 2;
 		private void processTextEntry(final char[] data, final int offset, final int length, ZLTextHyperlink hyperlink) {
 			if (length != 0) {
-				if (ourBreaks.length < length) {
-					ourBreaks = new byte[length];
-				}
-				final byte[] breaks = ourBreaks;
+				final byte[] breaks = ZLBufferPool.getBytes(length);
 				myLineBreaker.setLineBreaks(data, offset, length, breaks);
 
 				final ZLTextElement hSpace = ZLTextElement.HSpace;
@@ -172,6 +169,7 @@ public final class ZLTextParagraphCursor {
 						addWord(data, offset + wordStart, length - wordStart, myOffset + wordStart, hyperlink);
 						break;
 				}
+				ZLBufferPool.release(breaks);
 				myOffset += length;
 			}
 		}
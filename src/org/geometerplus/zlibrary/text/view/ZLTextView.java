@@ -443,6 +443,31 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
 		drawSelectionCursor(context, getSelectionCursorPoint(page, ZLTextSelectionCursor.Left));
 		drawSelectionCursor(context, getSelectionCursorPoint(page, ZLTextSelectionCursor.Right));
+
+		if (pageIndex == PageIndex.current) {
+			prepareImagesAfter(context, page.EndCursor);
+		}
+	}
+
+	private static final int IMAGE_PREPARING_PARAGRAPHS_NUMBER = 3;
+
+	// asks the context to decode in advance images that are probably on the next page
+	private void prepareImagesAfter(ZLPaintContext context, ZLTextWordCursor cursor) {
+		ZLTextParagraphCursor paragraph = cursor.getParagraphCursor();
+		int start = cursor.getElementIndex();
+		final ZLPaintContext.Size size = getTextAreaSize();
+		for (int i = 0; paragraph != null && i < IMAGE_PREPARING_PARAGRAPHS_NUMBER; ++i) {
+			final int length = paragraph.getParagraphLength();
+			for (int j = start; j < length; ++j) {
+				final ZLTextElement element = paragraph.getElement(j);
+				if (element instanceof ZLTextImageElement) {
+					final ZLTextImageElement imageElement = (ZLTextImageElement)element;
+					context.prepareImage(imageElement.ImageData, size, getScalingType(imageElement));
+				}
+			}
+			paragraph = paragraph.next();
+			start = 0;
+		}
 	}
 
 	private ZLTextPage getPage(PageIndex pageIndex) {
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.ui.android.image;
+
+import java.util.*;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+
+/**
+ * Decoded bitmaps shared by all image data objects and by book cover lists,
+ * bounded by bitmap bytes. Image data bitmaps are keyed by
+ * (image data id, requested size, scaling type), other users pass their own keys.
+ *
+ * Bitmaps that are used for page drawing only are recycled on eviction;
+ * bitmaps returned by get(key) can be kept by the caller and are never recycled here.
+ */
+public final class ZLAndroidBitmapCache {
+	public static class NullObjectException extends Exception {
+	}
+
+	private static final ZLAndroidBitmapCache ourInstance =
+		new ZLAndroidBitmapCache(Runtime.getRuntime().maxMemory() / 8);
+
+	public static ZLAndroidBitmapCache Instance() {
+		return ourInstance;
+	}
+
+	// refers to the image data by id: a cached bitmap must not keep
+	// the image data (and so the image and its book model) alive
+	static final class Key {
+		private final long myDataId;
+		private final ZLPaintContext.Size mySize;
+		private final ZLPaintContext.ScalingType myScaling;
+
+		Key(long dataId, ZLPaintContext.Size size, ZLPaintContext.ScalingType scaling) {
+			myDataId = dataId;
+			mySize = size;
+			myScaling = scaling;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			return myDataId == key.myDataId && myScaling == key.myScaling && mySize.equals(key.mySize);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((int)(myDataId ^ (myDataId >>> 32)) * 31 + mySize.hashCode()) * 31 + myScaling.hashCode();
+		}
+	}
+
+	private static final class Entry {
+		final Bitmap Bitmap;
+		final int Size;
+		boolean Recyclable;
+
+		Entry(Bitmap bitmap, boolean recyclable) {
+			Bitmap = bitmap;
+			Recyclable = recyclable;
+			// a "no bitmap" entry costs something too
+			Size = bitmap != null ? bitmap.getRowBytes() * bitmap.getHeight() : 64;
+		}
+	}
+
+	private final long myMaxSize;
+	private long mySize = 0;
+
+	// evicted bitmaps are recycled in the UI thread, i.e. after the page drawing
+	// that could get them from the cache is finished
+	private final Handler myUiHandler = new Handler(Looper.getMainLooper());
+
+	private final LinkedHashMap<Object,Entry> myEntries = new LinkedHashMap<Object,Entry>(16, 0.75f, true);
+
+	private ZLAndroidBitmapCache(long maxSize) {
+		myMaxSize = maxSize;
+	}
+
+	/**
+	 * @return cached bitmap or null if there is no (valid) bitmap for the key
+	 * @throws NullObjectException if the image is known to be undecodable for the key
+	 */
+	public Bitmap get(Object key) throws NullObjectException {
+		return get(key, true);
+	}
+
+	/**
+	 * @param keepsBitmap false if the caller only draws the bitmap on a page
+	 *   and does not keep a reference to it
+	 */
+	synchronized Bitmap get(Object key, boolean keepsBitmap) throws NullObjectException {
+		final Entry entry = myEntries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.Bitmap == null) {
+			throw new NullObjectException();
+		}
+		if (entry.Bitmap.isRecycled()) {
+			// somebody has recycled the bitmap we gave him
+			myEntries.remove(key);
+			mySize -= entry.Size;
+			return null;
+		}
+		if (keepsBitmap) {
+			entry.Recyclable = false;
+		}
+		return entry.Bitmap;
+	}
+
+	public synchronized boolean contains(Object key) {
+		return myEntries.containsKey(key);
+	}
+
+	/**
+	 * Stores the bitmap; null bitmap means "the image cannot be decoded".
+	 */
+	public void put(Object key, Bitmap bitmap) {
+		put(key, bitmap, false);
+	}
+
+	synchronized void put(Object key, Bitmap bitmap, boolean recyclable) {
+		final Entry entry = new Entry(bitmap, recyclable);
+		final Entry old = myEntries.put(key, entry);
+		if (old != null) {
+			mySize -= old.Size;
+		}
+		mySize += entry.Size;
+
+		List<Bitmap> evicted = null;
+		if (old != null && old.Recyclable && old.Bitmap != null && old.Bitmap != bitmap) {
+			evicted = new LinkedList<Bitmap>();
+			evicted.add(old.Bitmap);
+		}
+		final Iterator<Entry> it = myEntries.values().iterator();
+		while (mySize > myMaxSize && it.hasNext()) {
+			final Entry eldest = it.next();
+			if (eldest == entry) {
+				break;
+			}
+			mySize -= eldest.Size;
+			it.remove();
+			// bitmaps that somebody keeps can be still in use by some view
+			if (eldest.Recyclable && eldest.Bitmap != null) {
+				if (evicted == null) {
+					evicted = new LinkedList<Bitmap>();
+				}
+				evicted.add(eldest.Bitmap);
+			}
+		}
+		if (evicted != null) {
+			final List<Bitmap> toRecycle = evicted;
+			myUiHandler.post(new Runnable() {
+				public void run() {
+					for (Bitmap b : toRecycle) {
+						b.recycle();
+					}
+				}
+			});
+		}
+	}
+}
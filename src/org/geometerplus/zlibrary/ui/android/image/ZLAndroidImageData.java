@@ -19,6 +19,12 @@
 
 package org.geometerplus.zlibrary.ui.android.image;
 
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
@@ -26,11 +32,28 @@ import org.geometerplus.zlibrary.core.image.ZLImageData;
 import org.geometerplus.zlibrary.core.view.ZLPaintContext;
 
 public abstract class ZLAndroidImageData implements ZLImageData {
-	private Bitmap myBitmap;
+	private static final ZLAndroidBitmapCache ourBitmapCache = ZLAndroidBitmapCache.Instance();
+
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			return th;
+		}
+	}
+	private static final ExecutorService ourDecodingPool =
+		Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
+	// keys queued for decoding, to not queue the same bitmap on every page redraw
+	private static final Set<ZLAndroidBitmapCache.Key> ourPendingKeys =
+		Collections.synchronizedSet(new HashSet<ZLAndroidBitmapCache.Key>());
+
+	private static final AtomicLong ourNextId = new AtomicLong();
+	private final long myId = ourNextId.getAndIncrement();
+
 	private int myRealWidth;
 	private int myRealHeight;
-	private ZLPaintContext.Size myLastRequestedSize = null;
-	private ZLPaintContext.ScalingType myLastRequestedScaling = ZLPaintContext.ScalingType.OriginalSize;
 
 	protected ZLAndroidImageData() {
 	}
@@ -38,14 +61,22 @@ public abstract class ZLAndroidImageData implements ZLImageData {
 	protected abstract Bitmap decodeWithOptions(BitmapFactory.Options options);
 
 	public Bitmap getFullSizeBitmap() {
-		return getBitmap(null, ZLPaintContext.ScalingType.OriginalSize);
+		return getBitmap(null, ZLPaintContext.ScalingType.OriginalSize, true);
 	}
 
 	public Bitmap getBitmap(int maxWidth, int maxHeight) {
-		return getBitmap(new ZLPaintContext.Size(maxWidth, maxHeight), ZLPaintContext.ScalingType.FitMaximum);
+		return getBitmap(new ZLPaintContext.Size(maxWidth, maxHeight), ZLPaintContext.ScalingType.FitMaximum, true);
+	}
+
+	/**
+	 * Returns the bitmap for page drawing; the caller must not keep it:
+	 * the bitmap is recycled after eviction from the cache.
+	 */
+	public Bitmap getBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
+		return getBitmap(maxSize, scaling, false);
 	}
 
-	public synchronized Bitmap getBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
+	private Bitmap getBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling, boolean keepsBitmap) {
 		if (scaling != ZLPaintContext.ScalingType.OriginalSize) {
 			if (maxSize == null || maxSize.Width <= 0 || maxSize.Height <= 0) {
 				return null;
@@ -54,88 +85,152 @@ public abstract class ZLAndroidImageData implements ZLImageData {
 		if (maxSize == null) {
 			maxSize = new ZLPaintContext.Size(-1, -1);
 		}
-		if (!maxSize.equals(myLastRequestedSize) || scaling != myLastRequestedScaling) {
-			myLastRequestedSize = maxSize;
-			myLastRequestedScaling = scaling;
-
-			if (myBitmap != null) {
-				myBitmap.recycle();
-				myBitmap = null;
+		final ZLAndroidBitmapCache.Key key = new ZLAndroidBitmapCache.Key(myId, maxSize, scaling);
+		try {
+			final Bitmap cached = ourBitmapCache.get(key, keepsBitmap);
+			if (cached != null) {
+				return cached;
 			}
+		} catch (ZLAndroidBitmapCache.NullObjectException e) {
+			return null;
+		}
+
+		synchronized (this) {
+			// the bitmap could be decoded by another thread while we were waiting
 			try {
-				final BitmapFactory.Options options = new BitmapFactory.Options();
-				if (myRealWidth <= 0) {
-					options.inJustDecodeBounds = true;
-					decodeWithOptions(options);
-					myRealWidth = options.outWidth;
-					myRealHeight = options.outHeight;
+				final Bitmap cached = ourBitmapCache.get(key, keepsBitmap);
+				if (cached != null) {
+					return cached;
 				}
-				options.inJustDecodeBounds = false;
-				int coefficient = 1;
-				if (scaling == ZLPaintContext.ScalingType.IntegerCoefficient) {
-					if (myRealHeight > maxSize.Height || myRealWidth > maxSize.Width) {
-						coefficient = 1 + Math.max(
-							(myRealHeight - 1) / maxSize.Height,
-							(myRealWidth - 1) / maxSize.Width
-						);
-					}
+			} catch (ZLAndroidBitmapCache.NullObjectException e) {
+				return null;
+			}
+			final Bitmap bitmap = decodeBitmap(maxSize, scaling);
+			ourBitmapCache.put(key, bitmap, !keepsBitmap);
+			return bitmap;
+		}
+	}
+
+	/**
+	 * Decodes the bitmap bypassing the shared cache;
+	 * for callers that keep the result in the cache under their own keys.
+	 */
+	public Bitmap decodeBitmap(int maxWidth, int maxHeight) {
+		if (maxWidth <= 0 || maxHeight <= 0) {
+			return null;
+		}
+		synchronized (this) {
+			return decodeBitmap(
+				new ZLPaintContext.Size(maxWidth, maxHeight), ZLPaintContext.ScalingType.FitMaximum
+			);
+		}
+	}
+
+	/**
+	 * Schedules background decoding of the bitmap for the given size,
+	 * so that a following getBitmap() call with the same parameters is a cache hit.
+	 */
+	public void prepareBitmap(final ZLPaintContext.Size maxSize, final ZLPaintContext.ScalingType scaling) {
+		if (maxSize == null || maxSize.Width <= 0 || maxSize.Height <= 0) {
+			return;
+		}
+		final ZLAndroidBitmapCache.Key key = new ZLAndroidBitmapCache.Key(myId, maxSize, scaling);
+		if (ourBitmapCache.contains(key) || !ourPendingKeys.add(key)) {
+			return;
+		}
+		ourDecodingPool.execute(new Runnable() {
+			public void run() {
+				try {
+					getBitmap(maxSize, scaling, false);
+				} finally {
+					ourPendingKeys.remove(key);
 				}
-				options.inSampleSize = coefficient;
-				myBitmap = decodeWithOptions(options);
-				if (myBitmap != null) {
-					switch (scaling) {
-						case OriginalSize:
-							break;
-						case FitMaximum:
-						{
-							final int bWidth = myBitmap.getWidth();
-							final int bHeight = myBitmap.getHeight();
-							if (bWidth > 0 && bHeight > 0 &&
-								bWidth != maxSize.Width && bHeight != maxSize.Height) {
-								final int w, h;
-								if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
-									w = maxSize.Width;
-									h = Math.max(1, bHeight * w / bWidth);
-								} else {
-									h = maxSize.Height;
-									w = Math.max(1, bWidth * h / bHeight);
-								}
-								final Bitmap scaled =
-									Bitmap.createScaledBitmap(myBitmap, w, h, false);
-								if (scaled != null) {
-									myBitmap = scaled;
-								}
+			}
+		});
+	}
+
+	private Bitmap decodeBitmap(ZLPaintContext.Size maxSize, ZLPaintContext.ScalingType scaling) {
+		Bitmap bitmap = null;
+		try {
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			if (myRealWidth <= 0) {
+				options.inJustDecodeBounds = true;
+				decodeWithOptions(options);
+				myRealWidth = options.outWidth;
+				myRealHeight = options.outHeight;
+			}
+			options.inJustDecodeBounds = false;
+			int coefficient = 1;
+			if (scaling == ZLPaintContext.ScalingType.IntegerCoefficient) {
+				if (myRealHeight > maxSize.Height || myRealWidth > maxSize.Width) {
+					coefficient = 1 + Math.max(
+						(myRealHeight - 1) / maxSize.Height,
+						(myRealWidth - 1) / maxSize.Width
+					);
+				}
+			} else if (scaling == ZLPaintContext.ScalingType.FitMaximum) {
+				// largest power of 2 that keeps the decoded bitmap
+				// not smaller than the final (scaled) one
+				while (2 * coefficient * maxSize.Width <= myRealWidth ||
+					   2 * coefficient * maxSize.Height <= myRealHeight) {
+					coefficient *= 2;
+				}
+			}
+			options.inSampleSize = coefficient;
+			bitmap = decodeWithOptions(options);
+			if (bitmap != null) {
+				switch (scaling) {
+					case OriginalSize:
+						break;
+					case FitMaximum:
+					{
+						final int bWidth = bitmap.getWidth();
+						final int bHeight = bitmap.getHeight();
+						if (bWidth > 0 && bHeight > 0 &&
+							bWidth != maxSize.Width && bHeight != maxSize.Height) {
+							final int w, h;
+							if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
+								w = maxSize.Width;
+								h = Math.max(1, bHeight * w / bWidth);
+							} else {
+								h = maxSize.Height;
+								w = Math.max(1, bWidth * h / bHeight);
+							}
+							final Bitmap scaled =
+								Bitmap.createScaledBitmap(bitmap, w, h, false);
+							if (scaled != null) {
+								bitmap = scaled;
 							}
-							break;
 						}
-						case IntegerCoefficient:
-						{
-							final int bWidth = myBitmap.getWidth();
-							final int bHeight = myBitmap.getHeight();
-							if (bWidth > 0 && bHeight > 0 &&
-								(bWidth > maxSize.Width || bHeight > maxSize.Height)) {
-								final int w, h;
-								if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
-									w = maxSize.Width;
-									h = Math.max(1, bHeight * w / bWidth);
-								} else {
-									h = maxSize.Height;
-									w = Math.max(1, bWidth * h / bHeight);
-								}
-								final Bitmap scaled =
-									Bitmap.createScaledBitmap(myBitmap, w, h, false);
-								if (scaled != null) {
-									myBitmap = scaled;
-								}
+						break;
+					}
+					case IntegerCoefficient:
+					{
+						final int bWidth = bitmap.getWidth();
+						final int bHeight = bitmap.getHeight();
+						if (bWidth > 0 && bHeight > 0 &&
+							(bWidth > maxSize.Width || bHeight > maxSize.Height)) {
+							final int w, h;
+							if (bWidth * maxSize.Height > bHeight * maxSize.Width) {
+								w = maxSize.Width;
+								h = Math.max(1, bHeight * w / bWidth);
+							} else {
+								h = maxSize.Height;
+								w = Math.max(1, bWidth * h / bHeight);
+							}
+							final Bitmap scaled =
+								Bitmap.createScaledBitmap(bitmap, w, h, false);
+							if (scaled != null) {
+								bitmap = scaled;
 							}
-							break;
 						}
+						break;
 					}
 				}
-			} catch (OutOfMemoryError e) {
-				e.printStackTrace();
 			}
+		} catch (OutOfMemoryError e) {
+			e.printStackTrace();
 		}
-		return myBitmap;
+		return bitmap;
 	}
 }
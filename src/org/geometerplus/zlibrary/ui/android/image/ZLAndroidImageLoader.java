@@ -21,9 +21,8 @@ package org.geometerplus.zlibrary.ui.android.image;
 
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.os.Handler;
 import android.os.Message;
@@ -31,52 +30,170 @@ import android.os.Message;
 import org.geometerplus.zlibrary.core.image.ZLLoadableImage;
 
 class ZLAndroidImageLoader {
-	void startImageLoading(final ZLLoadableImage image, Runnable postLoadingRunnable) {
-		LinkedList<Runnable> runnables = myOnImageSyncRunnables.get(image.getId());
+	private static final int CORES_NUMBER = Runtime.getRuntime().availableProcessors();
+	// network loading is I/O bound: threads mostly wait for data,
+	// so we can afford more threads than cores
+	private static final int NETWORK_THREADS_NUMBER = Math.max(2, Math.min(2 * CORES_NUMBER, 8));
+	// disk loading means parsing a book file; format plugins
+	// (including native ones) are not guaranteed to be thread-safe
+	private static final int DISK_THREADS_NUMBER = 1;
+
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			return th;
+		}
+	}
+
+	private static ThreadPoolExecutor createPool(int threadsNumber) {
+		return new ThreadPoolExecutor(
+			threadsNumber, threadsNumber, 0L, TimeUnit.MILLISECONDS,
+			new PriorityBlockingQueue<Runnable>(),
+			new MinPriorityThreadFactory()
+		);
+	}
+
+	private final ThreadPoolExecutor myPool = createPool(NETWORK_THREADS_NUMBER);
+	private final ThreadPoolExecutor mySinglePool = createPool(DISK_THREADS_NUMBER);
+
+	// all the maps below are accessed from the UI thread only
+	private final HashMap<String,LinkedList<Runnable>> myOnImageSyncRunnables = new HashMap<String,LinkedList<Runnable>>();
+	private final HashMap<String,LoadingTask> myTasks = new HashMap<String,LoadingTask>();
+
+	private long mySequenceNumber;
+
+	private final AtomicLong myLoadedCounter = new AtomicLong();
+	private final AtomicLong myCancelledCounter = new AtomicLong();
+	private final AtomicLong myTotalWaitingTime = new AtomicLong();
+	private final AtomicLong myTotalLoadingTime = new AtomicLong();
+
+	private final class LoadingTask implements Runnable, Comparable<LoadingTask> {
+		final ZLLoadableImage Image;
+		final ThreadPoolExecutor Pool;
+		// fields below are modified only while the task is not in the queue
+		volatile boolean IsUrgent;
+		volatile long SequenceNumber;
+		volatile long EnqueueTime;
+
+		LoadingTask(ZLLoadableImage image, ThreadPoolExecutor pool) {
+			Image = image;
+			Pool = pool;
+		}
+
+		void enqueue(boolean isUrgent) {
+			IsUrgent = isUrgent;
+			SequenceNumber = ++mySequenceNumber;
+			EnqueueTime = System.currentTimeMillis();
+			Pool.execute(this);
+		}
+
+		public void run() {
+			final long startTime = System.currentTimeMillis();
+			myTotalWaitingTime.addAndGet(startTime - EnqueueTime);
+			try {
+				Image.synchronize();
+			} finally {
+				myTotalLoadingTime.addAndGet(System.currentTimeMillis() - startTime);
+				myLoadedCounter.incrementAndGet();
+				myImageSynchronizedHandler.fireMessage(Image.getId());
+			}
+		}
+
+		// urgent tasks go first; then the latest request goes first
+		public int compareTo(LoadingTask other) {
+			if (IsUrgent != other.IsUrgent) {
+				return IsUrgent ? -1 : 1;
+			}
+			final long diff = other.SequenceNumber - SequenceNumber;
+			return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+		}
+	}
+
+	void startImageLoading(final ZLLoadableImage image, Runnable postLoadingRunnable, boolean isUrgent) {
+		final String id = image.getId();
+		LinkedList<Runnable> runnables = myOnImageSyncRunnables.get(id);
 		if (runnables != null) {
 			if (!runnables.contains(postLoadingRunnable)) {
 				runnables.add(postLoadingRunnable);
 			}
+			// the image is requested again: move it to the head of the queue
+			final LoadingTask task = myTasks.get(id);
+			if (task != null && task.Pool.getQueue().remove(task)) {
+				task.enqueue(isUrgent || task.IsUrgent);
+			}
 			return;
 		}
 
 		runnables = new LinkedList<Runnable>();
 		runnables.add(postLoadingRunnable);
-		myOnImageSyncRunnables.put(image.getId(), runnables);
-
-		final ExecutorService pool =
-			image.sourceType() == ZLLoadableImage.SourceType.DISK
-				? mySinglePool : myPool;
-		pool.execute(new Runnable() {
-			public void run() {
-				image.synchronize();
-				myImageSynchronizedHandler.fireMessage(image.getId());
+		myOnImageSyncRunnables.put(id, runnables);
+
+		final LoadingTask task = new LoadingTask(
+			image,
+			image.sourceType() == ZLLoadableImage.SourceType.DISK ? mySinglePool : myPool
+		);
+		myTasks.put(id, task);
+		task.enqueue(isUrgent);
+	}
+
+	void cancelImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable) {
+		final String id = image.getId();
+		final LinkedList<Runnable> runnables = myOnImageSyncRunnables.get(id);
+		if (runnables == null) {
+			return;
+		}
+		runnables.remove(postLoadingRunnable);
+		if (runnables.isEmpty()) {
+			final LoadingTask task = myTasks.get(id);
+			// a running task cannot be cancelled; its result will be just ignored
+			if (task != null && task.Pool.getQueue().remove(task)) {
+				myTasks.remove(id);
+				myOnImageSyncRunnables.remove(id);
+				myCancelledCounter.incrementAndGet();
 			}
-		});
+		}
 	}
 
-	private static class MinPriorityThreadFactory implements ThreadFactory {
-		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+	int getQueueSize() {
+		return myPool.getQueue().size() + mySinglePool.getQueue().size();
+	}
 
-		public Thread newThread(Runnable r) {
-			final Thread th = myDefaultThreadFactory.newThread(r);
-			th.setPriority(Thread.MIN_PRIORITY);
-			return th;
-		}
+	long getLoadedCount() {
+		return myLoadedCounter.get();
 	}
 
-	private static final int IMAGE_LOADING_THREADS_NUMBER = 3; // TODO: how many threads ???
+	long getCancelledCount() {
+		return myCancelledCounter.get();
+	}
 
-	private final ExecutorService myPool = Executors.newFixedThreadPool(IMAGE_LOADING_THREADS_NUMBER, new MinPriorityThreadFactory());
-	private final ExecutorService mySinglePool = Executors.newFixedThreadPool(1, new MinPriorityThreadFactory());
+	/**
+	 * @return average time (in milliseconds) between a request and the loading start
+	 */
+	long getAverageWaitingTime() {
+		final long count = myLoadedCounter.get();
+		return count > 0 ? myTotalWaitingTime.get() / count : 0;
+	}
 
-	private final HashMap<String, LinkedList<Runnable>> myOnImageSyncRunnables = new HashMap<String, LinkedList<Runnable>>();
+	/**
+	 * @return average loading time (in milliseconds)
+	 */
+	long getAverageLoadingTime() {
+		final long count = myLoadedCounter.get();
+		return count > 0 ? myTotalLoadingTime.get() / count : 0;
+	}
 
 	private class ImageSynchronizedHandler extends Handler {
 		@Override
 		public void handleMessage(Message message) {
 			final String imageUrl = (String) message.obj;
+			myTasks.remove(imageUrl);
 			final LinkedList<Runnable> runables = myOnImageSyncRunnables.remove(imageUrl);
+			if (runables == null) {
+				return;
+			}
 			for (Runnable runnable: runables) {
 				runnable.run();
 			}
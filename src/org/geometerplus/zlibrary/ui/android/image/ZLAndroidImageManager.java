@@ -19,10 +19,19 @@
 
 package org.geometerplus.zlibrary.ui.android.image;
 
+import java.lang.ref.WeakReference;
+import java.util.*;
+
 import org.geometerplus.zlibrary.core.util.MimeType;
 import org.geometerplus.zlibrary.core.image.*;
 
 public final class ZLAndroidImageManager extends ZLImageManager {
+	// image data objects (and so decoded bitmaps cached for them) are shared
+	// by all users of the same image; values are weak references
+	// since image data refers to the image
+	private final Map<ZLImage,WeakReference<ZLAndroidImageData>> myImageDataMap =
+		new WeakHashMap<ZLImage,WeakReference<ZLAndroidImageData>>();
+
 	@Override
 	public ZLAndroidImageData getImageData(ZLImage image) {
 		if (image instanceof ZLSingleImage) {
@@ -30,7 +39,15 @@ public final class ZLAndroidImageManager extends ZLImageManager {
 			if (MimeType.IMAGE_PALM.equals(singleImage.mimeType())) {
 				return null;
 			}
-			return new InputStreamImageData(singleImage);
+			synchronized (myImageDataMap) {
+				final WeakReference<ZLAndroidImageData> ref = myImageDataMap.get(image);
+				ZLAndroidImageData data = ref != null ? ref.get() : null;
+				if (data == null) {
+					data = new InputStreamImageData(singleImage);
+					myImageDataMap.put(image, new WeakReference<ZLAndroidImageData>(data));
+				}
+				return data;
+			}
 		} else {
 			//TODO
 			return null;
@@ -40,10 +57,43 @@ public final class ZLAndroidImageManager extends ZLImageManager {
 	private ZLAndroidImageLoader myLoader;
 
 	@Override
-	protected void startImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable) {
+	protected void startImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable, boolean isUrgent) {
 		if (myLoader == null) {
 			myLoader = new ZLAndroidImageLoader();
 		}
-		myLoader.startImageLoading(image, postLoadingRunnable);
+		myLoader.startImageLoading(image, postLoadingRunnable, isUrgent);
+	}
+
+	@Override
+	protected void cancelImageLoading(ZLLoadableImage image, Runnable postLoadingRunnable) {
+		if (myLoader != null) {
+			myLoader.cancelImageLoading(image, postLoadingRunnable);
+		}
+	}
+
+	public int getLoadingQueueSize() {
+		return myLoader != null ? myLoader.getQueueSize() : 0;
+	}
+
+	public long getLoadedImagesCount() {
+		return myLoader != null ? myLoader.getLoadedCount() : 0;
+	}
+
+	public long getCancelledImagesCount() {
+		return myLoader != null ? myLoader.getCancelledCount() : 0;
+	}
+
+	/**
+	 * @return average time (in milliseconds) an image request waits in the queue
+	 */
+	public long getAverageLoadingLatency() {
+		return myLoader != null ? myLoader.getAverageWaitingTime() : 0;
+	}
+
+	/**
+	 * @return average image loading time (in milliseconds)
+	 */
+	public long getAverageLoadingTime() {
+		return myLoader != null ? myLoader.getAverageLoadingTime() : 0;
 	}
 }
@@ -308,6 +308,11 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 		}
 	}
 
+	@Override
+	public void prepareImage(ZLImageData imageData, Size maxSize, ScalingType scaling) {
+		((ZLAndroidImageData)imageData).prepareBitmap(maxSize, scaling);
+	}
+
 	@Override
 	public void drawLine(int x0, int y0, int x1, int y1) {
 		final Canvas canvas = myCanvas;